@@ -8,7 +8,7 @@ import com.intellij.lang.annotation.AnnotationHolder;
 import com.intellij.lang.annotation.Annotator;
 import com.intellij.psi.PsiElement;
 import name.martingeisse.mahdl.plugin.input.psi.Module;
-import name.martingeisse.mahdl.plugin.processor.ModuleProcessor;
+import name.martingeisse.mahdl.plugin.processor.ModuleProcessingCache;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -27,7 +27,7 @@ public class MahdlAnnotator implements Annotator {
 	}
 
 	private void annotate(@NotNull Module module, @NotNull AnnotationHolder annotationHolder) {
-		new ModuleProcessor(module, annotationHolder::createErrorAnnotation).process();
+		ModuleProcessingCache.get(module).reportErrors(annotationHolder::createErrorAnnotation);
 	}
 
 }
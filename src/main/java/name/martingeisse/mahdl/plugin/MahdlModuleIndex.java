@@ -1,22 +1,21 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
 package name.martingeisse.mahdl.plugin;
 
-import com.intellij.psi.PsiFile;
 import com.intellij.util.indexing.*;
-import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
 import com.intellij.util.io.KeyDescriptor;
-import com.intellij.util.text.CaseInsensitiveStringHashingStrategy;
-import name.martingeisse.mahdl.plugin.input.psi.Module;
+import name.martingeisse.mahdl.plugin.signature.ModuleSignatureScanner;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.DataInput;
-import java.io.DataOutput;
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
 
 /**
- *
+ * Maps canonical module names to the files that declare them. The name is taken from the token stream, so indexing
+ * does not parse the file.
  */
 public class MahdlModuleIndex extends ScalarIndexExtension<String> {
 
@@ -32,7 +31,7 @@ public class MahdlModuleIndex extends ScalarIndexExtension<String> {
 	@NotNull
 	@Override
 	public FileBasedIndex.InputFilter getInputFilter() {
-		return file -> file.getName().endsWith(".mahdl");
+		return new DefaultFileTypeSpecificInputFilter(MahdlFileType.INSTANCE);
 	}
 
 	@Override
@@ -44,47 +43,20 @@ public class MahdlModuleIndex extends ScalarIndexExtension<String> {
 	@Override
 	public DataIndexer<String, Void, FileContent> getIndexer() {
 		return fileContent -> {
-			Map<String, Void> map = new HashMap<>();
-			PsiFile psiFile = fileContent.getPsiFile();
-			if (psiFile instanceof MahdlSourceFile) {
-				Module module = ((MahdlSourceFile) psiFile).getModule();
-				if (module != null) {
-					map.put(module.getName(), null);
-				}
-			}
-			return map;
+			String moduleName = ModuleSignatureScanner.scanModuleName(fileContent.getContentAsText());
+			return (moduleName == null ? Collections.emptyMap() : Collections.singletonMap(moduleName, null));
 		};
 	}
 
 	@NotNull
 	@Override
 	public KeyDescriptor<String> getKeyDescriptor() {
-		return new ToStringDescriptor();
+		return EnumeratorStringDescriptor.INSTANCE;
 	}
 
 	@Override
 	public int getVersion() {
-		return 0;
-	}
-
-	private static class ToStringDescriptor implements KeyDescriptor<String> {
-
-		public int getHashCode(String value) {
-			return value.hashCode();
-		}
-
-		public boolean isEqual(String s1, String s2) {
-			return s1.equals(s2);
-		}
-
-		public void save(@NotNull DataOutput out, String value) throws IOException {
-			IOUtil.writeUTF(out, value);
-		}
-
-		public String read(@NotNull DataInput in) throws IOException {
-			return IOUtil.readUTF(in);
-		}
-
+		return 1;
 	}
 
 }
@@ -15,7 +15,14 @@ import com.intellij.execution.ui.RunContentDescriptor;
 import com.intellij.execution.ui.actions.CloseAction;
 import com.intellij.ide.actions.PinActiveTabAction;
 import com.intellij.openapi.actionSystem.*;
+import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.progress.PerformInBackgroundOption;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import name.martingeisse.mahdl.plugin.util.SelfDescribingRuntimeException;
 import name.martingeisse.mahdl.plugin.util.UserMessageException;
@@ -67,15 +74,42 @@ public abstract class AbstractModuleAndConsoleAction extends AnAction {
 		// do it!
 		try {
 			actionPerformed(event, console);
-		} catch (UserMessageException e) {
-			console.print(e.getMessage(), ConsoleViewContentType.ERROR_OUTPUT);
-		} catch (SelfDescribingRuntimeException e) {
-			printError(console, e::describe);
 		} catch (Exception e) {
+			handleException(console, e);
+		}
+
+	}
+
+	private static void handleException(@NotNull ConsoleViewImpl console, @NotNull Exception e) {
+		if (e instanceof UserMessageException) {
+			console.print(e.getMessage(), ConsoleViewContentType.ERROR_OUTPUT);
+		} else if (e instanceof SelfDescribingRuntimeException) {
+			printError(console, ((SelfDescribingRuntimeException) e)::describe);
+		} else if (e instanceof ProcessCanceledException) {
+			console.print("\nCancelled.", ConsoleViewContentType.ERROR_OUTPUT);
+		} else {
 			console.print("unexpected exception\n", ConsoleViewContentType.ERROR_OUTPUT);
 			printError(console, e::printStackTrace);
 		}
+	}
 
+	/**
+	 * Runs the long-running part of an action as a cancellable background task with a progress indicator, so it does
+	 * not block the event dispatch thread. Exceptions are printed to the console like those thrown by the action
+	 * itself.
+	 */
+	protected void runInBackground(@NotNull Project project, @NotNull String title, @NotNull ConsoleViewImpl console, @NotNull MyBackgroundTask task) {
+		ProgressManager.getInstance().run(new Task.Backgroundable(project, title, true, PerformInBackgroundOption.ALWAYS_BACKGROUND) {
+			@Override
+			public void run(@NotNull ProgressIndicator indicator) {
+				indicator.setIndeterminate(true);
+				try {
+					task.run();
+				} catch (Exception e) {
+					handleException(console, e);
+				}
+			}
+		});
 	}
 
 	protected abstract void actionPerformed(@NotNull AnActionEvent event, ConsoleViewImpl console) throws Exception;
@@ -121,30 +155,26 @@ public abstract class AbstractModuleAndConsoleAction extends AnAction {
 		console.print(stringWriter.toString(), ConsoleViewContentType.ERROR_OUTPUT);
 	}
 
+	// can be called from any thread
 	protected void runWriteAction(MyVoidWriteAction action) throws Exception {
-		MutableObject<Exception> exceptionHolder = new MutableObject<>();
-		ApplicationManager.getApplication().runWriteAction(() -> {
-			try {
-				action.run();
-			} catch (Exception e) {
-				exceptionHolder.setValue(e);
-			}
+		runWriteAction(() -> {
+			action.run();
+			return null;
 		});
-		if (exceptionHolder.getValue() != null) {
-			throw exceptionHolder.getValue();
-		}
 	}
 
+	// can be called from any thread
 	protected <R> R runWriteAction(MyReturnWriteAction<R> action) throws Exception {
 		MutableObject<R> resultHolder = new MutableObject<>();
 		MutableObject<Exception> exceptionHolder = new MutableObject<>();
-		ApplicationManager.getApplication().runWriteAction(() -> {
+		Application application = ApplicationManager.getApplication();
+		application.invokeAndWait(() -> application.runWriteAction(() -> {
 			try {
 				resultHolder.setValue(action.run());
 			} catch (Exception e) {
 				exceptionHolder.setValue(e);
 			}
-		});
+		}), ModalityState.defaultModalityState());
 		if (exceptionHolder.getValue() != null) {
 			throw exceptionHolder.getValue();
 		}
@@ -161,4 +191,9 @@ public abstract class AbstractModuleAndConsoleAction extends AnAction {
 		R run() throws Exception;
 	}
 
+	// like Runnable but can throw exceptions
+	public interface MyBackgroundTask {
+		void run() throws Exception;
+	}
+
 }
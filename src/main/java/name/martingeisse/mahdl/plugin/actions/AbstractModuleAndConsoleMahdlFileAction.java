@@ -8,19 +8,30 @@ import com.intellij.execution.impl.ConsoleViewImpl;
 import com.intellij.execution.ui.ConsoleViewContentType;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
 import name.martingeisse.mahdl.plugin.MahdlLanguage;
 import name.martingeisse.mahdl.plugin.MahdlSourceFile;
+import name.martingeisse.mahdl.plugin.codegen.MemoryFileFormat;
+import name.martingeisse.mahdl.plugin.util.UserMessageException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
 
 /**
  * Base class for all actions that operate on a module and can output text to a console.
  */
 public abstract class AbstractModuleAndConsoleMahdlFileAction extends AbstractModuleAndConsoleAction {
 
+	/**
+	 * The configuration key that selects the {@link MemoryFileFormat} (hex, binary or raw; defaults to hex).
+	 */
+	public static final String MEMORY_FILE_FORMAT_KEY = "memory.file.format";
+
 	public AbstractModuleAndConsoleMahdlFileAction() {
 	}
 
@@ -56,6 +67,50 @@ public abstract class AbstractModuleAndConsoleMahdlFileAction extends AbstractMo
 		execute(event, console, (MahdlSourceFile) psiFile);
 	}
 
+	/**
+	 * Reads the .properties file that is associated with the toplevel module. If required is false, a missing file
+	 * results in an empty set of properties.
+	 */
+	@NotNull
+	protected Properties readAssociatedProperties(@NotNull VirtualFile toplevelModuleFile, boolean required) {
+		VirtualFile propertiesFile = findAssociatedFile(toplevelModuleFile, ".properties", required);
+		Properties properties = new Properties();
+		if (propertiesFile != null) {
+			try (InputStream inputStream = propertiesFile.getInputStream()) {
+				properties.load(inputStream);
+			} catch (IOException e) {
+				throw new UserMessageException("Exception while reading associated properties file: " + e);
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Finds the file next to the toplevel module file that has the same name but the specified extension. Returns
+	 * null if the file does not exist and is not required.
+	 */
+	protected VirtualFile findAssociatedFile(@NotNull VirtualFile toplevelModuleFile, @NotNull String dotExtension, boolean required) {
+		String moduleFileName = toplevelModuleFile.getName();
+		if (!moduleFileName.endsWith(".mahdl")) {
+			throw new UserMessageException("Toplevel module file extension is not .mahdl");
+		}
+		String associatedFileName = moduleFileName.substring(0, moduleFileName.length() - ".mahdl".length()) + dotExtension;
+		VirtualFile associatedFile = toplevelModuleFile.getParent().findChild(associatedFileName);
+		if (associatedFile == null && required) {
+			throw new UserMessageException("Could not find associated " + dotExtension + " file");
+		}
+		return associatedFile;
+	}
+
+	/**
+	 * Returns the memory file format selected by the configuration, or hex if it does not select one.
+	 */
+	@NotNull
+	protected static MemoryFileFormat getMemoryFileFormat(@NotNull Configuration configuration) {
+		String name = configuration.getOptional(MEMORY_FILE_FORMAT_KEY);
+		return name == null ? MemoryFileFormat.HEX : MemoryFileFormat.parse(name);
+	}
+
 	protected abstract void execute(@NotNull AnActionEvent event, @NotNull ConsoleViewImpl console, @NotNull MahdlSourceFile sourceFile) throws Exception;
 
 }
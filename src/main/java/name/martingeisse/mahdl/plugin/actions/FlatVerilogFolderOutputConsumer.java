@@ -1,49 +1,202 @@
 package name.martingeisse.mahdl.plugin.actions;
 
-import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import name.martingeisse.mahdl.plugin.codegen.DesignVerilogGenerator;
 import name.martingeisse.mahdl.plugin.util.UserMessageException;
-import org.apache.commons.lang3.mutable.MutableObject;
 
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- *
+ * Writes all output files into a single folder. Files are written directly to disk, skipping files whose contents have
+ * not changed, and are published to the VFS in a single refresh by {@link #finish()}, which must be called after
+ * generating all files.
+ * <p>
+ * Streamed files are written as text or binary data into a temporary file next to the output file, which then replaces
+ * the output file unless both are equal. Files passed as a whole are written on a background thread.
  */
-public class FlatVerilogFolderOutputConsumer implements DesignVerilogGenerator.OutputConsumer {
+public class FlatVerilogFolderOutputConsumer implements DesignVerilogGenerator.StreamingOutputConsumer {
 
-	private final VirtualFile folder;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Path folder;
+	private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+	private final List<Future<File>> pendingWrites = new ArrayList<>();
+	private final List<File> streamedFiles = Collections.synchronizedList(new ArrayList<>());
 
 	public FlatVerilogFolderOutputConsumer(VirtualFile folder) {
+		this(VfsUtilCore.virtualToIoFile(folder).toPath());
+	}
+
+	public FlatVerilogFolderOutputConsumer(Path folder) {
 		this.folder = folder;
 	}
 
+	public Path getFolder() {
+		return folder;
+	}
+
 	@Override
 	public void consume(String fileName, String contents) throws Exception {
-		MutableObject<Exception> exceptionHolder = new MutableObject<>();
-		ApplicationManager.getApplication().runWriteAction(() -> {
-			try {
-				VirtualFile outputFile = folder.findChild(fileName);
-				if (outputFile == null) {
-					outputFile = folder.createChildData(this, fileName);
-				} else if (outputFile.isDirectory()) {
-					throw new UserMessageException("collision with existing folder while creating output file " + fileName + "'");
-				}
-				try (OutputStream outputStream = outputFile.getOutputStream(this)) {
-					try (OutputStreamWriter outputStreamWriter = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)) {
-						outputStreamWriter.write(contents);
+		pendingWrites.add(executorService.submit(() -> write(fileName, contents)));
+	}
+
+	@Override
+	public OutputFile open(String fileName) throws Exception {
+		Path outputFile = resolveOutputFile(fileName);
+		Path temporaryFile = Files.createTempFile(folder, "." + fileName + ".", ".tmp");
+		FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		return new OutputFile() {
+
+			private Writer writer;
+			private OutputStream outputStream;
+			private boolean committed = false;
+
+			@Override
+			public Writer getWriter() {
+				if (writer == null) {
+					if (outputStream != null) {
+						throw new IllegalStateException("output file is already being written as binary data");
+					}
+					writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+				}
+				return writer;
+			}
+
+			@Override
+			public OutputStream getOutputStream() {
+				if (outputStream == null) {
+					if (writer != null) {
+						throw new IllegalStateException("output file is already being written as text");
+					}
+					outputStream = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+				}
+				return outputStream;
+			}
+
+			private void closeChannel() throws IOException {
+				try {
+					if (writer != null) {
+						writer.close();
+					} else if (outputStream != null) {
+						outputStream.close();
+					}
+				} finally {
+					channel.close();
+				}
+			}
+
+			@Override
+			public void commit() throws Exception {
+				closeChannel();
+				if (Files.isRegularFile(outputFile) && hasSameContents(temporaryFile, outputFile)) {
+					Files.delete(temporaryFile);
+				} else {
+					try {
+						Files.move(temporaryFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					} catch (IOException e) {
+						Files.move(temporaryFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+					}
+					streamedFiles.add(outputFile.toFile());
+				}
+				committed = true;
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (!committed) {
+					try {
+						closeChannel();
+					} finally {
+						Files.deleteIfExists(temporaryFile);
 					}
 				}
-			} catch (IOException e) {
-				exceptionHolder.setValue(e);
 			}
-		});
-		if (exceptionHolder.getValue() != null) {
-			throw exceptionHolder.getValue();
+
+		};
+	}
+
+	private Path resolveOutputFile(String fileName) {
+		Path outputFile = folder.resolve(fileName);
+		if (Files.isDirectory(outputFile)) {
+			throw new UserMessageException("collision with existing folder while creating output file " + fileName + "'");
+		}
+		return outputFile;
+	}
+
+	private static boolean hasSameContents(Path file1, Path file2) throws IOException {
+		if (Files.size(file1) != Files.size(file2)) {
+			return false;
+		}
+		try (InputStream in1 = new BufferedInputStream(Files.newInputStream(file1), BUFFER_SIZE);
+			 InputStream in2 = new BufferedInputStream(Files.newInputStream(file2), BUFFER_SIZE)) {
+			while (true) {
+				int b = in1.read();
+				if (b != in2.read()) {
+					return false;
+				}
+				if (b < 0) {
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the written file, or null if the file already existed with the same contents.
+	 */
+	private File write(String fileName, String contents) throws IOException {
+		Path outputFile = resolveOutputFile(fileName);
+		byte[] data = contents.getBytes(StandardCharsets.UTF_8);
+		if (Files.isRegularFile(outputFile) && Files.size(outputFile) == data.length && Arrays.equals(Files.readAllBytes(outputFile), data)) {
+			return null;
+		}
+		Files.write(outputFile, data);
+		return outputFile.toFile();
+	}
+
+	/**
+	 * Waits until all files have been written, then refreshes the written files in the VFS. Throws the first exception
+	 * that occurred while writing, if any.
+	 */
+	public void finish() throws Exception {
+		try {
+			List<File> writtenFiles = new ArrayList<>(streamedFiles);
+			for (Future<File> pendingWrite : pendingWrites) {
+				File writtenFile;
+				try {
+					writtenFile = pendingWrite.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					throw (cause instanceof Exception ? (Exception) cause : e);
+				}
+				if (writtenFile != null) {
+					writtenFiles.add(writtenFile);
+				}
+			}
+			if (!writtenFiles.isEmpty()) {
+				LocalFileSystem.getInstance().refreshIoFiles(writtenFiles, false, false, null);
+			}
+		} finally {
+			pendingWrites.clear();
+			streamedFiles.clear();
+			executorService.shutdown();
 		}
 	}
 
@@ -12,10 +12,13 @@ import com.intellij.openapi.module.Module;
 import com.intellij.openapi.vfs.VirtualFile;
 import name.martingeisse.mahdl.plugin.MahdlSourceFile;
 import name.martingeisse.mahdl.plugin.codegen.DesignVerilogGenerator;
+import name.martingeisse.mahdl.plugin.codegen.GenerationManifest;
 import name.martingeisse.mahdl.plugin.util.UserMessageException;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
 
 /**
  *
@@ -50,11 +53,30 @@ public class GenerateVerilogAction extends AbstractModuleAndConsoleMahdlFileActi
 			return;
 		}
 
+		// the associated properties file is optional here, but may select the memory file format
+		VirtualFile virtualFile = actionTargetSourceFile.getOriginalFile().getVirtualFile();
+		Configuration configuration = new Configuration(virtualFile == null ? new Properties() : readAssociatedProperties(virtualFile, false));
+
 		// do it!
 		VirtualFile verilogFolder = createVerilogFolder(projectModule, console);
-		DesignVerilogGenerator.OutputConsumer outputConsumer = new FlatVerilogFolderOutputConsumer(verilogFolder);
-		new DesignVerilogGenerator(actionTargetSourceFile.getModule(), outputConsumer).generate();
-		console.print("Done.", ConsoleViewContentType.NORMAL_OUTPUT);
+		FlatVerilogFolderOutputConsumer outputConsumer = new FlatVerilogFolderOutputConsumer(verilogFolder);
+		DesignVerilogGenerator designGenerator = new DesignVerilogGenerator(actionTargetSourceFile.getModule(), outputConsumer);
+		designGenerator.setMemoryFileFormat(getMemoryFileFormat(configuration));
+		runInBackground(projectModule.getProject(), "Generating Verilog", console, () -> {
+			designGenerator.setManifest(GenerationManifest.load(outputConsumer.getFolder()));
+			try {
+				designGenerator.generate();
+			} finally {
+				outputConsumer.finish();
+			}
+			designGenerator.getManifest().save();
+			console.print("\n", ConsoleViewContentType.NORMAL_OUTPUT);
+			for (Map.Entry<String, Long> entry : designGenerator.getModuleGenerationMillis().entrySet()) {
+				String suffix = designGenerator.getSkippedModuleNames().contains(entry.getKey()) ? " ms (unchanged)\n" : " ms\n";
+				console.print(entry.getKey() + ": " + entry.getValue() + suffix, ConsoleViewContentType.NORMAL_OUTPUT);
+			}
+			console.print("Done.", ConsoleViewContentType.NORMAL_OUTPUT);
+		});
 	}
 
 	// can be called from any thread
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.batch;
+
+import com.google.common.collect.ImmutableList;
+import com.intellij.ide.impl.ProjectUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ApplicationStarterEx;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import name.martingeisse.mahdl.plugin.MahdlFileType;
+import name.martingeisse.mahdl.plugin.MahdlSourceFile;
+import name.martingeisse.mahdl.plugin.actions.FlatVerilogFolderOutputConsumer;
+import name.martingeisse.mahdl.plugin.codegen.DesignVerilogGenerator;
+import name.martingeisse.mahdl.plugin.codegen.GenerationManifest;
+import name.martingeisse.mahdl.plugin.codegen.MemoryFileFormat;
+import name.martingeisse.mahdl.plugin.input.psi.Module;
+import name.martingeisse.mahdl.plugin.processor.ModuleProcessingCache;
+import name.martingeisse.mahdl.plugin.processor.ModuleProcessingResult;
+import name.martingeisse.mahdl.plugin.util.UserMessageException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+/**
+ * Headless entry point that generates Verilog code without the IDE user interface, e.g. on a build server. It is
+ * started through the IDE launcher:
+ * <pre>
+ * idea.sh mahdl-generate [--memory-file-format=hex|binary|raw] &lt;project folder&gt; &lt;toplevel module name&gt; &lt;output folder&gt;
+ * </pre>
+ * All MaHDL files in the project are parsed and analyzed in parallel, and all errors are printed. If there are no
+ * errors, the toplevel module and all modules used by it are generated into the output folder. The memory file format
+ * defaults to hex (see {@link MemoryFileFormat}).
+ * <p>
+ * The exit code is 0 on success, 1 if the source code contains errors, and 2 for invalid usage or other failures.
+ */
+public class GenerateVerilogApplicationStarter extends ApplicationStarterEx {
+
+	private static final String MEMORY_FILE_FORMAT_OPTION = "--memory-file-format=";
+
+	/**
+	 * Returned by {@link #run(String[])} instead of an exit code when a pooled thread takes over and exits later.
+	 */
+	private static final int CONTINUED_ON_POOLED_THREAD = -1;
+
+	@Override
+	public String getCommandName() {
+		return "mahdl-generate";
+	}
+
+	@Override
+	public boolean isHeadless() {
+		return true;
+	}
+
+	@Override
+	public void premain(String[] args) {
+	}
+
+	@Override
+	public void main(String[] args) {
+		int exitCode = runAndHandleErrors(() -> run(args));
+		if (exitCode != CONTINUED_ON_POOLED_THREAD) {
+			System.exit(exitCode);
+		}
+	}
+
+	private static int runAndHandleErrors(@NotNull Callable<Integer> body) {
+		try {
+			return body.call();
+		} catch (UserMessageException e) {
+			System.err.println(e.getMessage());
+			return 2;
+		} catch (Exception e) {
+			System.err.println("unexpected exception");
+			e.printStackTrace();
+			return 2;
+		}
+	}
+
+	private int run(String[] args) throws Exception {
+
+		// the first argument is the command name
+		MemoryFileFormat parsedMemoryFileFormat = MemoryFileFormat.HEX;
+		List<String> positionalArgs = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].startsWith(MEMORY_FILE_FORMAT_OPTION)) {
+				parsedMemoryFileFormat = MemoryFileFormat.parse(args[i].substring(MEMORY_FILE_FORMAT_OPTION.length()));
+			} else {
+				positionalArgs.add(args[i]);
+			}
+		}
+		if (positionalArgs.size() != 3) {
+			System.err.println("usage: mahdl-generate [" + MEMORY_FILE_FORMAT_OPTION + "hex|binary|raw] <project folder> <toplevel module name> <output folder>");
+			return 2;
+		}
+		String projectPath = Paths.get(positionalArgs.get(0)).toAbsolutePath().toString();
+		Path outputFolder = Paths.get(positionalArgs.get(2)).toAbsolutePath();
+		MemoryFileFormat memoryFileFormat = parsedMemoryFileFormat;
+
+		Project project = ProjectUtil.openOrImport(projectPath, null, false);
+		if (project == null) {
+			throw new UserMessageException("could not open project " + projectPath);
+		}
+
+		// Modules can only be skipped as unchanged when the module signature index is available, so wait until the
+		// project has been indexed. That must not block the event dispatch thread, which this method runs on, so the
+		// rest happens on a pooled thread.
+		ApplicationManager.getApplication().executeOnPooledThread(() -> {
+			int exitCode = runAndHandleErrors(() -> {
+				DumbService.getInstance(project).waitForSmartMode();
+				return run(project, positionalArgs.get(1), outputFolder, memoryFileFormat);
+			});
+			ApplicationManager.getApplication().invokeAndWait(() -> ProjectManager.getInstance().closeProject(project));
+			System.exit(exitCode);
+		});
+		return CONTINUED_ON_POOLED_THREAD;
+
+	}
+
+	private int run(@NotNull Project project, @NotNull String toplevelModuleName, @NotNull Path outputFolder,
+					@NotNull MemoryFileFormat memoryFileFormat) throws Exception {
+		long startTime = System.nanoTime();
+
+		// find all source files
+		List<VirtualFile> sourceFiles = new ArrayList<>();
+		ReadAction.run(() -> ProjectRootManager.getInstance(project).getFileIndex().iterateContent(file -> {
+			if (!file.isDirectory() && file.getFileType() == MahdlFileType.INSTANCE) {
+				sourceFiles.add(file);
+			}
+			return true;
+		}));
+
+		// parse and analyze them in parallel
+		List<FileAnalysis> analyses = sourceFiles.parallelStream()
+			.map(file -> ReadAction.compute(() -> analyze(project, file)))
+			.collect(Collectors.toList());
+
+		// report errors and find the toplevel module
+		int errorCount = 0;
+		Module toplevelModule = null;
+		for (FileAnalysis analysis : analyses) {
+			for (String error : analysis.errors) {
+				System.err.println(error);
+			}
+			errorCount += analysis.errors.size();
+			if (toplevelModuleName.equals(analysis.moduleName)) {
+				toplevelModule = analysis.module;
+			}
+		}
+		System.out.println(sourceFiles.size() + " files analyzed, " + errorCount + " errors");
+		if (errorCount > 0) {
+			return 1;
+		}
+		if (toplevelModule == null) {
+			throw new UserMessageException("toplevel module not found: " + toplevelModuleName);
+		}
+
+		// generate code
+		Files.createDirectories(outputFolder);
+		FlatVerilogFolderOutputConsumer outputConsumer = new FlatVerilogFolderOutputConsumer(outputFolder);
+		DesignVerilogGenerator designGenerator = new DesignVerilogGenerator(toplevelModule, outputConsumer);
+		designGenerator.setManifest(GenerationManifest.load(outputConsumer.getFolder()));
+		designGenerator.setMemoryFileFormat(memoryFileFormat);
+		try {
+			designGenerator.generate();
+		} finally {
+			outputConsumer.finish();
+		}
+		designGenerator.getManifest().save();
+		for (Map.Entry<String, Long> entry : designGenerator.getModuleGenerationMillis().entrySet()) {
+			String suffix = designGenerator.getSkippedModuleNames().contains(entry.getKey()) ? " ms (unchanged)" : " ms";
+			System.out.println(entry.getKey() + ": " + entry.getValue() + suffix);
+		}
+		System.out.println("generated " + designGenerator.getGeneratedModules().size() + " modules (" +
+			designGenerator.getSkippedModuleNames().size() + " unchanged) in " +
+			(System.nanoTime() - startTime) / 1_000_000 + " ms");
+		return 0;
+
+	}
+
+	// must be called inside a read action
+	@NotNull
+	private static FileAnalysis analyze(@NotNull Project project, @NotNull VirtualFile file) {
+		PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+		if (!(psiFile instanceof MahdlSourceFile)) {
+			return new FileAnalysis(null, null, ImmutableList.of(file.getPath() + ": error: not a MaHDL source file"));
+		}
+		String text = psiFile.getText();
+		ImmutableList.Builder<String> errorsBuilder = ImmutableList.builder();
+		for (PsiErrorElement errorElement : PsiTreeUtil.findChildrenOfType(psiFile, PsiErrorElement.class)) {
+			errorsBuilder.add(formatError(file, text, errorElement, errorElement.getErrorDescription()));
+		}
+		Module module = ((MahdlSourceFile) psiFile).getModule();
+		if (module == null) {
+			errorsBuilder.add(file.getPath() + ": error: file does not contain a module");
+			return new FileAnalysis(null, null, errorsBuilder.build());
+		}
+		ModuleProcessingResult processingResult = ModuleProcessingCache.get(module);
+		for (ModuleProcessingResult.Error error : processingResult.getErrors()) {
+			errorsBuilder.add(formatError(file, text, error.getErrorSource(), error.getMessage()));
+		}
+		return new FileAnalysis(module, module.getName(), errorsBuilder.build());
+	}
+
+	@NotNull
+	private static String formatError(@NotNull VirtualFile file, @NotNull String text, @NotNull PsiElement errorSource, @NotNull String message) {
+		int line = StringUtil.offsetToLineNumber(text, errorSource.getTextOffset()) + 1;
+		return file.getPath() + ':' + line + ": error: " + message;
+	}
+
+	private static final class FileAnalysis {
+
+		@Nullable
+		private final Module module;
+
+		@Nullable
+		private final String moduleName;
+
+		@NotNull
+		private final ImmutableList<String> errors;
+
+		FileAnalysis(@Nullable Module module, @Nullable String moduleName, @NotNull ImmutableList<String> errors) {
+			this.module = module;
+			this.moduleName = moduleName;
+			this.errors = errors;
+		}
+
+	}
+
+}
@@ -4,28 +4,65 @@
  */
 package name.martingeisse.mahdl.plugin.codegen;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.intellij.concurrency.SensitiveProgressWrapper;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.EmptyRunnable;
+import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import name.martingeisse.mahdl.plugin.MahdlSourceFile;
+import name.martingeisse.mahdl.plugin.input.ModuleFileLocator;
 import name.martingeisse.mahdl.plugin.input.psi.Module;
-import name.martingeisse.mahdl.plugin.processor.ModuleProcessor;
+import name.martingeisse.mahdl.plugin.input.psi.PsiUtil;
+import name.martingeisse.mahdl.plugin.processor.ModuleProcessingCache;
+import name.martingeisse.mahdl.plugin.processor.ModuleProcessingResult;
 import name.martingeisse.mahdl.plugin.processor.definition.ModuleDefinition;
 import name.martingeisse.mahdl.plugin.processor.definition.ModuleInstance;
 import name.martingeisse.mahdl.plugin.processor.definition.Named;
 import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
 import name.martingeisse.mahdl.plugin.util.UserMessageException;
 
-import java.io.StringWriter;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
- *
+ * Generates Verilog code for a toplevel module and all modules instantiated by it, directly or indirectly.
+ * <p>
+ * Each module is analyzed and translated on a worker thread as soon as it has been discovered as instantiated by
+ * another module, so independent modules get generated in parallel. Each module is generated exactly once, even if it
+ * is instantiated many times. Memory files are shared by all modules of the design (see {@link MemoryFileStore}). The
+ * output consumer is only called from the thread that calls {@link #generate()}, except for a
+ * {@link StreamingOutputConsumer}, which gets called by the worker threads to write each output file directly instead
+ * of collecting its contents in memory first.
+ * <p>
+ * If a {@link GenerationManifest} is set, modules whose fingerprint (see {@link ModuleFingerprint}) matches the
+ * manifest are skipped without analyzing them, and their output files are left alone. The manifest must be saved by
+ * the caller after all output files have been written.
  */
 public class DesignVerilogGenerator {
 
 	private final Module toplevelModule;
-	private final Set<Module> requestedModules = new HashSet<>();
-	private final Set<String> generatedModuleNames = new HashSet<>();
 	private final Set<Module> generatedModules = new HashSet<>();
+	private final Map<String, Long> moduleGenerationMillis = new LinkedHashMap<>();
+	private final Set<String> skippedModuleNames = new HashSet<>();
+	private final MemoryFileStore memoryFileStore = new MemoryFileStore();
 	private final OutputConsumer outputConsumer;
+	private GenerationManifest manifest;
+	private MemoryFileFormat memoryFileFormat = MemoryFileFormat.HEX;
 
 	public DesignVerilogGenerator(Module toplevelModule, OutputConsumer outputConsumer) {
 		this.toplevelModule = toplevelModule;
@@ -40,52 +77,376 @@ public class DesignVerilogGenerator {
 		return generatedModules;
 	}
 
+	public GenerationManifest getManifest() {
+		return manifest;
+	}
+
+	public void setManifest(GenerationManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	public MemoryFileFormat getMemoryFileFormat() {
+		return memoryFileFormat;
+	}
+
+	/**
+	 * Sets the format of the memory files for the whole design. Defaults to {@link MemoryFileFormat#HEX}. Binary
+	 * formats require a {@link StreamingOutputConsumer}.
+	 */
+	public void setMemoryFileFormat(MemoryFileFormat memoryFileFormat) {
+		this.memoryFileFormat = memoryFileFormat;
+	}
+
+	/**
+	 * Returns the names of the modules that have been skipped because they were up to date according to the manifest.
+	 */
+	public ImmutableSet<String> getSkippedModuleNames() {
+		return ImmutableSet.copyOf(skippedModuleNames);
+	}
+
+	/**
+	 * Returns the time spent analyzing and generating each module in milliseconds, by module name, in the order in
+	 * which the modules were finished.
+	 */
+	public ImmutableMap<String, Long> getModuleGenerationMillis() {
+		return ImmutableMap.copyOf(moduleGenerationMillis);
+	}
+
+	/**
+	 * Generates the design. The modules get generated on the shared application thread pool, at most one per processor
+	 * at a time, while this method waits for them, so it must not be called on the event dispatch thread.
+	 * <p>
+	 * Each module is analyzed in a read action that gives way to write actions and gets restarted after them. Its
+	 * output files are written afterwards, outside of any read action. Cancelling the current progress indicator, if
+	 * any, cancels the worker threads as well.
+	 */
 	public void generate() throws Exception {
-		requestedModules.add(toplevelModule);
-		while (!requestedModules.isEmpty()) {
-			Module module = requestedModules.iterator().next();
-			requestedModules.remove(module);
-			String name = module.getName();
-			if (generatedModuleNames.contains(name)) {
-				continue;
+		Executor executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("MaHDL Verilog generation",
+			AppExecutorUtil.getAppExecutorService(), Math.max(1, Runtime.getRuntime().availableProcessors()));
+		List<Future<GeneratedModule>> futures = new ArrayList<>();
+		try {
+			CompletionService<GeneratedModule> completionService = new ExecutorCompletionService<GeneratedModule>(executor) {
+				@Override
+				public Future<GeneratedModule> submit(Callable<GeneratedModule> task) {
+					Future<GeneratedModule> future = super.submit(task);
+					futures.add(future);
+					return future;
+				}
+			};
+			Set<String> requestedModuleNames = new HashSet<>();
+			ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+			requestedModuleNames.add(ReadAction.compute(toplevelModule::getName));
+			completionService.submit(() -> generateModule(toplevelModule, indicator));
+			int pendingModuleCount = 1;
+			while (pendingModuleCount > 0) {
+				GeneratedModule generatedModule = takeGeneratedModule(completionService);
+				pendingModuleCount--;
+				ProgressManager.checkCanceled();
+				for (Map.Entry<String, Module> entry : generatedModule.instantiatedModules.entrySet()) {
+					if (requestedModuleNames.add(entry.getKey())) {
+						completionService.submit(() -> generateModule(entry.getValue(), indicator));
+						pendingModuleCount++;
+					}
+				}
+				for (Map.Entry<String, String> entry : generatedModule.outputFiles.entrySet()) {
+					outputConsumer.consume(entry.getKey(), entry.getValue());
+				}
+				generatedModules.add(generatedModule.module);
+				moduleGenerationMillis.put(generatedModule.name, generatedModule.millis);
+				if (generatedModule.skipped) {
+					skippedModuleNames.add(generatedModule.name);
+				}
+				if (manifest != null && generatedModule.manifestEntry != null) {
+					manifest.put(generatedModule.manifestEntry);
+				}
+			}
+		} finally {
+			// the pool is shared, so only the tasks of this design get cancelled, without interrupting pool threads
+			for (Future<GeneratedModule> future : futures) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	private static GeneratedModule takeGeneratedModule(CompletionService<GeneratedModule> completionService) throws Exception {
+		try {
+			return completionService.take().get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Runs {@link #generateModule(Module)} under a progress indicator that follows the specified one, if any, so the
+	 * worker threads get cancelled together with the thread that called {@link #generate()}.
+	 */
+	private GeneratedModule generateModule(Module module, ProgressIndicator parentIndicator) throws Exception {
+		if (parentIndicator == null) {
+			return generateModule(module);
+		}
+		Ref<GeneratedModule> result = new Ref<>();
+		Ref<Exception> exception = new Ref<>();
+		ProgressManager.getInstance().executeProcessUnderProgress(() -> {
+			try {
+				result.set(generateModule(module));
+			} catch (ProcessCanceledException e) {
+				throw e;
+			} catch (Exception e) {
+				exception.set(e);
 			}
-			generateModule(module);
-			generatedModuleNames.add(name);
-			generatedModules.add(module);
-		}
-		generateModule(toplevelModule);
-	}
-
-	private void generateModule(Module module) throws Exception {
-		ModuleProcessor moduleProcessor = new ModuleProcessor(module, (errorSource, message) -> {
-			throw new UserMessageException(message);
-		});
-		ModuleDefinition moduleDefinition = moduleProcessor.process();
-		if (moduleDefinition.isNative()) {
-			return;
-		}
-		StringWriter writer = new StringWriter();
-		ModuleVerilogGenerator.MemoryFileGenerator memoryFileGenerator = (fileName, matrix) -> {
-			StringBuilder builder = new StringBuilder();
-			for (int rowIndex = 0; rowIndex < matrix.getFirstSize(); rowIndex++) {
-				ConstantValue.Vector row = (ConstantValue.Vector)matrix.selectIndex(rowIndex);
-				builder.append(row.getHexLiteral()).append('\n');
+		}, new SensitiveProgressWrapper(parentIndicator));
+		if (exception.get() != null) {
+			throw exception.get();
+		}
+		return result.get();
+	}
+
+	// called on a worker thread
+	private GeneratedModule generateModule(Module module) throws Exception {
+		long startTime = System.nanoTime();
+		GenerationManifest manifest = this.manifest;
+		MemoryFileFormat memoryFileFormat = this.memoryFileFormat;
+
+		// everything that needs the PSI happens here
+		AnalyzedModule analyzedModule = computeInReadAction(() -> analyzeModule(module, manifest, memoryFileFormat));
+		if (analyzedModule.moduleDefinition == null) {
+			long millis = (System.nanoTime() - startTime) / 1_000_000;
+			return new GeneratedModule(module, analyzedModule.name, ImmutableMap.of(), analyzedModule.instantiatedModules,
+				millis, true, analyzedModule.previousEntry);
+		}
+
+		// the output files get written outside of the read action, so they don't block write actions
+		ModuleDefinition moduleDefinition = analyzedModule.moduleDefinition;
+		List<String> outputFileNames = new ArrayList<>();
+		Map<String, String> outputFiles = new LinkedHashMap<>();
+		if (!moduleDefinition.isNative()) {
+			ModuleVerilogGenerator.MemoryFileGenerator memoryFileGenerator = matrix -> {
+				String memoryFileName = memoryFileStore.getOrWrite(matrix, memoryFileFormat, fileName ->
+					generateMemoryFile(fileName, outputFiles, matrix, memoryFileFormat));
+				if (!outputFileNames.contains(memoryFileName)) {
+					outputFileNames.add(memoryFileName);
+				}
+				return memoryFileName;
+			};
+			String verilogFileName = ModuleNamingStrategy.getVerilogNameForMahdlName(analyzedModule.name) + ".v";
+			outputFileNames.add(verilogFileName);
+			generateFile(verilogFileName, outputFiles, out ->
+				new ModuleVerilogGenerator(moduleDefinition, out, memoryFileGenerator, memoryFileFormat).run());
+		}
+		GenerationManifest.Entry manifestEntry = null;
+		if (manifest != null) {
+			String fingerprint = (analyzedModule.fingerprint == null ? GenerationManifest.NO_FINGERPRINT : analyzedModule.fingerprint);
+			manifestEntry = new GenerationManifest.Entry(analyzedModule.name, fingerprint,
+				ImmutableList.copyOf(outputFileNames), ImmutableList.copyOf(analyzedModule.instantiatedModules.keySet()));
+		}
+		long millis = (System.nanoTime() - startTime) / 1_000_000;
+		return new GeneratedModule(module, analyzedModule.name, outputFiles, analyzedModule.instantiatedModules, millis, false, manifestEntry);
+	}
+
+	/**
+	 * Finds out whether the module is up to date according to the manifest, and if not, analyzes it. Must be called
+	 * inside a read action.
+	 */
+	private static AnalyzedModule analyzeModule(Module module, GenerationManifest manifest, MemoryFileFormat memoryFileFormat) {
+		String name = module.getName();
+
+		// skip the module if it is up to date
+		if (manifest != null) {
+			GenerationManifest.Entry previousEntry = manifest.getPreviousEntry(name);
+			if (previousEntry != null) {
+				String fingerprint = ModuleFingerprint.compute(module, previousEntry.getInstantiatedModuleNames(), memoryFileFormat);
+				if (fingerprint != null && manifest.isUpToDate(name, fingerprint)) {
+					Map<String, Module> instantiatedModules = resolveModules(module, previousEntry.getInstantiatedModuleNames());
+					if (instantiatedModules != null) {
+						return new AnalyzedModule(name, null, instantiatedModules, fingerprint, previousEntry);
+					}
+				}
 			}
-			outputConsumer.consume(fileName, builder.toString());
-		};
-		new ModuleVerilogGenerator(moduleDefinition, writer, memoryFileGenerator).run();
-		outputConsumer.consume(ModuleNamingStrategy.getVerilogNameForMahdlName(module.getName()) + ".v", writer.toString());
-		for (Named definition : moduleDefinition.getDefinitions().values()) {
-			if (definition instanceof ModuleInstance) {
-				ModuleInstance moduleInstance = (ModuleInstance) definition;
-				requestedModules.add(moduleInstance.getModuleElement());
+		}
+
+		ModuleProcessingResult processingResult = ModuleProcessingCache.get(module);
+		if (processingResult.hasErrors()) {
+			throw new UserMessageException(processingResult.getErrors().get(0).getMessage());
+		}
+		ModuleDefinition moduleDefinition = processingResult.getModuleDefinition();
+		Map<String, Module> instantiatedModules = new LinkedHashMap<>();
+		if (!moduleDefinition.isNative()) {
+			for (Named definition : moduleDefinition.getDefinitions().values()) {
+				if (definition instanceof ModuleInstance) {
+					ModuleInstance moduleInstance = (ModuleInstance) definition;
+					instantiatedModules.put(moduleInstance.getModuleName(), moduleInstance.getModuleElement());
+				}
 			}
 		}
+		String fingerprint = null;
+		if (manifest != null) {
+			fingerprint = ModuleFingerprint.compute(module, instantiatedModules.keySet(), memoryFileFormat);
+		}
+		return new AnalyzedModule(name, moduleDefinition, instantiatedModules, fingerprint, null);
+	}
+
+	/**
+	 * Runs the computation in a read action that gets cancelled and restarted whenever a write action is about to
+	 * start, so generating a design does not keep the user from editing. The computation must therefore not have any
+	 * side effects except caching.
+	 */
+	private static <T> T computeInReadAction(Computable<T> computation) {
+		ProgressIndicator parentIndicator = ProgressManager.getInstance().getProgressIndicator();
+		Ref<T> result = new Ref<>();
+		while (true) {
+			ProgressIndicator indicator = (parentIndicator == null ? new EmptyProgressIndicator() : new SensitiveProgressWrapper(parentIndicator));
+			if (ProgressManager.getInstance().runInReadActionWithWriteActionPriority(() -> result.set(computation.compute()), indicator)) {
+				return result.get();
+			}
+			ProgressManager.checkCanceled();
+			// let the write action finish before trying again
+			ApplicationManager.getApplication().invokeAndWait(EmptyRunnable.INSTANCE, ModalityState.any());
+		}
+	}
+
+	/**
+	 * Generates an output file, either streaming it to the output consumer right away or collecting its contents in
+	 * the outputFiles map, to be passed to the output consumer by the generating thread.
+	 */
+	private void generateFile(String fileName, Map<String, String> outputFiles, FileContentGenerator contentGenerator) throws Exception {
+		if (outputConsumer instanceof StreamingOutputConsumer) {
+			try (StreamingOutputConsumer.OutputFile outputFile = ((StreamingOutputConsumer) outputConsumer).open(fileName)) {
+				contentGenerator.generate(outputFile.getWriter());
+				outputFile.commit();
+			}
+		} else {
+			StringWriter writer = new StringWriter();
+			contentGenerator.generate(writer);
+			outputFiles.put(fileName, writer.toString());
+		}
+	}
+
+	/**
+	 * Like {@link #generateFile(String, Map, FileContentGenerator)}, but for a memory file, which may be binary.
+	 */
+	private void generateMemoryFile(String fileName, Map<String, String> outputFiles, ConstantValue.Matrix matrix,
+									MemoryFileFormat format) throws Exception {
+		if (outputConsumer instanceof StreamingOutputConsumer) {
+			try (StreamingOutputConsumer.OutputFile outputFile = ((StreamingOutputConsumer) outputConsumer).open(fileName)) {
+				format.write(matrix, outputFile.getOutputStream());
+				outputFile.commit();
+			}
+		} else if (format.isText()) {
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			format.write(matrix, stream);
+			outputFiles.put(fileName, new String(stream.toByteArray(), StandardCharsets.US_ASCII));
+		} else {
+			throw new UserMessageException("memory file format " + format + " is not supported for this output");
+		}
+	}
+
+	private interface FileContentGenerator {
+		void generate(Writer out) throws Exception;
+	}
+
+	/**
+	 * Resolves canonical module names as seen from the specified module. Returns null if any of them cannot be resolved,
+	 * so the module gets analyzed normally, which reports the problem. Must be called inside a read action.
+	 */
+	private static Map<String, Module> resolveModules(Module context, List<String> moduleNames) {
+		VirtualFile sourceRoot = PsiUtil.getSourceRoot(context);
+		if (sourceRoot == null) {
+			return null;
+		}
+		Map<String, Module> modules = new LinkedHashMap<>();
+		for (String moduleName : moduleNames) {
+			VirtualFile file = ModuleFileLocator.getInstance(context.getProject()).findModuleFile(sourceRoot, moduleName);
+			PsiFile psiFile = (file == null ? null : PsiManager.getInstance(context.getProject()).findFile(file));
+			Module module = (psiFile instanceof MahdlSourceFile ? ((MahdlSourceFile) psiFile).getModule() : null);
+			if (module == null) {
+				return null;
+			}
+			modules.put(moduleName, module);
+		}
+		return modules;
 	}
 
 	public interface OutputConsumer {
 		void consume(String fileName, String contents) throws Exception;
 	}
 
+	/**
+	 * An output consumer that accepts output files as a stream of characters. Unlike {@link #consume(String, String)},
+	 * {@link #open(String)} is called from the worker threads and must be thread-safe.
+	 */
+	public interface StreamingOutputConsumer extends OutputConsumer {
+
+		OutputFile open(String fileName) throws Exception;
+
+		/**
+		 * An output file being written, either as text through the writer or as binary data through the output
+		 * stream, but not both. The contents only become visible when committed; closing an uncommitted file discards
+		 * it, e.g. when generating its contents has failed.
+		 */
+		interface OutputFile extends Closeable {
+
+			Writer getWriter();
+
+			OutputStream getOutputStream();
+
+			void commit() throws Exception;
+
+		}
+
+	}
+
+	private static final class AnalyzedModule {
+
+		private final String name;
+
+		/**
+		 * null if the module is up to date
+		 */
+		private final ModuleDefinition moduleDefinition;
+
+		private final Map<String, Module> instantiatedModules;
+		private final String fingerprint;
+		private final GenerationManifest.Entry previousEntry;
+
+		AnalyzedModule(String name, ModuleDefinition moduleDefinition, Map<String, Module> instantiatedModules,
+					   String fingerprint, GenerationManifest.Entry previousEntry) {
+			this.name = name;
+			this.moduleDefinition = moduleDefinition;
+			this.instantiatedModules = instantiatedModules;
+			this.fingerprint = fingerprint;
+			this.previousEntry = previousEntry;
+		}
+
+	}
+
+	private static final class GeneratedModule {
+
+		private final Module module;
+		private final String name;
+		private final Map<String, String> outputFiles;
+		private final Map<String, Module> instantiatedModules;
+		private final long millis;
+		private final boolean skipped;
+		private final GenerationManifest.Entry manifestEntry;
+
+		GeneratedModule(Module module, String name, Map<String, String> outputFiles, Map<String, Module> instantiatedModules,
+						long millis, boolean skipped, GenerationManifest.Entry manifestEntry) {
+			this.module = module;
+			this.name = name;
+			this.outputFiles = outputFiles;
+			this.instantiatedModules = instantiatedModules;
+			this.millis = millis;
+			this.skipped = skipped;
+			this.manifestEntry = manifestEntry;
+		}
+
+	}
 
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.codegen;
+
+import name.martingeisse.mahdl.plugin.processor.expression.*;
+
+import java.util.*;
+
+/**
+ * Assigns numbers to expressions such that two expressions get the same number if and only if they are structurally
+ * equal, i.e. they are of the same kind and type, have equal attributes (operators, constants, referenced definitions)
+ * and structurally equal operands. The number of an expression is derived from the numbers of its operands, so each
+ * expression node is only looked at once, no matter how often it appears as part of other expressions.
+ * <p>
+ * Expression kinds not known to this class are only equal to themselves.
+ */
+final class ExpressionHashConsing {
+
+	private final Map<ProcessedExpression, Integer> numbersByExpression = new IdentityHashMap<>();
+	private final Map<List<Object>, Integer> numbersByStructure = new HashMap<>();
+
+	int getNumber(ProcessedExpression expression) {
+		Integer number = numbersByExpression.get(expression);
+		if (number == null) {
+			List<Object> structure = getStructure(expression);
+			number = numbersByStructure.get(structure);
+			if (number == null) {
+				number = numbersByStructure.size();
+				numbersByStructure.put(structure, number);
+			}
+			numbersByExpression.put(expression, number);
+		}
+		return number;
+	}
+
+	private List<Object> getStructure(ProcessedExpression expression) {
+		List<Object> structure = new ArrayList<>();
+		structure.add(expression.getClass());
+		structure.add(expression.getDataType());
+		if (expression instanceof ProcessedConstantValue) {
+			structure.add(((ProcessedConstantValue) expression).getValue());
+		} else if (expression instanceof SignalLikeReference) {
+			structure.add(((SignalLikeReference) expression).getDefinition());
+		} else if (expression instanceof SyntheticSignalLikeExpression) {
+			structure.add(((SyntheticSignalLikeExpression) expression).getName());
+		} else if (expression instanceof InstancePortReference) {
+			InstancePortReference instancePortReference = (InstancePortReference) expression;
+			structure.add(instancePortReference.getModuleInstance());
+			structure.add(instancePortReference.getPort());
+		} else if (expression instanceof ProcessedUnaryOperation) {
+			ProcessedUnaryOperation unaryOperation = (ProcessedUnaryOperation) expression;
+			structure.add(unaryOperation.getOperator());
+			structure.add(getNumber(unaryOperation.getOperand()));
+		} else if (expression instanceof ProcessedBinaryOperation) {
+			ProcessedBinaryOperation binaryOperation = (ProcessedBinaryOperation) expression;
+			structure.add(binaryOperation.getOperator());
+			structure.add(getNumber(binaryOperation.getLeftOperand()));
+			structure.add(getNumber(binaryOperation.getRightOperand()));
+		} else if (expression instanceof ProcessedConditional) {
+			ProcessedConditional conditional = (ProcessedConditional) expression;
+			structure.add(getNumber(conditional.getCondition()));
+			structure.add(getNumber(conditional.getThenBranch()));
+			structure.add(getNumber(conditional.getElseBranch()));
+		} else if (expression instanceof ProcessedIndexSelection) {
+			ProcessedIndexSelection indexSelection = (ProcessedIndexSelection) expression;
+			structure.add(getNumber(indexSelection.getContainer()));
+			structure.add(getNumber(indexSelection.getIndex()));
+		} else if (expression instanceof ProcessedRangeSelection) {
+			ProcessedRangeSelection rangeSelection = (ProcessedRangeSelection) expression;
+			structure.add(getNumber(rangeSelection.getContainer()));
+			structure.add(rangeSelection.getFromIndex());
+			structure.add(rangeSelection.getToIndex());
+		} else if (expression instanceof TypeConversion) {
+			structure.add(getNumber(((TypeConversion) expression).getOperand()));
+		} else if (expression instanceof ProcessedFunctionCall) {
+			ProcessedFunctionCall functionCall = (ProcessedFunctionCall) expression;
+			structure.add(functionCall.getFunction());
+			for (ProcessedExpression argument : functionCall.getArguments()) {
+				structure.add(getNumber(argument));
+			}
+		} else if (expression instanceof ProcessedSwitchExpression) {
+			ProcessedSwitchExpression switchExpression = (ProcessedSwitchExpression) expression;
+			structure.add(getNumber(switchExpression.getSelector()));
+			for (ProcessedSwitchExpression.Case aCase : switchExpression.getCases()) {
+				structure.add(aCase.getSelectorValues());
+				structure.add(getNumber(aCase.getResultValue()));
+			}
+			ProcessedExpression defaultBranch = switchExpression.getDefaultBranch();
+			structure.add(defaultBranch == null ? -1 : getNumber(defaultBranch));
+		} else {
+			structure.add(expression);
+		}
+		return structure;
+	}
+
+}
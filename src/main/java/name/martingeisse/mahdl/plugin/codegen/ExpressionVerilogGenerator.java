@@ -5,9 +5,7 @@
 package name.martingeisse.mahdl.plugin.codegen;
 
 import com.google.common.collect.ImmutableMap;
-import com.intellij.psi.PsiElement;
 import name.martingeisse.mahdl.plugin.functions.BuiltinFunction;
-import name.martingeisse.mahdl.plugin.processor.ErrorHandler;
 import name.martingeisse.mahdl.plugin.processor.expression.*;
 import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
 import org.jetbrains.annotations.NotNull;
@@ -105,7 +103,8 @@ public final class ExpressionVerilogGenerator {
 	 * Returns the literal for an expression that must be a formally constant integer.
 	 */
 	public String convertIntegerConstantToString(ProcessedExpression expression) {
-		ConstantValue value = fold(expression);
+		ProcessedExpression folded = fold(expression);
+		ConstantValue value = (folded instanceof ProcessedConstantValue ? ((ProcessedConstantValue) folded).getValue() : null);
 		if (value instanceof ConstantValue.Integer) {
 			return ((ConstantValue.Integer) value).getValue().toString();
 		} else {
@@ -125,27 +124,68 @@ public final class ExpressionVerilogGenerator {
 	 * Any expressions that conflict with the specified current nesting level will be extracted.
 	 */
 	public void generate(ProcessedExpression expression, StringBuilder builder, int nesting) {
-		ProcessedDataType dataType = expression.getDataType();
+		generateFolded(fold(expression), builder, nesting);
+	}
 
-		// constant folding
-		ConstantValue value = fold(expression);
-		if (!(value instanceof ConstantValue.Unknown)) {
-			generate(value, builder);
-			return;
-		}
+	/**
+	 * Extracts all helper signals and ROMs that generating the specified expression at the specified nesting level will
+	 * need, without generating any code for the expression itself. This allows to print the helpers before a construct
+	 * that cannot contain them, such as an always-block. Generating the expression afterwards then uses the same
+	 * helpers: the extractors return the existing helper for a structurally equal expression or an equal ROM.
+	 */
+	public void prepare(ProcessedExpression expression, int nesting) {
+		prepareFolded(fold(expression), nesting);
+	}
 
-		// check for allowed expression nesting and extract if violated (evades strange behavior imposed by Verilog)
-		if (nesting != NESTING_TOPLEVEL) {
-			Integer extractionNeededNestingLevel = EXTRACTION_NEEDED_NESTING_LEVELS.get(expression.getClass());
-			if (extractionNeededNestingLevel == null || nesting >= extractionNeededNestingLevel) {
-				extract(expression, builder);
-				return;
+	/**
+	 * Like prepare(), but expects the expression to be folded already. This follows the same paths as generateFolded().
+	 */
+	private void prepareFolded(ProcessedExpression expression, int nesting) {
+		if (expression instanceof ProcessedConstantValue) {
+			ConstantValue value = ((ProcessedConstantValue) expression).getValue();
+			if (value instanceof ConstantValue.Matrix) {
+				romExtractor.extract((ConstantValue.Matrix) value);
 			}
+		} else if (needsExtraction(expression, nesting)) {
+			extract(expression);
+		} else if (expression instanceof ProcessedIndexSelection) {
+			ProcessedIndexSelection selection = (ProcessedIndexSelection) expression;
+			prepareFolded(selection.getContainer(), NESTING_INSIDE_SELECTION);
+			prepareFolded(selection.getIndex(), NESTING_INSIDE_SELECTION);
+		} else if (expression instanceof ProcessedRangeSelection) {
+			prepareFolded(((ProcessedRangeSelection) expression).getContainer(), NESTING_INSIDE_SELECTION);
+		} else if (expression instanceof ProcessedUnaryOperation) {
+			prepareFolded(((ProcessedUnaryOperation) expression).getOperand(), NESTING_INSIDE_OPERATION);
+		} else if (expression instanceof ProcessedBinaryOperation) {
+			ProcessedBinaryOperation operation = (ProcessedBinaryOperation) expression;
+			prepareFolded(operation.getLeftOperand(), NESTING_INSIDE_OPERATION);
+			prepareFolded(operation.getRightOperand(), NESTING_INSIDE_OPERATION);
+		} else if (expression instanceof ProcessedConditional) {
+			ProcessedConditional conditional = (ProcessedConditional) expression;
+			prepareFolded(conditional.getCondition(), NESTING_INSIDE_OPERATION);
+			prepareFolded(conditional.getThenBranch(), NESTING_INSIDE_OPERATION);
+			prepareFolded(conditional.getElseBranch(), NESTING_INSIDE_OPERATION);
+		} else if (expression instanceof TypeConversion.BitToVector) {
+			prepareFolded(((TypeConversion.BitToVector) expression).getOperand(), nesting);
 		}
+	}
+
+	/**
+	 * Like generate(), but expects all formally constant sub-expressions to be folded already, so folding isn't
+	 * repeated for each sub-expression.
+	 */
+	private void generateFolded(ProcessedExpression expression, StringBuilder builder, int nesting) {
+		ProcessedDataType dataType = expression.getDataType();
 
-		// any matrix-typed expressions must be handled outside this generator
-		if (dataType instanceof ProcessedDataType.Matrix) {
-			extract(expression, builder);
+		// constant folding has been done already, but constants must still be written as such
+		if (expression instanceof ProcessedConstantValue) {
+			generate(((ProcessedConstantValue) expression).getValue(), builder);
+			return;
+		}
+
+		// extract expressions that cannot be generated here
+		if (needsExtraction(expression, nesting)) {
+			builder.append(extract(expression));
 			return;
 		}
 
@@ -159,10 +199,6 @@ public final class ExpressionVerilogGenerator {
 		// handle normal cases
 		if (expression instanceof UnknownExpression) {
 			throw new ModuleHasErrorsException();
-		} else if (expression instanceof ProcessedConstantValue) {
-
-			throw new ModuleCannotGenerateCodeException("constant did not react to folding");
-
 		} else if (expression instanceof SignalLikeReference) {
 
 			builder.append(((SignalLikeReference) expression).getDefinition().getName());
@@ -180,15 +216,15 @@ public final class ExpressionVerilogGenerator {
 		} else if (expression instanceof ProcessedIndexSelection) {
 
 			ProcessedIndexSelection selection = (ProcessedIndexSelection) expression;
-			generate(selection.getContainer(), builder, NESTING_INSIDE_SELECTION);
+			generateFolded(selection.getContainer(), builder, NESTING_INSIDE_SELECTION);
 			builder.append('[');
-			generate(selection.getIndex(), builder, NESTING_INSIDE_SELECTION);
+			generateFolded(selection.getIndex(), builder, NESTING_INSIDE_SELECTION);
 			builder.append(']');
 
 		} else if (expression instanceof ProcessedRangeSelection) {
 
 			ProcessedRangeSelection selection = (ProcessedRangeSelection) expression;
-			generate(selection.getContainer(), builder, NESTING_INSIDE_SELECTION);
+			generateFolded(selection.getContainer(), builder, NESTING_INSIDE_SELECTION);
 			builder.append('[').append(selection.getFromIndex()).append(':').append(selection.getToIndex()).append(']');
 
 		} else if (expression instanceof ProcessedUnaryOperation) {
@@ -199,7 +235,7 @@ public final class ExpressionVerilogGenerator {
 				throw new ModuleCannotGenerateCodeException("cannot handle unary operator " + operation.getOperator());
 			}
 			builder.append(symbol);
-			generate(operation.getOperand(), builder, NESTING_INSIDE_OPERATION);
+			generateFolded(operation.getOperand(), builder, NESTING_INSIDE_OPERATION);
 
 		} else if (expression instanceof ProcessedBinaryOperation) {
 
@@ -207,28 +243,28 @@ public final class ExpressionVerilogGenerator {
 			ProcessedBinaryOperator operator = operation.getOperator();
 			if (operator == ProcessedBinaryOperator.VECTOR_CONCAT) {
 				builder.append('{');
-				generate(operation.getLeftOperand(), builder, NESTING_INSIDE_OPERATION);
+				generateFolded(operation.getLeftOperand(), builder, NESTING_INSIDE_OPERATION);
 				builder.append(", ");
-				generate(operation.getRightOperand(), builder, NESTING_INSIDE_OPERATION);
+				generateFolded(operation.getRightOperand(), builder, NESTING_INSIDE_OPERATION);
 				builder.append('}');
 			} else {
 				String symbol = BINARY_OPERATOR_SYMBOLS.get(operator);
 				if (symbol == null) {
 					throw new ModuleCannotGenerateCodeException("cannot handle binary operator " + operator);
 				}
-				generate(operation.getLeftOperand(), builder, NESTING_INSIDE_OPERATION);
+				generateFolded(operation.getLeftOperand(), builder, NESTING_INSIDE_OPERATION);
 				builder.append(' ').append(symbol).append(' ');
-				generate(operation.getRightOperand(), builder, NESTING_INSIDE_OPERATION);
+				generateFolded(operation.getRightOperand(), builder, NESTING_INSIDE_OPERATION);
 			}
 
 		} else if (expression instanceof ProcessedConditional) {
 
 			ProcessedConditional conditional = (ProcessedConditional) expression;
-			generate(conditional.getCondition(), builder, NESTING_INSIDE_OPERATION);
+			generateFolded(conditional.getCondition(), builder, NESTING_INSIDE_OPERATION);
 			builder.append(" ? ");
-			generate(conditional.getThenBranch(), builder, NESTING_INSIDE_OPERATION);
+			generateFolded(conditional.getThenBranch(), builder, NESTING_INSIDE_OPERATION);
 			builder.append(" : ");
-			generate(conditional.getElseBranch(), builder, NESTING_INSIDE_OPERATION);
+			generateFolded(conditional.getElseBranch(), builder, NESTING_INSIDE_OPERATION);
 
 		} else if (expression instanceof ProcessedFunctionCall) {
 
@@ -242,15 +278,11 @@ public final class ExpressionVerilogGenerator {
 
 			if (expression instanceof TypeConversion.BitToVector) {
 				// this only happens as part of vector concatenation, and no code is needed for the conversion
-				generate(((TypeConversion.BitToVector) expression).getOperand(), builder, nesting);
+				generateFolded(((TypeConversion.BitToVector) expression).getOperand(), builder, nesting);
 			} else {
 				throw new ModuleCannotGenerateCodeException("invalid run-time type conversion: " + expression);
 			}
 
-		} else if (expression instanceof ProcessedSwitchExpression) {
-
-			extract(expression, builder);
-
 		} else {
 			throw new ModuleCannotGenerateCodeException("unknown expression type: " + expression);
 		}
@@ -277,46 +309,38 @@ public final class ExpressionVerilogGenerator {
 	//
 
 	@NotNull
-	private ConstantValue fold(ProcessedExpression expression) {
-		ErrorHandler errorHandler = (errorSource, message) -> {
+	private ProcessedExpression fold(ProcessedExpression expression) {
+		return expression.fold((errorSource, message) -> {
 			throw new ModuleHasErrorsException(message);
-		};
-		ProcessedExpression.FormallyConstantEvaluationContext context = new ProcessedExpression.FormallyConstantEvaluationContext(errorHandler) {
-
-			@Override
-			@NotNull
-			public ConstantValue.Unknown notConstant(@NotNull PsiElement errorSource) {
-				throw new NotConstantException();
-			}
-
-			@Override
-			@NotNull
-			public ConstantValue.Unknown notConstant(@NotNull ProcessedExpression errorSource) {
-				throw new NotConstantException();
-
-			}
-		};
-		try {
-			return expression.evaluateFormallyConstant(context);
-		} catch (NotConstantException e) {
-			return ConstantValue.Unknown.INSTANCE;
-		}
-	}
-
-	private static class NotConstantException extends RuntimeException {
+		});
 	}
 
 	//
 	// extraction
 	//
 
-	private void extract(ProcessedExpression expression, StringBuilder builder) {
+	/**
+	 * Checks for allowed expression nesting (which evades strange behavior imposed by Verilog, see above), matrix-typed
+	 * expressions (which must be handled outside this generator) and switch expressions (which aren't expressions in
+	 * Verilog).
+	 */
+	private static boolean needsExtraction(ProcessedExpression expression, int nesting) {
+		if (nesting != NESTING_TOPLEVEL) {
+			Integer extractionNeededNestingLevel = EXTRACTION_NEEDED_NESTING_LEVELS.get(expression.getClass());
+			if (extractionNeededNestingLevel == null || nesting >= extractionNeededNestingLevel) {
+				return true;
+			}
+		}
+		return expression.getDataType() instanceof ProcessedDataType.Matrix || expression instanceof ProcessedSwitchExpression;
+	}
+
+	private String extract(ProcessedExpression expression) {
 		if (expression instanceof SignalLikeReference) {
-			builder.append(((SignalLikeReference) expression).getDefinition().getName());
+			return ((SignalLikeReference) expression).getDefinition().getName();
 		} else if (expression instanceof SyntheticSignalLikeExpression) {
-			builder.append(((SyntheticSignalLikeExpression) expression).getName());
+			return ((SyntheticSignalLikeExpression) expression).getName();
 		} else {
-			builder.append(expressionExtractor.extract(expression));
+			return expressionExtractor.extract(expression);
 		}
 	}
 
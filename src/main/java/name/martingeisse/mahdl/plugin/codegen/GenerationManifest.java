@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.codegen;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Remembers, per module, the fingerprint of the inputs from which its output files were generated, so that
+ * {@link DesignVerilogGenerator} can skip modules whose inputs have not changed. This keeps the output files untouched,
+ * which in turn keeps the caches of downstream tools valid.
+ * <p>
+ * The manifest is stored as a text file in the output folder. A missing or unreadable manifest is treated as empty,
+ * which simply regenerates everything. When saved, the entries that have been put since loading replace the loaded
+ * entries for the same modules, and the loaded entries for all other modules are kept. This way, several designs can
+ * share an output folder without invalidating each other's entries.
+ * <p>
+ * Memory files are shared between modules by content (see {@link MemoryFileStore}), so a changed matrix leaves the old
+ * file behind instead of overwriting it. Saving therefore deletes the memory files in the folder that no entry refers
+ * to anymore.
+ */
+public final class GenerationManifest {
+
+	public static final String FILE_NAME = ".mahdl-generation-manifest";
+
+	/**
+	 * The fingerprint of entries for modules that have been generated while no fingerprint could be computed. Such
+	 * entries are never up to date, but they keep the output files of the module from being deleted.
+	 */
+	public static final String NO_FINGERPRINT = "";
+
+	private static final String HEADER = "mahdl-generation-manifest 1";
+	private static final Splitter FIELD_SPLITTER = Splitter.on('\t');
+	private static final Splitter LIST_SPLITTER = Splitter.on(',').omitEmptyStrings();
+
+	@NotNull
+	private final Path folder;
+
+	@NotNull
+	private final ImmutableMap<String, Entry> previousEntries;
+
+	@NotNull
+	private final Map<String, Entry> currentEntries = new LinkedHashMap<>();
+
+	private GenerationManifest(@NotNull Path folder, @NotNull ImmutableMap<String, Entry> previousEntries) {
+		this.folder = folder;
+		this.previousEntries = previousEntries;
+	}
+
+	/**
+	 * Loads the manifest from the specified output folder.
+	 */
+	@NotNull
+	public static GenerationManifest load(@NotNull Path folder) throws IOException {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(folder.resolve(FILE_NAME), StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			return new GenerationManifest(folder, ImmutableMap.of());
+		}
+		if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+			return new GenerationManifest(folder, ImmutableMap.of());
+		}
+		Map<String, Entry> entries = new LinkedHashMap<>();
+		for (String line : lines.subList(1, lines.size())) {
+			List<String> fields = FIELD_SPLITTER.splitToList(line);
+			if (fields.size() != 4) {
+				return new GenerationManifest(folder, ImmutableMap.of());
+			}
+			Entry entry = new Entry(fields.get(0), fields.get(1), ImmutableList.copyOf(LIST_SPLITTER.split(fields.get(2))),
+				ImmutableList.copyOf(LIST_SPLITTER.split(fields.get(3))));
+			entries.put(entry.getModuleName(), entry);
+		}
+		return new GenerationManifest(folder, ImmutableMap.copyOf(entries));
+	}
+
+	/**
+	 * Returns the entry for the specified module from the loaded manifest, or null if there is none. Can be called from
+	 * any thread.
+	 */
+	@Nullable
+	public Entry getPreviousEntry(@NotNull String moduleName) {
+		return previousEntries.get(moduleName);
+	}
+
+	/**
+	 * Checks whether the specified module has been generated from inputs with the specified fingerprint and its output
+	 * files still exist. Can be called from any thread.
+	 */
+	public boolean isUpToDate(@NotNull String moduleName, @NotNull String fingerprint) {
+		Entry entry = previousEntries.get(moduleName);
+		if (entry == null || entry.getFingerprint().equals(NO_FINGERPRINT) || !entry.getFingerprint().equals(fingerprint)) {
+			return false;
+		}
+		for (String outputFile : entry.getOutputFiles()) {
+			if (!Files.isRegularFile(folder.resolve(outputFile))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records an entry to be saved. Must only be called from a single thread.
+	 */
+	public void put(@NotNull Entry entry) {
+		currentEntries.put(entry.getModuleName(), entry);
+	}
+
+	/**
+	 * Saves the loaded entries, merged with the entries that have been put since loading, then deletes the memory files
+	 * that none of them refers to. The file is replaced atomically where supported, so an interrupted save leaves the
+	 * old manifest intact.
+	 */
+	public void save() throws IOException {
+		Map<String, Entry> entries = new LinkedHashMap<>(previousEntries);
+		entries.putAll(currentEntries);
+		StringBuilder builder = new StringBuilder(HEADER).append('\n');
+		for (Entry entry : entries.values()) {
+			builder.append(entry.getModuleName()).append('\t');
+			builder.append(entry.getFingerprint()).append('\t');
+			builder.append(String.join(",", entry.getOutputFiles())).append('\t');
+			builder.append(String.join(",", entry.getInstantiatedModuleNames())).append('\n');
+		}
+		Path temporaryFile = folder.resolve(FILE_NAME + ".tmp");
+		Files.write(temporaryFile, builder.toString().getBytes(StandardCharsets.UTF_8));
+		try {
+			Files.move(temporaryFile, folder.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.move(temporaryFile, folder.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING);
+		}
+		deleteUnreferencedMemoryFiles(entries.values());
+	}
+
+	private void deleteUnreferencedMemoryFiles(@NotNull Collection<Entry> entries) throws IOException {
+		Set<String> referencedFileNames = new HashSet<>();
+		for (Entry entry : entries) {
+			referencedFileNames.addAll(entry.getOutputFiles());
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+			for (Path file : files) {
+				String fileName = file.getFileName().toString();
+				if (MemoryFileStore.isMemoryFileName(fileName) && !referencedFileNames.contains(fileName)) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+
+	public static final class Entry {
+
+		@NotNull
+		private final String moduleName;
+
+		@NotNull
+		private final String fingerprint;
+
+		@NotNull
+		private final ImmutableList<String> outputFiles;
+
+		@NotNull
+		private final ImmutableList<String> instantiatedModuleNames;
+
+		public Entry(@NotNull String moduleName, @NotNull String fingerprint, @NotNull ImmutableList<String> outputFiles, @NotNull ImmutableList<String> instantiatedModuleNames) {
+			this.moduleName = moduleName;
+			this.fingerprint = fingerprint;
+			this.outputFiles = outputFiles;
+			this.instantiatedModuleNames = instantiatedModuleNames;
+		}
+
+		@NotNull
+		public String getModuleName() {
+			return moduleName;
+		}
+
+		@NotNull
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		@NotNull
+		public ImmutableList<String> getOutputFiles() {
+			return outputFiles;
+		}
+
+		/**
+		 * Returns the canonical names of the modules instantiated by this module.
+		 */
+		@NotNull
+		public ImmutableList<String> getInstantiatedModuleNames() {
+			return instantiatedModuleNames;
+		}
+
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.codegen;
+
+import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
+import name.martingeisse.mahdl.plugin.util.UserMessageException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * The formats in which the initial contents of matrices can be written to memory files, together with the Verilog
+ * code that loads them. All formats stream the rows directly from the matrix bits.
+ */
+public enum MemoryFileFormat {
+
+	/**
+	 * One row per line as hexadecimal digits, loaded with $readmemh. Supported by all tools.
+	 */
+	HEX("mif", true) {
+
+		@Override
+		public void write(@NotNull ConstantValue.Matrix matrix, @NotNull OutputStream out) throws IOException {
+			writeDigits(matrix, out, 4);
+		}
+
+		@NotNull
+		@Override
+		public String getLoadStatement(@NotNull String fileName, @NotNull String destinationName, int rowCount) {
+			return "initial $readmemh(\"" + fileName + "\", " + destinationName + ", 0, " + (rowCount - 1) + ");";
+		}
+
+	},
+
+	/**
+	 * One row per line as binary digits, loaded with $readmemb. Easier to inspect for bit-oriented contents, but four
+	 * times as large as the hexadecimal format.
+	 */
+	BINARY("memb", true) {
+
+		@Override
+		public void write(@NotNull ConstantValue.Matrix matrix, @NotNull OutputStream out) throws IOException {
+			writeDigits(matrix, out, 1);
+		}
+
+		@NotNull
+		@Override
+		public String getLoadStatement(@NotNull String fileName, @NotNull String destinationName, int rowCount) {
+			return "initial $readmemb(\"" + fileName + "\", " + destinationName + ", 0, " + (rowCount - 1) + ");";
+		}
+
+	},
+
+	/**
+	 * Each row packed into whole bytes, most significant byte first, loaded with $fread. This is the most compact
+	 * format, but it is only supported by simulators, not by synthesis tools.
+	 */
+	RAW("bin", false) {
+
+		@Override
+		public void write(@NotNull ConstantValue.Matrix matrix, @NotNull OutputStream out) throws IOException {
+			BitSet bits = matrix.getBits();
+			int rowWidth = matrix.getSecondSize();
+			byte[] row = new byte[(rowWidth + 7) / 8];
+			for (int rowIndex = 0; rowIndex < matrix.getFirstSize(); rowIndex++) {
+				int rowStart = rowIndex * rowWidth;
+				for (int byteIndex = 0; byteIndex < row.length; byteIndex++) {
+					int value = 0;
+					for (int bitIndex = Math.min(8, rowWidth - byteIndex * 8) - 1; bitIndex >= 0; bitIndex--) {
+						value = (value << 1) | (bits.get(rowStart + byteIndex * 8 + bitIndex) ? 1 : 0);
+					}
+					row[row.length - 1 - byteIndex] = (byte) value;
+				}
+				out.write(row);
+			}
+		}
+
+		@NotNull
+		@Override
+		public String getLoadStatement(@NotNull String fileName, @NotNull String destinationName, int rowCount) {
+			return "initial begin : load_" + destinationName + " integer fd; fd = $fopen(\"" + fileName + "\", \"rb\"); " +
+				"$fread(" + destinationName + ", fd); $fclose(fd); end";
+		}
+
+	};
+
+	private static final byte[] DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	@NotNull
+	private final String fileExtension;
+
+	private final boolean text;
+
+	MemoryFileFormat(@NotNull String fileExtension, boolean text) {
+		this.fileExtension = fileExtension;
+		this.text = text;
+	}
+
+	/**
+	 * Returns the format with the specified name, ignoring case, as used on the command line and in design configurations.
+	 */
+	@NotNull
+	public static MemoryFileFormat parse(@NotNull String name) {
+		try {
+			return valueOf(name.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new UserMessageException("unknown memory file format: " + name);
+		}
+	}
+
+	@NotNull
+	public String getFileExtension() {
+		return fileExtension;
+	}
+
+	/**
+	 * Returns true if this format produces ASCII text, false for binary data.
+	 */
+	public boolean isText() {
+		return text;
+	}
+
+	/**
+	 * Writes the contents of the specified matrix. The output stream should be buffered.
+	 */
+	public abstract void write(@NotNull ConstantValue.Matrix matrix, @NotNull OutputStream out) throws IOException;
+
+	/**
+	 * Returns a Verilog statement that loads the specified memory file into a matrix.
+	 */
+	@NotNull
+	public abstract String getLoadStatement(@NotNull String fileName, @NotNull String destinationName, int rowCount);
+
+	/**
+	 * Writes one line of digits per row, most significant digit first. All lines have the same length; partial digits
+	 * at the top of a row are padded with zeroes.
+	 */
+	private static void writeDigits(@NotNull ConstantValue.Matrix matrix, @NotNull OutputStream out, int bitsPerDigit) throws IOException {
+		BitSet bits = matrix.getBits();
+		int rowWidth = matrix.getSecondSize();
+		byte[] line = new byte[(rowWidth + bitsPerDigit - 1) / bitsPerDigit + 1];
+		line[line.length - 1] = '\n';
+		for (int rowIndex = 0; rowIndex < matrix.getFirstSize(); rowIndex++) {
+			int rowStart = rowIndex * rowWidth;
+			for (int digitIndex = 0; digitIndex < line.length - 1; digitIndex++) {
+				int value = 0;
+				for (int bitIndex = Math.min(bitsPerDigit, rowWidth - digitIndex * bitsPerDigit) - 1; bitIndex >= 0; bitIndex--) {
+					value = (value << 1) | (bits.get(rowStart + digitIndex * bitsPerDigit + bitIndex) ? 1 : 0);
+				}
+				line[line.length - 2 - digitIndex] = DIGITS[value];
+			}
+			out.write(line);
+		}
+	}
+
+}
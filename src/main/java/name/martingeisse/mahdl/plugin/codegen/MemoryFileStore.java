@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.codegen;
+
+import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the memory files of a whole design. Memory files are named after the content hash of the matrix
+ * they contain, so the same contents get the same file name in all modules, and each file is written only once.
+ * <p>
+ * Can be used from multiple threads.
+ */
+final class MemoryFileStore {
+
+	private static final String FILE_NAME_PREFIX = "rom_";
+
+	private final Set<String> writtenFileNames = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Returns the name of the memory file for the specified matrix and format.
+	 */
+	static String getFileName(ConstantValue.Matrix matrix, MemoryFileFormat format) {
+		return FILE_NAME_PREFIX + matrix.getContentHash() + "." + format.getFileExtension();
+	}
+
+	/**
+	 * Checks whether the specified file name has the form of the names returned by
+	 * {@link #getFileName(ConstantValue.Matrix, MemoryFileFormat)}.
+	 */
+	static boolean isMemoryFileName(String fileName) {
+		if (!fileName.startsWith(FILE_NAME_PREFIX)) {
+			return false;
+		}
+		for (MemoryFileFormat format : MemoryFileFormat.values()) {
+			if (fileName.endsWith("." + format.getFileExtension())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the name of the memory file for the specified matrix and format, calling the writer the first time the file name
+	 * is requested. Other threads asking for the same file at the same time may get its name before it has been
+	 * written, which is fine because it only gets referenced from other output files.
+	 */
+	String getOrWrite(ConstantValue.Matrix matrix, MemoryFileFormat format, FileWriter writer) throws Exception {
+		String fileName = getFileName(matrix, format);
+		if (writtenFileNames.add(fileName)) {
+			try {
+				writer.write(fileName);
+			} catch (Exception e) {
+				writtenFileNames.remove(fileName);
+				throw e;
+			}
+		}
+		return fileName;
+	}
+
+	interface FileWriter {
+		void write(String fileName) throws Exception;
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.codegen;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiTreeUtil;
+import name.martingeisse.mahdl.plugin.input.psi.*;
+import name.martingeisse.mahdl.plugin.signature.ModuleSignature;
+import name.martingeisse.mahdl.plugin.signature.ModuleSignatureIndex;
+import name.martingeisse.mahdl.plugin.util.LiteralParser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes a fingerprint of everything the generated Verilog code of a module depends on: the source text of the
+ * module, the signatures of the modules it instantiates, the matrix files it loads, and the memory file format. The
+ * generated code of other modules does not matter since instances only refer to them by name and ports.
+ * <p>
+ * Must be called inside a read action.
+ */
+final class ModuleFingerprint {
+
+	/**
+	 * Must be changed whenever the code generator produces different output for the same input, so existing outputs
+	 * get regenerated.
+	 */
+	private static final String GENERATOR_VERSION = "4";
+
+	// prevent instantiation
+	private ModuleFingerprint() {
+	}
+
+	/**
+	 * Returns the fingerprint of the specified module, given the canonical names of the modules it instantiates, or
+	 * null if the module cannot be fingerprinted, e.g. because an instantiated module signature is not available right
+	 * now or a matrix file name is not a literal. Such modules must always be regenerated.
+	 */
+	@Nullable
+	static String compute(@NotNull Module module, @NotNull Collection<String> instantiatedModuleNames, @NotNull MemoryFileFormat memoryFileFormat) {
+		PsiFile file = module.getContainingFile();
+		if (file == null) {
+			return null;
+		}
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putString(GENERATOR_VERSION, StandardCharsets.UTF_8).putByte((byte) 0);
+		hasher.putString(memoryFileFormat.name(), StandardCharsets.UTF_8).putByte((byte) 0);
+		hasher.putString(file.getText(), StandardCharsets.UTF_8).putByte((byte) 0);
+
+		// instantiated module signatures, in a stable order
+		List<String> sortedNames = new ArrayList<>(instantiatedModuleNames);
+		Collections.sort(sortedNames);
+		for (String name : sortedNames) {
+			ModuleSignature signature = ModuleSignatureIndex.getSignature(module, name);
+			if (signature == null) {
+				return null;
+			}
+			hasher.putString(name, StandardCharsets.UTF_8).putByte((byte) 0);
+			hasher.putBoolean(signature.isNative());
+			for (ModuleSignature.Port port : signature.getPorts()) {
+				hasher.putString(port.getName(), StandardCharsets.UTF_8).putByte((byte) 0);
+				hasher.putString(port.getDirection().name(), StandardCharsets.UTF_8).putByte((byte) 0);
+				hasher.putString(port.getDataTypeText(), StandardCharsets.UTF_8).putByte((byte) 0);
+			}
+		}
+
+		// loaded matrix files
+		VirtualFile folder = file.getOriginalFile().getVirtualFile() == null ? null : file.getOriginalFile().getVirtualFile().getParent();
+		for (Expression_FunctionCall call : PsiTreeUtil.findChildrenOfType(module, Expression_FunctionCall.class)) {
+			if (!call.getFunctionName().getText().equals("loadMatrix")) {
+				continue;
+			}
+			String fileName = getLiteralFileName(call);
+			if (fileName == null || folder == null) {
+				return null;
+			}
+			VirtualFile matrixFile = folder.findChild(fileName);
+			if (matrixFile == null) {
+				return null;
+			}
+			hasher.putString(fileName, StandardCharsets.UTF_8).putByte((byte) 0);
+			try {
+				hasher.putBytes(matrixFile.contentsToByteArray());
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		return hasher.hash().toString();
+	}
+
+	@Nullable
+	private static String getLiteralFileName(@NotNull Expression_FunctionCall call) {
+		List<Expression> arguments = call.getArguments().getAll();
+		if (arguments.isEmpty() || !(arguments.get(0) instanceof Expression_Literal)) {
+			return null;
+		}
+		Literal literal = ((Expression_Literal) arguments.get(0)).getLiteral();
+		if (!(literal instanceof Literal_Text)) {
+			return null;
+		}
+		try {
+			return LiteralParser.parseLiteral(literal).convertToString();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+}
@@ -4,6 +4,7 @@
  */
 package name.martingeisse.mahdl.plugin.codegen;
 
+import com.intellij.openapi.progress.ProgressManager;
 import name.martingeisse.mahdl.plugin.processor.definition.*;
 import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
 import name.martingeisse.mahdl.plugin.processor.expression.ProcessedExpression;
@@ -28,21 +29,30 @@ public final class ModuleVerilogGenerator {
 	private final VariableVerilogGenerator variableVerilogGenerator;
 	private final StatementVerilogGenerator statementVerilogGenerator;
 	private int helperSignalNameGenerationCounter = 0;
+	private final ExpressionHashConsing expressionHashConsing = new ExpressionHashConsing();
+	private final Map<Integer, String> extractedExpressionNames = new HashMap<>();
 	private final Map<ConstantValue.Matrix, String> romContentsToName = new HashMap<>();
-	private int memoryFileGenerationCounter = 0;
+	private int anonymousRomNameGenerationCounter = 0;
 	private final MemoryFileGenerator memoryFileGenerator;
+	private final MemoryFileFormat memoryFileFormat;
 
-	public ModuleVerilogGenerator(ModuleDefinition module, Writer out, MemoryFileGenerator memoryFileGenerator) {
-		this(module, new PrintWriter(out), memoryFileGenerator);
+	/**
+	 * Set while printing an always-block, where no helper signals or ROMs can be declared.
+	 */
+	private boolean insideAlwaysBlock = false;
+
+	public ModuleVerilogGenerator(ModuleDefinition module, Writer out, MemoryFileGenerator memoryFileGenerator, MemoryFileFormat memoryFileFormat) {
+		this(module, new PrintWriter(out), memoryFileGenerator, memoryFileFormat);
 	}
 
-	public ModuleVerilogGenerator(ModuleDefinition module, PrintWriter out, MemoryFileGenerator memoryFileGenerator) {
+	public ModuleVerilogGenerator(ModuleDefinition module, PrintWriter out, MemoryFileGenerator memoryFileGenerator, MemoryFileFormat memoryFileFormat) {
 		this.module = module;
 		this.out = out;
 		this.expressionVerilogGenerator = new ExpressionVerilogGenerator(this::extractExpression, this::extractRom);
 		this.variableVerilogGenerator = new VariableVerilogGenerator(expressionVerilogGenerator);
 		this.statementVerilogGenerator = new StatementVerilogGenerator(expressionVerilogGenerator, variableVerilogGenerator);
 		this.memoryFileGenerator = memoryFileGenerator;
+		this.memoryFileFormat = memoryFileFormat;
 	}
 
 	public void run() {
@@ -98,7 +108,8 @@ public final class ModuleVerilogGenerator {
 			out.println(';');
 		});
 
-		// print continuous assignments from signal initializers
+		// print continuous assignments from signal initializers. Each toplevel item is built separately and printed
+		// as soon as it is complete, so helper signals extracted while building it get printed before it.
 		out.println();
 		foreachDefinition(Signal.class, (signal, first) -> {
 			if (signal.getInitializer() != null) {
@@ -113,39 +124,42 @@ public final class ModuleVerilogGenerator {
 			}
 		});
 
-		// print register initializers (initial blocks)
-		{
-			StringBuilder builder = new StringBuilder();
-			foreachDefinition(Register.class, (register, first) -> {
-				if (register.getInitializer() != null) {
-					if (register.getProcessedDataType() instanceof ProcessedDataType.Matrix) {
-						ConstantValue.Matrix value = (ConstantValue.Matrix) register.getInitializerValue();
-						initializeMatrix(register.getName(), value);
-					} else {
-						builder.append("\t\t");
-						builder.append(register.getName());
-						builder.append(" <= ");
-						expressionVerilogGenerator.generate(register.getInitializerValue(), builder);
-						builder.append(";\n");
-					}
-				}
-			});
-			out.println();
-			out.println("\tinitial begin");
-			out.print(builder);
-			out.println("\tend");
-		}
-
-		// print do-blocks
+		// print register initializers (initial blocks). Matrix initializers are printed first since they are separate
+		// initial blocks. Bit and vector initializers are constants that never need extraction, so they can be
+		// printed directly.
+		foreachDefinition(Register.class, (register, first) -> {
+			if (register.getInitializer() != null && register.getProcessedDataType() instanceof ProcessedDataType.Matrix) {
+				ConstantValue.Matrix value = (ConstantValue.Matrix) register.getInitializerValue();
+				initializeMatrix(register.getName(), value);
+			}
+		});
 		out.println();
-		{
-			StringBuilder builder = new StringBuilder();
-			for (ProcessedDoBlock doBlock : module.getDoBlocks()) {
-				builder.append('\n');
-				statementVerilogGenerator.generate(doBlock, builder);
+		out.println("\tinitial begin");
+		foreachDefinition(Register.class, (register, first) -> {
+			if (register.getInitializer() != null && !(register.getProcessedDataType() instanceof ProcessedDataType.Matrix)) {
+				StringBuilder builder = new StringBuilder();
+				builder.append("\t\t");
+				builder.append(register.getName());
+				builder.append(" <= ");
+				expressionVerilogGenerator.generate(register.getInitializerValue(), builder);
+				builder.append(';');
+				out.println(builder);
 			}
-			out.println(builder);
+		});
+		out.println("\tend");
+
+		// print do-blocks. The helper signals of each do-block are extracted and printed first, so the do-block itself
+		// can be streamed to the output.
+		out.println();
+		for (ProcessedDoBlock doBlock : module.getDoBlocks()) {
+			ProgressManager.checkCanceled();
+			out.println();
+			statementVerilogGenerator.prepare(doBlock);
+			insideAlwaysBlock = true;
+			statementVerilogGenerator.generate(doBlock, out);
+			insideAlwaysBlock = false;
 		}
+		out.println();
 
 		// print module instances
 		out.println();
@@ -153,7 +167,7 @@ public final class ModuleVerilogGenerator {
 			StringBuilder builder = new StringBuilder();
 			foreachDefinition(ModuleInstance.class, (instance, firstModule) -> {
 				builder.append('\t');
-				builder.append(ModuleNamingStrategy.getVerilogNameForMahdlName(instance.getModuleElement().getName()));
+				builder.append(ModuleNamingStrategy.getVerilogNameForMahdlName(instance.getModuleName()));
 				builder.append(' ');
 				builder.append(instance.getName());
 				builder.append("(");
@@ -182,40 +196,55 @@ public final class ModuleVerilogGenerator {
 		}
 
 		out.println("endmodule");
+		out.flush();
+		if (out.checkError()) {
+			throw new ModuleCannotGenerateCodeException("could not write generated code");
+		}
 	}
 
 	// A switch expression will always be extracted, even when it could be turned into a switch statement in-place
 	// because it is already a toplevel expression, but for generated code it's okay for now.
+	// Helper signals are continuous, so structurally equal expressions share a single helper signal.
 	private String extractExpression(ProcessedExpression expression) {
 		if (expression.getDataType() instanceof ProcessedDataType.Matrix) {
 			// note: selecting a bit or vector from a matrix is allowed at runtime and won't call this method in the
 			// first place since the matrix appears as a SignalLikeReference, which won't be extracted
 			throw new ModuleCannotGenerateCodeException("cannot handle matrix-valued expression at runtime: " + expression);
 		}
+		int expressionNumber = expressionHashConsing.getNumber(expression);
+		String existingName = extractedExpressionNames.get(expressionNumber);
+		if (existingName != null) {
+			return existingName;
+		}
+		checkNotInsideAlwaysBlock();
 		String name = getNextHelperSignalName();
-		StringBuilder builder = new StringBuilder();
 		if (expression instanceof ProcessedSwitchExpression) {
 
+			// the switch may be huge, so it is printed case by case after extracting its own helpers
 			ProcessedExpression temporarySignal = new SyntheticSignalLikeExpression(expression.getErrorSource(),
 				expression.getDataType(), name);
 			ProcessedSwitchExpression switchExpression = (ProcessedSwitchExpression) expression;
 			ProcessedSwitchStatement switchStatement = switchExpression.convertToStatement(temporarySignal);
-
-			builder.append("\treg").append(bitOrVectorSuffixToString(expression.getDataType()));
-			builder.append(' ').append(name).append(";\n");
-			builder.append("\talways @(*) begin\n");
-			statementVerilogGenerator.generateSwitch(switchStatement, builder, 2);
-			builder.append("\tend\n");
+			statementVerilogGenerator.prepare(switchStatement);
+			out.print("\treg" + bitOrVectorSuffixToString(expression.getDataType()) + ' ' + name + ";\n");
+			out.print("\talways @(*) begin\n");
+			insideAlwaysBlock = true;
+			statementVerilogGenerator.generateSwitch(switchStatement, out, 2);
+			insideAlwaysBlock = false;
+			out.print("\tend\n");
+			out.println();
 
 		} else {
 
+			StringBuilder builder = new StringBuilder();
 			builder.append("\twire").append(bitOrVectorSuffixToString(expression.getDataType()));
 			builder.append(' ').append(name).append(" = ");
 			expressionVerilogGenerator.generate(expression, builder);
 			builder.append(";\n");
+			out.println(builder);
 
 		}
-		out.println(builder);
+		extractedExpressionNames.put(expressionNumber, name);
 		return name;
 	}
 
@@ -224,23 +253,30 @@ public final class ModuleVerilogGenerator {
 		if (existingRomName != null) {
 			return existingRomName;
 		}
-		String romName = "anonymous_rom_" + memoryFileGenerationCounter;
+		checkNotInsideAlwaysBlock();
+		String romName = "anonymous_rom_" + anonymousRomNameGenerationCounter;
+		anonymousRomNameGenerationCounter++;
 		out.print("reg[" + (value.getSecondSize() - 1) + ":0] " + romName + "[" + (value.getFirstSize() - 1) + ":0];");
 		initializeMatrix(romName, value);
 		romContentsToName.put(value, romName);
 		return romName;
 	}
 
+	// a failure here means that StatementVerilogGenerator.prepare() missed a helper that generate() needs
+	private void checkNotInsideAlwaysBlock() {
+		if (insideAlwaysBlock) {
+			throw new ModuleCannotGenerateCodeException("internal error: helper signal was not extracted before the always-block");
+		}
+	}
+
 	private void initializeMatrix(String destinationName, ConstantValue.Matrix matrixValue) {
-		String filename = ModuleNamingStrategy.getVerilogNameForMahdlName(module.getName()) + memoryFileGenerationCounter + ".mif";
+		String filename;
 		try {
-			memoryFileGenerator.generateMemoryFile(filename, matrixValue);
+			filename = memoryFileGenerator.generateMemoryFile(matrixValue);
 		} catch (Exception e) {
-			throw new ModuleCannotGenerateCodeException("could not generate memory file '" + filename + "': " + e.toString());
+			throw new ModuleCannotGenerateCodeException("could not generate memory file for '" + destinationName + "': " + e.toString());
 		}
-		out.println("initial $readmemh(\"" + filename + "\", " + destinationName + ", 0, " +
-			(matrixValue.getFirstSize() - 1) + ");");
-		memoryFileGenerationCounter++;
+		out.println(memoryFileFormat.getLoadStatement(filename, destinationName, matrixValue.getFirstSize()));
 	}
 
 	//
@@ -287,7 +323,13 @@ public final class ModuleVerilogGenerator {
 	//
 
 	public interface MemoryFileGenerator {
-		void generateMemoryFile(String filename, ConstantValue.Matrix matrix) throws Exception;
+
+		/**
+		 * Makes sure that a memory file with the specified contents exists in the memory file format passed to the
+		 * generator and returns its name.
+		 */
+		String generateMemoryFile(ConstantValue.Matrix matrix) throws Exception;
+
 	}
 
 }
@@ -7,6 +7,8 @@ package name.martingeisse.mahdl.plugin.codegen;
 import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
 import name.martingeisse.mahdl.plugin.processor.statement.*;
 
+import java.io.PrintWriter;
+
 /**
  *
  */
@@ -21,9 +23,49 @@ public final class StatementVerilogGenerator {
 	}
 
 	/**
-	 * Generates the code for the specified do-block to the builder, writing helper signals to the output as needed.
+	 * Extracts all helper signals and ROMs that the specified do-block needs, without generating any code for the
+	 * do-block itself. Helpers cannot be declared inside an always-block, so this must be called before
+	 * {@link #generate(ProcessedDoBlock, PrintWriter)}.
+	 */
+	public void prepare(ProcessedDoBlock doBlock) {
+		if (doBlock.getClock() != null) {
+			expressionVerilogGenerator.prepare(doBlock.getClock(), ExpressionVerilogGenerator.NESTING_IDENTIFIER_ONLY);
+		}
+		prepare(doBlock.getBody());
+	}
+
+	/**
+	 * Like {@link #prepare(ProcessedDoBlock)}, but for a single statement.
+	 */
+	public void prepare(ProcessedStatement statement) {
+		if (statement instanceof ProcessedBlock) {
+			for (ProcessedStatement childStatement : ((ProcessedBlock) statement).getStatements()) {
+				prepare(childStatement);
+			}
+		} else if (statement instanceof ProcessedAssignment) {
+			ProcessedAssignment assignment = (ProcessedAssignment) statement;
+			variableVerilogGenerator.prepare(assignment.getLeftHandSide());
+			expressionVerilogGenerator.prepare(assignment.getRightHandSide(), ExpressionVerilogGenerator.NESTING_TOPLEVEL);
+		} else if (statement instanceof ProcessedIf) {
+			ProcessedIf processedIf = (ProcessedIf) statement;
+			expressionVerilogGenerator.prepare(processedIf.getCondition(), ExpressionVerilogGenerator.NESTING_TOPLEVEL);
+			prepare(processedIf.getThenBranch());
+			prepare(processedIf.getElseBranch());
+		} else if (statement instanceof ProcessedSwitchStatement) {
+			ProcessedSwitchStatement switchStatement = (ProcessedSwitchStatement) statement;
+			expressionVerilogGenerator.prepare(switchStatement.getSelector(), ExpressionVerilogGenerator.NESTING_TOPLEVEL);
+			for (ProcessedSwitchStatement.Case aCase : switchStatement.getCases()) {
+				prepare(aCase.getBranch());
+			}
+		}
+	}
+
+	/**
+	 * Generates the code for the specified do-block directly to the output, one line at a time. The do-block must have
+	 * been prepared, so all helper signals it uses exist already.
 	 */
-	public void generate(ProcessedDoBlock doBlock, StringBuilder builder) {
+	public void generate(ProcessedDoBlock doBlock, PrintWriter out) {
+		StringBuilder builder = new StringBuilder();
 		builder.append("\talways @(");
 		if (doBlock.getClock() == null) {
 			builder.append('*');
@@ -32,54 +74,64 @@ public final class StatementVerilogGenerator {
 			expressionVerilogGenerator.generate(doBlock.getClock(), builder, ExpressionVerilogGenerator.NESTING_IDENTIFIER_ONLY);
 		}
 		builder.append(") begin\n");
-		generate(doBlock.getBody(), builder, 2);
-		builder.append("\tend\n");
+		out.print(builder);
+		if (doBlock.getBody() instanceof ProcessedBlock) {
+			out.print("\t\tbegin\n");
+			for (ProcessedStatement statement : ((ProcessedBlock) doBlock.getBody()).getStatements()) {
+				generate(statement, out, 3);
+			}
+			out.print("\t\tend\n");
+		} else {
+			generate(doBlock.getBody(), out, 2);
+		}
+		out.print("\tend\n");
 	}
 
 	/**
-	 * Generates the code for the specified statement to the builder, writing helper signals to the output as needed.
+	 * Generates the code for the specified statement directly to the output, one line at a time. The statement must
+	 * have been prepared, so all helper signals it uses exist already.
 	 */
-	public void generate(ProcessedStatement statement, StringBuilder builder, int indentation) {
+	public void generate(ProcessedStatement statement, PrintWriter out, int indentation) {
 
 		if (statement instanceof ProcessedBlock) {
 
 			ProcessedBlock block = (ProcessedBlock) statement;
-			indent(builder, indentation);
-			builder.append("begin\n");
+			printLine(out, indentation, "begin");
 			for (ProcessedStatement childStatement : block.getStatements()) {
-				generate(childStatement, builder, indentation + 1);
+				generate(childStatement, out, indentation + 1);
 			}
-			indent(builder, indentation);
-			builder.append("end\n");
+			printLine(out, indentation, "end");
 
 		} else if (statement instanceof ProcessedAssignment) {
 
 			ProcessedAssignment assignment = (ProcessedAssignment) statement;
+			StringBuilder builder = new StringBuilder();
 			indent(builder, indentation);
 			variableVerilogGenerator.generate(assignment.getLeftHandSide(), builder);
 			builder.append(" <= ");
 			expressionVerilogGenerator.generate(assignment.getRightHandSide(), builder, ExpressionVerilogGenerator.NESTING_TOPLEVEL);
 			builder.append(";\n");
+			out.print(builder);
 
 		} else if (statement instanceof ProcessedIf) {
 
 			ProcessedIf processedIf = (ProcessedIf) statement;
+			StringBuilder builder = new StringBuilder();
 			indent(builder, indentation);
 			builder.append("if (");
 			expressionVerilogGenerator.generate(processedIf.getCondition(), builder, ExpressionVerilogGenerator.NESTING_TOPLEVEL);
 			builder.append(") begin\n");
-			generate(processedIf.getThenBranch(), builder, indentation + 1);
+			out.print(builder);
+			generate(processedIf.getThenBranch(), out, indentation + 1);
 			if (!(processedIf.getElseBranch() instanceof Nop)) {
-				indent(builder, indentation);
-				builder.append("end else begin\n");
-				generate(processedIf.getElseBranch(), builder, indentation + 1);
+				printLine(out, indentation, "end else begin");
+				generate(processedIf.getElseBranch(), out, indentation + 1);
 			}
-			indent(builder, indentation);
-			builder.append("end\n");
+			printLine(out, indentation, "end");
 
 		} else if (statement instanceof ProcessedSwitchStatement) {
 
-			generateSwitch((ProcessedSwitchStatement)statement, builder, indentation);
+			generateSwitch((ProcessedSwitchStatement)statement, out, indentation);
 
 		} else if (!(statement instanceof Nop)) {
 			throw new ModuleCannotGenerateCodeException("unknown statement: " + statement);
@@ -93,12 +145,26 @@ public final class StatementVerilogGenerator {
 		}
 	}
 
-	public void generateSwitch(ProcessedSwitchStatement statement, StringBuilder builder, int indentation) {
+	private void printLine(PrintWriter out, int indentation, String line) {
+		for (int i = 0; i < indentation; i++) {
+			out.print('\t');
+		}
+		out.print(line);
+		out.print('\n');
+	}
+
+	/**
+	 * Generates the switch statement case by case, so even a huge switch is never held in memory as a whole.
+	 */
+	public void generateSwitch(ProcessedSwitchStatement statement, PrintWriter out, int indentation) {
+		StringBuilder builder = new StringBuilder();
 		indent(builder, indentation);
 		builder.append("switch (");
 		expressionVerilogGenerator.generate(statement.getSelector(), builder, ExpressionVerilogGenerator.NESTING_TOPLEVEL);
 		builder.append(") {\n");
+		out.print(builder);
 		for (ProcessedSwitchStatement.Case aCase : statement.getCases()) {
+			builder.setLength(0);
 			builder.append('\n');
 			indent(builder, indentation + 1);
 			builder.append("case ");
@@ -114,10 +180,10 @@ public final class StatementVerilogGenerator {
 				}
 			}
 			builder.append(":\n");
-			generate(aCase.getBranch(), builder, indentation + 2);
+			out.print(builder);
+			generate(aCase.getBranch(), out, indentation + 2);
 		}
-		indent(builder, indentation);
-		builder.append("}\n");
+		printLine(out, indentation, "}");
 	}
 
 }
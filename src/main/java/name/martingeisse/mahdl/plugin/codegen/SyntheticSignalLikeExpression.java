@@ -44,4 +44,9 @@ public final class SyntheticSignalLikeExpression extends ProcessedExpression {
 		return this;
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		return false;
+	}
+
 }
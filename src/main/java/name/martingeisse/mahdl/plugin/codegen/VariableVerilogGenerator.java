@@ -30,6 +30,24 @@ public final class VariableVerilogGenerator {
 		this.expressionVerilogGenerator = expressionVerilogGenerator;
 	}
 
+	/**
+	 * Extracts the helper signals needed by R-expressions embedded in the specified L-expression, see
+	 * {@link ExpressionVerilogGenerator#prepare(ProcessedExpression, int)}.
+	 */
+	public void prepare(ProcessedExpression expression) {
+		if (expression instanceof ProcessedIndexSelection) {
+			ProcessedIndexSelection selection = (ProcessedIndexSelection) expression;
+			prepare(selection.getContainer());
+			expressionVerilogGenerator.prepare(selection.getIndex(), ExpressionVerilogGenerator.NESTING_TOPLEVEL);
+		} else if (expression instanceof ProcessedRangeSelection) {
+			prepare(((ProcessedRangeSelection) expression).getContainer());
+		} else if (expression instanceof ProcessedBinaryOperation) {
+			ProcessedBinaryOperation operation = (ProcessedBinaryOperation) expression;
+			prepare(operation.getLeftOperand());
+			prepare(operation.getRightOperand());
+		}
+	}
+
 	/**
 	 * Generates the code for the specified expression to the builder.
 	 */
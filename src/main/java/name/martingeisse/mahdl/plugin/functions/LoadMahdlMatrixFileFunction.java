@@ -5,6 +5,7 @@
 package name.martingeisse.mahdl.plugin.functions;
 
 import com.google.common.collect.ImmutableList;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
@@ -12,25 +13,22 @@ import name.martingeisse.mahdl.plugin.processor.ErrorHandler;
 import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
 import name.martingeisse.mahdl.plugin.processor.expression.ProcessedExpression;
 import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
-import name.martingeisse.mahdl.plugin.util.HeadBodyReader;
-import name.martingeisse.mahdl.plugin.util.LiteralParser;
-import org.apache.commons.lang3.mutable.MutableObject;
+import name.martingeisse.mahdl.plugin.util.MatrixFileParser;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.BitSet;
 import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  *
  */
 public final class LoadMahdlMatrixFileFunction extends FixedSignatureFunction {
 
-	private static final Pattern ROW_PATTERN = Pattern.compile("[0-9a-fA-F]+");
+	private static final long MEMORY_MAPPING_THRESHOLD = 1024 * 1024;
 
 	public LoadMahdlMatrixFileFunction() {
 		super(ImmutableList.of(
@@ -51,7 +49,7 @@ public final class LoadMahdlMatrixFileFunction extends FixedSignatureFunction {
 	protected ProcessedDataType internalCheckType(@NotNull List<ProcessedExpression> arguments, ErrorHandler errorHandler) {
 		ProcessedExpression.FormallyConstantEvaluationContext context = new ProcessedExpression.FormallyConstantEvaluationContext(errorHandler);
 		int firstSize = arguments.get(1).evaluateFormallyConstant(context).convertToInteger().intValueExact();
-		int secondSize = arguments.get(1).evaluateFormallyConstant(context).convertToInteger().intValueExact();
+		int secondSize = arguments.get(2).evaluateFormallyConstant(context).convertToInteger().intValueExact();
 		return new ProcessedDataType.Matrix(firstSize, secondSize);
 	}
 
@@ -68,102 +66,39 @@ public final class LoadMahdlMatrixFileFunction extends FixedSignatureFunction {
 			return ConstantValue.Unknown.INSTANCE;
 		}
 
-		// read the file
-		MutableObject<BitSet> resultBitSetHolder = new MutableObject();
-		try (InputStream inputStream = file.getInputStream()) {
-			try (InputStreamReader inputStreamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
-				new HeadBodyReader() {
-
-					private boolean rowsOk = false, columnsOk = false;
-					private BitSet bits;
-					private int firstEmptyBodyLine = -1;
-
-					@Override
-					protected void onHeadProperty(String key, String value) throws FormatException {
-						switch (key) {
-
-							case "rows":
-								if (expectNonNegativeInteger(key, value) != rows) {
-									throw new FormatException("mismatching number of rows");
-								}
-								rowsOk = true;
-								break;
-
-							case "columns":
-								if (expectNonNegativeInteger(key, value) != columns) {
-									throw new FormatException("mismatching number of columns");
-								}
-								columnsOk = true;
-								break;
-
-							default:
-								throw new FormatException("unknown property: " + key);
-
-						}
-					}
-
-					@Override
-					protected void onStartBody() throws FormatException {
-						if (!rowsOk) {
-							throw new FormatException("missing 'rows' property");
-						}
-						if (!columnsOk) {
-							throw new FormatException("missing 'columns' property");
-						}
-						bits = new BitSet(rows * columns);
-						resultBitSetHolder.setValue(bits);
-					}
-
-					@Override
-					protected void onBodyLine(int totalLineIndex, int bodyLineIndex, String line) throws FormatException {
-						line = line.trim();
-						if (line.isEmpty()) {
-							if (firstEmptyBodyLine == -1) {
-								firstEmptyBodyLine = totalLineIndex;
-							}
-							return;
-						}
-						if (firstEmptyBodyLine != -1) {
-							throw new FormatException("body contains empty line(s) starting at line " + firstEmptyBodyLine);
-						}
-						if (!ROW_PATTERN.matcher(line).matches()) {
-							throw new FormatException("invalid value at line " + totalLineIndex);
-						}
-						ConstantValue.Vector rowValue;
-						try {
-							rowValue = LiteralParser.parseVector(columns + "h" + line);
-						} catch (LiteralParser.ParseException e) {
-							// shouldn't happen since that line passed the ROW_PATTERN already
-							throw new FormatException("unexpected exception while parsing line " + totalLineIndex + ": " + e.toString());
-						}
-						BitSet rowBits = rowValue.getBits();
-						int rowBaseIndex = bodyLineIndex * columns;
-						for (int i = 0; i < columns; i++) {
-							bits.set(rowBaseIndex + i, rowBits.get(i));
-						}
-					}
-
-					private int expectNonNegativeInteger(String key, String text) throws FormatException {
-						int value;
-						try {
-							value = Integer.parseInt(text);
-						} catch (NumberFormatException e) {
-							throw new FormatException("invalid value for property '" + key + "'");
-						}
-						if (value < 0) {
-							throw new FormatException("property '" + key + "' cannot be negative");
-						}
-						return value;
-					}
+		// loading the same file again is answered from the cache
+		MatrixFileCache cache = MatrixFileCache.getInstance(errorSource.getProject());
+		ConstantValue.Matrix cachedMatrix = cache.get(file, rows, columns);
+		if (cachedMatrix != null) {
+			return cachedMatrix;
+		}
 
-				}.readFrom(inputStreamReader);
-			}
-		} catch (HeadBodyReader.FormatException e) {
+		// read and parse the file
+		long[] words;
+		try {
+			words = MatrixFileParser.parse(readFile(file), rows, columns);
+		} catch (MatrixFileParser.FormatException e) {
 			return context.error(errorSource, e.getMessage());
 		} catch (IOException e) {
 			return context.error(errorSource, e.toString());
 		}
-		return new ConstantValue.Matrix(rows, columns, resultBitSetHolder.getValue());
+		ConstantValue.Matrix matrix = new ConstantValue.Matrix(rows, columns, BitSet.valueOf(words));
+		cache.put(file, matrix);
+		return matrix;
+	}
+
+	/**
+	 * Large files on the local file system are memory-mapped; all others are read into memory at once.
+	 */
+	@NotNull
+	private static ByteBuffer readFile(@NotNull VirtualFile file) throws IOException {
+		if (file.isInLocalFileSystem() && file.getLength() >= MEMORY_MAPPING_THRESHOLD) {
+			try (FileChannel channel = FileChannel.open(VfsUtilCore.virtualToIoFile(file).toPath(), StandardOpenOption.READ)) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		} else {
+			return ByteBuffer.wrap(file.contentsToByteArray());
+		}
 	}
 
 	private VirtualFile locateFile(@NotNull PsiElement anchor, String filename, @NotNull ProcessedExpression.FormallyConstantEvaluationContext context) {
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.functions;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Objects;
+
+/**
+ * Project-level cache for matrices loaded by {@link LoadMahdlMatrixFileFunction}, so the same file is only parsed once
+ * even if it is loaded repeatedly, e.g. on every annotator pass or by several modules.
+ * <p>
+ * Entries are keyed by the file path, its modification stamp and the expected matrix size, so a changed file simply
+ * misses the cache; the stale entry gets evicted eventually. The cache is bounded by the total size of the cached
+ * matrices and evicts the least recently used ones first. The cache uses a single segment because Guava divides the
+ * maximum weight among the segments, which would otherwise limit the size of a single matrix to a fraction of the
+ * total.
+ */
+public final class MatrixFileCache {
+
+	private static final long MAXIMUM_TOTAL_BYTES = 64 * 1024 * 1024;
+
+	private final Cache<Key, ConstantValue.Matrix> cache = CacheBuilder.newBuilder()
+		.concurrencyLevel(1)
+		.maximumWeight(MAXIMUM_TOTAL_BYTES)
+		.weigher((Key key, ConstantValue.Matrix matrix) -> (int) Math.min(Integer.MAX_VALUE, ((long) key.rows * key.columns + 7) / 8))
+		.build();
+
+	@NotNull
+	public static MatrixFileCache getInstance(@NotNull Project project) {
+		return ServiceManager.getService(project, MatrixFileCache.class);
+	}
+
+	@Nullable
+	public ConstantValue.Matrix get(@NotNull VirtualFile file, int rows, int columns) {
+		return cache.getIfPresent(new Key(file, rows, columns));
+	}
+
+	public void put(@NotNull VirtualFile file, @NotNull ConstantValue.Matrix matrix) {
+		cache.put(new Key(file, matrix.getFirstSize(), matrix.getSecondSize()), matrix);
+	}
+
+	private static final class Key {
+
+		private final String path;
+		private final long modificationStamp;
+		private final int rows;
+		private final int columns;
+
+		Key(@NotNull VirtualFile file, int rows, int columns) {
+			this.path = file.getPath();
+			this.modificationStamp = file.getModificationStamp();
+			this.rows = rows;
+			this.columns = columns;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				Key other = (Key) obj;
+				return path.equals(other.path) && modificationStamp == other.modificationStamp && rows == other.rows && columns == other.columns;
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(path, modificationStamp, rows, columns);
+		}
+
+	}
+
+}
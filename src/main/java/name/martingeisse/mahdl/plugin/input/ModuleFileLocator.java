@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.input;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.*;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.FileBasedIndex;
+import name.martingeisse.mahdl.plugin.MahdlFileType;
+import name.martingeisse.mahdl.plugin.MahdlModuleIndex;
+import org.apache.commons.lang3.tuple.Pair;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Finds the file for a canonical module name, as seen from a source root. The file is looked up through the
+ * {@link MahdlModuleIndex} and must be located at the path that follows from the module name. If the index is not
+ * available or does not know a matching file, the file at that path is returned anyway, so the caller can report what
+ * is wrong with it, just like when walking the source folders manually.
+ * <p>
+ * Results, including missing files, are cached until a .mahdl file or a folder is created, deleted, moved, copied or
+ * renamed. Content changes don't affect the cache since the result is always the file at the expected path.
+ */
+public final class ModuleFileLocator {
+
+	private static final String DOT_EXTENSION = "." + MahdlFileType.DEFAULT_EXTENSION;
+
+	@NotNull
+	private final Project project;
+
+	private final ConcurrentMap<Pair<VirtualFile, String>, Optional<VirtualFile>> cache = new ConcurrentHashMap<>();
+
+	public ModuleFileLocator(@NotNull Project project) {
+		this.project = project;
+		project.getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+			@Override
+			public void after(@NotNull List<? extends VFileEvent> events) {
+				for (VFileEvent event : events) {
+					if (affectsModuleFileLocations(event)) {
+						cache.clear();
+						return;
+					}
+				}
+			}
+		});
+	}
+
+	@NotNull
+	public static ModuleFileLocator getInstance(@NotNull Project project) {
+		return ServiceManager.getService(project, ModuleFileLocator.class);
+	}
+
+	@Nullable
+	public VirtualFile findModuleFile(@NotNull VirtualFile sourceRoot, @NotNull String canonicalModuleName) {
+		Pair<VirtualFile, String> key = Pair.of(sourceRoot, canonicalModuleName);
+		Optional<VirtualFile> cachedFile = cache.get(key);
+		if (cachedFile != null && (!cachedFile.isPresent() || cachedFile.get().isValid())) {
+			return cachedFile.orElse(null);
+		}
+		String relativePath = canonicalModuleName.replace('.', '/') + DOT_EXTENSION;
+		VirtualFile file = null;
+		if (!DumbService.isDumb(project)) {
+			for (VirtualFile candidate : FileBasedIndex.getInstance().getContainingFiles(MahdlModuleIndex.NAME, canonicalModuleName, GlobalSearchScope.allScope(project))) {
+				if (relativePath.equals(VfsUtilCore.getRelativePath(candidate, sourceRoot, '/'))) {
+					file = candidate;
+					break;
+				}
+			}
+		}
+		if (file == null) {
+			file = sourceRoot.findFileByRelativePath(relativePath);
+		}
+		cache.put(key, Optional.ofNullable(file));
+		return file;
+	}
+
+	/**
+	 * Returns true if the event may change the file found for a module name. Events on folders are counted in since
+	 * they move or remove the files within.
+	 */
+	private static boolean affectsModuleFileLocations(@NotNull VFileEvent event) {
+		if (event instanceof VFileCreateEvent) {
+			return isModuleFileName(((VFileCreateEvent) event).getChildName());
+		} else if (event instanceof VFileCopyEvent) {
+			VFileCopyEvent copyEvent = (VFileCopyEvent) event;
+			return copyEvent.getFile().isDirectory() || isModuleFileName(copyEvent.getNewChildName());
+		} else if (event instanceof VFileDeleteEvent) {
+			return isModuleFileOrFolder(((VFileDeleteEvent) event).getFile());
+		} else if (event instanceof VFileMoveEvent) {
+			return isModuleFileOrFolder(((VFileMoveEvent) event).getFile());
+		} else if (event instanceof VFilePropertyChangeEvent) {
+			VFilePropertyChangeEvent propertyChangeEvent = (VFilePropertyChangeEvent) event;
+			if (!VirtualFile.PROP_NAME.equals(propertyChangeEvent.getPropertyName())) {
+				return false;
+			}
+			return propertyChangeEvent.getFile().isDirectory() || isModuleFileName((String) propertyChangeEvent.getOldValue())
+				|| isModuleFileName((String) propertyChangeEvent.getNewValue());
+		} else {
+			return false;
+		}
+	}
+
+	private static boolean isModuleFileOrFolder(@NotNull VirtualFile file) {
+		return file.isDirectory() || isModuleFileName(file.getName());
+	}
+
+	private static boolean isModuleFileName(@Nullable String name) {
+		return name != null && name.endsWith(DOT_EXTENSION);
+	}
+
+}
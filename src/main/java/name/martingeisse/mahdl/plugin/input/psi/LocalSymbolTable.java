@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.input.psi;
+
+import com.google.common.collect.ImmutableMap;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maps the names of the ports, signal-likes and module instances of a module to their definitions. Ports come first,
+ * then the implementation items in the order they appear in. If a name is defined more than once, the first definition
+ * wins -- the redefinition error is reported by the module processor.
+ * <p>
+ * Module instances are mapped to the identifier of their definition, not the definition itself, since that is what
+ * references to an instance resolve to.
+ * <p>
+ * The table is cached with the module and rebuilt when the containing file changes.
+ */
+public final class LocalSymbolTable {
+
+	private static final Key<CachedValue<LocalSymbolTable>> KEY = Key.create("MahdlLocalSymbolTable");
+
+	@NotNull
+	private final ImmutableMap<String, PsiElement> definitions;
+
+	private LocalSymbolTable(@NotNull ImmutableMap<String, PsiElement> definitions) {
+		this.definitions = definitions;
+	}
+
+	@NotNull
+	public static LocalSymbolTable get(@NotNull Module module) {
+		return CachedValuesManager.getManager(module.getProject()).getCachedValue(module, KEY, () -> {
+			return CachedValueProvider.Result.create(build(module), module.getContainingFile());
+		}, false);
+	}
+
+	@NotNull
+	private static LocalSymbolTable build(@NotNull Module module) {
+		Map<String, PsiElement> definitions = new LinkedHashMap<>();
+		for (PortDefinitionGroup group : module.getPortDefinitionGroups().getAll()) {
+			if (group instanceof PortDefinitionGroup_Valid) {
+				for (PortDefinition definition : ((PortDefinitionGroup_Valid) group).getDefinitions().getAll()) {
+					add(definitions, definition.getName(), definition);
+				}
+			}
+		}
+		for (ImplementationItem implementationItem : module.getImplementationItems().getAll()) {
+			if (implementationItem instanceof ImplementationItem_SignalLikeDefinitionGroup) {
+				for (SignalLikeDefinition definition : ((ImplementationItem_SignalLikeDefinitionGroup) implementationItem).getDefinitions().getAll()) {
+					add(definitions, definition.getName(), definition);
+				}
+			} else if (implementationItem instanceof ImplementationItem_ModuleInstanceDefinitionGroup) {
+				for (ModuleInstanceDefinition definition : ((ImplementationItem_ModuleInstanceDefinitionGroup) implementationItem).getDefinitions().getAll()) {
+					add(definitions, definition.getName(), definition.getIdentifier());
+				}
+			}
+		}
+		return new LocalSymbolTable(ImmutableMap.copyOf(definitions));
+	}
+
+	private static void add(@NotNull Map<String, PsiElement> definitions, @Nullable String name, @NotNull PsiElement definition) {
+		if (name != null) {
+			definitions.putIfAbsent(name, definition);
+		}
+	}
+
+	@Nullable
+	public PsiElement resolve(@NotNull String name) {
+		return definitions.get(name);
+	}
+
+	@NotNull
+	public ImmutableMap<String, PsiElement> getDefinitions() {
+		return definitions;
+	}
+
+	public int size() {
+		return definitions.size();
+	}
+
+}
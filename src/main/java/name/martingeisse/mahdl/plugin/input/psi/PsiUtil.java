@@ -16,6 +16,7 @@ import com.intellij.util.Consumer;
 import com.intellij.util.FileContentUtil;
 import com.intellij.util.IncorrectOperationException;
 import name.martingeisse.mahdl.plugin.MahdlSourceFile;
+import name.martingeisse.mahdl.plugin.input.ModuleFileLocator;
 import name.martingeisse.mahdl.plugin.input.ReferenceResolutionException;
 import name.martingeisse.mahdl.plugin.input.reference.LocalReference;
 import name.martingeisse.mahdl.plugin.input.reference.ModuleInstancePortReference;
@@ -94,16 +95,17 @@ public final class PsiUtil {
 			throw new ReferenceResolutionException("the module name is not located inside a source root");
 		}
 		String[] segments = parseQualifiedModuleName(moduleName);
-		VirtualFile targetVirtualFile = sourceRoot;
-		for (int i = 0; i < segments.length - 1; i++) {
-			targetVirtualFile = targetVirtualFile.findChild(segments[i]);
-			if (targetVirtualFile == null) {
-				String path = sourceRoot.getPath() + '/' + StringUtils.join(segments, '/') + ".mahdl";
-				throw new ReferenceResolutionException("could not locate module file " + path + ": folder " + segments[i] + " not found");
-			}
-		}
-		targetVirtualFile = targetVirtualFile.findChild(segments[segments.length - 1] + ".mahdl");
+		VirtualFile targetVirtualFile = ModuleFileLocator.getInstance(moduleName.getProject()).findModuleFile(sourceRoot, StringUtils.join(segments, '.'));
 		if (targetVirtualFile == null) {
+			// walk the folders to find out what exactly is missing
+			targetVirtualFile = sourceRoot;
+			for (int i = 0; i < segments.length - 1; i++) {
+				targetVirtualFile = targetVirtualFile.findChild(segments[i]);
+				if (targetVirtualFile == null) {
+					String path = sourceRoot.getPath() + '/' + StringUtils.join(segments, '/') + ".mahdl";
+					throw new ReferenceResolutionException("could not locate module file " + path + ": folder " + segments[i] + " not found");
+				}
+			}
 			String path = sourceRoot.getPath() + '/' + StringUtils.join(segments, '/') + ".mahdl";
 			throw new ReferenceResolutionException("module file " + path + " not found");
 		}
@@ -14,9 +14,6 @@ import name.martingeisse.mahdl.plugin.input.psi.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Base class for local references to signal-likes and module instances. We use a base class that can resolve all of
  * those because they live in the same namespace. Even if a reference targets an object of the wrong kind, we still
@@ -49,45 +46,8 @@ public final class LocalReference implements PsiReference {
 	@Nullable
 	@Override
 	public PsiElement resolve() {
-
 		Module module = PsiUtil.getAncestor(element, Module.class);
-		if (module == null) {
-			return null;
-		}
-		String identifier = element.getText();
-
-		// ports
-		for (PortDefinitionGroup group : module.getPortDefinitionGroups().getAll()) {
-			if (group instanceof PortDefinitionGroup_Valid) {
-				for (PortDefinition definition : ((PortDefinitionGroup_Valid) group).getDefinitions().getAll()) {
-					String definitionName = definition.getName();
-					if (definitionName != null && definitionName.equals(identifier)) {
-						return definition;
-					}
-				}
-			}
-		}
-
-		// local definitions
-		for (ImplementationItem implementationItem : module.getImplementationItems().getAll()) {
-			if (implementationItem instanceof ImplementationItem_SignalLikeDefinitionGroup) {
-				for (SignalLikeDefinition definition : ((ImplementationItem_SignalLikeDefinitionGroup) implementationItem).getDefinitions().getAll()) {
-					String definitionName = definition.getName();
-					if (definitionName != null && definitionName.equals(identifier)) {
-						return definition;
-					}
-				}
-			} else if (implementationItem instanceof ImplementationItem_ModuleInstanceDefinitionGroup) {
-				for (ModuleInstanceDefinition definition : ((ImplementationItem_ModuleInstanceDefinitionGroup) implementationItem).getDefinitions().getAll()) {
-					String instanceName = definition.getName();
-					if (instanceName != null && instanceName.equals(identifier)) {
-						return definition.getIdentifier();
-					}
-				}
-			}
-		}
-
-		return null;
+		return (module == null ? null : LocalSymbolTable.get(module).resolve(element.getText()));
 	}
 
 	@NotNull
@@ -147,43 +107,8 @@ public final class LocalReference implements PsiReference {
 	@NotNull
 	@Override
 	public Object[] getVariants() {
-
-		// obtain the module
 		Module module = PsiUtil.getAncestor(element, Module.class);
-		if (module == null) {
-			return new Object[0];
-		}
-		List<Object> variants = new ArrayList<>();
-
-		// ports
-		for (PortDefinitionGroup group : module.getPortDefinitionGroups().getAll()) {
-			if (group instanceof PortDefinitionGroup_Valid) {
-				for (PortDefinition definition : ((PortDefinitionGroup_Valid) group).getDefinitions().getAll()) {
-					String definitionName = definition.getName();
-					if (definitionName != null) {
-						variants.add(definitionName);
-					}
-				}
-			}
-		}
-
-		// implementation items
-		for (ImplementationItem implementationItem : module.getImplementationItems().getAll()) {
-			if (implementationItem instanceof ImplementationItem_SignalLikeDefinitionGroup) {
-				for (SignalLikeDefinition definition : ((ImplementationItem_SignalLikeDefinitionGroup) implementationItem).getDefinitions().getAll()) {
-					String definitionName = definition.getName();
-					if (definitionName != null) {
-						variants.add(definitionName);
-					}
-				}
-			} else if (implementationItem instanceof ImplementationItem_ModuleInstanceDefinitionGroup) {
-				for (ModuleInstanceDefinition definition : ((ImplementationItem_ModuleInstanceDefinitionGroup) implementationItem).getDefinitions().getAll()) {
-					variants.add(definition.getName());
-				}
-			}
-		}
-
-		return variants.toArray();
+		return (module == null ? new Object[0] : LocalSymbolTable.get(module).getDefinitions().keySet().toArray());
 	}
 
 }
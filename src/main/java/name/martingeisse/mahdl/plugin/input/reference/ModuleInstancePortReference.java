@@ -10,6 +10,11 @@ import com.intellij.psi.PsiNamedElement;
 import com.intellij.psi.PsiReference;
 import com.intellij.util.IncorrectOperationException;
 import name.martingeisse.mahdl.plugin.input.psi.*;
+import name.martingeisse.mahdl.plugin.processor.ModuleProcessingCache;
+import name.martingeisse.mahdl.plugin.processor.definition.ModuleInstance;
+import name.martingeisse.mahdl.plugin.processor.definition.Named;
+import name.martingeisse.mahdl.plugin.signature.ModuleSignature;
+import name.martingeisse.mahdl.plugin.signature.ModuleSignatureIndex;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -45,6 +50,18 @@ public class ModuleInstancePortReference implements PsiReference {
 		if (expression == null) {
 			return null;
 		}
+
+		// The (cached) analysis of the enclosing module has resolved the module of each instance already. Only if
+		// that doesn't help, resolve the reference "as good as we can" to produce partial results.
+		Module enclosingModule = PsiUtil.getAncestor(expression, Module.class);
+		if (enclosingModule != null) {
+			String instanceName = expression.getInstanceName().getIdentifier().getText();
+			Named definition = ModuleProcessingCache.getModuleDefinition(enclosingModule).getDefinitions().get(instanceName);
+			if (definition instanceof ModuleInstance) {
+				return ((ModuleInstance) definition).getModuleElement();
+			}
+		}
+
 		PsiElement someElementInsideInstanceDefinition = expression.getInstanceName().getReference().resolve();
 		if (someElementInsideInstanceDefinition == null) {
 			return null;
@@ -76,6 +93,11 @@ public class ModuleInstancePortReference implements PsiReference {
 		}
 		Module targetModule = (Module) resolvedModule;
 		String referencePortName = getCanonicalText();
+		ModuleSignature targetSignature = getTargetModuleSignature();
+		if (targetSignature != null && targetSignature.getPort(referencePortName) == null) {
+			// the index tells us that the port doesn't exist, so don't search the module's PSI for it
+			return targetModule;
+		}
 		for (PortDefinitionGroup portDefinitionGroup : targetModule.getPortDefinitionGroups().getAll()) {
 			if (portDefinitionGroup instanceof PortDefinitionGroup_Valid) {
 				for (PortDefinition portDefinition : ((PortDefinitionGroup_Valid) portDefinitionGroup).getDefinitions().getAll()) {
@@ -142,6 +164,13 @@ public class ModuleInstancePortReference implements PsiReference {
 	public Object[] getVariants() {
 		// note: if this returns PSI elements, they must be PsiNamedElement or contain the name in meta-data
 		List<String> portNames = new ArrayList<>();
+		ModuleSignature targetSignature = getTargetModuleSignature();
+		if (targetSignature != null) {
+			for (ModuleSignature.Port port : targetSignature.getPorts()) {
+				portNames.add(port.getName());
+			}
+			return portNames.toArray();
+		}
 		PsiElement resolvedModule = resolveModule();
 		if (resolvedModule instanceof Module) {
 			Module targetModule = (Module) resolvedModule;
@@ -159,6 +188,28 @@ public class ModuleInstancePortReference implements PsiReference {
 		return portNames.toArray();
 	}
 
+	/**
+	 * Looks up the signature of the instantiated module in the index, which avoids loading the AST of the module
+	 * file. Returns null if the index cannot help, in which case the PSI must be used.
+	 */
+	@Nullable
+	private ModuleSignature getTargetModuleSignature() {
+		Expression_InstancePort expression = PsiUtil.getAncestor(instancePortName, Expression_InstancePort.class);
+		if (expression == null) {
+			return null;
+		}
+		PsiElement someElementInsideInstanceDefinition = expression.getInstanceName().getReference().resolve();
+		if (someElementInsideInstanceDefinition == null) {
+			return null;
+		}
+		ImplementationItem_ModuleInstanceDefinitionGroup moduleInstanceDefinitionGroup = PsiUtil.getAncestor(someElementInsideInstanceDefinition, ImplementationItem_ModuleInstanceDefinitionGroup.class);
+		if (moduleInstanceDefinitionGroup == null) {
+			return null;
+		}
+		String moduleName = PsiUtil.canonicalizeQualifiedModuleName(moduleInstanceDefinitionGroup.getModuleName());
+		return ModuleSignatureIndex.getSignature(moduleInstanceDefinitionGroup, moduleName);
+	}
+
 	@Override
 	public boolean isSoft() {
 		return false;
@@ -16,14 +16,13 @@ import name.martingeisse.mahdl.plugin.actions.AbstractModuleAndConsoleMahdlFileA
 import name.martingeisse.mahdl.plugin.actions.Configuration;
 import name.martingeisse.mahdl.plugin.actions.FlatVerilogFolderOutputConsumer;
 import name.martingeisse.mahdl.plugin.codegen.DesignVerilogGenerator;
+import name.martingeisse.mahdl.plugin.codegen.GenerationManifest;
 import name.martingeisse.mahdl.plugin.util.UserMessageException;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Properties;
 import java.util.function.Consumer;
 
 /**
@@ -67,50 +66,47 @@ public class GenerateIseBuildAction extends AbstractModuleAndConsoleMahdlFileAct
 		}
 
 		// load associated properties file
-		Configuration configuration = new Configuration(readAssociatedProperties(virtualFile));
+		Configuration configuration = new Configuration(readAssociatedProperties(virtualFile, true));
 
 		// generate Verilog files
 		String buildName = actionTargetSourceFile.getModule().getName();
 		VirtualFile buildFolder = createBuildFolder(projectModule, console, buildName);
-		DesignVerilogGenerator.OutputConsumer outputConsumer = new FlatVerilogFolderOutputConsumer(buildFolder);
+		FlatVerilogFolderOutputConsumer outputConsumer = new FlatVerilogFolderOutputConsumer(buildFolder);
 		DesignVerilogGenerator designGenerator = new DesignVerilogGenerator(actionTargetSourceFile.getModule(), outputConsumer);
-		designGenerator.generate();
-
-		// generate build files
-		Consumer<VirtualFile> makeExecutable = file -> {
-			File localFile = new File(file.getPath());
-			if (localFile.exists()) {
-				if (!localFile.setExecutable(true, true)) {
-					console.print("Could not make " + localFile.getName() + " executable", ConsoleViewContentType.LOG_WARNING_OUTPUT);
-				}
+		designGenerator.setMemoryFileFormat(getMemoryFileFormat(configuration));
+		runInBackground(projectModule.getProject(), "Generating ISE build", console, () -> {
+			designGenerator.setManifest(GenerationManifest.load(outputConsumer.getFolder()));
+			try {
+				designGenerator.generate();
+			} finally {
+				outputConsumer.finish();
 			}
-		};
-		BuildContext buildContext = new BuildContext(designGenerator.getToplevelModule(),
-			ImmutableSet.copyOf(designGenerator.getGeneratedModules()), configuration, buildFolder);
-		generate(buildFolder, "environment.sh", new EnvironmentVariablesScriptGenerator(buildContext));
-		generate(buildFolder, "build.xst", new XstScriptGenerator(buildContext));
-		generate(buildFolder, "build.prj", new XstProjectGenerator(buildContext));
-		generate(buildFolder, "build.sh", new BuildScriptGenerator(buildContext), makeExecutable);
-		generate(buildFolder, "upload.sh", new UploadScriptGenerator(buildContext), makeExecutable);
-		copyConstraints(virtualFile, buildFolder);
-
-		console.print("Done.", ConsoleViewContentType.NORMAL_OUTPUT);
-	}
-
-	@NotNull
-	private Properties readAssociatedProperties(VirtualFile toplevelModuleFile) {
-		VirtualFile propertiesFile = findAssociatedFile(toplevelModuleFile, ".properties");
-		try (InputStream inputStream = propertiesFile.getInputStream()) {
-			Properties properties = new Properties();
-			properties.load(inputStream);
-			return properties;
-		} catch (IOException e) {
-			throw new UserMessageException("Exception while reading associated properties file: " + e);
-		}
+			designGenerator.getManifest().save();
+
+			// generate build files
+			Consumer<VirtualFile> makeExecutable = file -> {
+				File localFile = new File(file.getPath());
+				if (localFile.exists()) {
+					if (!localFile.setExecutable(true, true)) {
+						console.print("Could not make " + localFile.getName() + " executable", ConsoleViewContentType.LOG_WARNING_OUTPUT);
+					}
+				}
+			};
+			BuildContext buildContext = new BuildContext(designGenerator.getToplevelModule(),
+				ImmutableSet.copyOf(designGenerator.getGeneratedModules()), configuration, buildFolder);
+			generate(buildFolder, "environment.sh", new EnvironmentVariablesScriptGenerator(buildContext));
+			generate(buildFolder, "build.xst", new XstScriptGenerator(buildContext));
+			generate(buildFolder, "build.prj", new XstProjectGenerator(buildContext));
+			generate(buildFolder, "build.sh", new BuildScriptGenerator(buildContext), makeExecutable);
+			generate(buildFolder, "upload.sh", new UploadScriptGenerator(buildContext), makeExecutable);
+			copyConstraints(virtualFile, buildFolder);
+
+			console.print("Done.", ConsoleViewContentType.NORMAL_OUTPUT);
+		});
 	}
 
 	private void copyConstraints(VirtualFile toplevelModuleFile, VirtualFile buildFolder) throws Exception {
-		VirtualFile constraintsFile = findAssociatedFile(toplevelModuleFile, ".ucf");
+		VirtualFile constraintsFile = findAssociatedFile(toplevelModuleFile, ".ucf", true);
 		MyVoidWriteAction action = () -> {
 			String targetFilename = "build.ucf";
 			VirtualFile existingTargetFile = buildFolder.findChild(targetFilename);
@@ -122,19 +118,6 @@ public class GenerateIseBuildAction extends AbstractModuleAndConsoleMahdlFileAct
 		runWriteAction(action);
 	}
 
-	private VirtualFile findAssociatedFile(VirtualFile toplevelModuleFile, String dotExtension) {
-		String moduleFileName = toplevelModuleFile.getName();
-		if (!moduleFileName.endsWith(".mahdl")) {
-			throw new UserMessageException("Toplevel module file extension is not .mahdl");
-		}
-		String associatedFileName = moduleFileName.substring(0, moduleFileName.length() - ".mahdl".length()) + dotExtension;
-		VirtualFile associatedFile = toplevelModuleFile.getParent().findChild(associatedFileName);
-		if (associatedFile == null) {
-			throw new UserMessageException("Could not find associated " + dotExtension + " file");
-		}
-		return associatedFile;
-	}
-
 	// can be called from any thread
 	private VirtualFile createBuildFolder(@NotNull Module projectModule, @NotNull ConsoleViewImpl console, String buildSubfolderName) throws Exception {
 		MyReturnWriteAction<VirtualFile> action = () -> {
@@ -12,66 +12,101 @@ import name.martingeisse.mahdl.plugin.processor.expression.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.math.BigInteger;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * This object detects assignments to invalid targets such as constants or operator expressions (except assignments to
  * concatenation, which is allowed). It also detects multiple or missing assignments to signals and registers. It is NOT
  * concerned with type safety and assumes that the {@link ExpressionProcessor} has detected any type errors already.
+ * <p>
+ * Assignments are tracked per bit of a vector and per row of a matrix, so different do-blocks may assign to disjoint
+ * parts of the same signal as long as the selection uses constant indices. An assignment with a non-constant index
+ * counts as an assignment to the whole signal.
  */
 public final class AssignmentValidator {
 
 	private final ErrorHandler errorHandler;
-	private final Set<String> previouslyAssignedSignals = new HashSet<>();
-	private final Set<String> newlyAssignedSignals = new HashSet<>();
+	private final SignalIds signalIds;
+	private final BitSet assignmentRequired = new BitSet();
+	private final BitSet previouslyAssignedSignals = new BitSet();
+	private final BitSet newlyAssignedSignals = new BitSet();
 
-	public AssignmentValidator(@NotNull ErrorHandler errorHandler) {
+	/**
+	 * The definitions must be complete, i.e. contain all signal-likes and module instances of the module, and be
+	 * passed in the order in which missing assignments should be reported.
+	 */
+	public AssignmentValidator(@NotNull ErrorHandler errorHandler, @NotNull Collection<Named> definitions) {
 		this.errorHandler = errorHandler;
-	}
-
-	public void finishSection() {
-		previouslyAssignedSignals.addAll(newlyAssignedSignals);
-		newlyAssignedSignals.clear();
-	}
-
-	public void checkMissingAssignments(@NotNull Collection<Named> definitions) {
+		this.signalIds = new SignalIds(definitions);
 		for (Named definition : definitions) {
 			if (definition instanceof ModulePort) {
 				ModulePort port = (ModulePort) definition;
-				if (port.getDirectionElement() instanceof PortDirection_Out) {
-					if (port.getInitializer() == null && !previouslyAssignedSignals.contains(port.getName())) {
-						errorHandler.onError(port.getNameElement(), "missing assignment for port '" + port.getName() + "'");
-					}
+				if (port.getDirectionElement() instanceof PortDirection_Out && port.getInitializer() == null) {
+					setRequired(signalIds.getId(port));
 				}
 			} else if (definition instanceof Signal) {
 				Signal signal = (Signal) definition;
-				if (signal.getInitializer() == null && !previouslyAssignedSignals.contains(signal.getName())) {
-					errorHandler.onError(signal.getNameElement(), "missing assignment for signal '" + signal.getName() + "'");
+				if (signal.getInitializer() == null) {
+					setRequired(signalIds.getId(signal));
 				}
 			} else if (definition instanceof ModuleInstance) {
 				ModuleInstance moduleInstance = (ModuleInstance) definition;
-				String instanceName = moduleInstance.getName();
-				for (PortDefinitionGroup untypedPortDefinitionGroup : moduleInstance.getModuleElement().getPortDefinitionGroups().getAll()) {
-					if (untypedPortDefinitionGroup instanceof PortDefinitionGroup_Valid) {
-						PortDefinitionGroup_Valid portDefinitionGroup = (PortDefinitionGroup_Valid)untypedPortDefinitionGroup;
-						if (portDefinitionGroup.getDirection() instanceof PortDirection_In) {
-							for (PortDefinition portDefinition : portDefinitionGroup.getDefinitions().getAll()) {
-								String prefixedPortName = instanceName + '.' + portDefinition.getName();
-								if (!previouslyAssignedSignals.contains(prefixedPortName)) {
-									errorHandler.onError(moduleInstance.getModuleInstanceDefinitionElement(),
-										"missing assignment for port '" + portDefinition.getName() + "' in instance '" + instanceName + "'");
-								}
-							}
-						}
+				// the DefinitionProcessor has recorded the ports (from the PSI of the instantiated module), so we don't
+				// have to look at that module again
+				for (InstancePort port : moduleInstance.getPorts().values()) {
+					if (port.getDirection() == PortDirection.IN) {
+						setRequired(signalIds.getId(moduleInstance, port));
 					}
 				}
 			}
 		}
 	}
 
+	private void setRequired(int signalId) {
+		int firstUnit = signalIds.getFirstUnit(signalId);
+		assignmentRequired.set(firstUnit, firstUnit + signalIds.getUnitCount(signalId));
+	}
+
+	public void finishSection() {
+		previouslyAssignedSignals.or(newlyAssignedSignals);
+		newlyAssignedSignals.clear();
+	}
+
+	public void checkMissingAssignments() {
+		BitSet missing = (BitSet) assignmentRequired.clone();
+		missing.andNot(previouslyAssignedSignals);
+		int unit = missing.nextSetBit(0);
+		while (unit >= 0) {
+			int id = signalIds.getIdForUnit(unit);
+			int firstUnit = signalIds.getFirstUnit(id);
+			int endUnit = firstUnit + signalIds.getUnitCount(id);
+			int missingEndUnit = Math.min(missing.nextClearBit(unit), endUnit);
+			String selection = (unit == firstUnit && missingEndUnit == endUnit ? "" : formatSelection(unit - firstUnit, missingEndUnit - 1 - firstUnit));
+			Named owner = signalIds.getOwner(id);
+			if (owner instanceof ModulePort) {
+				errorHandler.onError(owner.getNameElement(), "missing assignment for port '" + owner.getName() + selection + "'");
+			} else if (owner instanceof Signal) {
+				errorHandler.onError(owner.getNameElement(), "missing assignment for signal '" + owner.getName() + selection + "'");
+			} else if (owner instanceof ModuleInstance) {
+				errorHandler.onError(((ModuleInstance) owner).getModuleInstanceDefinitionElement(),
+					"missing assignment for port '" + signalIds.getPortName(id) + selection + "' in instance '" + owner.getName() + "'");
+			}
+			// report each signal only once, even if multiple separate parts are missing
+			unit = missing.nextSetBit(endUnit);
+		}
+	}
+
 	public void validateAssignmentTo(@NotNull ProcessedExpression destination, TriggerKind triggerKind) {
+		validateAssignmentTo(destination, triggerKind, -1, -1);
+	}
+
+	/**
+	 * The unit range is relative to the signal-like or instance port that is being assigned to, and only used if the
+	 * destination is a direct reference to one. A negative lowUnit stands for the whole signal.
+	 */
+	private void validateAssignmentTo(@NotNull ProcessedExpression destination, TriggerKind triggerKind, int lowUnit, int highUnit) {
 		// noinspection ConstantConditions
 		if (destination == null) {
 			throw new IllegalArgumentException("destination cannot be null");
@@ -102,15 +137,26 @@ public final class AssignmentValidator {
 			} else if (signalLike instanceof Constant) {
 				errorHandler.onError(errorSource, "cannot assign to constant");
 			}
-			considerAssignedTo(signalLike, destination.getErrorSource());
+			considerAssignedTo(signalIds.getId(signalLike), lowUnit, highUnit, errorSource);
 
 		} else if (destination instanceof ProcessedIndexSelection) {
 
-			validateAssignmentTo(((ProcessedIndexSelection) destination).getContainer(), triggerKind);
+			ProcessedIndexSelection indexSelection = (ProcessedIndexSelection) destination;
+			int index = getConstantIndex(indexSelection);
+			if (index >= 0 && isDirectReference(indexSelection.getContainer())) {
+				validateAssignmentTo(indexSelection.getContainer(), triggerKind, index, index);
+			} else {
+				validateAssignmentTo(indexSelection.getContainer(), triggerKind);
+			}
 
 		} else if (destination instanceof ProcessedRangeSelection) {
 
-			validateAssignmentTo(((ProcessedRangeSelection) destination).getContainer(), triggerKind);
+			ProcessedRangeSelection rangeSelection = (ProcessedRangeSelection) destination;
+			if (isDirectReference(rangeSelection.getContainer())) {
+				validateAssignmentTo(rangeSelection.getContainer(), triggerKind, rangeSelection.getToIndex(), rangeSelection.getFromIndex());
+			} else {
+				validateAssignmentTo(rangeSelection.getContainer(), triggerKind);
+			}
 
 		} else if (destination instanceof ProcessedBinaryOperation) {
 
@@ -129,7 +175,7 @@ public final class AssignmentValidator {
 				errorHandler.onError(destination.getErrorSource(), "assignment to instance port must be continuous");
 			}
 			validateAssignmentToInstancePort(instancePortReference.getModuleInstance(), instancePortReference.getPort(),
-				instancePortReference.getErrorSource());
+				lowUnit, highUnit, instancePortReference.getErrorSource());
 
 		} else if (!(destination instanceof UnknownExpression)) {
 
@@ -148,22 +194,58 @@ public final class AssignmentValidator {
 	 * in conflict with an assignment to the register, but calling this function would assume it to be.
 	 */
 	public void considerAssignedTo(@NotNull SignalLike signalLike, @NotNull PsiElement errorSource) {
-		considerAssignedTo(signalLike.getName(), errorSource);
+		considerAssignedTo(signalIds.getId(signalLike), -1, -1, errorSource);
 	}
 
 	public void validateAssignmentToInstancePort(@NotNull ModuleInstance moduleInstance, @NotNull InstancePort port, @NotNull PsiElement errorSource) {
+		validateAssignmentToInstancePort(moduleInstance, port, -1, -1, errorSource);
+	}
+
+	private void validateAssignmentToInstancePort(@NotNull ModuleInstance moduleInstance, @NotNull InstancePort port, int lowUnit, int highUnit, @NotNull PsiElement errorSource) {
 		if (port.getDirection() == PortDirection.OUT) {
 			errorHandler.onError(errorSource, "cannot assign to output port");
 		} else {
-			considerAssignedTo(moduleInstance.getName() + '.' + port.getName(), errorSource);
+			considerAssignedTo(signalIds.getId(moduleInstance, port), lowUnit, highUnit, errorSource);
 		}
 	}
 
-	private void considerAssignedTo(@NotNull String signalName, @NotNull PsiElement errorSource) {
-		if (previouslyAssignedSignals.contains(signalName)) {
-			errorHandler.onError(errorSource, "'" + signalName + "' has already been assigned to");
+	private void considerAssignedTo(int signalId, int lowUnit, int highUnit, @NotNull PsiElement errorSource) {
+		int firstUnit = signalIds.getFirstUnit(signalId);
+		int unitCount = signalIds.getUnitCount(signalId);
+		if (lowUnit < 0 || highUnit >= unitCount) {
+			lowUnit = 0;
+			highUnit = unitCount - 1;
 		}
-		newlyAssignedSignals.add(signalName);
+		int fromUnit = firstUnit + lowUnit;
+		int toUnit = firstUnit + highUnit + 1;
+		int conflictUnit = previouslyAssignedSignals.nextSetBit(fromUnit);
+		if (conflictUnit >= 0 && conflictUnit < toUnit) {
+			int conflictEndUnit = Math.min(previouslyAssignedSignals.nextClearBit(conflictUnit), toUnit);
+			String selection = (conflictUnit == firstUnit && conflictEndUnit == firstUnit + unitCount ? "" :
+				formatSelection(conflictUnit - firstUnit, conflictEndUnit - 1 - firstUnit));
+			errorHandler.onError(errorSource, "'" + signalIds.getDisplayName(signalId) + selection + "' has already been assigned to");
+		}
+		newlyAssignedSignals.set(fromUnit, toUnit);
+	}
+
+	private static boolean isDirectReference(@NotNull ProcessedExpression expression) {
+		return (expression instanceof SignalLikeReference || expression instanceof InstancePortReference);
+	}
+
+	// returns -1 if the index is not a (valid) constant
+	private static int getConstantIndex(@NotNull ProcessedIndexSelection indexSelection) {
+		if (indexSelection.getIndex() instanceof ProcessedConstantValue) {
+			BigInteger index = ((ProcessedConstantValue) indexSelection.getIndex()).getValue().convertToInteger();
+			if (index != null && index.signum() >= 0 && index.bitLength() < 31) {
+				return index.intValue();
+			}
+		}
+		return -1;
+	}
+
+	@NotNull
+	private static String formatSelection(int lowUnit, int highUnit) {
+		return (lowUnit == highUnit ? "[" + lowUnit + "]" : "[" + highUnit + ":" + lowUnit + "]");
 	}
 
 	public enum TriggerKind {
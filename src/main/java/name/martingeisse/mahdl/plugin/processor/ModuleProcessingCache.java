@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import name.martingeisse.mahdl.plugin.input.psi.Module;
+import name.martingeisse.mahdl.plugin.processor.definition.ModuleDefinition;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Caches the {@link ModuleProcessingResult} for each module, so the annotator, code generation and reference
+ * resolution can share a single analysis of each module.
+ * <p>
+ * The cached result depends on the PSI modification count, not just on the module's own file, because processing a
+ * module also looks at the ports of every module it instantiates. To keep re-processing after an edit cheap, the
+ * snapshot of the previous run is kept with the module, so only the items affected by the edit get processed again.
+ */
+public final class ModuleProcessingCache {
+
+	private static final Key<CachedValue<ModuleProcessingResult>> KEY = Key.create("MahdlModuleProcessingResult");
+	private static final Key<ModuleProcessingSnapshot> SNAPSHOT_KEY = Key.create("MahdlModuleProcessingSnapshot");
+
+	// prevent instantiation
+	private ModuleProcessingCache() {
+	}
+
+	@NotNull
+	public static ModuleProcessingResult get(@NotNull Module module) {
+		return CachedValuesManager.getManager(module.getProject()).getCachedValue(module, KEY, () -> {
+			ModuleProcessingResult result = process(module);
+			return CachedValueProvider.Result.create(result, PsiModificationTracker.MODIFICATION_COUNT);
+		}, false);
+	}
+
+	@NotNull
+	public static ModuleDefinition getModuleDefinition(@NotNull Module module) {
+		return get(module).getModuleDefinition();
+	}
+
+	@NotNull
+	private static ModuleProcessingResult process(@NotNull Module module) {
+		ImmutableList.Builder<ModuleProcessingResult.Error> errorsBuilder = ImmutableList.builder();
+		ModuleProcessor moduleProcessor = new ModuleProcessor(module, (errorSource, message) -> {
+			errorsBuilder.add(new ModuleProcessingResult.Error(errorSource, message));
+		}, module.getUserData(SNAPSHOT_KEY));
+		ModuleDefinition moduleDefinition = moduleProcessor.process();
+		module.putUserData(SNAPSHOT_KEY, moduleProcessor.getSnapshot());
+		return new ModuleProcessingResult(moduleDefinition, errorsBuilder.build());
+	}
+
+}
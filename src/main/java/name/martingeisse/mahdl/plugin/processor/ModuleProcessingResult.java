@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.intellij.psi.PsiElement;
+import name.martingeisse.mahdl.plugin.processor.definition.ModuleDefinition;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The outcome of running the {@link ModuleProcessor} on a module: the module definition itself, together with all
+ * errors that were reported while building it. Keeping the errors allows clients that only need the definition (such
+ * as code generation) to share the same result with clients that only need the errors (such as the annotator).
+ */
+public final class ModuleProcessingResult {
+
+	@NotNull
+	private final ModuleDefinition moduleDefinition;
+
+	@NotNull
+	private final ImmutableList<Error> errors;
+
+	public ModuleProcessingResult(@NotNull ModuleDefinition moduleDefinition, @NotNull ImmutableList<Error> errors) {
+		this.moduleDefinition = moduleDefinition;
+		this.errors = errors;
+	}
+
+	@NotNull
+	public ModuleDefinition getModuleDefinition() {
+		return moduleDefinition;
+	}
+
+	@NotNull
+	public ImmutableList<Error> getErrors() {
+		return errors;
+	}
+
+	public boolean hasErrors() {
+		return !errors.isEmpty();
+	}
+
+	/**
+	 * Passes all collected errors to the specified error handler, in the order they were originally reported.
+	 */
+	public void reportErrors(@NotNull ErrorHandler errorHandler) {
+		for (Error error : errors) {
+			errorHandler.onError(error.getErrorSource(), error.getMessage());
+		}
+	}
+
+	/**
+	 * A single error reported while processing the module.
+	 */
+	public static final class Error {
+
+		@NotNull
+		private final PsiElement errorSource;
+
+		@NotNull
+		private final String message;
+
+		public Error(@NotNull PsiElement errorSource, @NotNull String message) {
+			this.errorSource = errorSource;
+			this.message = message;
+		}
+
+		@NotNull
+		public PsiElement getErrorSource() {
+			return errorSource;
+		}
+
+		@NotNull
+		public String getMessage() {
+			return message;
+		}
+
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.intellij.psi.PsiElement;
+import name.martingeisse.mahdl.plugin.processor.definition.Named;
+import name.martingeisse.mahdl.plugin.processor.expression.ProcessedExpression;
+import name.martingeisse.mahdl.plugin.processor.statement.ProcessedDoBlock;
+import org.apache.commons.lang3.tuple.Pair;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Remembers the results of a {@link ModuleProcessor} run for each port definition group and implementation item of
+ * the module, so that a later run on an edited version of the same module can reuse the results for all items which
+ * are not affected by the edit.
+ * <p>
+ * An item is unaffected if it is still the same PSI element with the same text, and none of the names it defines or
+ * refers to is defined by an affected item, now or in the previous run. Items that call functions are always
+ * considered affected since they may depend on external files.
+ */
+public final class ModuleProcessingSnapshot {
+
+	@NotNull
+	private final ImmutableMap<PsiElement, Item> items;
+
+	ModuleProcessingSnapshot(@NotNull ImmutableMap<PsiElement, Item> items) {
+		this.items = items;
+	}
+
+	@NotNull
+	ImmutableMap<PsiElement, Item> getItems() {
+		return items;
+	}
+
+	/**
+	 * The results for a single port definition group or implementation item.
+	 */
+	static final class Item {
+
+		/**
+		 * The text of the item (plus any external information the item depends on), or null if the item must be
+		 * processed again in any case.
+		 */
+		@Nullable
+		final String fingerprint;
+
+		@NotNull
+		final ImmutableSet<String> definedNames;
+
+		@NotNull
+		final ImmutableSet<String> referencedNames;
+
+		/**
+		 * All definitions created for the item, including those which were replaced by a redefinition.
+		 */
+		@NotNull
+		final ImmutableList<Named> definitions;
+
+		@Nullable
+		final ProcessedDoBlock doBlock;
+
+		@NotNull
+		final ImmutableList<Pair<ProcessedExpression, AssignmentValidator.TriggerKind>> assignmentDestinations;
+
+		/**
+		 * The errors reported while processing the item. Errors that depend on other items, such as those detected
+		 * by the {@link AssignmentValidator}, are not included.
+		 */
+		@NotNull
+		final ImmutableList<ModuleProcessingResult.Error> errors;
+
+		Item(@Nullable String fingerprint,
+			 @NotNull ImmutableSet<String> definedNames,
+			 @NotNull ImmutableSet<String> referencedNames,
+			 @NotNull ImmutableList<Named> definitions,
+			 @Nullable ProcessedDoBlock doBlock,
+			 @NotNull ImmutableList<Pair<ProcessedExpression, AssignmentValidator.TriggerKind>> assignmentDestinations,
+			 @NotNull ImmutableList<ModuleProcessingResult.Error> errors) {
+			this.fingerprint = fingerprint;
+			this.definedNames = definedNames;
+			this.referencedNames = referencedNames;
+			this.definitions = definitions;
+			this.doBlock = doBlock;
+			this.assignmentDestinations = assignmentDestinations;
+			this.errors = errors;
+		}
+
+	}
+
+}
@@ -6,6 +6,7 @@ package name.martingeisse.mahdl.plugin.processor;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import name.martingeisse.mahdl.plugin.input.ReferenceResolutionException;
@@ -14,17 +15,17 @@ import name.martingeisse.mahdl.plugin.processor.definition.*;
 import name.martingeisse.mahdl.plugin.processor.definition.PortDirection;
 import name.martingeisse.mahdl.plugin.processor.expression.ExpressionProcessor;
 import name.martingeisse.mahdl.plugin.processor.expression.ExpressionProcessorImpl;
+import name.martingeisse.mahdl.plugin.processor.expression.ProcessedExpression;
 import name.martingeisse.mahdl.plugin.processor.statement.ProcessedDoBlock;
 import name.martingeisse.mahdl.plugin.processor.statement.StatementProcessor;
 import name.martingeisse.mahdl.plugin.processor.type.DataTypeProcessor;
 import name.martingeisse.mahdl.plugin.processor.type.DataTypeProcessorImpl;
 import org.apache.commons.lang3.tuple.Pair;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * This class handles the common logic between error annotations, code generation etc., and provides a unified framework
@@ -44,6 +45,7 @@ public final class ModuleProcessor {
 	private final Module module;
 	private final String canonicalModuleName;
 	private final ErrorHandler errorHandler;
+	private final ModuleProcessingSnapshot previousSnapshot;
 
 	private DataTypeProcessor dataTypeProcessor;
 	private ExpressionProcessor expressionProcessor;
@@ -53,10 +55,25 @@ public final class ModuleProcessor {
 	private StatementProcessor statementProcessor;
 	private List<ProcessedDoBlock> processedDoBlocks;
 
+	private Map<PsiElement, ModuleProcessingSnapshot.Item> reusableItems;
+	private Map<PsiElement, ItemScan> itemScans;
+	private Map<PsiElement, ModuleProcessingSnapshot.Item> finishedItems;
+	private PendingItem currentItem;
+	private ModuleProcessingSnapshot snapshot;
+
 	public ModuleProcessor(@NotNull Module module, @NotNull ErrorHandler errorHandler) {
+		this(module, errorHandler, null);
+	}
+
+	/**
+	 * Creates a processor that reuses results from the specified snapshot for all items that are not affected by
+	 * changes since that snapshot was taken. See {@link ModuleProcessingSnapshot} for details.
+	 */
+	public ModuleProcessor(@NotNull Module module, @NotNull ErrorHandler errorHandler, @Nullable ModuleProcessingSnapshot previousSnapshot) {
 		this.module = module;
 		this.canonicalModuleName = PsiUtil.canonicalizeQualifiedModuleName(module.getModuleName());
 		this.errorHandler = errorHandler;
+		this.previousSnapshot = previousSnapshot;
 	}
 
 	@NotNull
@@ -64,6 +81,30 @@ public final class ModuleProcessor {
 		return definitionProcessor.getDefinitions();
 	}
 
+	/**
+	 * Returns the port definition groups and implementation items whose results have been reused from the previous
+	 * snapshot. Must only be called after {@link #process()}.
+	 */
+	@NotNull
+	ImmutableSet<PsiElement> getReusedItems() {
+		if (snapshot == null) {
+			throw new IllegalStateException("module has not been processed yet");
+		}
+		return ImmutableSet.copyOf(reusableItems.keySet());
+	}
+
+	/**
+	 * Returns a snapshot of the results of {@link #process()} that can be passed to another processor for the same
+	 * module. Must only be called after {@link #process()}.
+	 */
+	@NotNull
+	public ModuleProcessingSnapshot getSnapshot() {
+		if (snapshot == null) {
+			throw new IllegalStateException("module has not been processed yet");
+		}
+		return snapshot;
+	}
+
 	public ModuleDefinition process() {
 
 		// make sure the module name matches the file name and sits in the right folder
@@ -81,32 +122,48 @@ public final class ModuleProcessor {
 		// Create helper objects. These objects work together, especially during constant definition analysis, due to
 		// a mutual dependency between the type system, constant evaluation and expression processing. Note the
 		// LocalDefinitionResolver parameter to the ExpressionProcessorImpl calling getDefinitions() on the fly,
-		// not in advance, to break the dependency cycle.
-		expressionProcessor = new ExpressionProcessorImpl(errorHandler, name -> getDefinitions().get(name));
-		dataTypeProcessor = new DataTypeProcessorImpl(errorHandler, expressionProcessor);
-		definitionProcessor = new DefinitionProcessor(errorHandler, dataTypeProcessor, expressionProcessor);
+		// not in advance, to break the dependency cycle. Errors reported by these objects are remembered for the item
+		// being processed, so they can be reported again when that item gets reused.
+		ErrorHandler itemErrorHandler = this::onItemError;
+		expressionProcessor = new ExpressionProcessorImpl(itemErrorHandler, name -> getDefinitions().get(name));
+		dataTypeProcessor = new DataTypeProcessorImpl(itemErrorHandler, expressionProcessor);
+		definitionProcessor = new DefinitionProcessor(itemErrorHandler, dataTypeProcessor, expressionProcessor, LocalSymbolTable.get(module).size());
+
+		// find out which results from the previous run can be reused
+		List<PsiElement> items = new ArrayList<>();
+		items.addAll(module.getPortDefinitionGroups().getAll());
+		items.addAll(module.getImplementationItems().getAll());
+		determineReusableItems(items);
+		finishedItems = new HashMap<>();
+		Map<PsiElement, PendingItem> pendingItems = new LinkedHashMap<>();
 
 		// process module definitions
-		definitionProcessor.processPorts(module.getPortDefinitionGroups());
+		for (PortDefinitionGroup portDefinitionGroup : module.getPortDefinitionGroups().getAll()) {
+			processDefinitions(portDefinitionGroup, pendingItems, () -> definitionProcessor.processPorts(portDefinitionGroup));
+		}
 		for (ImplementationItem implementationItem : module.getImplementationItems().getAll()) {
 			if (isConstant(implementationItem)) {
-				definitionProcessor.process(implementationItem);
+				processDefinitions(implementationItem, pendingItems, () -> definitionProcessor.process(implementationItem));
 			}
 		}
 		for (ImplementationItem implementationItem : module.getImplementationItems().getAll()) {
-			if (!isConstant(implementationItem)) {
-				definitionProcessor.process(implementationItem);
+			if (!isConstant(implementationItem) && !(implementationItem instanceof ImplementationItem_DoBlock)) {
+				processDefinitions(implementationItem, pendingItems, () -> definitionProcessor.process(implementationItem));
 			}
 		}
-		for (Named definition : getDefinitions().values()) {
-			if (!(definition instanceof Constant)) {
-				definition.processExpressions(expressionProcessor);
+		for (PendingItem pendingItem : pendingItems.values()) {
+			currentItem = pendingItem;
+			for (Named definition : pendingItem.definitions) {
+				if (!(definition instanceof Constant) && getDefinitions().get(definition.getName()) == definition) {
+					definition.processExpressions(expressionProcessor);
+				}
 			}
+			currentItem = null;
 		}
 
 		// Process do-blocks and check for missing / duplicate assignments. Do so in the original file's order so when
 		// an error message could in principle appear in one of multiple places, it appears in the topmost place.
-		assignmentValidator = new AssignmentValidator(errorHandler);
+		assignmentValidator = new AssignmentValidator(errorHandler, getDefinitions().values());
 		List<Pair<Runnable, PsiElement>> runnables = new ArrayList<>();
 		for (Named item : getDefinitions().values()) {
 			// Inconsistencies regarding signal-likes in the initializer vs. other assignments:
@@ -126,15 +183,14 @@ public final class ModuleProcessor {
 			}
 		}
 		processedDoBlocks = new ArrayList<>();
-		statementProcessor = new StatementProcessor(errorHandler, expressionProcessor, assignmentValidator);
+		statementProcessor = new StatementProcessor(itemErrorHandler, expressionProcessor,
+			(destination, triggerKind) -> currentItem.assignmentDestinations.add(Pair.of(destination, triggerKind)));
 		for (ImplementationItem implementationItem : module.getImplementationItems().getAll()) {
 			runnables.add(Pair.of(() -> {
 				// We collect all newly assigned signals in a separate set and add them at the end of the current do-block
-				// because assigning to a signal multiple times within the same do-block is allowed. Note that the
-				// per-assignment call to the AssignmentValidator is done by the StatementProcessor, so we don't have
-				// to call it here.
+				// because assigning to a signal multiple times within the same do-block is allowed.
 				if (implementationItem instanceof ImplementationItem_DoBlock) {
-					processedDoBlocks.add(statementProcessor.process((ImplementationItem_DoBlock) implementationItem));
+					processDoBlock((ImplementationItem_DoBlock) implementationItem);
 				}
 				assignmentValidator.finishSection();
 			}, implementationItem));
@@ -145,11 +201,187 @@ public final class ModuleProcessor {
 		}
 
 		// now check that all ports and signals without initializer have been assigned to
-		assignmentValidator.checkMissingAssignments(getDefinitions().values());
+		assignmentValidator.checkMissingAssignments();
+
+		// remember the results for the next run
+		for (PendingItem pendingItem : pendingItems.values()) {
+			finishedItems.put(pendingItem.element, pendingItem.finish());
+		}
+		snapshot = new ModuleProcessingSnapshot(ImmutableMap.copyOf(finishedItems));
 
 		return new ModuleDefinition(isNative, canonicalModuleName, ImmutableMap.copyOf(getDefinitions()), ImmutableList.copyOf(processedDoBlocks));
 	}
 
+	private void onItemError(@NotNull PsiElement errorSource, @NotNull String message) {
+		if (currentItem != null) {
+			currentItem.errors.add(new ModuleProcessingResult.Error(errorSource, message));
+		}
+		errorHandler.onError(errorSource, message);
+	}
+
+	private void processDefinitions(@NotNull PsiElement item, @NotNull Map<PsiElement, PendingItem> pendingItems, @NotNull Supplier<List<Named>> processor) {
+		ModuleProcessingSnapshot.Item previousItem = reusableItems.get(item);
+		if (previousItem == null) {
+			currentItem = new PendingItem(item);
+			currentItem.definitions.addAll(processor.get());
+			pendingItems.put(item, currentItem);
+			currentItem = null;
+		} else {
+			for (Named definition : previousItem.definitions) {
+				definitionProcessor.addPreviouslyProcessed(definition);
+			}
+			reuse(item, previousItem);
+		}
+	}
+
+	private void processDoBlock(@NotNull ImplementationItem_DoBlock doBlock) {
+		ModuleProcessingSnapshot.Item item = reusableItems.get(doBlock);
+		if (item == null) {
+			currentItem = new PendingItem(doBlock);
+			currentItem.doBlock = statementProcessor.process(doBlock);
+			item = currentItem.finish();
+			finishedItems.put(doBlock, item);
+			currentItem = null;
+		} else {
+			reuse(doBlock, item);
+		}
+		for (Pair<ProcessedExpression, AssignmentValidator.TriggerKind> destination : item.assignmentDestinations) {
+			assignmentValidator.validateAssignmentTo(destination.getLeft(), destination.getRight());
+		}
+		if (item.doBlock != null) {
+			processedDoBlocks.add(item.doBlock);
+		}
+	}
+
+	private void reuse(@NotNull PsiElement element, @NotNull ModuleProcessingSnapshot.Item item) {
+		item.errors.forEach(error -> errorHandler.onError(error.getErrorSource(), error.getMessage()));
+		finishedItems.put(element, item);
+	}
+
+	/**
+	 * Determines the items whose results from the previous snapshot can be reused. An item can be reused if its
+	 * fingerprint is unchanged, and none of the names it defines or refers to is "dirty". A name is dirty if it is
+	 * defined, now or in the previous run, by an item that cannot be reused. Since this makes other names dirty, the
+	 * rule is applied until no more changes occur.
+	 */
+	private void determineReusableItems(@NotNull List<PsiElement> items) {
+		reusableItems = new HashMap<>();
+		itemScans = new HashMap<>();
+		if (previousSnapshot == null) {
+			for (PsiElement item : items) {
+				itemScans.put(item, new ItemScan(item));
+			}
+			return;
+		}
+		for (PsiElement item : items) {
+			ModuleProcessingSnapshot.Item previousItem = previousSnapshot.getItems().get(item);
+			if (previousItem != null && previousItem.fingerprint != null && previousItem.fingerprint.equals(getFingerprint(item))
+				&& isStillValid(item, previousItem)) {
+				reusableItems.put(item, previousItem);
+			} else {
+				itemScans.put(item, new ItemScan(item));
+			}
+		}
+		Set<String> dirtyNames = new HashSet<>();
+		for (Map.Entry<PsiElement, ModuleProcessingSnapshot.Item> entry : previousSnapshot.getItems().entrySet()) {
+			if (!reusableItems.containsKey(entry.getKey())) {
+				dirtyNames.addAll(entry.getValue().definedNames);
+			}
+		}
+		for (ItemScan scan : itemScans.values()) {
+			dirtyNames.addAll(scan.definedNames);
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			Iterator<Map.Entry<PsiElement, ModuleProcessingSnapshot.Item>> iterator = reusableItems.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<PsiElement, ModuleProcessingSnapshot.Item> entry = iterator.next();
+				ModuleProcessingSnapshot.Item item = entry.getValue();
+				if (!Collections.disjoint(item.definedNames, dirtyNames) || !Collections.disjoint(item.referencedNames, dirtyNames)) {
+					iterator.remove();
+					itemScans.put(entry.getKey(), new ItemScan(entry.getKey()));
+					dirtyNames.addAll(item.definedNames);
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that all PSI elements kept in the results of an item are still valid, and that module instances still
+	 * refer to the module their module name resolves to now. Otherwise the reused results would refer to stale PSI,
+	 * e.g. after the file of the instantiated module has been reparsed without changing its ports.
+	 */
+	private static boolean isStillValid(@NotNull PsiElement item, @NotNull ModuleProcessingSnapshot.Item previousItem) {
+		for (Named definition : previousItem.definitions) {
+			// definitions capture their names, so a valid but edited name element cannot be reused either
+			if (!definition.getNameElement().isValid() || !definition.getName().equals(definition.getNameElement().getText())) {
+				return false;
+			}
+			if (definition instanceof SignalLike) {
+				SignalLike signalLike = (SignalLike) definition;
+				if (!signalLike.getDataTypeElement().isValid() || (signalLike.getInitializer() != null && !signalLike.getInitializer().isValid())) {
+					return false;
+				}
+			}
+			if (definition instanceof ModuleInstance) {
+				Module moduleElement = ((ModuleInstance) definition).getModuleElement();
+				if (!moduleElement.isValid() || moduleElement != resolveInstantiatedModule(item)
+					|| !((ModuleInstance) definition).getModuleName().equals(moduleElement.getName())) {
+					return false;
+				}
+			}
+		}
+		if (previousItem.doBlock != null) {
+			ProcessedDoBlock doBlock = previousItem.doBlock;
+			if (!doBlock.getBody().getErrorSource().isValid() || (doBlock.getClock() != null && !doBlock.getClock().getErrorSource().isValid())) {
+				return false;
+			}
+		}
+		for (Pair<ProcessedExpression, AssignmentValidator.TriggerKind> destination : previousItem.assignmentDestinations) {
+			if (!destination.getLeft().getErrorSource().isValid()) {
+				return false;
+			}
+		}
+		for (ModuleProcessingResult.Error error : previousItem.errors) {
+			if (!error.getErrorSource().isValid()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Nullable
+	private static Module resolveInstantiatedModule(@NotNull PsiElement item) {
+		if (!(item instanceof ImplementationItem_ModuleInstanceDefinitionGroup)) {
+			return null;
+		}
+		PsiElement resolvedModule = ((ImplementationItem_ModuleInstanceDefinitionGroup) item).getModuleName().getReference().resolve();
+		return (resolvedModule instanceof Module ? (Module) resolvedModule : null);
+	}
+
+	/**
+	 * Returns the text of the item, plus the text of any ports of other modules it depends on, or null if the item
+	 * depends on something that cannot be captured that way.
+	 */
+	@Nullable
+	private static String getFingerprint(@NotNull PsiElement item) {
+		if (item instanceof ImplementationItem_ModuleInstanceDefinitionGroup) {
+			Module resolvedModule = resolveInstantiatedModule(item);
+			if (resolvedModule == null) {
+				return null;
+			}
+			StringBuilder builder = new StringBuilder(item.getText());
+			for (PortDefinitionGroup portDefinitionGroup : resolvedModule.getPortDefinitionGroups().getAll()) {
+				builder.append('\n').append(portDefinitionGroup.getText());
+			}
+			return builder.toString();
+		} else {
+			return item.getText();
+		}
+	}
+
 	private void validateModuleNameAgainstFilePath() {
 		QualifiedModuleName name = module.getModuleName();
 		Module moduleForName;
@@ -175,4 +407,61 @@ public final class ModuleProcessor {
 		}
 	}
 
+	/**
+	 * The names defined and referred to by an item that has to be processed (again), as found in its PSI.
+	 */
+	private static final class ItemScan {
+
+		private final Set<String> definedNames = new HashSet<>();
+		private final Set<String> referencedNames = new HashSet<>();
+		private boolean callsFunction = false;
+
+		ItemScan(@NotNull PsiElement item) {
+			PsiUtil.foreachPsiNode(item, node -> {
+				if (node instanceof PortDefinition) {
+					definedNames.add(((PortDefinition) node).getIdentifier().getText());
+				} else if (node instanceof SignalLikeDefinition_WithoutInitializer) {
+					definedNames.add(((SignalLikeDefinition_WithoutInitializer) node).getIdentifier().getText());
+				} else if (node instanceof SignalLikeDefinition_WithInitializer) {
+					definedNames.add(((SignalLikeDefinition_WithInitializer) node).getIdentifier().getText());
+				} else if (node instanceof ModuleInstanceDefinition) {
+					definedNames.add(((ModuleInstanceDefinition) node).getIdentifier().getText());
+				} else if (node instanceof Expression_Identifier) {
+					referencedNames.add(((Expression_Identifier) node).getIdentifier().getText());
+				} else if (node instanceof InstanceReferenceName) {
+					referencedNames.add(((InstanceReferenceName) node).getIdentifier().getText());
+				} else if (node instanceof Expression_FunctionCall) {
+					callsFunction = true;
+				}
+			});
+		}
+
+	}
+
+	/**
+	 * Collects the results for an item while it is being processed.
+	 */
+	private final class PendingItem {
+
+		private final PsiElement element;
+		private final List<Named> definitions = new ArrayList<>();
+		private ProcessedDoBlock doBlock;
+		private final List<Pair<ProcessedExpression, AssignmentValidator.TriggerKind>> assignmentDestinations = new ArrayList<>();
+		private final List<ModuleProcessingResult.Error> errors = new ArrayList<>();
+
+		PendingItem(@NotNull PsiElement element) {
+			this.element = element;
+		}
+
+		@NotNull
+		ModuleProcessingSnapshot.Item finish() {
+			ItemScan scan = itemScans.get(element);
+			String fingerprint = (scan.callsFunction ? null : getFingerprint(element));
+			return new ModuleProcessingSnapshot.Item(fingerprint, ImmutableSet.copyOf(scan.definedNames),
+				ImmutableSet.copyOf(scan.referencedNames), ImmutableList.copyOf(definitions), doBlock,
+				ImmutableList.copyOf(assignmentDestinations), ImmutableList.copyOf(errors));
+		}
+
+	}
+
 }
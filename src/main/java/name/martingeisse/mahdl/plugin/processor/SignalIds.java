@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.processor;
+
+import name.martingeisse.mahdl.plugin.processor.definition.*;
+import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense integer IDs to the assignable things of a module: its signal-likes and the ports of its module
+ * instances. IDs are assigned in the order of the definitions passed to the constructor, so iterating over IDs visits
+ * them in definition order.
+ * <p>
+ * Each ID also owns a range of "units" which can be assigned to separately: one unit per bit for vectors, one unit
+ * per row for matrices, and a single unit for everything else. Units are numbered consecutively across all IDs, so the
+ * units of all signals can be tracked in a single bit set.
+ * <p>
+ * Looking up an ID does not allocate; in particular, instance ports are looked up by instance name and port name
+ * separately instead of building a prefixed name. Signal-likes that were not part of the original definitions (e.g.
+ * because they were shadowed by a redefinition) get an ID when first looked up.
+ */
+final class SignalIds {
+
+	private final Map<String, Integer> signalLikeIds = new HashMap<>();
+	private final Map<String, Map<String, Integer>> instancePortIds = new HashMap<>();
+	private final List<Named> owners = new ArrayList<>();
+	private final List<String> portNames = new ArrayList<>();
+	private final List<Integer> firstUnits = new ArrayList<>();
+	private int unitCount = 0;
+
+	SignalIds(@NotNull Collection<Named> definitions) {
+		for (Named definition : definitions) {
+			if (definition instanceof SignalLike) {
+				getId((SignalLike) definition);
+			} else if (definition instanceof ModuleInstance) {
+				ModuleInstance moduleInstance = (ModuleInstance) definition;
+				for (InstancePort port : moduleInstance.getPorts().values()) {
+					getId(moduleInstance, port);
+				}
+			}
+		}
+	}
+
+	int getId(@NotNull SignalLike signalLike) {
+		Integer id = signalLikeIds.get(signalLike.getName());
+		if (id == null) {
+			id = allocate(signalLike, null, signalLike.getProcessedDataType());
+			signalLikeIds.put(signalLike.getName(), id);
+		}
+		return id;
+	}
+
+	int getId(@NotNull ModuleInstance moduleInstance, @NotNull InstancePort port) {
+		Map<String, Integer> portIds = instancePortIds.get(moduleInstance.getName());
+		if (portIds == null) {
+			portIds = new HashMap<>();
+			instancePortIds.put(moduleInstance.getName(), portIds);
+		}
+		Integer id = portIds.get(port.getName());
+		if (id == null) {
+			id = allocate(moduleInstance, port.getName(), port.getDataType());
+			portIds.put(port.getName(), id);
+		}
+		return id;
+	}
+
+	private int allocate(@NotNull Named owner, @Nullable String portName, @NotNull ProcessedDataType dataType) {
+		owners.add(owner);
+		portNames.add(portName);
+		firstUnits.add(unitCount);
+		unitCount += countUnits(dataType);
+		return owners.size() - 1;
+	}
+
+	private static int countUnits(@NotNull ProcessedDataType dataType) {
+		if (dataType instanceof ProcessedDataType.Vector) {
+			return Math.max(1, ((ProcessedDataType.Vector) dataType).getSize());
+		} else if (dataType instanceof ProcessedDataType.Matrix) {
+			return Math.max(1, ((ProcessedDataType.Matrix) dataType).getFirstSize());
+		} else {
+			return 1;
+		}
+	}
+
+	int size() {
+		return owners.size();
+	}
+
+	/**
+	 * Returns the total number of units of all IDs.
+	 */
+	int getUnitCount() {
+		return unitCount;
+	}
+
+	int getFirstUnit(int id) {
+		return firstUnits.get(id);
+	}
+
+	int getUnitCount(int id) {
+		return (id == owners.size() - 1 ? unitCount : firstUnits.get(id + 1)) - firstUnits.get(id);
+	}
+
+	/**
+	 * Returns the ID that owns the specified unit.
+	 */
+	int getIdForUnit(int unit) {
+		int index = Collections.binarySearch(firstUnits, unit);
+		return (index >= 0 ? index : -index - 2);
+	}
+
+	/**
+	 * Returns the signal-like or module instance for the specified ID.
+	 */
+	@NotNull
+	Named getOwner(int id) {
+		return owners.get(id);
+	}
+
+	/**
+	 * Returns the port name for an instance port ID, or null for a signal-like ID.
+	 */
+	@Nullable
+	String getPortName(int id) {
+		return portNames.get(id);
+	}
+
+	/**
+	 * Returns the name used to refer to the signal-like or instance port in error messages.
+	 */
+	@NotNull
+	String getDisplayName(int id) {
+		String portName = portNames.get(id);
+		return (portName == null ? owners.get(id).getName() : owners.get(id).getName() + '.' + portName);
+	}
+
+}
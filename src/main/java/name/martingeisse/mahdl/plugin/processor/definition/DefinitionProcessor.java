@@ -14,7 +14,10 @@ import name.martingeisse.mahdl.plugin.processor.type.DataTypeProcessor;
 import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -37,10 +40,21 @@ public final class DefinitionProcessor {
 	public DefinitionProcessor(@NotNull ErrorHandler errorHandler,
 							   @NotNull DataTypeProcessor dataTypeProcessor,
 							   @NotNull ExpressionProcessor expressionProcessor) {
+		this(errorHandler, dataTypeProcessor, expressionProcessor, 16);
+	}
+
+	/**
+	 * The expected number of definitions is only used to size the definition map, typically taken from the
+	 * {@link LocalSymbolTable} of the module being processed.
+	 */
+	public DefinitionProcessor(@NotNull ErrorHandler errorHandler,
+							   @NotNull DataTypeProcessor dataTypeProcessor,
+							   @NotNull ExpressionProcessor expressionProcessor,
+							   int expectedDefinitionCount) {
 		this.errorHandler = errorHandler;
 		this.dataTypeProcessor = dataTypeProcessor;
 		this.expressionProcessor = expressionProcessor;
-		this.definitions = new HashMap<>();
+		this.definitions = new HashMap<>(Math.max(16, expectedDefinitionCount * 4 / 3 + 1));
 	}
 
 	@NotNull
@@ -48,22 +62,27 @@ public final class DefinitionProcessor {
 		return definitions;
 	}
 
-	public void processPorts(@NotNull ListNode<PortDefinitionGroup> psiPortList) {
-		for (PortDefinitionGroup untypedPortDefinitionGroup : psiPortList.getAll()) {
-			if (untypedPortDefinitionGroup instanceof PortDefinitionGroup_Valid) {
-				PortDefinitionGroup_Valid portDefinitionGroup = (PortDefinitionGroup_Valid) untypedPortDefinitionGroup;
-				for (PortDefinition portDefinition : portDefinitionGroup.getDefinitions().getAll()) {
-					DataType dataType = portDefinitionGroup.getDataType();
-					ProcessedDataType processedDataType = dataTypeProcessor.processDataType(dataType);
-					ProcessedDataType.Family family = processedDataType.getFamily();
-					if (family != ProcessedDataType.Family.UNKNOWN && family != ProcessedDataType.Family.BIT && family != ProcessedDataType.Family.VECTOR) {
-						errorHandler.onError(dataType, family.getDisplayString() + " type not allowed for ports");
-						processedDataType = ProcessedDataType.Unknown.INSTANCE;
-					}
-					add(new ModulePort(portDefinition, portDefinitionGroup.getDirection(), dataType, processedDataType));
+	/**
+	 * Processes a single port definition group and adds the resulting ports to the definition map stored in this
+	 * processor. Returns the added ports.
+	 */
+	@NotNull
+	public List<Named> processPorts(@NotNull PortDefinitionGroup untypedPortDefinitionGroup) {
+		List<Named> result = new ArrayList<>();
+		if (untypedPortDefinitionGroup instanceof PortDefinitionGroup_Valid) {
+			PortDefinitionGroup_Valid portDefinitionGroup = (PortDefinitionGroup_Valid) untypedPortDefinitionGroup;
+			for (PortDefinition portDefinition : portDefinitionGroup.getDefinitions().getAll()) {
+				DataType dataType = portDefinitionGroup.getDataType();
+				ProcessedDataType processedDataType = dataTypeProcessor.processDataType(dataType);
+				ProcessedDataType.Family family = processedDataType.getFamily();
+				if (family != ProcessedDataType.Family.UNKNOWN && family != ProcessedDataType.Family.BIT && family != ProcessedDataType.Family.VECTOR) {
+					errorHandler.onError(dataType, family.getDisplayString() + " type not allowed for ports");
+					processedDataType = ProcessedDataType.Unknown.INSTANCE;
 				}
+				add(new ModulePort(portDefinition, portDefinitionGroup.getDirection(), dataType, processedDataType), result);
 			}
 		}
+		return result;
 	}
 
 	/**
@@ -81,8 +100,12 @@ public final class DefinitionProcessor {
 	 * Usage note: This method must first be called for all constants in the order they appear in the module, then for
 	 * all non-constants (in any order). The former ensures that each constant is available for all constants appearing
 	 * later. The latter ensures that the type specifiers for non-constants can use constants defined later.
+	 * <p>
+	 * Returns the definitions that were added for the implementation item.
 	 */
-	public void process(@NotNull ImplementationItem implementationItem) {
+	@NotNull
+	public List<Named> process(@NotNull ImplementationItem implementationItem) {
+		List<Named> result = new ArrayList<>();
 		if (implementationItem instanceof ImplementationItem_SignalLikeDefinitionGroup) {
 			ImplementationItem_SignalLikeDefinitionGroup signalLike = (ImplementationItem_SignalLikeDefinitionGroup) implementationItem;
 			SignalLikeKind kind = signalLike.getKind();
@@ -118,7 +141,7 @@ public final class DefinitionProcessor {
 						constant.processExpressions(expressionProcessor);
 						constant.evaluate(new ProcessedExpression.FormallyConstantEvaluationContext(errorHandler));
 					}
-					add(constant);
+					add(constant, result);
 				} else if (kind instanceof SignalLikeKind_Signal || kind instanceof SignalLikeKind_Register) {
 					String kindString = (kind instanceof SignalLikeKind_Signal ? "signal" : "register");
 					if (dataTypeFamily == ProcessedDataType.Family.MATRIX) {
@@ -139,9 +162,9 @@ public final class DefinitionProcessor {
 						processedDataType = ProcessedDataType.Unknown.INSTANCE;
 					}
 					if (kind instanceof SignalLikeKind_Signal) {
-						add(new Signal(nameElement, dataType, processedDataType, initializer));
+						add(new Signal(nameElement, dataType, processedDataType, initializer), result);
 					} else {
-						add(new Register(nameElement, dataType, processedDataType, initializer));
+						add(new Register(nameElement, dataType, processedDataType, initializer), result);
 					}
 				}
 
@@ -159,14 +182,16 @@ public final class DefinitionProcessor {
 					errorHandler.onError(moduleInstanceDefinitionGroupElement.getModuleName(), "unknown module: '" +
 						moduleInstanceDefinitionGroupElement.getModuleName().getReference().getCanonicalText() + "'");
 					for (ModuleInstanceDefinition definition : moduleInstanceDefinitionGroupElement.getDefinitions().getAll()) {
-						add(new ModuleInstanceWithMissingDefinition(moduleInstanceDefinitionGroupElement.getModuleName(), definition));
+						add(new ModuleInstanceWithMissingDefinition(moduleInstanceDefinitionGroupElement.getModuleName(), definition), result);
 					}
-					return;
+					return result;
 				}
 			}
 
-			// build a map of the port definitions from the module definition
-			Map<String, InstancePort> ports = new HashMap<>();
+			// Build a map of the port definitions from the PSI of the module definition. The ModuleSignatureIndex cannot
+			// replace this walk: it only knows the data types as text, and evaluating them needs the constants of that
+			// module. The index is only used where port names and directions are enough (completion and resolution).
+			Map<String, InstancePort> ports = new LinkedHashMap<>();
 			for (PortDefinitionGroup untypedPortDefinitionGroup : resolvedModule.getPortDefinitionGroups().getAll()) {
 				if (untypedPortDefinitionGroup instanceof PortDefinitionGroup_Valid) {
 					PortDefinitionGroup_Valid portDefinitionGroup = (PortDefinitionGroup_Valid) untypedPortDefinitionGroup;
@@ -192,16 +217,27 @@ public final class DefinitionProcessor {
 
 			// add a module instance definition for each instance identifier
 			for (ModuleInstanceDefinition definition : moduleInstanceDefinitionGroupElement.getDefinitions().getAll()) {
-				add(new ModuleInstance(definition, resolvedModule, ImmutableMap.copyOf(ports)));
+				add(new ModuleInstance(definition, resolvedModule, ImmutableMap.copyOf(ports)), result);
 			}
 
 		}
+		return result;
+	}
+
+	/**
+	 * Adds a definition that was obtained from an earlier run of this processor on the same, unchanged PSI. This does
+	 * not report redefinition errors, since those were already reported (and remembered by the caller) when the
+	 * definition was originally processed.
+	 */
+	public void addPreviouslyProcessed(@NotNull Named element) {
+		definitions.put(element.getName(), element);
 	}
 
-	private void add(@NotNull Named element) {
+	private void add(@NotNull Named element, @NotNull List<Named> addedDefinitions) {
 		if (definitions.put(element.getName(), element) != null) {
 			errorHandler.onError(element.getNameElement(), "redefinition of '" + element.getName() + "'");
 		}
+		addedDefinitions.add(element);
 	}
 
 }
@@ -21,6 +21,9 @@ public final class ModuleInstance extends Named {
 	@NotNull
 	private final Module moduleElement;
 
+	@NotNull
+	private final String moduleName;
+
 	@NotNull
 	private final ImmutableMap<String, InstancePort> ports;
 
@@ -30,6 +33,7 @@ public final class ModuleInstance extends Named {
 		super(moduleInstanceDefinitionElement.getIdentifier());
 		this.moduleInstanceDefinitionElement = moduleInstanceDefinitionElement;
 		this.moduleElement = moduleElement;
+		this.moduleName = moduleElement.getName();
 		this.ports = ports;
 	}
 
@@ -43,6 +47,15 @@ public final class ModuleInstance extends Named {
 		return moduleElement;
 	}
 
+	/**
+	 * Returns the canonical name of the instantiated module as it was when this instance was processed. Unlike
+	 * {@link #getModuleElement()}, this can be used outside of a read action.
+	 */
+	@NotNull
+	public String getModuleName() {
+		return moduleName;
+	}
+
 	@NotNull
 	public ImmutableMap<String, InstancePort> getPorts() {
 		return ports;
@@ -16,8 +16,12 @@ public abstract class Named {
 	@NotNull
 	private final PsiElement nameElement;
 
+	@NotNull
+	private final String name;
+
 	public Named(@NotNull PsiElement nameElement) {
 		this.nameElement = nameElement;
+		this.name = nameElement.getText();
 	}
 
 	@NotNull
@@ -25,9 +29,13 @@ public abstract class Named {
 		return nameElement;
 	}
 
+	/**
+	 * Returns the name as it was when this definition was processed. Unlike the name element, this can be used outside
+	 * of a read action, e.g. while writing generated code.
+	 */
 	@NotNull
 	public final String getName() {
-		return nameElement.getText();
+		return name;
 	}
 
 	public abstract void processExpressions(@NotNull ExpressionProcessor expressionProcessor);
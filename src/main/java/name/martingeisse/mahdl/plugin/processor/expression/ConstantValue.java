@@ -4,6 +4,9 @@
  */
 package name.martingeisse.mahdl.plugin.processor.expression;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
 import name.martingeisse.mahdl.plugin.util.IntegerBitUtil;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -164,13 +167,19 @@ public abstract class ConstantValue {
 	}
 
 	// note: the Java BitSet uses the same index values as the MaHDL vector, just the from/to notation is reversed.
+	// Vectors of up to MAX_SMALL_SIZE bits store their bits in a long instead (bit i of the vector is bit i of the
+	// long), which avoids BitSet and BigInteger operations for the vast majority of vectors.
 	public static final class Vector extends ConstantValue {
 
+		public static final int MAX_SMALL_SIZE = 64;
+
+		private static final BigInteger TWO_TO_THE_64 = BigInteger.ONE.shiftLeft(64);
+
 		private final int size;
+		private final long smallBits;
 		private final BitSet bits;
 
 		public Vector(int size, BigInteger integerValue, boolean truncate) throws TruncateRequiredException {
-			this(size, IntegerBitUtil.convertToBitSet(integerValue, size), false);
 			if (!truncate) {
 				if (integerValue.compareTo(BigInteger.ZERO) < 0) {
 					throw new TruncateRequiredException("negative value " + integerValue + " not allowed in conversion to vector");
@@ -179,45 +188,104 @@ public abstract class ConstantValue {
 					throw new TruncateRequiredException("value " + integerValue + " too large in conversion to vector of size " + size);
 				}
 			}
+			this.size = size;
+			if (size <= MAX_SMALL_SIZE) {
+				// longValue() returns the lowest 64 bits in two's complement representation, which is what we need
+				this.smallBits = integerValue.longValue() & getMask(size);
+				this.bits = null;
+			} else {
+				this.smallBits = 0;
+				this.bits = IntegerBitUtil.convertToBitSet(integerValue, size);
+			}
 		}
 
 		public Vector(int size, @NotNull BitSet bits) {
-			this(size, bits, true);
-		}
-
-		private Vector(int size, @NotNull BitSet bits, boolean cloneBits) {
 			if (bits.length() > size) {
 				throw new IllegalArgumentException("bit set length " + bits.length() + " is greater than the vector size " + size);
 			}
 			this.size = size;
-			this.bits = cloneBits ? (BitSet) bits.clone() : bits;
+			if (size <= MAX_SMALL_SIZE) {
+				this.smallBits = (bits.isEmpty() ? 0 : bits.toLongArray()[0]);
+				this.bits = null;
+			} else {
+				this.smallBits = 0;
+				this.bits = (BitSet) bits.clone();
+			}
+		}
+
+		/**
+		 * Creates a vector from the lowest (size) bits of a long. All higher bits must be zero. Vectors larger than
+		 * MAX_SMALL_SIZE can be created this way too, but all their bits beyond the lowest 64 are zero.
+		 */
+		public Vector(int size, long bits) {
+			if (size < 64 && (bits >>> size) != 0) {
+				throw new IllegalArgumentException("value " + Long.toHexString(bits) + " does not fit into a vector of size " + size);
+			}
+			this.size = size;
+			if (size <= MAX_SMALL_SIZE) {
+				this.smallBits = bits;
+				this.bits = null;
+			} else {
+				this.smallBits = 0;
+				this.bits = BitSet.valueOf(new long[] {bits});
+			}
+		}
+
+		/**
+		 * Returns a mask that has the lowest (size) bits set, for sizes up to 64.
+		 */
+		public static long getMask(int size) {
+			return (size >= 64 ? -1L : (1L << size) - 1);
 		}
 
 		public int getSize() {
 			return size;
 		}
 
+		/**
+		 * Returns true if this vector stores its bits in a long, which is the case for sizes up to MAX_SMALL_SIZE.
+		 * Use {@link #getBitsAsLong()} to obtain the bits of such a vector.
+		 */
+		public boolean isSmall() {
+			return bits == null;
+		}
+
+		/**
+		 * Returns the bits of a small vector as a long. Must not be called for vectors that are not small.
+		 */
+		public long getBitsAsLong() {
+			if (bits != null) {
+				throw new IllegalStateException("vector of size " + size + " does not fit into a long");
+			}
+			return smallBits;
+		}
+
 		/**
 		 * Returns a new BitSet containing the bits from this vector. The returned BitSet is NOT backed by this
 		 * vector and may be modified by the caller.
 		 */
 		@NotNull
 		public BitSet getBits() {
-			return (BitSet) bits.clone();
+			return (bits == null ? BitSet.valueOf(new long[] {smallBits}) : (BitSet) bits.clone());
 		}
 
 		@Override
 		public boolean equals(Object obj) {
 			if (obj instanceof Vector) {
 				Vector other = (Vector) obj;
-				return size == other.size && bits.equals(other.bits);
+				// since the representation depends only on the size, equal-sized vectors use the same representation
+				return size == other.size && (bits == null ? smallBits == other.smallBits : bits.equals(other.bits));
 			}
 			return false;
 		}
 
 		@Override
 		public int hashCode() {
-			return new HashCodeBuilder().append(size).append(bits).toHashCode();
+			if (bits == null) {
+				return 31 * size + Long.hashCode(smallBits);
+			} else {
+				return new HashCodeBuilder().append(size).append(bits).toHashCode();
+			}
 		}
 
 		@Override
@@ -241,11 +309,19 @@ public abstract class ConstantValue {
 		@Override
 		@NotNull
 		public BigInteger convertToInteger() {
-			return IntegerBitUtil.convertToUnsignedInteger(bits);
+			if (bits == null) {
+				BigInteger signedValue = BigInteger.valueOf(smallBits);
+				return (smallBits < 0 ? signedValue.add(TWO_TO_THE_64) : signedValue);
+			} else {
+				return IntegerBitUtil.convertToUnsignedInteger(bits);
+			}
 		}
 
 		@NotNull
 		public String getHexLiteral() {
+			if (bits == null) {
+				return Long.toHexString(smallBits);
+			}
 			StringBuilder builder = new StringBuilder();
 			int paddedLength = bits.length();
 			if (paddedLength < 1) {
@@ -273,6 +349,8 @@ public abstract class ConstantValue {
 		public ConstantValue selectIndex(int index) {
 			if (index < 0 || index >= size) {
 				return Unknown.INSTANCE;
+			} else if (bits == null) {
+				return new Bit(((smallBits >>> index) & 1) != 0);
 			} else {
 				return new Bit(bits.get(index));
 			}
@@ -284,7 +362,30 @@ public abstract class ConstantValue {
 			if (to < 0 || from < to || from >= size) {
 				return Unknown.INSTANCE;
 			}
-			return new Vector(from - to + 1, bits.get(to, from), false);
+			int resultSize = from - to + 1;
+			if (bits == null) {
+				return new Vector(resultSize, (smallBits >>> to) & getMask(resultSize));
+			} else {
+				return new Vector(resultSize, bits.get(to, from + 1));
+			}
+		}
+
+		/**
+		 * Concatenates this vector (as the upper part) with the specified vector (as the lower part).
+		 */
+		@NotNull
+		public Vector concat(@NotNull Vector lowerPart) {
+			int resultSize = size + lowerPart.size;
+			if (resultSize <= MAX_SMALL_SIZE) {
+				// both parts are small, and the shift amount is less than 64
+				return new Vector(resultSize, (smallBits << lowerPart.size) | lowerPart.smallBits);
+			}
+			BitSet resultBits = lowerPart.getBits();
+			BitSet upperBits = (bits == null ? BitSet.valueOf(new long[] {smallBits}) : bits);
+			for (int i = upperBits.nextSetBit(0); i >= 0; i = upperBits.nextSetBit(i + 1)) {
+				resultBits.set(lowerPart.size + i);
+			}
+			return new Vector(resultSize, resultBits);
 		}
 
 	}
@@ -296,6 +397,7 @@ public abstract class ConstantValue {
 
 		private final int firstSize, secondSize;
 		private final BitSet bits;
+		private HashCode contentHash;
 
 		public Matrix(int firstSize, int secondSize, @NotNull BitSet bits) {
 			this.firstSize = firstSize;
@@ -327,7 +429,24 @@ public abstract class ConstantValue {
 
 		@Override
 		public int hashCode() {
-			return new HashCodeBuilder().append(firstSize).append(secondSize).append(bits).toHashCode();
+			return getContentHash().asInt();
+		}
+
+		/**
+		 * Returns a 128-bit hash of the sizes and contents of this matrix. Since matrices can be large (e.g. ROMs), the
+		 * hash is computed only once.
+		 */
+		@NotNull
+		public HashCode getContentHash() {
+			if (contentHash == null) {
+				Hasher hasher = Hashing.murmur3_128().newHasher();
+				hasher.putInt(firstSize).putInt(secondSize);
+				for (long word : bits.toLongArray()) {
+					hasher.putLong(word);
+				}
+				contentHash = hasher.hash();
+			}
+			return contentHash;
 		}
 
 		@Override
@@ -366,7 +485,7 @@ public abstract class ConstantValue {
 			if (index < 0 || index >= firstSize) {
 				return Unknown.INSTANCE;
 			}
-			return new Vector(secondSize, bits.get(index * secondSize, (index + 1) * secondSize - 1), false);
+			return new Vector(secondSize, bits.get(index * secondSize, (index + 1) * secondSize));
 		}
 
 		@Override
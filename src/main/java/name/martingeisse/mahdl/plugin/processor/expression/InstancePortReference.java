@@ -57,4 +57,9 @@ public class InstancePortReference extends ProcessedExpression {
 		return this;
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		return false;
+	}
+
 }
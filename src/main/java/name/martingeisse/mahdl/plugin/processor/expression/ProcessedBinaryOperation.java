@@ -8,9 +8,9 @@ import com.intellij.psi.PsiElement;
 import name.martingeisse.mahdl.plugin.processor.ErrorHandler;
 import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.math.BigInteger;
-import java.util.BitSet;
 
 /**
  *
@@ -66,14 +66,7 @@ public final class ProcessedBinaryOperation extends ProcessedExpression {
 
 		// handle vector concatenation (for concat, bits have been converted to vectors of size 1 by now)
 		if (operator == ProcessedBinaryOperator.VECTOR_CONCAT) {
-			ConstantValue.Vector leftVector = (ConstantValue.Vector) leftOperandValue;
-			ConstantValue.Vector rightVector = (ConstantValue.Vector) rightOperandValue;
-			BitSet resultBits = rightVector.getBits();
-			BitSet leftBits = leftVector.getBits();
-			for (int i = 0; i < leftVector.getSize(); i++) {
-				resultBits.set(rightVector.getSize() + i, leftBits.get(i));
-			}
-			return new ConstantValue.Vector(leftVector.getSize() + rightVector.getSize(), resultBits);
+			return ((ConstantValue.Vector) leftOperandValue).concat((ConstantValue.Vector) rightOperandValue);
 		}
 
 		// with concatenation handled, only logical operators can handle bit values, and only if both operands are bits
@@ -98,6 +91,12 @@ public final class ProcessedBinaryOperation extends ProcessedExpression {
 			return context.evaluationInconsistency(this, "wrong right operand for IVO: " + rightOperandValue);
 		}
 
+		// vectors that fit into a long can be handled without converting to BigInteger
+		ConstantValue smallVectorResult = evaluateSmallVectorOperation(context, leftOperandValue, rightOperandValue);
+		if (smallVectorResult != null) {
+			return smallVectorResult;
+		}
+
 		// perform the corresponding integer operation and convert the result to the type of the expression
 		BigInteger leftInteger = leftOperandValue.convertToInteger();
 		BigInteger rightInteger = rightOperandValue.convertToInteger();
@@ -124,6 +123,44 @@ public final class ProcessedBinaryOperation extends ProcessedExpression {
 
 	}
 
+	/**
+	 * Returns null if the fast path for small vectors does not apply to the operands.
+	 */
+	@Nullable
+	private ConstantValue evaluateSmallVectorOperation(@NotNull FormallyConstantEvaluationContext context,
+													   @NotNull ConstantValue leftOperandValue,
+													   @NotNull ConstantValue rightOperandValue) {
+		if (!(leftOperandValue instanceof ConstantValue.Vector) || !((ConstantValue.Vector) leftOperandValue).isSmall()) {
+			return null;
+		}
+		ConstantValue.Vector leftVector = (ConstantValue.Vector) leftOperandValue;
+		boolean shift = (operator == ProcessedBinaryOperator.SHIFT_LEFT || operator == ProcessedBinaryOperator.SHIFT_RIGHT);
+		long rightBits;
+		if (rightOperandValue instanceof ConstantValue.Vector) {
+			ConstantValue.Vector rightVector = (ConstantValue.Vector) rightOperandValue;
+			if (!rightVector.isSmall() || (!shift && rightVector.getSize() != leftVector.getSize())) {
+				return null;
+			}
+			rightBits = rightVector.getBitsAsLong();
+		} else if (shift && rightOperandValue instanceof ConstantValue.Integer) {
+			// negative or huge shift amounts are left to the general case
+			BigInteger rightInteger = ((ConstantValue.Integer) rightOperandValue).getValue();
+			if (rightInteger.signum() < 0 || rightInteger.bitLength() > 31) {
+				return null;
+			}
+			rightBits = rightInteger.longValue();
+		} else {
+			return null;
+		}
+		try {
+			return operator.evaluateSmallVectorOperator(leftVector.getSize(), leftVector.getBitsAsLong(), rightBits);
+		} catch (ProcessedBinaryOperator.OperatorInconsistencyException e) {
+			return context.evaluationInconsistency(this, e.getMessage());
+		} catch (ProcessedBinaryOperator.OperandValueException e) {
+			return context.error(this, e.getMessage());
+		}
+	}
+
 	@NotNull
 	@Override
 	protected ProcessedExpression performSubFolding(@NotNull ErrorHandler errorHandler) {
@@ -141,4 +178,9 @@ public final class ProcessedBinaryOperation extends ProcessedExpression {
 		}
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		return leftOperand instanceof ProcessedConstantValue && rightOperand instanceof ProcessedConstantValue;
+	}
+
 }
@@ -226,6 +226,74 @@ public enum ProcessedBinaryOperator {
 		}
 	}
 
+	/**
+	 * Like {@link #evaluateIntegerVectorOperator(BigInteger, BigInteger)}, but for vector operands of at most
+	 * {@link ConstantValue.Vector#MAX_SMALL_SIZE} bits, given as their bits in a long. The left operand has the specified
+	 * size; so has the right operand except for shifting, where it is the (non-negative) shift amount. The result is a
+	 * vector of the same size or, for comparison operators, a bit.
+	 */
+	@NotNull
+	public ConstantValue evaluateSmallVectorOperator(int size, long leftOperand, long rightOperand) throws OperatorInconsistencyException, OperandValueException {
+		if (zeroCheckRightOperand && rightOperand == 0) {
+			throw new OperandValueException("right operand is zero");
+		}
+		if (compareResultPredicate != null) {
+			return new ConstantValue.Bit(compareResultPredicate.test(Long.compareUnsigned(leftOperand, rightOperand)));
+		}
+		long mask = ConstantValue.Vector.getMask(size);
+		switch (this) {
+
+			case AND:
+				return new ConstantValue.Vector(size, leftOperand & rightOperand);
+
+			case OR:
+				return new ConstantValue.Vector(size, leftOperand | rightOperand);
+
+			case XOR:
+				return new ConstantValue.Vector(size, leftOperand ^ rightOperand);
+
+			case PLUS:
+				return new ConstantValue.Vector(size, (leftOperand + rightOperand) & mask);
+
+			case MINUS:
+				return new ConstantValue.Vector(size, (leftOperand - rightOperand) & mask);
+
+			case TIMES:
+				return new ConstantValue.Vector(size, (leftOperand * rightOperand) & mask);
+
+			case DIVIDED_BY:
+				return new ConstantValue.Vector(size, Long.divideUnsigned(leftOperand, rightOperand));
+
+			case REMAINDER:
+				return new ConstantValue.Vector(size, Long.remainderUnsigned(leftOperand, rightOperand));
+
+			case SHIFT_LEFT:
+			case SHIFT_RIGHT:
+				if (Long.compareUnsigned(rightOperand, Integer.MAX_VALUE) > 0) {
+					throw new OperandValueException("shift amount too large: " + Long.toUnsignedString(rightOperand));
+				}
+				// Java only uses the lowest 6 bits of the shift amount, so larger amounts must be handled explicitly
+				if (rightOperand >= size) {
+					return new ConstantValue.Vector(size, 0);
+				}
+				if (this == SHIFT_LEFT) {
+					return new ConstantValue.Vector(size, (leftOperand << rightOperand) & mask);
+				} else {
+					return new ConstantValue.Vector(size, leftOperand >>> rightOperand);
+				}
+
+			case EQUAL:
+				return new ConstantValue.Bit(leftOperand == rightOperand);
+
+			case NOT_EQUAL:
+				return new ConstantValue.Bit(leftOperand != rightOperand);
+
+			default:
+				throw new OperatorInconsistencyException("evaluateSmallVectorOperator() not supported for this operator");
+
+		}
+	}
+
 	public static class OperandValueException extends Exception {
 		public OperandValueException(String message) {
 			super(message);
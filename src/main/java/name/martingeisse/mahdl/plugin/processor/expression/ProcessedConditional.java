@@ -84,4 +84,11 @@ public final class ProcessedConditional extends ProcessedExpression {
 		}
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		// evaluation needs both branches too, see evaluateFormallyConstantInternal()
+		return condition instanceof ProcessedConstantValue && thenBranch instanceof ProcessedConstantValue &&
+			elseBranch instanceof ProcessedConstantValue;
+	}
+
 }
@@ -63,4 +63,9 @@ public final class ProcessedConstantValue extends ProcessedExpression {
 		return this;
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		return false;
+	}
+
 }
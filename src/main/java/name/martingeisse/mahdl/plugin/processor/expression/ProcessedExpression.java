@@ -68,38 +68,40 @@ public abstract class ProcessedExpression {
 	@NotNull
 	protected abstract ConstantValue evaluateFormallyConstantInternal(@NotNull FormallyConstantEvaluationContext context);
 
+	/**
+	 * Replaces all formally constant sub-expressions of this expression by their values, and returns the resulting
+	 * expression. If this expression is formally constant itself, the result is a {@link ProcessedConstantValue}.
+	 */
+	@NotNull
+	public final ProcessedExpression fold(@NotNull ErrorHandler errorHandler) {
+		return performFolding(errorHandler);
+	}
+
+	/**
+	 * Folding works bottom-up in a single pass: The operands get folded first, and only if this leaves all operands
+	 * needed to evaluate this expression as constant values, this expression gets evaluated. That evaluation only
+	 * involves this expression itself since its operands are already constant values, so each expression gets
+	 * evaluated at most once.
+	 */
 	@NotNull
 	protected ProcessedExpression performFolding(@NotNull ErrorHandler errorHandler) {
-		ProcessedExpression.FormallyConstantEvaluationContext context = new ProcessedExpression.FormallyConstantEvaluationContext(errorHandler) {
-
-			@Override
-			@NotNull
-			public ConstantValue.Unknown notConstant(@NotNull PsiElement errorSource) {
-				throw new NotConstantException();
-			}
-
-			@Override
-			@NotNull
-			public ConstantValue.Unknown notConstant(@NotNull ProcessedExpression errorSource) {
-				throw new NotConstantException();
-
-			}
-		};
-		ConstantValue value;
-		try {
-			value = evaluateFormallyConstant(context);
-		} catch (NotConstantException e) {
-			return performSubFolding(errorHandler);
+		ProcessedExpression subFolded = performSubFolding(errorHandler);
+		if (!subFolded.hasConstantOperands()) {
+			return subFolded;
 		}
+		ConstantValue value = subFolded.evaluateFormallyConstant(new FormallyConstantEvaluationContext(errorHandler));
 		return new ProcessedConstantValue(errorSource, value);
 	}
 
-	private static class NotConstantException extends RuntimeException {
-	}
-
 	@NotNull
 	protected abstract ProcessedExpression performSubFolding(@NotNull ErrorHandler errorHandler);
 
+	/**
+	 * Returns true if all operands that are needed to evaluate this expression are constant values. This is only
+	 * called on the result of {@link #performSubFolding(ErrorHandler)}.
+	 */
+	protected abstract boolean hasConstantOperands();
+
 	public static class FormallyConstantEvaluationContext {
 
 		private final ErrorHandler errorHandler;
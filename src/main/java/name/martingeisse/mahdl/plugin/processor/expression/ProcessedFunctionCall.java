@@ -66,9 +66,20 @@ public class ProcessedFunctionCall extends ProcessedExpression {
 		boolean folded = false;
 		for (ProcessedExpression originalArgument : this.arguments) {
 			ProcessedExpression foldedArgument = originalArgument.performFolding(errorHandler);
+			foldedArguments.add(foldedArgument);
 			folded |= (foldedArgument != originalArgument);
 		}
 		return folded ? new ProcessedFunctionCall(getErrorSource(), getDataType(), function, ImmutableList.copyOf(foldedArguments)) : this;
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		for (ProcessedExpression argument : arguments) {
+			if (!(argument instanceof ProcessedConstantValue)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 }
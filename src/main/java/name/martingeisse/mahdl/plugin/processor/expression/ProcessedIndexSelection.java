@@ -111,6 +111,11 @@ public abstract class ProcessedIndexSelection extends ProcessedExpression {
 		}
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		return container instanceof ProcessedConstantValue && index instanceof ProcessedConstantValue;
+	}
+
 	// creates an index selection of the same class as this, using the specified container and index
 	protected abstract ProcessedIndexSelection createEquivalentIndexSelection(PsiElement errorSource,
 																			  ProcessedExpression container,
@@ -70,4 +70,9 @@ public final class ProcessedRangeSelection extends ProcessedExpression {
 		}
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		return container instanceof ProcessedConstantValue;
+	}
+
 }
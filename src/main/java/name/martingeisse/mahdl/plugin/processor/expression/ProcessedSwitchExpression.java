@@ -114,6 +114,23 @@ public final class ProcessedSwitchExpression extends ProcessedExpression {
 		}
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		// only the selector and the selected branch are needed, see evaluateFormallyConstantInternal()
+		if (!(selector instanceof ProcessedConstantValue)) {
+			return false;
+		}
+		ConstantValue selectorValue = ((ProcessedConstantValue) selector).getValue();
+		for (Case aCase : cases) {
+			for (ConstantValue caseSelectorValue : aCase.getSelectorValues()) {
+				if (selectorValue.equals(caseSelectorValue)) {
+					return aCase.getResultValue() instanceof ProcessedConstantValue;
+				}
+			}
+		}
+		return defaultBranch == null || defaultBranch instanceof ProcessedConstantValue;
+	}
+
 	public static final class Case {
 
 		@NotNull
@@ -60,6 +60,17 @@ public final class ProcessedUnaryOperation extends ProcessedExpression {
 			return operandValue;
 		}
 
+		// small vectors can be handled without converting to BigInteger
+		if (operandValue instanceof ConstantValue.Vector && ((ConstantValue.Vector) operandValue).isSmall()) {
+			ConstantValue.Vector operandVector = (ConstantValue.Vector) operandValue;
+			long mask = ConstantValue.Vector.getMask(operandVector.getSize());
+			if (operator == ProcessedUnaryOperator.NOT) {
+				return new ConstantValue.Vector(operandVector.getSize(), ~operandVector.getBitsAsLong() & mask);
+			} else if (operator == ProcessedUnaryOperator.MINUS) {
+				return new ConstantValue.Vector(operandVector.getSize(), -operandVector.getBitsAsLong() & mask);
+			}
+		}
+
 		// perform the corresponding integer operation
 		BigInteger integerOperand = operandValue.convertToInteger();
 		if (integerOperand == null) {
@@ -100,4 +111,9 @@ public final class ProcessedUnaryOperation extends ProcessedExpression {
 		}
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		return operand instanceof ProcessedConstantValue;
+	}
+
 }
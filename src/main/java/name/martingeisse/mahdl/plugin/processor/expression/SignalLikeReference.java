@@ -48,6 +48,11 @@ public final class SignalLikeReference extends ProcessedExpression {
 		throw new UnsupportedOperationException("should never call this method implementation");
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		throw new UnsupportedOperationException("should never call this method implementation");
+	}
+
 	private ConstantValue getConstant() {
 		if (definition instanceof Constant) {
 			ConstantValue value = ((Constant) definition).getValue();
@@ -2,11 +2,9 @@ package name.martingeisse.mahdl.plugin.processor.expression;
 
 import name.martingeisse.mahdl.plugin.processor.ErrorHandler;
 import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
-import name.martingeisse.mahdl.plugin.util.IntegerBitUtil;
 import org.jetbrains.annotations.NotNull;
 
 import java.math.BigInteger;
-import java.util.BitSet;
 
 /**
  * Represents a conversion from one type to another. In processed expressions, these conversions are made explicit.
@@ -61,6 +59,11 @@ public abstract class TypeConversion extends ProcessedExpression {
 		}
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		return operand instanceof ProcessedConstantValue;
+	}
+
 	// creates a type conversion of the same class as this, using the specified operand
 	protected abstract TypeConversion createEquivalentConversion(ProcessedExpression operand) throws TypeErrorException;
 
@@ -82,9 +85,7 @@ public abstract class TypeConversion extends ProcessedExpression {
 		@NotNull
 		protected ConstantValue perform(@NotNull FormallyConstantEvaluationContext context, @NotNull ConstantValue operandValue) {
 			if (operandValue instanceof ConstantValue.Bit) {
-				BitSet bits = new BitSet();
-				bits.set(0, ((ConstantValue.Bit) operandValue).isSet());
-				return new ConstantValue.Vector(1, bits);
+				return new ConstantValue.Vector(1, ((ConstantValue.Bit) operandValue).isSet() ? 1 : 0);
 			} else {
 				return context.evaluationInconsistency(this, "got wrong operand value: " + operandValue);
 			}
@@ -152,7 +153,7 @@ public abstract class TypeConversion extends ProcessedExpression {
 		protected ConstantValue perform(@NotNull FormallyConstantEvaluationContext context, @NotNull ConstantValue operandValue) {
 			if (operandValue instanceof ConstantValue.Vector) {
 				ConstantValue.Vector operandVector = (ConstantValue.Vector) operandValue;
-				return new ConstantValue.Integer(IntegerBitUtil.convertToUnsignedInteger(operandVector.getBits()));
+				return new ConstantValue.Integer(operandVector.convertToInteger());
 			} else {
 				return context.evaluationInconsistency(this, "got wrong operand value: " + operandValue);
 			}
@@ -36,4 +36,9 @@ public final class UnknownExpression extends ProcessedExpression {
 		return this;
 	}
 
+	@Override
+	protected boolean hasConstantOperands() {
+		return false;
+	}
+
 }
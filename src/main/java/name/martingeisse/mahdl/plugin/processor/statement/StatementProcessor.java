@@ -29,12 +29,12 @@ public final class StatementProcessor {
 
 	private final ErrorHandler errorHandler;
 	private final ExpressionProcessor expressionProcessor;
-	private final AssignmentValidator assignmentValidator;
+	private final AssignmentHandler assignmentHandler;
 
-	public StatementProcessor(ErrorHandler errorHandler, ExpressionProcessor expressionProcessor, AssignmentValidator assignmentValidator) {
+	public StatementProcessor(ErrorHandler errorHandler, ExpressionProcessor expressionProcessor, AssignmentHandler assignmentHandler) {
 		this.errorHandler = errorHandler;
 		this.expressionProcessor = expressionProcessor;
-		this.assignmentValidator = assignmentValidator;
+		this.assignmentHandler = assignmentHandler;
 	}
 
 	public ProcessedDoBlock process(ImplementationItem_DoBlock doBlock) {
@@ -67,7 +67,7 @@ public final class StatementProcessor {
 			Statement_Assignment assignment = (Statement_Assignment) statement;
 			ProcessedExpression leftHandSide = expressionProcessor.process(assignment.getLeftSide());
 			ProcessedExpression rightHandSide = expressionProcessor.process(assignment.getRightSide(), leftHandSide.getDataType());
-			assignmentValidator.validateAssignmentTo(leftHandSide, triggerKind);
+			assignmentHandler.onAssignment(leftHandSide, triggerKind);
 			try {
 				return new ProcessedAssignment(statement, leftHandSide, rightHandSide);
 			} catch (TypeErrorException e) {
@@ -198,4 +198,12 @@ public final class StatementProcessor {
 		return new UnknownStatement(errorSource);
 	}
 
+	/**
+	 * Gets notified about the destination of each assignment found in a do-block. This is usually the
+	 * {@link AssignmentValidator}, but the destinations can also be collected to validate them later.
+	 */
+	public interface AssignmentHandler {
+		void onAssignment(@NotNull ProcessedExpression destination, @NotNull AssignmentValidator.TriggerKind triggerKind);
+	}
+
 }
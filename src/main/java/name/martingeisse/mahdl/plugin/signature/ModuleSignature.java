@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.signature;
+
+import com.google.common.collect.ImmutableList;
+import name.martingeisse.mahdl.plugin.processor.definition.PortDirection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Objects;
+
+/**
+ * The externally visible part of a module: its canonical name, whether it is native, and its ports. Data types are
+ * kept as source text (without whitespace and comments) since evaluating them requires the full analysis.
+ */
+public final class ModuleSignature {
+
+	@NotNull
+	private final String name;
+
+	private final boolean isNative;
+
+	@NotNull
+	private final ImmutableList<Port> ports;
+
+	public ModuleSignature(@NotNull String name, boolean isNative, @NotNull ImmutableList<Port> ports) {
+		this.name = name;
+		this.isNative = isNative;
+		this.ports = ports;
+	}
+
+	@NotNull
+	public String getName() {
+		return name;
+	}
+
+	public boolean isNative() {
+		return isNative;
+	}
+
+	@NotNull
+	public ImmutableList<Port> getPorts() {
+		return ports;
+	}
+
+	@Nullable
+	public Port getPort(@NotNull String portName) {
+		for (Port port : ports) {
+			if (port.getName().equals(portName)) {
+				return port;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof ModuleSignature) {
+			ModuleSignature other = (ModuleSignature) obj;
+			return name.equals(other.name) && isNative == other.isNative && ports.equals(other.ports);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, isNative, ports);
+	}
+
+	public static final class Port {
+
+		@NotNull
+		private final String name;
+
+		@NotNull
+		private final PortDirection direction;
+
+		@NotNull
+		private final String dataTypeText;
+
+		public Port(@NotNull String name, @NotNull PortDirection direction, @NotNull String dataTypeText) {
+			this.name = name;
+			this.direction = direction;
+			this.dataTypeText = dataTypeText;
+		}
+
+		@NotNull
+		public String getName() {
+			return name;
+		}
+
+		@NotNull
+		public PortDirection getDirection() {
+			return direction;
+		}
+
+		@NotNull
+		public String getDataTypeText() {
+			return dataTypeText;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Port) {
+				Port other = (Port) obj;
+				return name.equals(other.name) && direction == other.direction && dataTypeText.equals(other.dataTypeText);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, direction, dataTypeText);
+		}
+
+	}
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.signature;
+
+import com.google.common.collect.ImmutableList;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.KeyDescriptor;
+import name.martingeisse.mahdl.plugin.MahdlFileType;
+import name.martingeisse.mahdl.plugin.input.ModuleFileLocator;
+import name.martingeisse.mahdl.plugin.input.psi.PsiUtil;
+import name.martingeisse.mahdl.plugin.processor.definition.PortDirection;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maps the canonical name of each module to its {@link ModuleSignature}. The signature is extracted by the
+ * {@link ModuleSignatureScanner}, so indexing does not parse the file, and clients which only need the interface of a
+ * module can use the index without loading the AST of the module file.
+ */
+public class ModuleSignatureIndex extends FileBasedIndexExtension<String, ModuleSignature> {
+
+	@NonNls
+	public static final ID<String, ModuleSignature> NAME = ID.create(ModuleSignatureIndex.class.getSimpleName());
+
+	@NotNull
+	@Override
+	public ID<String, ModuleSignature> getName() {
+		return NAME;
+	}
+
+	@NotNull
+	@Override
+	public FileBasedIndex.InputFilter getInputFilter() {
+		return new DefaultFileTypeSpecificInputFilter(MahdlFileType.INSTANCE);
+	}
+
+	@Override
+	public boolean dependsOnFileContent() {
+		return true;
+	}
+
+	@NotNull
+	@Override
+	public DataIndexer<String, ModuleSignature, FileContent> getIndexer() {
+		return fileContent -> {
+			ModuleSignature signature = ModuleSignatureScanner.scan(fileContent.getContentAsText());
+			return (signature == null ? Collections.emptyMap() : Collections.singletonMap(signature.getName(), signature));
+		};
+	}
+
+	@NotNull
+	@Override
+	public KeyDescriptor<String> getKeyDescriptor() {
+		return EnumeratorStringDescriptor.INSTANCE;
+	}
+
+	@NotNull
+	@Override
+	public DataExternalizer<ModuleSignature> getValueExternalizer() {
+		return new SignatureExternalizer();
+	}
+
+	@Override
+	public int getVersion() {
+		return 0;
+	}
+
+	/**
+	 * Returns the signature of the module with the specified canonical name, as seen from the specified element, i.e.
+	 * located in the same source root. Returns null if the module file cannot be found, does not define a module with
+	 * that name, or if the index is not available right now. Callers should fall back to the PSI in that case.
+	 */
+	@Nullable
+	public static ModuleSignature getSignature(@NotNull PsiElement context, @NotNull String moduleName) {
+		Project project = context.getProject();
+		if (DumbService.isDumb(project)) {
+			return null;
+		}
+		VirtualFile sourceRoot = PsiUtil.getSourceRoot(context);
+		if (sourceRoot == null) {
+			return null;
+		}
+		VirtualFile file = ModuleFileLocator.getInstance(project).findModuleFile(sourceRoot, moduleName);
+		if (file == null) {
+			return null;
+		}
+		List<ModuleSignature> signatures = FileBasedIndex.getInstance().getValues(NAME, moduleName, GlobalSearchScope.fileScope(project, file));
+		return (signatures.isEmpty() ? null : signatures.get(0));
+	}
+
+	private static class SignatureExternalizer implements DataExternalizer<ModuleSignature> {
+
+		@Override
+		public void save(@NotNull DataOutput out, ModuleSignature signature) throws IOException {
+			IOUtil.writeUTF(out, signature.getName());
+			out.writeBoolean(signature.isNative());
+			out.writeInt(signature.getPorts().size());
+			for (ModuleSignature.Port port : signature.getPorts()) {
+				IOUtil.writeUTF(out, port.getName());
+				out.writeByte(port.getDirection().ordinal());
+				IOUtil.writeUTF(out, port.getDataTypeText());
+			}
+		}
+
+		@Override
+		public ModuleSignature read(@NotNull DataInput in) throws IOException {
+			String name = IOUtil.readUTF(in);
+			boolean isNative = in.readBoolean();
+			int portCount = in.readInt();
+			ImmutableList.Builder<ModuleSignature.Port> portsBuilder = ImmutableList.builder();
+			for (int i = 0; i < portCount; i++) {
+				String portName = IOUtil.readUTF(in);
+				PortDirection direction = PortDirection.values()[in.readByte()];
+				String dataTypeText = IOUtil.readUTF(in);
+				portsBuilder.add(new ModuleSignature.Port(portName, direction, dataTypeText));
+			}
+			return new ModuleSignature(name, isNative, portsBuilder.build());
+		}
+
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.signature;
+
+import com.google.common.collect.ImmutableList;
+import com.intellij.lexer.Lexer;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import name.martingeisse.mahdl.plugin.input.MahdlLexer;
+import name.martingeisse.mahdl.plugin.input.Symbols;
+import name.martingeisse.mahdl.plugin.input.TokenGroups;
+import name.martingeisse.mahdl.plugin.processor.definition.PortDirection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Extracts the {@link ModuleSignature} from the source code of a module file using only the lexer, so it can be used
+ * during indexing without building the AST. Scanning stops at the end of the interface block.
+ * <p>
+ * Port definition groups which the parser would not accept are skipped up to the next semicolon, like the parser
+ * does. If the module header itself is malformed, no signature is returned.
+ */
+public final class ModuleSignatureScanner {
+
+	private static final TokenSet IGNORED_TOKENS = TokenSet.orSet(TokenGroups.WHITESPACE, TokenGroups.COMMENTS);
+
+	private static final TokenSet DATA_TYPE_KEYWORDS = TokenSet.create(
+		Symbols.KW_BIT,
+		Symbols.KW_VECTOR,
+		Symbols.KW_MATRIX,
+		Symbols.KW_INTEGER,
+		Symbols.KW_TEXT,
+		Symbols.KW_CLOCK
+	);
+
+	private final Lexer lexer = new MahdlLexer();
+
+	private ModuleSignatureScanner(@NotNull CharSequence text) {
+		lexer.start(text);
+		skipIgnoredTokens();
+	}
+
+	@Nullable
+	public static ModuleSignature scan(@NotNull CharSequence text) {
+		return new ModuleSignatureScanner(text).scanModule();
+	}
+
+	/**
+	 * Scans only up to the module name, which is a lot cheaper than scanning the whole signature.
+	 */
+	@Nullable
+	public static String scanModuleName(@NotNull CharSequence text) {
+		ModuleSignatureScanner scanner = new ModuleSignatureScanner(text);
+		scanner.accept(Symbols.KW_NATIVE);
+		return scanner.accept(Symbols.KW_MODULE) ? scanner.scanQualifiedModuleName() : null;
+	}
+
+	@Nullable
+	private ModuleSignature scanModule() {
+		boolean isNative = accept(Symbols.KW_NATIVE);
+		if (!accept(Symbols.KW_MODULE)) {
+			return null;
+		}
+		String name = scanQualifiedModuleName();
+		if (name == null || !accept(Symbols.SEMICOLON) || !accept(Symbols.KW_INTERFACE) || !accept(Symbols.OPENING_CURLY_BRACE)) {
+			return null;
+		}
+		List<ModuleSignature.Port> ports = new ArrayList<>();
+		while (!accept(Symbols.CLOSING_CURLY_BRACE)) {
+			if (lexer.getTokenType() == null) {
+				return null;
+			}
+			if (!scanPortDefinitionGroup(ports)) {
+				while (lexer.getTokenType() != null && lexer.getTokenType() != Symbols.SEMICOLON && lexer.getTokenType() != Symbols.CLOSING_CURLY_BRACE) {
+					advance();
+				}
+				accept(Symbols.SEMICOLON);
+			}
+		}
+		return new ModuleSignature(name, isNative, ImmutableList.copyOf(ports));
+	}
+
+	@Nullable
+	private String scanQualifiedModuleName() {
+		StringBuilder builder = new StringBuilder();
+		while (true) {
+			if (lexer.getTokenType() != Symbols.IDENTIFIER) {
+				return null;
+			}
+			builder.append(lexer.getTokenText());
+			advance();
+			if (!accept(Symbols.DOT)) {
+				return builder.toString();
+			}
+			builder.append('.');
+		}
+	}
+
+	// adds the ports only if the whole group is valid
+	private boolean scanPortDefinitionGroup(@NotNull List<ModuleSignature.Port> ports) {
+		PortDirection direction;
+		if (accept(Symbols.KW_IN)) {
+			direction = PortDirection.IN;
+		} else if (accept(Symbols.KW_OUT)) {
+			direction = PortDirection.OUT;
+		} else {
+			return false;
+		}
+		String dataTypeText = scanDataType();
+		if (dataTypeText == null) {
+			return false;
+		}
+		List<String> portNames = new ArrayList<>();
+		do {
+			if (lexer.getTokenType() != Symbols.IDENTIFIER) {
+				return false;
+			}
+			portNames.add(lexer.getTokenText());
+			advance();
+		} while (accept(Symbols.COMMA));
+		if (!accept(Symbols.SEMICOLON)) {
+			return false;
+		}
+		for (String portName : portNames) {
+			ports.add(new ModuleSignature.Port(portName, direction, dataTypeText));
+		}
+		return true;
+	}
+
+	@Nullable
+	private String scanDataType() {
+		if (!DATA_TYPE_KEYWORDS.contains(lexer.getTokenType())) {
+			return null;
+		}
+		StringBuilder builder = new StringBuilder(lexer.getTokenText());
+		advance();
+		while (lexer.getTokenType() == Symbols.OPENING_SQUARE_BRACKET) {
+			int depth = 0;
+			do {
+				IElementType tokenType = lexer.getTokenType();
+				if (tokenType == null) {
+					return null;
+				} else if (tokenType == Symbols.OPENING_SQUARE_BRACKET) {
+					depth++;
+				} else if (tokenType == Symbols.CLOSING_SQUARE_BRACKET) {
+					depth--;
+				}
+				builder.append(lexer.getTokenText());
+				advance();
+			} while (depth > 0);
+		}
+		return builder.toString();
+	}
+
+	private boolean accept(@NotNull IElementType tokenType) {
+		if (lexer.getTokenType() == tokenType) {
+			advance();
+			return true;
+		}
+		return false;
+	}
+
+	private void advance() {
+		lexer.advance();
+		skipIgnoredTokens();
+	}
+
+	private void skipIgnoredTokens() {
+		while (lexer.getTokenType() != null && IGNORED_TOKENS.contains(lexer.getTokenType())) {
+			lexer.advance();
+		}
+	}
+
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Implemented by the code generated by the {@link SimulationBytecodeCompiler}. This interface is public because the
+ * generated classes live in their own class loader.
+ */
+public interface CompiledCode {
+
+	/**
+	 * Evaluates all combinational processes once, in the order of the model.
+	 */
+	void evaluateCombinational(@NotNull long[] values, @NotNull long[] nextValues, @NotNull long[][] matrices, @NotNull MatrixWriteLog matrixWriteLog);
+
+	/**
+	 * Evaluates the clocked processes of the clock domain with the specified index.
+	 */
+	void evaluateClocked(int domainIndex, @NotNull long[] values, @NotNull long[] nextValues, @NotNull long[][] matrices, @NotNull MatrixWriteLog matrixWriteLog);
+
+}
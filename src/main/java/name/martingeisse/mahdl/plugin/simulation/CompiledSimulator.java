@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Simulates a design using code generated by the {@link SimulationBytecodeCompiler}. Since the combinational
+ * processes are sorted by their dependencies, a single pass lets the combinational logic settle.
+ */
+public final class CompiledSimulator extends Simulator {
+
+	@NotNull
+	private final CompiledCode code;
+
+	@NotNull
+	private final Map<SimulationModel.ClockDomain, Integer> domainIndices = new IdentityHashMap<>();
+
+	public CompiledSimulator(@NotNull SimulationModel model) {
+		this(model, SimulationBytecodeCompiler.compile(model));
+	}
+
+	public CompiledSimulator(@NotNull SimulationModel model, @NotNull CompiledCode code) {
+		super(model);
+		this.code = code;
+		for (int i = 0; i < model.getClockDomains().size(); i++) {
+			domainIndices.put(model.getClockDomains().get(i), i);
+		}
+	}
+
+	@Override
+	protected void evaluateCombinational() {
+		code.evaluateCombinational(values, nextValues, matrices, matrixWriteLog);
+	}
+
+	@Override
+	protected void evaluateClocked(@NotNull ImmutableList<SimulationModel.ClockDomain> domains) {
+		for (SimulationModel.ClockDomain domain : domains) {
+			code.evaluateClocked(domainIndices.get(domain), values, nextValues, matrices, matrixWriteLog);
+		}
+	}
+
+}
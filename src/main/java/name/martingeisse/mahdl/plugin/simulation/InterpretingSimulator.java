@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Simulates a design by walking the processed statements and expressions directly. This has practically no startup
+ * cost, which makes it the right choice for short simulations such as unit tests of small modules.
+ * <p>
+ * Combinational logic is evaluated event-driven: each combinational process is re-evaluated only if one of the slots
+ * it reads has changed. Since the processes are sorted by their dependencies, processing the pending processes in
+ * that order evaluates each process at most once while settling.
+ */
+public final class InterpretingSimulator extends Simulator {
+
+	@NotNull
+	private final ImmutableList<SimulationModel.Process> combinationalProcesses;
+
+	/**
+	 * For each scalar slot, the positions of the combinational processes that read it.
+	 */
+	@NotNull
+	private final int[][] scalarReaders;
+
+	/**
+	 * For each matrix slot, the positions of the combinational processes that read it.
+	 */
+	@NotNull
+	private final int[][] matrixReaders;
+
+	/**
+	 * The positions of the combinational processes that must be re-evaluated. Initially, all of them are.
+	 */
+	@NotNull
+	private final BitSet pendingProcesses = new BitSet();
+
+	/**
+	 * Holds the values of the slots written by a combinational process before evaluating it. Large enough for the
+	 * process with the most writes.
+	 */
+	@NotNull
+	private final long[] oldValues;
+
+	@NotNull
+	private final ProcessInterpreter interpreter;
+
+	private long processEvaluationCount = 0;
+
+	public InterpretingSimulator(@NotNull SimulationModel model) {
+		super(model);
+		this.combinationalProcesses = model.getCombinationalProcesses();
+		List<List<Integer>> scalarReaderLists = new ArrayList<>();
+		for (int i = 0; i < model.getScalarSlots().size(); i++) {
+			scalarReaderLists.add(new ArrayList<>());
+		}
+		List<List<Integer>> matrixReaderLists = new ArrayList<>();
+		for (int i = 0; i < model.getMatrixSlots().size(); i++) {
+			matrixReaderLists.add(new ArrayList<>());
+		}
+		int maxWriteCount = 0;
+		for (int position = 0; position < combinationalProcesses.size(); position++) {
+			SimulationModel.Process process = combinationalProcesses.get(position);
+			for (SimulationModel.Slot slot : process.getReads()) {
+				(slot.isMatrix() ? matrixReaderLists : scalarReaderLists).get(slot.getIndex()).add(position);
+			}
+			maxWriteCount = Math.max(maxWriteCount, process.getWrites().size());
+		}
+		this.oldValues = new long[maxWriteCount];
+		this.scalarReaders = toArrays(scalarReaderLists);
+		this.matrixReaders = toArrays(matrixReaderLists);
+		pendingProcesses.set(0, combinationalProcesses.size());
+		this.interpreter = new ProcessInterpreter(values, nextValues, matrices, matrixWriteLog);
+	}
+
+	@NotNull
+	private static int[][] toArrays(@NotNull List<List<Integer>> lists) {
+		int[][] result = new int[lists.size()][];
+		for (int i = 0; i < result.length; i++) {
+			List<Integer> list = lists.get(i);
+			result[i] = new int[list.size()];
+			for (int j = 0; j < result[i].length; j++) {
+				result[i][j] = list.get(j);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of combinational process evaluations so far. Together with {@link #getCycleCount()}, this
+	 * shows how much work the event-driven evaluation saves.
+	 */
+	public long getProcessEvaluationCount() {
+		return processEvaluationCount;
+	}
+
+	private void markReaders(@NotNull int[] readers) {
+		for (int position : readers) {
+			pendingProcesses.set(position);
+		}
+	}
+
+	@Override
+	protected void onInputChanged(@NotNull SimulationModel.Slot slot) {
+		markReaders(scalarReaders[slot.getIndex()]);
+	}
+
+	@Override
+	protected void commit(@NotNull ImmutableList<SimulationModel.ClockDomain> domains) {
+		for (SimulationModel.ClockDomain domain : domains) {
+			for (SimulationModel.Slot register : domain.getRegisters()) {
+				if (values[register.getIndex()] != nextValues[register.getIndex()]) {
+					markReaders(scalarReaders[register.getIndex()]);
+				}
+			}
+		}
+		for (int i = 0; i < matrixWriteLog.size(); i++) {
+			markReaders(matrixReaders[matrixWriteLog.getMatrixIndex(i)]);
+		}
+		super.commit(domains);
+	}
+
+	@Override
+	protected void evaluateCombinational() {
+		for (int position = pendingProcesses.nextSetBit(0); position >= 0; position = pendingProcesses.nextSetBit(position + 1)) {
+			pendingProcesses.clear(position);
+			SimulationModel.Process process = combinationalProcesses.get(position);
+			ImmutableList<SimulationModel.Slot> writes = process.getWrites();
+			int writeCount = writes.size();
+			for (int i = 0; i < writeCount; i++) {
+				SimulationModel.Slot slot = writes.get(i);
+				if (!slot.isMatrix()) {
+					oldValues[i] = values[slot.getIndex()];
+				}
+			}
+			processEvaluationCount++;
+			interpreter.run(process, false);
+			for (int i = 0; i < writeCount; i++) {
+				SimulationModel.Slot slot = writes.get(i);
+				if (slot.isMatrix()) {
+					markReaders(matrixReaders[slot.getIndex()]);
+				} else if (values[slot.getIndex()] != oldValues[i]) {
+					markReaders(scalarReaders[slot.getIndex()]);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void evaluateClocked(@NotNull ImmutableList<SimulationModel.ClockDomain> domains) {
+		for (SimulationModel.ClockDomain domain : domains) {
+			for (SimulationModel.Process process : domain.getProcesses()) {
+				processEvaluationCount++;
+				interpreter.run(process, true);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Collects the row writes to matrix registers during a clock edge, so they can be committed after all clocked
+ * processes have seen the old contents. This avoids copying whole matrices on every clock edge. Since MaHDL has no
+ * loops, the number of writes per clock edge is bounded by the number of assignments in the design, so the log stops
+ * growing after the first few cycles.
+ * <p>
+ * This class is public because it is used by compiled simulation code.
+ */
+public final class MatrixWriteLog {
+
+	private int[] matrixIndices = new int[16];
+	private long[] rowIndices = new long[16];
+	private long[] values = new long[16];
+	private int size = 0;
+
+	public void add(int matrixIndex, long rowIndex, long value) {
+		if (size == matrixIndices.length) {
+			int newCapacity = size * 2;
+			matrixIndices = Arrays.copyOf(matrixIndices, newCapacity);
+			rowIndices = Arrays.copyOf(rowIndices, newCapacity);
+			values = Arrays.copyOf(values, newCapacity);
+		}
+		matrixIndices[size] = matrixIndex;
+		rowIndices[size] = rowIndex;
+		values[size] = value;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getMatrixIndex(int writeIndex) {
+		return matrixIndices[writeIndex];
+	}
+
+	public long getRowIndex(int writeIndex) {
+		return rowIndices[writeIndex];
+	}
+
+	/**
+	 * Performs all logged writes in order (so later writes win) and clears the log.
+	 */
+	public void commit(@NotNull long[][] matrices) {
+		for (int i = 0; i < size; i++) {
+			SimulationRuntime.writeRow(matrices[matrixIndices[i]], rowIndices[i], values[i]);
+		}
+		size = 0;
+	}
+
+}
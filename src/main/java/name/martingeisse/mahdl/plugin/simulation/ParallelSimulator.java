@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Simulates a design on a fork/join pool. The processes are partitioned into regions that do not share any
+ * combinationally computed values, e.g. module instances that only communicate through registers. Such regions can
+ * settle in parallel, and so can the clocked processes of regions that write different registers. The only points of
+ * synchronization are the end of each phase, in particular the commit of the new register values.
+ * <p>
+ * Regions are distributed over as many partitions as the pool has threads, each with its own interpreter and
+ * {@link MatrixWriteLog}. Designs that form a single region are simulated in the calling thread.
+ * <p>
+ * The pool threads do not need a read action: the processes only use slots that the {@link SimulationModelBuilder}
+ * has resolved in advance, so simulating does not access any PSI.
+ */
+public final class ParallelSimulator extends Simulator {
+
+	@NotNull
+	private final ForkJoinPool pool;
+
+	@NotNull
+	private final List<Partition> combinationalPartitions;
+
+	@NotNull
+	private final List<Partition> clockedPartitions;
+
+	@NotNull
+	private final Map<SimulationModel.ClockDomain, Integer> domainIndices = new IdentityHashMap<>();
+
+	@NotNull
+	private final boolean[] activeDomains;
+
+	public ParallelSimulator(@NotNull SimulationModel model) {
+		this(model, ForkJoinPool.commonPool());
+	}
+
+	public ParallelSimulator(@NotNull SimulationModel model, @NotNull ForkJoinPool pool) {
+		super(model);
+		this.pool = pool;
+		ImmutableList<SimulationModel.ClockDomain> domains = model.getClockDomains();
+		for (int i = 0; i < domains.size(); i++) {
+			domainIndices.put(domains.get(i), i);
+		}
+		this.activeDomains = new boolean[domains.size()];
+
+		// combinational processes are connected by the slots one of them computes and others read
+		List<SimulationModel.Process> combinationalProcesses = model.getCombinationalProcesses();
+		List<Integer> noDomains = Collections.nCopies(combinationalProcesses.size(), -1);
+		int[] combinationalRegions = findRegions(combinationalProcesses, true);
+		this.combinationalPartitions = createPartitions(combinationalProcesses, noDomains, combinationalRegions, pool.getParallelism());
+
+		// clocked processes are only connected by the registers they write
+		List<SimulationModel.Process> clockedProcesses = new ArrayList<>();
+		List<Integer> clockedProcessDomains = new ArrayList<>();
+		for (int i = 0; i < domains.size(); i++) {
+			for (SimulationModel.Process process : domains.get(i).getProcesses()) {
+				clockedProcesses.add(process);
+				clockedProcessDomains.add(i);
+			}
+		}
+		int[] clockedRegions = findRegions(clockedProcesses, false);
+		this.clockedPartitions = createPartitions(clockedProcesses, clockedProcessDomains, clockedRegions, pool.getParallelism());
+	}
+
+	/**
+	 * Returns the number of partitions used for combinational and clocked evaluation, respectively.
+	 */
+	@NotNull
+	public int[] getPartitionCounts() {
+		return new int[]{combinationalPartitions.size(), clockedPartitions.size()};
+	}
+
+	//
+	// partitioning
+	//
+
+	/**
+	 * Assigns a region number to each process, such that processes which share a slot they write (and, if
+	 * includeReaders is true, processes which read such a slot) end up in the same region.
+	 */
+	@NotNull
+	private int[] findRegions(@NotNull List<SimulationModel.Process> processes, boolean includeReaders) {
+		int[] parents = new int[processes.size()];
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+		}
+		Map<SimulationModel.Slot, Integer> writers = new HashMap<>();
+		for (int i = 0; i < processes.size(); i++) {
+			for (SimulationModel.Slot slot : processes.get(i).getWrites()) {
+				Integer previousWriter = writers.putIfAbsent(slot, i);
+				if (previousWriter != null) {
+					union(parents, previousWriter, i);
+				}
+			}
+		}
+		if (includeReaders) {
+			for (int i = 0; i < processes.size(); i++) {
+				for (SimulationModel.Slot slot : processes.get(i).getReads()) {
+					Integer writer = writers.get(slot);
+					if (writer != null) {
+						union(parents, writer, i);
+					}
+				}
+			}
+		}
+		int[] regions = new int[parents.length];
+		for (int i = 0; i < regions.length; i++) {
+			regions[i] = find(parents, i);
+		}
+		return regions;
+	}
+
+	private static int find(@NotNull int[] parents, int element) {
+		while (parents[element] != element) {
+			parents[element] = parents[parents[element]];
+			element = parents[element];
+		}
+		return element;
+	}
+
+	private static void union(@NotNull int[] parents, int first, int second) {
+		parents[find(parents, first)] = find(parents, second);
+	}
+
+	/**
+	 * Distributes the regions over at most maxPartitions partitions, largest regions first, always to the partition
+	 * with the fewest processes. Within each partition, processes keep their original (dependency) order.
+	 */
+	@NotNull
+	private List<Partition> createPartitions(@NotNull List<SimulationModel.Process> processes, @NotNull List<Integer> processDomains,
+											 @NotNull int[] regions, int maxPartitions) {
+		Map<Integer, List<Integer>> processesByRegion = new HashMap<>();
+		for (int i = 0; i < regions.length; i++) {
+			processesByRegion.computeIfAbsent(regions[i], r -> new ArrayList<>()).add(i);
+		}
+		List<List<Integer>> sortedRegions = new ArrayList<>(processesByRegion.values());
+		sortedRegions.sort((a, b) -> Integer.compare(b.size(), a.size()));
+		int partitionCount = Math.max(1, Math.min(maxPartitions, sortedRegions.size()));
+		List<List<Integer>> partitionMembers = new ArrayList<>();
+		for (int i = 0; i < partitionCount; i++) {
+			partitionMembers.add(new ArrayList<>());
+		}
+		for (List<Integer> region : sortedRegions) {
+			List<Integer> smallest = partitionMembers.get(0);
+			for (List<Integer> members : partitionMembers) {
+				if (members.size() < smallest.size()) {
+					smallest = members;
+				}
+			}
+			smallest.addAll(region);
+		}
+		List<Partition> partitions = new ArrayList<>();
+		for (List<Integer> members : partitionMembers) {
+			if (members.isEmpty()) {
+				continue;
+			}
+			Collections.sort(members);
+			SimulationModel.Process[] partitionProcesses = new SimulationModel.Process[members.size()];
+			int[] partitionDomains = new int[members.size()];
+			for (int i = 0; i < partitionProcesses.length; i++) {
+				partitionProcesses[i] = processes.get(members.get(i));
+				partitionDomains[i] = processDomains.get(members.get(i));
+			}
+			ProcessInterpreter interpreter = new ProcessInterpreter(values, nextValues, matrices, new MatrixWriteLog());
+			partitions.add(new Partition(partitionProcesses, partitionDomains, interpreter));
+		}
+		return partitions;
+	}
+
+	//
+	// evaluation
+	//
+
+	@Override
+	protected void evaluateCombinational() {
+		run(combinationalPartitions, false);
+	}
+
+	@Override
+	protected void evaluateClocked(@NotNull ImmutableList<SimulationModel.ClockDomain> domains) {
+		Arrays.fill(activeDomains, false);
+		for (SimulationModel.ClockDomain domain : domains) {
+			activeDomains[domainIndices.get(domain)] = true;
+		}
+		run(clockedPartitions, true);
+	}
+
+	private void run(@NotNull List<Partition> partitions, boolean clocked) {
+		if (partitions.size() == 1) {
+			partitions.get(0).run(clocked);
+		} else if (partitions.size() > 1) {
+			List<ForkJoinTask<?>> tasks = new ArrayList<>(partitions.size());
+			for (Partition partition : partitions) {
+				tasks.add(ForkJoinTask.adapt(() -> partition.run(clocked)));
+			}
+			// joining the tasks is the barrier at the end of the phase
+			pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+		}
+	}
+
+	@Override
+	protected void commit(@NotNull ImmutableList<SimulationModel.ClockDomain> domains) {
+		super.commit(domains);
+		for (Partition partition : clockedPartitions) {
+			partition.interpreter.getMatrixWriteLog().commit(matrices);
+		}
+	}
+
+	private final class Partition {
+
+		@NotNull
+		private final SimulationModel.Process[] processes;
+
+		/**
+		 * The clock domain index of each process, or -1 for combinational processes.
+		 */
+		@NotNull
+		private final int[] domains;
+
+		@NotNull
+		private final ProcessInterpreter interpreter;
+
+		Partition(@NotNull SimulationModel.Process[] processes, @NotNull int[] domains, @NotNull ProcessInterpreter interpreter) {
+			this.processes = processes;
+			this.domains = domains;
+			this.interpreter = interpreter;
+		}
+
+		void run(boolean clocked) {
+			for (int i = 0; i < processes.length; i++) {
+				if (!clocked || activeDomains[domains[i]]) {
+					interpreter.run(processes[i], clocked);
+				}
+			}
+		}
+
+	}
+
+}
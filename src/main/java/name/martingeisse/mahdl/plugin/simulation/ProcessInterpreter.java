@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import name.martingeisse.mahdl.plugin.processor.expression.*;
+import name.martingeisse.mahdl.plugin.processor.statement.*;
+import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Executes single processes by walking their processed statements and expressions. Each interpreter works on the
+ * value arrays of a simulator and has its own {@link MatrixWriteLog}, so several interpreters can execute independent
+ * processes in parallel.
+ */
+final class ProcessInterpreter {
+
+	@NotNull
+	private final long[] values;
+
+	@NotNull
+	private final long[] nextValues;
+
+	@NotNull
+	private final long[][] matrices;
+
+	@NotNull
+	private final MatrixWriteLog matrixWriteLog;
+
+	// per-process state
+	private SimulationModel.Scope scope;
+	private boolean clocked;
+
+	ProcessInterpreter(@NotNull long[] values, @NotNull long[] nextValues, @NotNull long[][] matrices, @NotNull MatrixWriteLog matrixWriteLog) {
+		this.values = values;
+		this.nextValues = nextValues;
+		this.matrices = matrices;
+		this.matrixWriteLog = matrixWriteLog;
+	}
+
+	@NotNull
+	MatrixWriteLog getMatrixWriteLog() {
+		return matrixWriteLog;
+	}
+
+	/**
+	 * Executes a process. Combinational processes write to the current values, clocked processes to the next values
+	 * or the matrix write log.
+	 */
+	void run(@NotNull SimulationModel.Process process, boolean clocked) {
+		this.scope = process.getScope();
+		this.clocked = clocked;
+		try {
+			execute(process.getBody());
+		} catch (SimulationException e) {
+			throw new SimulationException("in " + process.getName() + ": " + e.getMessage());
+		} finally {
+			scope = null;
+		}
+	}
+
+	//
+	// statements
+	//
+
+	private void execute(@Nullable ProcessedStatement statement) {
+		if (statement == null || statement instanceof Nop) {
+			return;
+		} else if (statement instanceof ProcessedBlock) {
+			for (ProcessedStatement child : ((ProcessedBlock) statement).getStatements()) {
+				execute(child);
+			}
+		} else if (statement instanceof ProcessedAssignment) {
+			ProcessedAssignment assignment = (ProcessedAssignment) statement;
+			if (assignment.getLeftHandSide().getDataType() instanceof ProcessedDataType.Clock) {
+				// clocks have been resolved statically by the model builder
+				return;
+			}
+			store(assignment.getLeftHandSide(), evaluate(assignment.getRightHandSide()));
+		} else if (statement instanceof ProcessedIf) {
+			ProcessedIf processedIf = (ProcessedIf) statement;
+			if (evaluate(processedIf.getCondition()) != 0) {
+				execute(processedIf.getThenBranch());
+			} else {
+				execute(processedIf.getElseBranch());
+			}
+		} else if (statement instanceof ProcessedSwitchStatement) {
+			ProcessedSwitchStatement switchStatement = (ProcessedSwitchStatement) statement;
+			long selector = evaluate(switchStatement.getSelector());
+			for (ProcessedSwitchStatement.Case aCase : switchStatement.getCases()) {
+				if (matches(selector, aCase.getSelectorValues())) {
+					execute(aCase.getBranch());
+					return;
+				}
+			}
+			execute(switchStatement.getDefaultBranch());
+		} else {
+			throw new SimulationException("cannot simulate statement " + statement.getClass().getSimpleName());
+		}
+	}
+
+	private static boolean matches(long selector, @NotNull List<ConstantValue.Vector> selectorValues) {
+		for (ConstantValue.Vector value : selectorValues) {
+			if (SimulationRuntime.toLong(value) == selector) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Combinational processes write to the current values, clocked processes to the next values or the matrix write
+	 * log.
+	 */
+	private void store(@NotNull ProcessedExpression destination, long value) {
+		long[] target = (clocked ? nextValues : values);
+		SimulationModel.Slot slot = scope.getSlot(destination);
+		if (slot != null) {
+			if (slot.isMatrix()) {
+				throw new SimulationException("cannot simulate assignment to a whole matrix");
+			}
+			target[slot.getIndex()] = value;
+		} else if (destination instanceof ProcessedIndexSelection.BitFromVector) {
+			ProcessedIndexSelection selection = (ProcessedIndexSelection) destination;
+			SimulationModel.Slot containerSlot = getDirectSlot(selection.getContainer());
+			int index = containerSlot.getIndex();
+			target[index] = SimulationRuntime.insertBits(target[index], value, evaluate(selection.getIndex()), 1, containerSlot.getWidth());
+		} else if (destination instanceof ProcessedIndexSelection.VectorFromMatrix) {
+			ProcessedIndexSelection selection = (ProcessedIndexSelection) destination;
+			SimulationModel.Slot containerSlot = getDirectSlot(selection.getContainer());
+			long rowIndex = evaluate(selection.getIndex());
+			if (clocked) {
+				matrixWriteLog.add(containerSlot.getIndex(), rowIndex, value);
+			} else {
+				SimulationRuntime.writeRow(matrices[containerSlot.getIndex()], rowIndex, value);
+			}
+		} else if (destination instanceof ProcessedRangeSelection) {
+			ProcessedRangeSelection selection = (ProcessedRangeSelection) destination;
+			SimulationModel.Slot containerSlot = getDirectSlot(selection.getContainer());
+			int index = containerSlot.getIndex();
+			int width = selection.getFromIndex() - selection.getToIndex() + 1;
+			target[index] = SimulationRuntime.insertBits(target[index], value, selection.getToIndex(), width, containerSlot.getWidth());
+		} else if (destination instanceof ProcessedBinaryOperation && ((ProcessedBinaryOperation) destination).getOperator() == ProcessedBinaryOperator.VECTOR_CONCAT) {
+			ProcessedBinaryOperation concat = (ProcessedBinaryOperation) destination;
+			int rightWidth = SimulationRuntime.getWidth(concat.getRightOperand().getDataType());
+			store(concat.getRightOperand(), value & ConstantValue.Vector.getMask(rightWidth));
+			store(concat.getLeftOperand(), value >>> rightWidth);
+		} else {
+			throw new SimulationException("cannot simulate assignment to " + destination.getClass().getSimpleName());
+		}
+	}
+
+	@NotNull
+	private SimulationModel.Slot getDirectSlot(@NotNull ProcessedExpression container) {
+		SimulationModel.Slot slot = scope.getSlot(container);
+		if (slot == null) {
+			throw new SimulationException("cannot simulate assignment to a selection of a " + container.getClass().getSimpleName());
+		}
+		return slot;
+	}
+
+	//
+	// expressions
+	//
+
+	private long evaluate(@NotNull ProcessedExpression expression) {
+		SimulationModel.Slot slot = scope.getSlot(expression);
+		if (slot != null) {
+			if (slot.isMatrix()) {
+				throw new SimulationException("cannot simulate a whole matrix as a value");
+			}
+			return values[slot.getIndex()];
+		} else if (expression instanceof ProcessedConstantValue) {
+			return SimulationRuntime.toLong(((ProcessedConstantValue) expression).getValue());
+		} else if (expression instanceof ProcessedUnaryOperation) {
+			ProcessedUnaryOperation operation = (ProcessedUnaryOperation) expression;
+			long operand = evaluate(operation.getOperand());
+			long mask = getMask(expression);
+			switch (operation.getOperator()) {
+
+				case NOT:
+					return operand ^ mask;
+
+				case PLUS:
+					return operand;
+
+				case MINUS:
+					return -operand & mask;
+
+				default:
+					throw new SimulationException("cannot simulate operator " + operation.getOperator());
+
+			}
+		} else if (expression instanceof ProcessedBinaryOperation) {
+			return evaluateBinaryOperation((ProcessedBinaryOperation) expression);
+		} else if (expression instanceof ProcessedConditional) {
+			ProcessedConditional conditional = (ProcessedConditional) expression;
+			return evaluate(evaluate(conditional.getCondition()) != 0 ? conditional.getThenBranch() : conditional.getElseBranch());
+		} else if (expression instanceof ProcessedSwitchExpression) {
+			ProcessedSwitchExpression switchExpression = (ProcessedSwitchExpression) expression;
+			long selector = evaluate(switchExpression.getSelector());
+			for (ProcessedSwitchExpression.Case aCase : switchExpression.getCases()) {
+				if (matches(selector, aCase.getSelectorValues())) {
+					return evaluate(aCase.getResultValue());
+				}
+			}
+			return (switchExpression.getDefaultBranch() == null ? 0 : evaluate(switchExpression.getDefaultBranch()));
+		} else if (expression instanceof ProcessedIndexSelection.BitFromVector) {
+			ProcessedIndexSelection selection = (ProcessedIndexSelection) expression;
+			return SimulationRuntime.selectBit(evaluate(selection.getContainer()), evaluate(selection.getIndex()));
+		} else if (expression instanceof ProcessedIndexSelection.VectorFromMatrix) {
+			ProcessedIndexSelection selection = (ProcessedIndexSelection) expression;
+			return SimulationRuntime.selectRow(getMatrix(selection.getContainer()), evaluate(selection.getIndex()));
+		} else if (expression instanceof ProcessedRangeSelection) {
+			ProcessedRangeSelection selection = (ProcessedRangeSelection) expression;
+			return (evaluate(selection.getContainer()) >>> selection.getToIndex()) & getMask(expression);
+		} else if (expression instanceof TypeConversion.BitToVector) {
+			return evaluate(((TypeConversion) expression).getOperand());
+		} else {
+			throw new SimulationException("cannot simulate expression " + expression.getClass().getSimpleName());
+		}
+	}
+
+	private long evaluateBinaryOperation(@NotNull ProcessedBinaryOperation operation) {
+		long left = evaluate(operation.getLeftOperand());
+		long right = evaluate(operation.getRightOperand());
+		switch (operation.getOperator()) {
+
+			case AND:
+				return left & right;
+
+			case OR:
+				return left | right;
+
+			case XOR:
+				return left ^ right;
+
+			case VECTOR_CONCAT:
+				return (left << SimulationRuntime.getWidth(operation.getRightOperand().getDataType())) | right;
+
+			case PLUS:
+				return (left + right) & getMask(operation);
+
+			case MINUS:
+				return (left - right) & getMask(operation);
+
+			case TIMES:
+				return (left * right) & getMask(operation);
+
+			case DIVIDED_BY:
+				return SimulationRuntime.divide(left, right);
+
+			case REMAINDER:
+				return SimulationRuntime.remainder(left, right);
+
+			case SHIFT_LEFT:
+				return SimulationRuntime.shiftLeft(left, right, getMask(operation));
+
+			case SHIFT_RIGHT:
+				return SimulationRuntime.shiftRight(left, right);
+
+			case EQUAL:
+				return SimulationRuntime.equal(left, right);
+
+			case NOT_EQUAL:
+				return SimulationRuntime.notEqual(left, right);
+
+			case LESS_THAN:
+				return SimulationRuntime.lessThan(left, right);
+
+			case LESS_THAN_OR_EQUAL:
+				return SimulationRuntime.lessThanOrEqual(left, right);
+
+			case GREATER_THAN:
+				return SimulationRuntime.greaterThan(left, right);
+
+			case GREATER_THAN_OR_EQUAL:
+				return SimulationRuntime.greaterThanOrEqual(left, right);
+
+			default:
+				throw new SimulationException("cannot simulate operator " + operation.getOperator());
+
+		}
+	}
+
+	@NotNull
+	private long[] getMatrix(@NotNull ProcessedExpression expression) {
+		SimulationModel.Slot slot = scope.getSlot(expression);
+		if (slot == null || !slot.isMatrix()) {
+			throw new SimulationException("cannot simulate matrix expression " + expression.getClass().getSimpleName());
+		}
+		return matrices[slot.getIndex()];
+	}
+
+	private static long getMask(@NotNull ProcessedExpression expression) {
+		return ConstantValue.Vector.getMask(SimulationRuntime.getWidth(expression.getDataType()));
+	}
+
+}
@@ -0,0 +1,711 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import name.martingeisse.mahdl.plugin.processor.expression.*;
+import name.martingeisse.mahdl.plugin.processor.statement.*;
+import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.org.objectweb.asm.ClassWriter;
+import org.jetbrains.org.objectweb.asm.Label;
+import org.jetbrains.org.objectweb.asm.MethodVisitor;
+import org.jetbrains.org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the processes of a {@link SimulationModel} to JVM bytecode, so the JIT can turn them into native code.
+ * <p>
+ * Each process becomes a static method that works directly on the value arrays of the simulator. Since the JVM limits
+ * the size of methods and classes, process methods are spread over "chunk" classes, and the generated entry points
+ * call them through intermediate dispatch methods with a bounded number of calls each.
+ * <p>
+ * The generated code uses the following local variables: 0 = values, 1 = next values, 2 = matrices, 3 = matrix write
+ * log, 4 and up = temporary long values.
+ */
+public final class SimulationBytecodeCompiler {
+
+	private static final String PACKAGE = "name/martingeisse/mahdl/plugin/simulation/generated/";
+	private static final String MAIN_CLASS_NAME = PACKAGE + "Simulation";
+	private static final String CHUNK_CLASS_NAME_PREFIX = PACKAGE + "SimulationChunk";
+	private static final String RUNTIME = "name/martingeisse/mahdl/plugin/simulation/SimulationRuntime";
+	private static final String MATRIX_WRITE_LOG = "name/martingeisse/mahdl/plugin/simulation/MatrixWriteLog";
+	private static final String COMPILED_CODE = "name/martingeisse/mahdl/plugin/simulation/CompiledCode";
+	private static final String PROCESS_DESCRIPTOR = "([J[J[[JL" + MATRIX_WRITE_LOG + ";)V";
+
+	private static final int VALUES = 0;
+	private static final int NEXT_VALUES = 1;
+	private static final int MATRICES = 2;
+	private static final int MATRIX_WRITE_LOG_VARIABLE = 3;
+	private static final int FIRST_TEMPORARY = 4;
+
+	private static final int MAX_PROCESSES_PER_CLASS = 256;
+	private static final int MAX_CALLS_PER_METHOD = 1000;
+
+	private final SimulationModel model;
+	private final Map<String, byte[]> classes = new HashMap<>();
+	private final List<ProcessMethod> combinationalMethods = new ArrayList<>();
+	private final List<List<ProcessMethod>> clockedMethods = new ArrayList<>();
+	private ClassWriter chunkWriter;
+	private String chunkClassName;
+	private int chunkProcessCount;
+
+	// per-process state
+	private MethodVisitor method;
+	private SimulationModel.Process process;
+	private boolean clocked;
+	private int nextTemporary;
+
+	private SimulationBytecodeCompiler(@NotNull SimulationModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * Compiles the model and loads the generated code.
+	 */
+	@NotNull
+	public static CompiledCode compile(@NotNull SimulationModel model) {
+		return new SimulationBytecodeCompiler(model).compile();
+	}
+
+	@NotNull
+	private CompiledCode compile() {
+		for (SimulationModel.Process process : model.getCombinationalProcesses()) {
+			combinationalMethods.add(compileProcess(process, false));
+		}
+		for (SimulationModel.ClockDomain domain : model.getClockDomains()) {
+			List<ProcessMethod> domainMethods = new ArrayList<>();
+			for (SimulationModel.Process process : domain.getProcesses()) {
+				domainMethods.add(compileProcess(process, true));
+			}
+			clockedMethods.add(domainMethods);
+		}
+		finishChunk();
+		generateMainClass();
+		GeneratedClassLoader classLoader = new GeneratedClassLoader(classes);
+		try {
+			return (CompiledCode) classLoader.loadClass(MAIN_CLASS_NAME.replace('/', '.')).newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			throw new SimulationException("could not load compiled simulation code: " + e);
+		}
+	}
+
+	//
+	// class management
+	//
+
+	@NotNull
+	private static ClassWriter newClassWriter() {
+		return new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+			@Override
+			protected String getCommonSuperClass(String type1, String type2) {
+				// only needed for merging object types, which the generated code never does except for identical types
+				return "java/lang/Object";
+			}
+		};
+	}
+
+	private void startClass(@NotNull ClassWriter writer, @NotNull String name, @Nullable String[] interfaces) {
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, name, null, "java/lang/Object", interfaces);
+		MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		constructor.visitCode();
+		constructor.visitVarInsn(Opcodes.ALOAD, 0);
+		constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		constructor.visitInsn(Opcodes.RETURN);
+		constructor.visitMaxs(0, 0);
+		constructor.visitEnd();
+	}
+
+	private void finishClass(@NotNull ClassWriter writer, @NotNull String name) {
+		writer.visitEnd();
+		byte[] bytecode;
+		try {
+			bytecode = writer.toByteArray();
+		} catch (RuntimeException e) {
+			// typically a method that exceeds the 64k limit because of a huge do-block
+			throw new SimulationException("could not compile simulation code: " + e.getMessage());
+		}
+		classes.put(name.replace('/', '.'), bytecode);
+	}
+
+	private void finishChunk() {
+		if (chunkWriter != null) {
+			finishClass(chunkWriter, chunkClassName);
+			chunkWriter = null;
+		}
+	}
+
+	//
+	// dispatch methods
+	//
+
+	private void generateMainClass() {
+		ClassWriter writer = newClassWriter();
+		startClass(writer, MAIN_CLASS_NAME, new String[]{COMPILED_CODE});
+
+		// combinational logic
+		String combinationalMethodName = generateDispatchMethod(writer, "combinational", combinationalMethods);
+		MethodVisitor evaluateCombinational = writer.visitMethod(Opcodes.ACC_PUBLIC, "evaluateCombinational", PROCESS_DESCRIPTOR, null, null);
+		evaluateCombinational.visitCode();
+		for (int i = 1; i <= 4; i++) {
+			evaluateCombinational.visitVarInsn(Opcodes.ALOAD, i);
+		}
+		evaluateCombinational.visitMethodInsn(Opcodes.INVOKESTATIC, MAIN_CLASS_NAME, combinationalMethodName, PROCESS_DESCRIPTOR, false);
+		evaluateCombinational.visitInsn(Opcodes.RETURN);
+		evaluateCombinational.visitMaxs(0, 0);
+		evaluateCombinational.visitEnd();
+
+		// clocked logic
+		MethodVisitor evaluateClocked = writer.visitMethod(Opcodes.ACC_PUBLIC, "evaluateClocked",
+			"(I[J[J[[JL" + MATRIX_WRITE_LOG + ";)V", null, null);
+		evaluateClocked.visitCode();
+		Label end = new Label();
+		if (!clockedMethods.isEmpty()) {
+			Label[] labels = new Label[clockedMethods.size()];
+			for (int i = 0; i < labels.length; i++) {
+				labels[i] = new Label();
+			}
+			evaluateClocked.visitVarInsn(Opcodes.ILOAD, 1);
+			evaluateClocked.visitTableSwitchInsn(0, labels.length - 1, end, labels);
+			for (int i = 0; i < labels.length; i++) {
+				String domainMethodName = generateDispatchMethod(writer, "domain" + i, clockedMethods.get(i));
+				evaluateClocked.visitLabel(labels[i]);
+				for (int j = 2; j <= 5; j++) {
+					evaluateClocked.visitVarInsn(Opcodes.ALOAD, j);
+				}
+				evaluateClocked.visitMethodInsn(Opcodes.INVOKESTATIC, MAIN_CLASS_NAME, domainMethodName, PROCESS_DESCRIPTOR, false);
+				evaluateClocked.visitJumpInsn(Opcodes.GOTO, end);
+			}
+		}
+		evaluateClocked.visitLabel(end);
+		evaluateClocked.visitInsn(Opcodes.RETURN);
+		evaluateClocked.visitMaxs(0, 0);
+		evaluateClocked.visitEnd();
+
+		finishClass(writer, MAIN_CLASS_NAME);
+	}
+
+	/**
+	 * Generates a static method that calls the specified process methods in order, splitting it into sub-methods if
+	 * there are too many calls for a single method. Returns the name of the generated method.
+	 */
+	@NotNull
+	private String generateDispatchMethod(@NotNull ClassWriter writer, @NotNull String name, @NotNull List<ProcessMethod> targets) {
+		List<ProcessMethod> calls = targets;
+		if (targets.size() > MAX_CALLS_PER_METHOD) {
+			calls = new ArrayList<>();
+			// parts larger than the limit are split recursively
+			int partSize = Math.max(MAX_CALLS_PER_METHOD, (targets.size() + MAX_CALLS_PER_METHOD - 1) / MAX_CALLS_PER_METHOD);
+			int partCount = (targets.size() + partSize - 1) / partSize;
+			for (int i = 0; i < partCount; i++) {
+				List<ProcessMethod> part = targets.subList(i * partSize, Math.min(targets.size(), (i + 1) * partSize));
+				calls.add(new ProcessMethod(MAIN_CLASS_NAME, generateDispatchMethod(writer, name + '_' + i, part)));
+			}
+		}
+		MethodVisitor dispatcher = writer.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, name, PROCESS_DESCRIPTOR, null, null);
+		dispatcher.visitCode();
+		for (ProcessMethod call : calls) {
+			for (int i = 0; i < 4; i++) {
+				dispatcher.visitVarInsn(Opcodes.ALOAD, i);
+			}
+			dispatcher.visitMethodInsn(Opcodes.INVOKESTATIC, call.className, call.methodName, PROCESS_DESCRIPTOR, false);
+		}
+		dispatcher.visitInsn(Opcodes.RETURN);
+		dispatcher.visitMaxs(0, 0);
+		dispatcher.visitEnd();
+		return name;
+	}
+
+	//
+	// processes
+	//
+
+	@NotNull
+	private ProcessMethod compileProcess(@NotNull SimulationModel.Process process, boolean clocked) {
+		if (chunkWriter == null || chunkProcessCount == MAX_PROCESSES_PER_CLASS) {
+			finishChunk();
+			chunkClassName = CHUNK_CLASS_NAME_PREFIX + classes.size();
+			chunkWriter = newClassWriter();
+			startClass(chunkWriter, chunkClassName, null);
+			chunkProcessCount = 0;
+		}
+		String methodName = "process" + chunkProcessCount;
+		chunkProcessCount++;
+
+		this.method = chunkWriter.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, methodName, PROCESS_DESCRIPTOR, null, null);
+		this.process = process;
+		this.clocked = clocked;
+		this.nextTemporary = FIRST_TEMPORARY;
+		method.visitCode();
+		compileStatement(process.getBody());
+		method.visitInsn(Opcodes.RETURN);
+		method.visitMaxs(0, 0);
+		method.visitEnd();
+		this.method = null;
+		this.process = null;
+
+		return new ProcessMethod(chunkClassName, methodName);
+	}
+
+	@NotNull
+	private SimulationException unsupported(@NotNull String what) {
+		return new SimulationException("in " + process.getName() + ": cannot simulate " + what);
+	}
+
+	private int allocateTemporary() {
+		int index = nextTemporary;
+		nextTemporary += 2;
+		return index;
+	}
+
+	//
+	// statements
+	//
+
+	private void compileStatement(@Nullable ProcessedStatement statement) {
+		if (statement == null || statement instanceof Nop) {
+			return;
+		} else if (statement instanceof ProcessedBlock) {
+			for (ProcessedStatement child : ((ProcessedBlock) statement).getStatements()) {
+				compileStatement(child);
+			}
+		} else if (statement instanceof ProcessedAssignment) {
+			ProcessedAssignment assignment = (ProcessedAssignment) statement;
+			if (assignment.getLeftHandSide().getDataType() instanceof ProcessedDataType.Clock) {
+				// clocks have been resolved statically by the model builder
+				return;
+			}
+			compileExpression(assignment.getRightHandSide());
+			int value = allocateTemporary();
+			method.visitVarInsn(Opcodes.LSTORE, value);
+			compileStore(assignment.getLeftHandSide(), value);
+		} else if (statement instanceof ProcessedIf) {
+			ProcessedIf processedIf = (ProcessedIf) statement;
+			Label elseLabel = new Label();
+			Label end = new Label();
+			compileCondition(processedIf.getCondition(), elseLabel);
+			compileStatement(processedIf.getThenBranch());
+			method.visitJumpInsn(Opcodes.GOTO, end);
+			method.visitLabel(elseLabel);
+			compileStatement(processedIf.getElseBranch());
+			method.visitLabel(end);
+		} else if (statement instanceof ProcessedSwitchStatement) {
+			ProcessedSwitchStatement switchStatement = (ProcessedSwitchStatement) statement;
+			List<Label> caseLabels = new ArrayList<>();
+			List<List<ConstantValue.Vector>> selectorValues = new ArrayList<>();
+			for (ProcessedSwitchStatement.Case aCase : switchStatement.getCases()) {
+				caseLabels.add(new Label());
+				selectorValues.add(aCase.getSelectorValues());
+			}
+			Label end = new Label();
+			compileSwitchDispatch(switchStatement.getSelector(), selectorValues, caseLabels);
+			compileStatement(switchStatement.getDefaultBranch());
+			method.visitJumpInsn(Opcodes.GOTO, end);
+			for (int i = 0; i < caseLabels.size(); i++) {
+				method.visitLabel(caseLabels.get(i));
+				compileStatement(switchStatement.getCases().get(i).getBranch());
+				method.visitJumpInsn(Opcodes.GOTO, end);
+			}
+			method.visitLabel(end);
+		} else {
+			throw unsupported("statement " + statement.getClass().getSimpleName());
+		}
+	}
+
+	/**
+	 * Evaluates the selector and jumps to the label of the first matching case. Falls through if no case matches.
+	 */
+	private void compileSwitchDispatch(@NotNull ProcessedExpression selector, @NotNull List<? extends List<ConstantValue.Vector>> selectorValues, @NotNull List<Label> caseLabels) {
+		compileExpression(selector);
+		int selectorValue = allocateTemporary();
+		method.visitVarInsn(Opcodes.LSTORE, selectorValue);
+		for (int i = 0; i < caseLabels.size(); i++) {
+			for (ConstantValue.Vector value : selectorValues.get(i)) {
+				method.visitVarInsn(Opcodes.LLOAD, selectorValue);
+				pushLong(SimulationRuntime.toLong(value));
+				method.visitInsn(Opcodes.LCMP);
+				method.visitJumpInsn(Opcodes.IFEQ, caseLabels.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Stores the value from the specified local variable to an assignment destination. Combinational processes write
+	 * to the current values, clocked processes to the next values or the matrix write log.
+	 */
+	private void compileStore(@NotNull ProcessedExpression destination, int value) {
+		int targetArray = (clocked ? NEXT_VALUES : VALUES);
+		SimulationModel.Slot slot = process.getScope().getSlot(destination);
+		if (slot != null) {
+			if (slot.isMatrix()) {
+				throw unsupported("assignment to a whole matrix");
+			}
+			method.visitVarInsn(Opcodes.ALOAD, targetArray);
+			pushInt(slot.getIndex());
+			method.visitVarInsn(Opcodes.LLOAD, value);
+			method.visitInsn(Opcodes.LASTORE);
+		} else if (destination instanceof ProcessedIndexSelection.BitFromVector) {
+			ProcessedIndexSelection selection = (ProcessedIndexSelection) destination;
+			SimulationModel.Slot containerSlot = getDirectSlot(selection.getContainer());
+			method.visitVarInsn(Opcodes.ALOAD, targetArray);
+			pushInt(containerSlot.getIndex());
+			method.visitInsn(Opcodes.DUP2);
+			method.visitInsn(Opcodes.LALOAD);
+			method.visitVarInsn(Opcodes.LLOAD, value);
+			compileExpression(selection.getIndex());
+			pushInt(1);
+			pushInt(containerSlot.getWidth());
+			method.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "insertBits", "(JJJII)J", false);
+			method.visitInsn(Opcodes.LASTORE);
+		} else if (destination instanceof ProcessedIndexSelection.VectorFromMatrix) {
+			ProcessedIndexSelection selection = (ProcessedIndexSelection) destination;
+			SimulationModel.Slot containerSlot = getDirectSlot(selection.getContainer());
+			if (clocked) {
+				method.visitVarInsn(Opcodes.ALOAD, MATRIX_WRITE_LOG_VARIABLE);
+				pushInt(containerSlot.getIndex());
+				compileExpression(selection.getIndex());
+				method.visitVarInsn(Opcodes.LLOAD, value);
+				method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, MATRIX_WRITE_LOG, "add", "(IJJ)V", false);
+			} else {
+				method.visitVarInsn(Opcodes.ALOAD, MATRICES);
+				pushInt(containerSlot.getIndex());
+				method.visitInsn(Opcodes.AALOAD);
+				compileExpression(selection.getIndex());
+				method.visitVarInsn(Opcodes.LLOAD, value);
+				method.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "writeRow", "([JJJ)V", false);
+			}
+		} else if (destination instanceof ProcessedRangeSelection) {
+			ProcessedRangeSelection selection = (ProcessedRangeSelection) destination;
+			SimulationModel.Slot containerSlot = getDirectSlot(selection.getContainer());
+			method.visitVarInsn(Opcodes.ALOAD, targetArray);
+			pushInt(containerSlot.getIndex());
+			method.visitInsn(Opcodes.DUP2);
+			method.visitInsn(Opcodes.LALOAD);
+			method.visitVarInsn(Opcodes.LLOAD, value);
+			pushLong(selection.getToIndex());
+			pushInt(selection.getFromIndex() - selection.getToIndex() + 1);
+			pushInt(containerSlot.getWidth());
+			method.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "insertBits", "(JJJII)J", false);
+			method.visitInsn(Opcodes.LASTORE);
+		} else if (destination instanceof ProcessedBinaryOperation && ((ProcessedBinaryOperation) destination).getOperator() == ProcessedBinaryOperator.VECTOR_CONCAT) {
+			ProcessedBinaryOperation concat = (ProcessedBinaryOperation) destination;
+			int rightWidth = SimulationRuntime.getWidth(concat.getRightOperand().getDataType());
+
+			// the right operand receives the lower bits
+			int rightValue = allocateTemporary();
+			method.visitVarInsn(Opcodes.LLOAD, value);
+			pushLong(ConstantValue.Vector.getMask(rightWidth));
+			method.visitInsn(Opcodes.LAND);
+			method.visitVarInsn(Opcodes.LSTORE, rightValue);
+			compileStore(concat.getRightOperand(), rightValue);
+
+			int leftValue = allocateTemporary();
+			method.visitVarInsn(Opcodes.LLOAD, value);
+			pushInt(rightWidth);
+			method.visitInsn(Opcodes.LUSHR);
+			method.visitVarInsn(Opcodes.LSTORE, leftValue);
+			compileStore(concat.getLeftOperand(), leftValue);
+		} else {
+			throw unsupported("assignment to " + destination.getClass().getSimpleName());
+		}
+	}
+
+	@NotNull
+	private SimulationModel.Slot getDirectSlot(@NotNull ProcessedExpression container) {
+		SimulationModel.Slot slot = process.getScope().getSlot(container);
+		if (slot == null) {
+			throw unsupported("assignment to a selection of a " + container.getClass().getSimpleName());
+		}
+		return slot;
+	}
+
+	//
+	// expressions
+	//
+
+	/**
+	 * Evaluates a bit-typed condition and jumps to the specified label if it is false.
+	 */
+	private void compileCondition(@NotNull ProcessedExpression condition, @NotNull Label falseLabel) {
+		compileExpression(condition);
+		method.visitInsn(Opcodes.LCONST_0);
+		method.visitInsn(Opcodes.LCMP);
+		method.visitJumpInsn(Opcodes.IFEQ, falseLabel);
+	}
+
+	/**
+	 * Generates code that leaves the value of the expression on the operand stack as a long.
+	 */
+	private void compileExpression(@NotNull ProcessedExpression expression) {
+		SimulationModel.Slot slot = process.getScope().getSlot(expression);
+		if (slot != null) {
+			if (slot.isMatrix()) {
+				throw unsupported("a whole matrix as a value");
+			}
+			method.visitVarInsn(Opcodes.ALOAD, VALUES);
+			pushInt(slot.getIndex());
+			method.visitInsn(Opcodes.LALOAD);
+		} else if (expression instanceof ProcessedConstantValue) {
+			ConstantValue value = ((ProcessedConstantValue) expression).getValue();
+			if (value instanceof ConstantValue.Matrix) {
+				throw unsupported("a whole matrix as a value");
+			}
+			pushLong(SimulationRuntime.toLong(value));
+		} else if (expression instanceof ProcessedUnaryOperation) {
+			ProcessedUnaryOperation operation = (ProcessedUnaryOperation) expression;
+			compileExpression(operation.getOperand());
+			long mask = getMask(expression);
+			switch (operation.getOperator()) {
+
+				case NOT:
+					pushLong(mask);
+					method.visitInsn(Opcodes.LXOR);
+					break;
+
+				case PLUS:
+					break;
+
+				case MINUS:
+					method.visitInsn(Opcodes.LNEG);
+					pushLong(mask);
+					method.visitInsn(Opcodes.LAND);
+					break;
+
+				default:
+					throw unsupported("operator " + operation.getOperator());
+
+			}
+		} else if (expression instanceof ProcessedBinaryOperation) {
+			compileBinaryOperation((ProcessedBinaryOperation) expression);
+		} else if (expression instanceof ProcessedConditional) {
+			ProcessedConditional conditional = (ProcessedConditional) expression;
+			Label elseLabel = new Label();
+			Label end = new Label();
+			compileCondition(conditional.getCondition(), elseLabel);
+			compileExpression(conditional.getThenBranch());
+			method.visitJumpInsn(Opcodes.GOTO, end);
+			method.visitLabel(elseLabel);
+			compileExpression(conditional.getElseBranch());
+			method.visitLabel(end);
+		} else if (expression instanceof ProcessedSwitchExpression) {
+			ProcessedSwitchExpression switchExpression = (ProcessedSwitchExpression) expression;
+			List<Label> caseLabels = new ArrayList<>();
+			List<List<ConstantValue.Vector>> selectorValues = new ArrayList<>();
+			for (ProcessedSwitchExpression.Case aCase : switchExpression.getCases()) {
+				caseLabels.add(new Label());
+				selectorValues.add(aCase.getSelectorValues());
+			}
+			Label end = new Label();
+			compileSwitchDispatch(switchExpression.getSelector(), selectorValues, caseLabels);
+			if (switchExpression.getDefaultBranch() == null) {
+				method.visitInsn(Opcodes.LCONST_0);
+			} else {
+				compileExpression(switchExpression.getDefaultBranch());
+			}
+			method.visitJumpInsn(Opcodes.GOTO, end);
+			for (int i = 0; i < caseLabels.size(); i++) {
+				method.visitLabel(caseLabels.get(i));
+				compileExpression(switchExpression.getCases().get(i).getResultValue());
+				method.visitJumpInsn(Opcodes.GOTO, end);
+			}
+			method.visitLabel(end);
+		} else if (expression instanceof ProcessedIndexSelection.BitFromVector) {
+			ProcessedIndexSelection selection = (ProcessedIndexSelection) expression;
+			compileExpression(selection.getContainer());
+			compileExpression(selection.getIndex());
+			method.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "selectBit", "(JJ)J", false);
+		} else if (expression instanceof ProcessedIndexSelection.VectorFromMatrix) {
+			ProcessedIndexSelection selection = (ProcessedIndexSelection) expression;
+			compileMatrix(selection.getContainer());
+			compileExpression(selection.getIndex());
+			method.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "selectRow", "([JJ)J", false);
+		} else if (expression instanceof ProcessedRangeSelection) {
+			ProcessedRangeSelection selection = (ProcessedRangeSelection) expression;
+			compileExpression(selection.getContainer());
+			pushInt(selection.getToIndex());
+			method.visitInsn(Opcodes.LUSHR);
+			pushLong(getMask(expression));
+			method.visitInsn(Opcodes.LAND);
+		} else if (expression instanceof TypeConversion.BitToVector) {
+			compileExpression(((TypeConversion) expression).getOperand());
+		} else {
+			throw unsupported("expression " + expression.getClass().getSimpleName());
+		}
+	}
+
+	private void compileBinaryOperation(@NotNull ProcessedBinaryOperation operation) {
+		if (operation.getOperator() == ProcessedBinaryOperator.VECTOR_CONCAT) {
+			compileExpression(operation.getLeftOperand());
+			pushInt(SimulationRuntime.getWidth(operation.getRightOperand().getDataType()));
+			method.visitInsn(Opcodes.LSHL);
+			compileExpression(operation.getRightOperand());
+			method.visitInsn(Opcodes.LOR);
+			return;
+		}
+		compileExpression(operation.getLeftOperand());
+		compileExpression(operation.getRightOperand());
+		switch (operation.getOperator()) {
+
+			case AND:
+				method.visitInsn(Opcodes.LAND);
+				break;
+
+			case OR:
+				method.visitInsn(Opcodes.LOR);
+				break;
+
+			case XOR:
+				method.visitInsn(Opcodes.LXOR);
+				break;
+
+			case PLUS:
+				method.visitInsn(Opcodes.LADD);
+				pushLong(getMask(operation));
+				method.visitInsn(Opcodes.LAND);
+				break;
+
+			case MINUS:
+				method.visitInsn(Opcodes.LSUB);
+				pushLong(getMask(operation));
+				method.visitInsn(Opcodes.LAND);
+				break;
+
+			case TIMES:
+				method.visitInsn(Opcodes.LMUL);
+				pushLong(getMask(operation));
+				method.visitInsn(Opcodes.LAND);
+				break;
+
+			case DIVIDED_BY:
+				invokeRuntime("divide");
+				break;
+
+			case REMAINDER:
+				invokeRuntime("remainder");
+				break;
+
+			case SHIFT_LEFT:
+				pushLong(getMask(operation));
+				method.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "shiftLeft", "(JJJ)J", false);
+				break;
+
+			case SHIFT_RIGHT:
+				invokeRuntime("shiftRight");
+				break;
+
+			case EQUAL:
+				invokeRuntime("equal");
+				break;
+
+			case NOT_EQUAL:
+				invokeRuntime("notEqual");
+				break;
+
+			case LESS_THAN:
+				invokeRuntime("lessThan");
+				break;
+
+			case LESS_THAN_OR_EQUAL:
+				invokeRuntime("lessThanOrEqual");
+				break;
+
+			case GREATER_THAN:
+				invokeRuntime("greaterThan");
+				break;
+
+			case GREATER_THAN_OR_EQUAL:
+				invokeRuntime("greaterThanOrEqual");
+				break;
+
+			default:
+				throw unsupported("operator " + operation.getOperator());
+
+		}
+	}
+
+	/**
+	 * Leaves the long[] that holds the rows of a matrix signal or constant on the operand stack.
+	 */
+	private void compileMatrix(@NotNull ProcessedExpression expression) {
+		SimulationModel.Slot slot = process.getScope().getSlot(expression);
+		if (slot == null || !slot.isMatrix()) {
+			throw unsupported("matrix expression " + expression.getClass().getSimpleName());
+		}
+		method.visitVarInsn(Opcodes.ALOAD, MATRICES);
+		pushInt(slot.getIndex());
+		method.visitInsn(Opcodes.AALOAD);
+	}
+
+	private static long getMask(@NotNull ProcessedExpression expression) {
+		return ConstantValue.Vector.getMask(SimulationRuntime.getWidth(expression.getDataType()));
+	}
+
+	private void invokeRuntime(@NotNull String name) {
+		method.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, name, "(JJ)J", false);
+	}
+
+	private void pushInt(int value) {
+		if (value >= -1 && value <= 5) {
+			method.visitInsn(Opcodes.ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			method.visitIntInsn(Opcodes.BIPUSH, value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			method.visitIntInsn(Opcodes.SIPUSH, value);
+		} else {
+			method.visitLdcInsn(value);
+		}
+	}
+
+	private void pushLong(long value) {
+		if (value == 0) {
+			method.visitInsn(Opcodes.LCONST_0);
+		} else if (value == 1) {
+			method.visitInsn(Opcodes.LCONST_1);
+		} else {
+			method.visitLdcInsn(value);
+		}
+	}
+
+	private static final class ProcessMethod {
+
+		private final String className;
+		private final String methodName;
+
+		ProcessMethod(@NotNull String className, @NotNull String methodName) {
+			this.className = className;
+			this.methodName = methodName;
+		}
+
+	}
+
+	/**
+	 * Defines the generated classes on demand. The parent is the class loader of the simulation runtime, so the
+	 * generated code can access it.
+	 */
+	private static final class GeneratedClassLoader extends ClassLoader {
+
+		private final Map<String, byte[]> classes;
+
+		GeneratedClassLoader(@NotNull Map<String, byte[]> classes) {
+			super(SimulationRuntime.class.getClassLoader());
+			this.classes = classes;
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] bytecode = classes.get(name);
+			if (bytecode == null) {
+				throw new ClassNotFoundException(name);
+			}
+			return defineClass(name, bytecode, 0, bytecode.length);
+		}
+
+	}
+
+}
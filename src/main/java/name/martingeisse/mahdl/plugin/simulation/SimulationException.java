@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import name.martingeisse.mahdl.plugin.util.UserMessageException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thrown when a design cannot be simulated, e.g. because it uses constructs the simulator does not support.
+ */
+public class SimulationException extends UserMessageException {
+
+	public SimulationException(@NotNull String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import name.martingeisse.mahdl.plugin.processor.definition.PortDirection;
+import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
+import name.martingeisse.mahdl.plugin.processor.expression.InstancePortReference;
+import name.martingeisse.mahdl.plugin.processor.expression.ProcessedExpression;
+import name.martingeisse.mahdl.plugin.processor.expression.SignalLikeReference;
+import name.martingeisse.mahdl.plugin.processor.statement.ProcessedStatement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The flattened form of a design, as built by the {@link SimulationModelBuilder}. All signal-likes of all module
+ * instances are turned into "slots" that hold the simulated values: bits, vectors and clocks live in a long[] (one
+ * long per slot, so vectors are limited to 64 bits), matrices in a long[][] (one long per row).
+ * <p>
+ * The do-blocks and signal initializers of all instances become processes. Each process keeps the original statement
+ * tree together with a {@link Scope} that maps the references in that tree to slots. Combinational processes are
+ * sorted such that each process comes after all processes it depends on. Clocked processes are grouped by their clock
+ * after resolving clocks that are just passed down to module instances.
+ */
+public final class SimulationModel {
+
+	@NotNull
+	private final ImmutableList<Slot> scalarSlots;
+
+	@NotNull
+	private final ImmutableList<Slot> matrixSlots;
+
+	@NotNull
+	private final ImmutableMap<String, Slot> slotsByName;
+
+	@NotNull
+	private final ImmutableMap<ConstantValue.Matrix, Slot> constantMatrixSlots;
+
+	@NotNull
+	private final ImmutableList<Process> combinationalProcesses;
+
+	@NotNull
+	private final ImmutableList<ClockDomain> clockDomains;
+
+	SimulationModel(@NotNull ImmutableList<Slot> scalarSlots,
+					@NotNull ImmutableList<Slot> matrixSlots,
+					@NotNull ImmutableMap<String, Slot> slotsByName,
+					@NotNull ImmutableMap<ConstantValue.Matrix, Slot> constantMatrixSlots,
+					@NotNull ImmutableList<Process> combinationalProcesses,
+					@NotNull ImmutableList<ClockDomain> clockDomains) {
+		this.scalarSlots = scalarSlots;
+		this.matrixSlots = matrixSlots;
+		this.slotsByName = slotsByName;
+		this.constantMatrixSlots = constantMatrixSlots;
+		this.combinationalProcesses = combinationalProcesses;
+		this.clockDomains = clockDomains;
+	}
+
+	/**
+	 * Returns the slots for bits, vectors and clocks, ordered by their index.
+	 */
+	@NotNull
+	public ImmutableList<Slot> getScalarSlots() {
+		return scalarSlots;
+	}
+
+	/**
+	 * Returns the slots for matrices, including constant matrices, ordered by their index.
+	 */
+	@NotNull
+	public ImmutableList<Slot> getMatrixSlots() {
+		return matrixSlots;
+	}
+
+	/**
+	 * Maps hierarchical names such as "cpu.alu.result" to slots. Toplevel signal-likes use their plain name.
+	 */
+	@NotNull
+	public ImmutableMap<String, Slot> getSlotsByName() {
+		return slotsByName;
+	}
+
+	@NotNull
+	public Slot getSlot(@NotNull String hierarchicalName) {
+		Slot slot = slotsByName.get(hierarchicalName);
+		if (slot == null) {
+			throw new IllegalArgumentException("unknown signal: " + hierarchicalName);
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns the read-only matrix slot that holds the specified constant matrix. Constant matrices are referenced by
+	 * {@link name.martingeisse.mahdl.plugin.processor.expression.ProcessedConstantValue} expressions after folding.
+	 */
+	@NotNull
+	public Slot getConstantMatrixSlot(@NotNull ConstantValue.Matrix matrix) {
+		Slot slot = constantMatrixSlots.get(matrix);
+		if (slot == null) {
+			throw new IllegalArgumentException("constant matrix not known to the model");
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns the combinational processes in evaluation order.
+	 */
+	@NotNull
+	public ImmutableList<Process> getCombinationalProcesses() {
+		return combinationalProcesses;
+	}
+
+	@NotNull
+	public ImmutableList<ClockDomain> getClockDomains() {
+		return clockDomains;
+	}
+
+	public enum SlotKind {
+		BIT, VECTOR, MATRIX, CLOCK
+	}
+
+	public static final class Slot {
+
+		@NotNull
+		private final String name;
+
+		@NotNull
+		private final SlotKind kind;
+
+		private final int index;
+
+		private final int width;
+
+		private final int rowCount;
+
+		private final boolean register;
+
+		private final long initialValue;
+
+		@Nullable
+		private final long[] initialRows;
+
+		@Nullable
+		private final PortDirection toplevelPortDirection;
+
+		Slot(@NotNull String name, @NotNull SlotKind kind, int index, int width, int rowCount, boolean register,
+			 long initialValue, @Nullable long[] initialRows, @Nullable PortDirection toplevelPortDirection) {
+			this.name = name;
+			this.kind = kind;
+			this.index = index;
+			this.width = width;
+			this.rowCount = rowCount;
+			this.register = register;
+			this.initialValue = initialValue;
+			this.initialRows = initialRows;
+			this.toplevelPortDirection = toplevelPortDirection;
+		}
+
+		@NotNull
+		public String getName() {
+			return name;
+		}
+
+		@NotNull
+		public SlotKind getKind() {
+			return kind;
+		}
+
+		public boolean isMatrix() {
+			return kind == SlotKind.MATRIX;
+		}
+
+		/**
+		 * Returns the index of this slot in the scalar or matrix value array, depending on its kind.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Returns the number of bits of the value, or of each row for matrices.
+		 */
+		public int getWidth() {
+			return width;
+		}
+
+		public long getMask() {
+			return ConstantValue.Vector.getMask(width);
+		}
+
+		/**
+		 * Returns the number of rows for matrices, 0 otherwise.
+		 */
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		public boolean isRegister() {
+			return register;
+		}
+
+		public long getInitialValue() {
+			return initialValue;
+		}
+
+		/**
+		 * Returns the initial rows of a matrix (must not be modified), or null to start with all zeroes.
+		 */
+		@Nullable
+		public long[] getInitialRows() {
+			return initialRows;
+		}
+
+		/**
+		 * Returns the direction if this is a port of the toplevel module, null otherwise.
+		 */
+		@Nullable
+		public PortDirection getToplevelPortDirection() {
+			return toplevelPortDirection;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+
+	}
+
+	/**
+	 * Maps the references within the processes of one module instance to slots. The references are resolved by the
+	 * {@link SimulationModelBuilder}, keyed by the identity of the expression objects, so looking up a slot does not
+	 * access any PSI and is safe from any thread once the model has been built.
+	 */
+	public static final class Scope {
+
+		@NotNull
+		private final String prefix;
+
+		@NotNull
+		private final Map<ProcessedExpression, Slot> slots = new IdentityHashMap<>();
+
+		Scope(@NotNull String prefix) {
+			this.prefix = prefix;
+		}
+
+		/**
+		 * Returns the prefix for hierarchical names in this scope, e.g. "cpu.alu." (empty for the toplevel module).
+		 */
+		@NotNull
+		public String getPrefix() {
+			return prefix;
+		}
+
+		/**
+		 * Only used by the model builder.
+		 */
+		void putSlot(@NotNull ProcessedExpression expression, @NotNull Slot slot) {
+			slots.put(expression, slot);
+		}
+
+		/**
+		 * Returns the slot for a {@link SignalLikeReference}, an {@link InstancePortReference} or a constant matrix,
+		 * or null for any other expression (including references to other constants).
+		 */
+		@Nullable
+		public Slot getSlot(@NotNull ProcessedExpression expression) {
+			return slots.get(expression);
+		}
+
+	}
+
+	public static final class Process {
+
+		@NotNull
+		private final String name;
+
+		@NotNull
+		private final Scope scope;
+
+		@NotNull
+		private final ProcessedStatement body;
+
+		@NotNull
+		private final ImmutableList<Slot> reads;
+
+		@NotNull
+		private final ImmutableList<Slot> writes;
+
+		Process(@NotNull String name, @NotNull Scope scope, @NotNull ProcessedStatement body, @NotNull ImmutableList<Slot> reads, @NotNull ImmutableList<Slot> writes) {
+			this.name = name;
+			this.scope = scope;
+			this.body = body;
+			this.reads = reads;
+			this.writes = writes;
+		}
+
+		/**
+		 * Returns a name for the process for use in error messages, e.g. "cpu.alu: do-block at offset 1234".
+		 */
+		@NotNull
+		public String getName() {
+			return name;
+		}
+
+		@NotNull
+		public Scope getScope() {
+			return scope;
+		}
+
+		@NotNull
+		public ProcessedStatement getBody() {
+			return body;
+		}
+
+		/**
+		 * Returns the slots this process reads but does not write, not including clocks and constant matrices.
+		 */
+		@NotNull
+		public ImmutableList<Slot> getReads() {
+			return reads;
+		}
+
+		@NotNull
+		public ImmutableList<Slot> getWrites() {
+			return writes;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+
+	}
+
+	public static final class ClockDomain {
+
+		@NotNull
+		private final Slot clock;
+
+		@NotNull
+		private final ImmutableList<Process> processes;
+
+		@NotNull
+		private final ImmutableList<Slot> registers;
+
+		ClockDomain(@NotNull Slot clock, @NotNull ImmutableList<Process> processes, @NotNull ImmutableList<Slot> registers) {
+			this.clock = clock;
+			this.processes = processes;
+			this.registers = registers;
+		}
+
+		/**
+		 * Returns the clock slot after resolving clocks that are passed down to module instances, typically a clock
+		 * input port of the toplevel module.
+		 */
+		@NotNull
+		public Slot getClock() {
+			return clock;
+		}
+
+		@NotNull
+		public ImmutableList<Process> getProcesses() {
+			return processes;
+		}
+
+		/**
+		 * Returns the scalar (non-matrix) registers written by the processes of this domain.
+		 */
+		@NotNull
+		public ImmutableList<Slot> getRegisters() {
+			return registers;
+		}
+
+	}
+
+}
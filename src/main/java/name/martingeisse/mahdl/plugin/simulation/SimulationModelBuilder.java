@@ -0,0 +1,513 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import name.martingeisse.mahdl.plugin.codegen.ModuleHasErrorsException;
+import name.martingeisse.mahdl.plugin.processor.ModuleProcessingCache;
+import name.martingeisse.mahdl.plugin.processor.ModuleProcessingResult;
+import name.martingeisse.mahdl.plugin.processor.definition.*;
+import name.martingeisse.mahdl.plugin.processor.expression.*;
+import name.martingeisse.mahdl.plugin.processor.statement.*;
+import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Builds the {@link SimulationModel} for a toplevel module: flattens the instance hierarchy, resolves clocks that are
+ * passed down to instances, and sorts the combinational processes into evaluation order.
+ * <p>
+ * Clock signals are not simulated as values. Instead, assignments of one clock to another (typically to the clock
+ * port of a module instance) are resolved while building the model, so each clocked process knows the clock that
+ * ultimately drives it. Such assignments must be unconditional.
+ * <p>
+ * When using the default {@link #PROCESSING_CACHE_RESOLVER}, the builder must be called inside a read action.
+ */
+public final class SimulationModelBuilder {
+
+	/**
+	 * Resolves the definitions of module instances using the {@link ModuleProcessingCache}. Modules with errors
+	 * cannot be simulated.
+	 */
+	public static final DefinitionResolver PROCESSING_CACHE_RESOLVER = moduleInstance -> {
+		ModuleProcessingResult result = ModuleProcessingCache.get(moduleInstance.getModuleElement());
+		if (result.hasErrors()) {
+			throw new ModuleHasErrorsException(result.getErrors().get(0).getMessage());
+		}
+		return result.getModuleDefinition();
+	};
+
+	private static final int MAX_INSTANCE_DEPTH = 100;
+
+	private final DefinitionResolver definitionResolver;
+	private final List<SimulationModel.Slot> scalarSlots = new ArrayList<>();
+	private final List<SimulationModel.Slot> matrixSlots = new ArrayList<>();
+	private final Map<String, SimulationModel.Slot> slotsByName = new LinkedHashMap<>();
+	private final Map<ConstantValue.Matrix, SimulationModel.Slot> constantMatrixSlots = new LinkedHashMap<>();
+	private final Map<SimulationModel.Slot, SimulationModel.Slot> clockAliases = new HashMap<>();
+	private final List<SimulationModel.Process> combinationalProcesses = new ArrayList<>();
+	private final List<SimulationModel.Process> clockedProcesses = new ArrayList<>();
+	private final List<SimulationModel.Slot> clockedProcessClocks = new ArrayList<>();
+
+	public SimulationModelBuilder() {
+		this(PROCESSING_CACHE_RESOLVER);
+	}
+
+	public SimulationModelBuilder(@NotNull DefinitionResolver definitionResolver) {
+		this.definitionResolver = definitionResolver;
+	}
+
+	/**
+	 * Builds the model. A builder can only be used once.
+	 */
+	@NotNull
+	public SimulationModel build(@NotNull ModuleDefinition toplevelModule) {
+		if (!slotsByName.isEmpty()) {
+			throw new IllegalStateException("this builder has already been used");
+		}
+		flatten(toplevelModule, "", 0);
+		return new SimulationModel(
+			ImmutableList.copyOf(scalarSlots),
+			ImmutableList.copyOf(matrixSlots),
+			ImmutableMap.copyOf(slotsByName),
+			ImmutableMap.copyOf(constantMatrixSlots),
+			levelize(combinationalProcesses),
+			buildClockDomains()
+		);
+	}
+
+	//
+	// flattening
+	//
+
+	@NotNull
+	private SimulationModel.Scope flatten(@NotNull ModuleDefinition module, @NotNull String prefix, int depth) {
+		String instanceDescription = (prefix.isEmpty() ? module.getName() : prefix.substring(0, prefix.length() - 1));
+		if (depth > MAX_INSTANCE_DEPTH) {
+			throw new SimulationException("module instances nested too deeply (recursive instantiation?) at " + instanceDescription);
+		}
+		if (module.isNative()) {
+			throw new SimulationException("native module " + module.getName() + " cannot be simulated (" + instanceDescription + ")");
+		}
+
+		// create slots for the signal-likes and flatten module instances
+		Map<String, SimulationModel.Slot> signalLikeSlots = new HashMap<>();
+		Map<String, SimulationModel.Slot> instancePortSlots = new HashMap<>();
+		for (Named definition : module.getDefinitions().values()) {
+			if (definition instanceof Constant) {
+				// constants have been folded into the expressions that use them
+				continue;
+			}
+			if (definition instanceof SignalLike) {
+				SignalLike signalLike = (SignalLike) definition;
+				PortDirection toplevelPortDirection = null;
+				if (depth == 0 && signalLike instanceof ModulePort) {
+					toplevelPortDirection = ((ModulePort) signalLike).getDirection();
+				}
+				ConstantValue initialValue = null;
+				if (signalLike instanceof Register) {
+					initialValue = ((Register) signalLike).getInitializerValue();
+				}
+				signalLikeSlots.put(signalLike.getName(), createSlot(prefix + signalLike.getName(),
+					signalLike.getProcessedDataType(), signalLike instanceof Register, initialValue, toplevelPortDirection));
+			} else if (definition instanceof ModuleInstance) {
+				ModuleInstance moduleInstance = (ModuleInstance) definition;
+				ModuleDefinition instantiatedModule = definitionResolver.resolve(moduleInstance);
+				SimulationModel.Scope instanceScope = flatten(instantiatedModule, prefix + moduleInstance.getName() + '.', depth + 1);
+				for (InstancePort port : moduleInstance.getPorts().values()) {
+					SimulationModel.Slot portSlot = slotsByName.get(instanceScope.getPrefix() + port.getName());
+					if (portSlot == null) {
+						throw new SimulationException("port " + port.getName() + " not found in module " + instantiatedModule.getName());
+					}
+					instancePortSlots.put(moduleInstance.getName() + '.' + port.getName(), portSlot);
+				}
+			} else {
+				throw new SimulationException("cannot simulate " + definition.getName() + " in " + instanceDescription +
+					" because its module definition is missing");
+			}
+		}
+		ScopeBuilder scope = new ScopeBuilder(new SimulationModel.Scope(prefix), signalLikeSlots, instancePortSlots);
+
+		// signal initializers are continuous assignments
+		for (Named definition : module.getDefinitions().values()) {
+			if (definition instanceof Signal) {
+				Signal signal = (Signal) definition;
+				ProcessedExpression initializer = signal.getProcessedInitializer();
+				if (initializer != null) {
+					ProcessedStatement assignment;
+					try {
+						assignment = new ProcessedAssignment(signal.getNameElement(), new SignalLikeReference(signal.getNameElement(), signal), initializer);
+					} catch (TypeErrorException e) {
+						throw new ModuleHasErrorsException("type error in initializer of " + prefix + signal.getName());
+					}
+					addProcess(scope, prefix + signal.getName() + " initializer", assignment, null);
+				}
+			}
+		}
+
+		// do-blocks
+		int doBlockNumber = 0;
+		for (ProcessedDoBlock doBlock : module.getDoBlocks()) {
+			doBlockNumber++;
+			String name = instanceDescription + ": do-block #" + doBlockNumber;
+			SimulationModel.Slot clock = null;
+			if (doBlock.getClock() != null) {
+				clock = scope.resolve(doBlock.getClock());
+				if (clock == null || clock.getKind() != SimulationModel.SlotKind.CLOCK) {
+					throw new SimulationException("unsupported clock expression in " + name);
+				}
+			}
+			addProcess(scope, name, doBlock.getBody(), clock);
+		}
+
+		return scope.scope;
+	}
+
+	@NotNull
+	private SimulationModel.Slot createSlot(@NotNull String name, @NotNull ProcessedDataType dataType, boolean register,
+											@Nullable ConstantValue initialValue, @Nullable PortDirection toplevelPortDirection) {
+		SimulationModel.SlotKind kind;
+		int width, rowCount = 0;
+		if (dataType instanceof ProcessedDataType.Bit) {
+			kind = SimulationModel.SlotKind.BIT;
+			width = 1;
+		} else if (dataType instanceof ProcessedDataType.Clock) {
+			kind = SimulationModel.SlotKind.CLOCK;
+			width = 1;
+		} else if (dataType instanceof ProcessedDataType.Vector) {
+			kind = SimulationModel.SlotKind.VECTOR;
+			width = ((ProcessedDataType.Vector) dataType).getSize();
+		} else if (dataType instanceof ProcessedDataType.Matrix) {
+			kind = SimulationModel.SlotKind.MATRIX;
+			width = ((ProcessedDataType.Matrix) dataType).getSecondSize();
+			rowCount = ((ProcessedDataType.Matrix) dataType).getFirstSize();
+		} else {
+			throw new SimulationException("cannot simulate " + name + " of type " + dataType);
+		}
+		if (width > ConstantValue.Vector.MAX_SMALL_SIZE) {
+			throw new SimulationException("cannot simulate " + name + ": vectors wider than " +
+				ConstantValue.Vector.MAX_SMALL_SIZE + " bits are not supported");
+		}
+		long initialScalar = 0;
+		long[] initialRows = null;
+		if (initialValue instanceof ConstantValue.Matrix) {
+			initialRows = SimulationRuntime.toRows((ConstantValue.Matrix) initialValue);
+		} else if (initialValue != null && !(initialValue instanceof ConstantValue.Unknown)) {
+			initialScalar = SimulationRuntime.toLong(initialValue);
+		}
+		SimulationModel.Slot slot;
+		if (kind == SimulationModel.SlotKind.MATRIX) {
+			slot = new SimulationModel.Slot(name, kind, matrixSlots.size(), width, rowCount, register, 0, initialRows, toplevelPortDirection);
+			matrixSlots.add(slot);
+		} else {
+			slot = new SimulationModel.Slot(name, kind, scalarSlots.size(), width, 0, register, initialScalar, null, toplevelPortDirection);
+			scalarSlots.add(slot);
+		}
+		slotsByName.put(name, slot);
+		return slot;
+	}
+
+	private void addProcess(@NotNull ScopeBuilder scope, @NotNull String name, @NotNull ProcessedStatement body, @Nullable SimulationModel.Slot clock) {
+		Set<SimulationModel.Slot> reads = new LinkedHashSet<>();
+		Set<SimulationModel.Slot> writes = new LinkedHashSet<>();
+		collectStatement(name, scope, body, reads, writes, true);
+		reads.removeAll(writes);
+		SimulationModel.Process process = new SimulationModel.Process(name, scope.scope, body, ImmutableList.copyOf(reads), ImmutableList.copyOf(writes));
+		if (clock == null) {
+			combinationalProcesses.add(process);
+		} else {
+			clockedProcesses.add(process);
+			clockedProcessClocks.add(clock);
+		}
+	}
+
+	//
+	// read / write analysis
+	//
+
+	private void collectStatement(@NotNull String processName, @NotNull ScopeBuilder scope, @Nullable ProcessedStatement statement,
+								  @NotNull Set<SimulationModel.Slot> reads, @NotNull Set<SimulationModel.Slot> writes, boolean unconditional) {
+		if (statement == null || statement instanceof Nop) {
+			return;
+		} else if (statement instanceof ProcessedBlock) {
+			for (ProcessedStatement child : ((ProcessedBlock) statement).getStatements()) {
+				collectStatement(processName, scope, child, reads, writes, unconditional);
+			}
+		} else if (statement instanceof ProcessedAssignment) {
+			ProcessedAssignment assignment = (ProcessedAssignment) statement;
+			if (assignment.getLeftHandSide().getDataType() instanceof ProcessedDataType.Clock) {
+				SimulationModel.Slot destination = scope.resolve(assignment.getLeftHandSide());
+				SimulationModel.Slot source = scope.resolve(assignment.getRightHandSide());
+				if (!unconditional || destination == null || source == null) {
+					throw new SimulationException("in " + processName + ": clock signals can only be assigned another clock signal unconditionally");
+				}
+				clockAliases.put(destination, source);
+			} else {
+				collectDestination(processName, scope, assignment.getLeftHandSide(), reads, writes);
+				collectExpression(processName, scope, assignment.getRightHandSide(), reads);
+			}
+		} else if (statement instanceof ProcessedIf) {
+			ProcessedIf processedIf = (ProcessedIf) statement;
+			collectExpression(processName, scope, processedIf.getCondition(), reads);
+			collectStatement(processName, scope, processedIf.getThenBranch(), reads, writes, false);
+			collectStatement(processName, scope, processedIf.getElseBranch(), reads, writes, false);
+		} else if (statement instanceof ProcessedSwitchStatement) {
+			ProcessedSwitchStatement switchStatement = (ProcessedSwitchStatement) statement;
+			collectExpression(processName, scope, switchStatement.getSelector(), reads);
+			for (ProcessedSwitchStatement.Case aCase : switchStatement.getCases()) {
+				collectStatement(processName, scope, aCase.getBranch(), reads, writes, false);
+			}
+			collectStatement(processName, scope, switchStatement.getDefaultBranch(), reads, writes, false);
+		} else if (statement instanceof UnknownStatement) {
+			throw new ModuleHasErrorsException("in " + processName);
+		} else {
+			throw new SimulationException("in " + processName + ": unsupported statement " + statement.getClass().getSimpleName());
+		}
+	}
+
+	private void collectDestination(@NotNull String processName, @NotNull ScopeBuilder scope, @NotNull ProcessedExpression destination,
+									@NotNull Set<SimulationModel.Slot> reads, @NotNull Set<SimulationModel.Slot> writes) {
+		SimulationModel.Slot slot = scope.resolve(destination);
+		if (slot != null) {
+			writes.add(slot);
+		} else if (destination instanceof ProcessedIndexSelection) {
+			ProcessedIndexSelection indexSelection = (ProcessedIndexSelection) destination;
+			collectExpression(processName, scope, indexSelection.getIndex(), reads);
+			collectDestination(processName, scope, indexSelection.getContainer(), reads, writes);
+		} else if (destination instanceof ProcessedRangeSelection) {
+			collectDestination(processName, scope, ((ProcessedRangeSelection) destination).getContainer(), reads, writes);
+		} else if (destination instanceof ProcessedBinaryOperation && ((ProcessedBinaryOperation) destination).getOperator() == ProcessedBinaryOperator.VECTOR_CONCAT) {
+			collectDestination(processName, scope, ((ProcessedBinaryOperation) destination).getLeftOperand(), reads, writes);
+			collectDestination(processName, scope, ((ProcessedBinaryOperation) destination).getRightOperand(), reads, writes);
+		} else if (destination instanceof UnknownExpression) {
+			throw new ModuleHasErrorsException("in " + processName);
+		} else {
+			throw new SimulationException("in " + processName + ": unsupported assignment destination " + destination.getClass().getSimpleName());
+		}
+	}
+
+	private void collectExpression(@NotNull String processName, @NotNull ScopeBuilder scope, @Nullable ProcessedExpression expression,
+								   @NotNull Set<SimulationModel.Slot> reads) {
+		if (expression == null) {
+			return;
+		}
+		if (expression.getDataType() instanceof ProcessedDataType.Vector &&
+			((ProcessedDataType.Vector) expression.getDataType()).getSize() > ConstantValue.Vector.MAX_SMALL_SIZE) {
+			throw new SimulationException("in " + processName + ": vectors wider than " +
+				ConstantValue.Vector.MAX_SMALL_SIZE + " bits are not supported");
+		}
+		SimulationModel.Slot slot = scope.resolve(expression);
+		if (slot != null) {
+			if (slot.getKind() != SimulationModel.SlotKind.CLOCK) {
+				reads.add(slot);
+			}
+		} else if (expression instanceof SignalLikeReference) {
+			if (!(((SignalLikeReference) expression).getDefinition() instanceof Constant)) {
+				throw new SimulationException("in " + processName + ": unknown signal " + ((SignalLikeReference) expression).getDefinition().getName());
+			}
+		} else if (expression instanceof ProcessedConstantValue) {
+			ConstantValue value = ((ProcessedConstantValue) expression).getValue();
+			if (value instanceof ConstantValue.Matrix) {
+				scope.scope.putSlot(expression, getOrCreateConstantMatrixSlot((ConstantValue.Matrix) value));
+			}
+		} else if (expression instanceof ProcessedUnaryOperation) {
+			collectExpression(processName, scope, ((ProcessedUnaryOperation) expression).getOperand(), reads);
+		} else if (expression instanceof ProcessedBinaryOperation) {
+			collectExpression(processName, scope, ((ProcessedBinaryOperation) expression).getLeftOperand(), reads);
+			collectExpression(processName, scope, ((ProcessedBinaryOperation) expression).getRightOperand(), reads);
+		} else if (expression instanceof ProcessedConditional) {
+			ProcessedConditional conditional = (ProcessedConditional) expression;
+			collectExpression(processName, scope, conditional.getCondition(), reads);
+			collectExpression(processName, scope, conditional.getThenBranch(), reads);
+			collectExpression(processName, scope, conditional.getElseBranch(), reads);
+		} else if (expression instanceof ProcessedSwitchExpression) {
+			ProcessedSwitchExpression switchExpression = (ProcessedSwitchExpression) expression;
+			collectExpression(processName, scope, switchExpression.getSelector(), reads);
+			for (ProcessedSwitchExpression.Case aCase : switchExpression.getCases()) {
+				collectExpression(processName, scope, aCase.getResultValue(), reads);
+			}
+			collectExpression(processName, scope, switchExpression.getDefaultBranch(), reads);
+		} else if (expression instanceof ProcessedIndexSelection) {
+			collectExpression(processName, scope, ((ProcessedIndexSelection) expression).getContainer(), reads);
+			collectExpression(processName, scope, ((ProcessedIndexSelection) expression).getIndex(), reads);
+		} else if (expression instanceof ProcessedRangeSelection) {
+			collectExpression(processName, scope, ((ProcessedRangeSelection) expression).getContainer(), reads);
+		} else if (expression instanceof TypeConversion.BitToVector) {
+			collectExpression(processName, scope, ((TypeConversion) expression).getOperand(), reads);
+		} else if (expression instanceof UnknownExpression) {
+			throw new ModuleHasErrorsException("in " + processName);
+		} else {
+			// function calls and integer conversions must have been folded to constants
+			throw new SimulationException("in " + processName + ": cannot simulate non-constant " + expression.getClass().getSimpleName());
+		}
+	}
+
+	@NotNull
+	private SimulationModel.Slot getOrCreateConstantMatrixSlot(@NotNull ConstantValue.Matrix matrix) {
+		SimulationModel.Slot existingSlot = constantMatrixSlots.get(matrix);
+		if (existingSlot != null) {
+			return existingSlot;
+		}
+		if (matrix.getSecondSize() > ConstantValue.Vector.MAX_SMALL_SIZE) {
+			throw new SimulationException("cannot simulate constant matrix with rows wider than " + ConstantValue.Vector.MAX_SMALL_SIZE + " bits");
+		}
+		SimulationModel.Slot slot = new SimulationModel.Slot("<constant matrix #" + constantMatrixSlots.size() + ">",
+			SimulationModel.SlotKind.MATRIX, matrixSlots.size(), matrix.getSecondSize(), matrix.getFirstSize(), false,
+			0, SimulationRuntime.toRows(matrix), null);
+		matrixSlots.add(slot);
+		constantMatrixSlots.put(matrix, slot);
+		return slot;
+	}
+
+	//
+	// levelization and clock domains
+	//
+
+	@NotNull
+	private static ImmutableList<SimulationModel.Process> levelize(@NotNull List<SimulationModel.Process> processes) {
+		int count = processes.size();
+		Map<SimulationModel.Slot, List<Integer>> writers = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			for (SimulationModel.Slot slot : processes.get(i).getWrites()) {
+				writers.computeIfAbsent(slot, s -> new ArrayList<>()).add(i);
+			}
+		}
+		int[] remainingDependencies = new int[count];
+		List<List<Integer>> dependents = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			dependents.add(new ArrayList<>());
+		}
+		for (int i = 0; i < count; i++) {
+			Set<Integer> dependencies = new HashSet<>();
+			for (SimulationModel.Slot slot : processes.get(i).getReads()) {
+				List<Integer> slotWriters = writers.get(slot);
+				if (slotWriters != null) {
+					dependencies.addAll(slotWriters);
+				}
+			}
+			dependencies.remove(i);
+			remainingDependencies[i] = dependencies.size();
+			for (int dependency : dependencies) {
+				dependents.get(dependency).add(i);
+			}
+		}
+		ArrayDeque<Integer> ready = new ArrayDeque<>();
+		for (int i = 0; i < count; i++) {
+			if (remainingDependencies[i] == 0) {
+				ready.add(i);
+			}
+		}
+		ImmutableList.Builder<SimulationModel.Process> builder = ImmutableList.builder();
+		int sortedCount = 0;
+		while (!ready.isEmpty()) {
+			int index = ready.poll();
+			builder.add(processes.get(index));
+			sortedCount++;
+			for (int dependent : dependents.get(index)) {
+				remainingDependencies[dependent]--;
+				if (remainingDependencies[dependent] == 0) {
+					ready.add(dependent);
+				}
+			}
+		}
+		if (sortedCount < count) {
+			List<String> names = new ArrayList<>();
+			for (int i = 0; i < count && names.size() < 5; i++) {
+				if (remainingDependencies[i] > 0) {
+					names.add(processes.get(i).getName());
+				}
+			}
+			throw new SimulationException("combinational loop involving " + String.join(", ", names));
+		}
+		return builder.build();
+	}
+
+	@NotNull
+	private SimulationModel.Slot resolveClock(@NotNull SimulationModel.Slot clock) {
+		SimulationModel.Slot current = clock;
+		for (int i = 0; i <= clockAliases.size(); i++) {
+			SimulationModel.Slot source = clockAliases.get(current);
+			if (source == null) {
+				return current;
+			}
+			current = source;
+		}
+		throw new SimulationException("clock loop involving " + clock.getName());
+	}
+
+	@NotNull
+	private ImmutableList<SimulationModel.ClockDomain> buildClockDomains() {
+		Map<SimulationModel.Slot, List<SimulationModel.Process>> processesByClock = new LinkedHashMap<>();
+		for (int i = 0; i < clockedProcesses.size(); i++) {
+			SimulationModel.Slot clock = resolveClock(clockedProcessClocks.get(i));
+			processesByClock.computeIfAbsent(clock, c -> new ArrayList<>()).add(clockedProcesses.get(i));
+		}
+		ImmutableList.Builder<SimulationModel.ClockDomain> builder = ImmutableList.builder();
+		for (Map.Entry<SimulationModel.Slot, List<SimulationModel.Process>> entry : processesByClock.entrySet()) {
+			Set<SimulationModel.Slot> registers = new LinkedHashSet<>();
+			for (SimulationModel.Process process : entry.getValue()) {
+				for (SimulationModel.Slot slot : process.getWrites()) {
+					if (!slot.isMatrix()) {
+						registers.add(slot);
+					}
+				}
+			}
+			builder.add(new SimulationModel.ClockDomain(entry.getKey(), ImmutableList.copyOf(entry.getValue()), ImmutableList.copyOf(registers)));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Resolves references by name while building the model and records the result in the {@link SimulationModel.Scope},
+	 * so the simulators never need to look at names.
+	 */
+	private static final class ScopeBuilder {
+
+		@NotNull
+		private final SimulationModel.Scope scope;
+
+		@NotNull
+		private final Map<String, SimulationModel.Slot> signalLikeSlots;
+
+		@NotNull
+		private final Map<String, SimulationModel.Slot> instancePortSlots;
+
+		ScopeBuilder(@NotNull SimulationModel.Scope scope, @NotNull Map<String, SimulationModel.Slot> signalLikeSlots,
+					 @NotNull Map<String, SimulationModel.Slot> instancePortSlots) {
+			this.scope = scope;
+			this.signalLikeSlots = signalLikeSlots;
+			this.instancePortSlots = instancePortSlots;
+		}
+
+		@Nullable
+		SimulationModel.Slot resolve(@NotNull ProcessedExpression expression) {
+			SimulationModel.Slot slot;
+			if (expression instanceof SignalLikeReference) {
+				slot = signalLikeSlots.get(((SignalLikeReference) expression).getDefinition().getName());
+			} else if (expression instanceof InstancePortReference) {
+				InstancePortReference reference = (InstancePortReference) expression;
+				slot = instancePortSlots.get(reference.getModuleInstance().getName() + '.' + reference.getPort().getName());
+			} else {
+				return null;
+			}
+			if (slot != null) {
+				scope.putSlot(expression, slot);
+			}
+			return slot;
+		}
+
+	}
+
+	public interface DefinitionResolver {
+
+		@NotNull
+		ModuleDefinition resolve(@NotNull ModuleInstance moduleInstance);
+
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
+import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+
+/**
+ * Operations on simulated values that are shared by the simulators and called from compiled simulation code, which is
+ * why they are public. Values are unsigned and kept in the lowest bits of a long; all bits above the width of a value
+ * are zero.
+ * <p>
+ * Indices and shift amounts are treated as unsigned, so out-of-range values never wrap around. Reading out of range
+ * yields zero, and writing out of range has no effect. Division by zero yields zero.
+ */
+public final class SimulationRuntime {
+
+	private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+	// prevent instantiation
+	private SimulationRuntime() {
+	}
+
+	/**
+	 * Converts a bit, vector or integer constant to the simulated representation. Negative or very large integers
+	 * (which can only be indices or shift amounts) become -1, i.e. the largest unsigned value.
+	 */
+	public static long toLong(@NotNull ConstantValue value) {
+		if (value instanceof ConstantValue.Bit) {
+			return ((ConstantValue.Bit) value).isSet() ? 1 : 0;
+		} else if (value instanceof ConstantValue.Vector) {
+			ConstantValue.Vector vector = (ConstantValue.Vector) value;
+			if (!vector.isSmall()) {
+				throw new SimulationException("vectors wider than " + ConstantValue.Vector.MAX_SMALL_SIZE + " bits are not supported");
+			}
+			return vector.getBitsAsLong();
+		} else if (value instanceof ConstantValue.Integer) {
+			BigInteger integer = ((ConstantValue.Integer) value).getValue();
+			return (integer.signum() < 0 || integer.compareTo(MAX_LONG) > 0) ? -1 : integer.longValue();
+		} else {
+			throw new SimulationException("cannot simulate constant " + value);
+		}
+	}
+
+	/**
+	 * Converts a matrix constant to one long per row.
+	 */
+	@NotNull
+	public static long[] toRows(@NotNull ConstantValue.Matrix matrix) {
+		int rowCount = matrix.getFirstSize();
+		int width = matrix.getSecondSize();
+		if (width > ConstantValue.Vector.MAX_SMALL_SIZE) {
+			throw new SimulationException("matrices with rows wider than " + ConstantValue.Vector.MAX_SMALL_SIZE + " bits are not supported");
+		}
+		long[] words = matrix.getBits().toLongArray();
+		long[] rows = new long[rowCount];
+		long mask = ConstantValue.Vector.getMask(width);
+		for (int row = 0; row < rowCount; row++) {
+			long bitIndex = (long) row * width;
+			int wordIndex = (int) (bitIndex >>> 6);
+			int bitOffset = (int) (bitIndex & 63);
+			if (wordIndex >= words.length) {
+				break;
+			}
+			long value = words[wordIndex] >>> bitOffset;
+			if (bitOffset + width > 64 && wordIndex + 1 < words.length) {
+				value |= words[wordIndex + 1] << (64 - bitOffset);
+			}
+			rows[row] = value & mask;
+		}
+		return rows;
+	}
+
+	/**
+	 * Converts rows back to a matrix constant, e.g. for showing the contents of a simulated memory.
+	 */
+	@NotNull
+	public static ConstantValue.Matrix toMatrix(@NotNull long[] rows, int width) {
+		BitSet bits = new BitSet();
+		for (int row = 0; row < rows.length; row++) {
+			long value = rows[row];
+			while (value != 0) {
+				int bit = Long.numberOfTrailingZeros(value);
+				bits.set(row * width + bit);
+				value &= value - 1;
+			}
+		}
+		return new ConstantValue.Matrix(rows.length, width, bits);
+	}
+
+	/**
+	 * Returns the number of bits used to simulate a value of the specified type. Integers (which can only be indices
+	 * or shift amounts after constant folding) use all 64 bits.
+	 */
+	public static int getWidth(@NotNull ProcessedDataType dataType) {
+		if (dataType instanceof ProcessedDataType.Bit || dataType instanceof ProcessedDataType.Clock) {
+			return 1;
+		} else if (dataType instanceof ProcessedDataType.Vector) {
+			return ((ProcessedDataType.Vector) dataType).getSize();
+		} else if (dataType instanceof ProcessedDataType.Integer) {
+			return 64;
+		} else {
+			throw new SimulationException("cannot simulate values of type " + dataType);
+		}
+	}
+
+	public static long divide(long dividend, long divisor) {
+		return (divisor == 0 ? 0 : Long.divideUnsigned(dividend, divisor));
+	}
+
+	public static long remainder(long dividend, long divisor) {
+		return (divisor == 0 ? 0 : Long.remainderUnsigned(dividend, divisor));
+	}
+
+	public static long shiftLeft(long value, long amount, long mask) {
+		return (Long.compareUnsigned(amount, 64) >= 0 ? 0 : (value << amount) & mask);
+	}
+
+	public static long shiftRight(long value, long amount) {
+		return (Long.compareUnsigned(amount, 64) >= 0 ? 0 : value >>> amount);
+	}
+
+	public static long equal(long left, long right) {
+		return (left == right ? 1 : 0);
+	}
+
+	public static long notEqual(long left, long right) {
+		return (left != right ? 1 : 0);
+	}
+
+	public static long lessThan(long left, long right) {
+		return (Long.compareUnsigned(left, right) < 0 ? 1 : 0);
+	}
+
+	public static long lessThanOrEqual(long left, long right) {
+		return (Long.compareUnsigned(left, right) <= 0 ? 1 : 0);
+	}
+
+	public static long greaterThan(long left, long right) {
+		return (Long.compareUnsigned(left, right) > 0 ? 1 : 0);
+	}
+
+	public static long greaterThanOrEqual(long left, long right) {
+		return (Long.compareUnsigned(left, right) >= 0 ? 1 : 0);
+	}
+
+	public static long selectBit(long value, long index) {
+		return (Long.compareUnsigned(index, 64) >= 0 ? 0 : (value >>> index) & 1);
+	}
+
+	public static long selectRow(@NotNull long[] matrix, long index) {
+		return (Long.compareUnsigned(index, matrix.length) >= 0 ? 0 : matrix[(int) index]);
+	}
+
+	/**
+	 * Replaces the bits lowIndex .. (lowIndex + width - 1) of oldValue, which has the specified total width, with the
+	 * lowest bits of value.
+	 */
+	public static long insertBits(long oldValue, long value, long lowIndex, int width, int targetWidth) {
+		if (Long.compareUnsigned(lowIndex, targetWidth) >= 0) {
+			return oldValue;
+		}
+		long mask = (ConstantValue.Vector.getMask(width) << lowIndex) & ConstantValue.Vector.getMask(targetWidth);
+		return (oldValue & ~mask) | ((value << lowIndex) & mask);
+	}
+
+	public static void writeRow(@NotNull long[] matrix, long index, long value) {
+		if (Long.compareUnsigned(index, matrix.length) < 0) {
+			matrix[(int) index] = value;
+		}
+	}
+
+}
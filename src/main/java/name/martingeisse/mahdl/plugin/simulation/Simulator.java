@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import com.google.common.collect.ImmutableList;
+import name.martingeisse.mahdl.plugin.processor.definition.PortDirection;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for cycle-based simulators of a {@link SimulationModel}. The simulator holds the values of all slots
+ * and implements the cycle semantics; subclasses decide how the processes get evaluated.
+ * <p>
+ * A cycle is a rising edge of one or all clocks: first, all clocked processes of the affected clock domains are
+ * evaluated, reading the values before the edge and writing to separate "next" storage. Then the new register values
+ * are committed, and finally the combinational logic settles. Toplevel inputs can be changed between cycles; the
+ * combinational logic settles lazily when a value is read or the next cycle starts.
+ * <p>
+ * Simulators are not thread-safe.
+ */
+public abstract class Simulator {
+
+	@NotNull
+	protected final SimulationModel model;
+
+	/**
+	 * The current values of all scalar slots.
+	 */
+	@NotNull
+	protected final long[] values;
+
+	/**
+	 * The values of registers after the current clock edge. Clocked processes write here.
+	 */
+	@NotNull
+	protected final long[] nextValues;
+
+	/**
+	 * The current contents of all matrix slots.
+	 */
+	@NotNull
+	protected final long[][] matrices;
+
+	@NotNull
+	protected final MatrixWriteLog matrixWriteLog = new MatrixWriteLog();
+
+	@NotNull
+	private final List<CycleListener> cycleListeners = new ArrayList<>();
+
+	private boolean settled = false;
+	private long cycleCount = 0;
+	private long cycleNanos = 0;
+
+	protected Simulator(@NotNull SimulationModel model) {
+		this.model = model;
+		this.values = new long[model.getScalarSlots().size()];
+		this.nextValues = new long[values.length];
+		for (SimulationModel.Slot slot : model.getScalarSlots()) {
+			values[slot.getIndex()] = slot.getInitialValue();
+		}
+		this.matrices = new long[model.getMatrixSlots().size()][];
+		for (SimulationModel.Slot slot : model.getMatrixSlots()) {
+			long[] initialRows = slot.getInitialRows();
+			matrices[slot.getIndex()] = (initialRows == null ? new long[slot.getRowCount()] : initialRows.clone());
+		}
+	}
+
+	@NotNull
+	public final SimulationModel getModel() {
+		return model;
+	}
+
+	public final long getCycleCount() {
+		return cycleCount;
+	}
+
+	/**
+	 * Returns the wall-clock time spent simulating cycles so far, including the settling of combinational logic
+	 * after each cycle.
+	 */
+	public final long getCycleNanos() {
+		return cycleNanos;
+	}
+
+	/**
+	 * Returns the average number of simulated cycles per second of wall-clock time so far, or 0 if no cycle has been
+	 * simulated yet.
+	 */
+	public final double getCyclesPerSecond() {
+		return (cycleNanos == 0 ? 0.0 : cycleCount * 1e9 / cycleNanos);
+	}
+
+	/**
+	 * Sets the value of a toplevel input port. The value is truncated to the width of the port.
+	 */
+	public final void set(@NotNull String portName, long value) {
+		SimulationModel.Slot slot = model.getSlot(portName);
+		if (slot.getToplevelPortDirection() != PortDirection.IN || slot.isMatrix()) {
+			throw new IllegalArgumentException(portName + " is not a toplevel input port");
+		}
+		long maskedValue = value & slot.getMask();
+		if (values[slot.getIndex()] != maskedValue) {
+			values[slot.getIndex()] = maskedValue;
+			onInputChanged(slot);
+			settled = false;
+		}
+	}
+
+	/**
+	 * Returns the value of a bit, vector or clock by its hierarchical name, e.g. "cpu.alu.result".
+	 */
+	public final long get(@NotNull String name) {
+		SimulationModel.Slot slot = model.getSlot(name);
+		if (slot.isMatrix()) {
+			throw new IllegalArgumentException(name + " is a matrix");
+		}
+		settle();
+		return values[slot.getIndex()];
+	}
+
+	/**
+	 * Like {@link #get(String)}, but for a slot that has been looked up in advance, e.g. for sampling values every cycle.
+	 */
+	public final long get(@NotNull SimulationModel.Slot slot) {
+		if (slot.isMatrix()) {
+			throw new IllegalArgumentException(slot.getName() + " is a matrix");
+		}
+		settle();
+		return values[slot.getIndex()];
+	}
+
+	/**
+	 * Returns a row of a matrix by its hierarchical name, e.g. "cpu.registers".
+	 */
+	public final long getRow(@NotNull String name, int row) {
+		SimulationModel.Slot slot = model.getSlot(name);
+		if (!slot.isMatrix()) {
+			throw new IllegalArgumentException(name + " is not a matrix");
+		}
+		settle();
+		return matrices[slot.getIndex()][row];
+	}
+
+	/**
+	 * Simulates a rising edge of all clocks.
+	 */
+	public final void cycle() {
+		cycle(model.getClockDomains());
+	}
+
+	/**
+	 * Simulates the specified number of rising edges of all clocks.
+	 */
+	public final void cycle(int count) {
+		for (int i = 0; i < count; i++) {
+			cycle(model.getClockDomains());
+		}
+	}
+
+	/**
+	 * Simulates a rising edge of a single clock, typically a toplevel clock input port.
+	 */
+	public final void cycle(@NotNull String clockName) {
+		SimulationModel.Slot clock = model.getSlot(clockName);
+		ImmutableList.Builder<SimulationModel.ClockDomain> builder = ImmutableList.builder();
+		for (SimulationModel.ClockDomain domain : model.getClockDomains()) {
+			if (domain.getClock() == clock) {
+				builder.add(domain);
+			}
+		}
+		cycle(builder.build());
+	}
+
+	private void cycle(@NotNull ImmutableList<SimulationModel.ClockDomain> domains) {
+		long startTime = System.nanoTime();
+		settle();
+		for (SimulationModel.ClockDomain domain : domains) {
+			for (SimulationModel.Slot register : domain.getRegisters()) {
+				nextValues[register.getIndex()] = values[register.getIndex()];
+			}
+		}
+		evaluateClocked(domains);
+		commit(domains);
+		cycleCount++;
+		settled = false;
+		settle();
+		cycleNanos += System.nanoTime() - startTime;
+		for (CycleListener listener : cycleListeners) {
+			listener.onCycle(this);
+		}
+	}
+
+	/**
+	 * Adds a listener that gets called after each cycle, when the combinational logic has settled. The time spent in
+	 * listeners is not included in {@link #getCycleNanos()}.
+	 */
+	public final void addCycleListener(@NotNull CycleListener listener) {
+		cycleListeners.add(listener);
+	}
+
+	public final void removeCycleListener(@NotNull CycleListener listener) {
+		cycleListeners.remove(listener);
+	}
+
+	/**
+	 * Copies the next values of the registers of the specified domains to the current values and performs the logged
+	 * matrix writes.
+	 */
+	protected void commit(@NotNull ImmutableList<SimulationModel.ClockDomain> domains) {
+		for (SimulationModel.ClockDomain domain : domains) {
+			for (SimulationModel.Slot register : domain.getRegisters()) {
+				values[register.getIndex()] = nextValues[register.getIndex()];
+			}
+		}
+		matrixWriteLog.commit(matrices);
+	}
+
+	/**
+	 * Lets the combinational logic settle if any value has changed since it last settled.
+	 */
+	public final void settle() {
+		if (!settled) {
+			evaluateCombinational();
+			settled = true;
+		}
+	}
+
+	/**
+	 * Called when a toplevel input has changed its value.
+	 */
+	protected void onInputChanged(@NotNull SimulationModel.Slot slot) {
+	}
+
+	/**
+	 * Evaluates the combinational processes until all values are stable.
+	 */
+	protected abstract void evaluateCombinational();
+
+	/**
+	 * Evaluates the clocked processes of the specified domains. Scalar register writes must go to {@link #nextValues},
+	 * matrix writes to the {@link #matrixWriteLog}.
+	 */
+	protected abstract void evaluateClocked(@NotNull ImmutableList<SimulationModel.ClockDomain> domains);
+
+	public interface CycleListener {
+
+		void onCycle(@NotNull Simulator simulator);
+
+	}
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation.trace;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and encoding helpers for the binary trace format.
+ * <p>
+ * A trace starts with a header: the magic bytes "MHTR", a format version byte, the number of signals, and for each
+ * signal its name (length-prefixed UTF-8) and width. It is followed by records until the end of the stream. Each
+ * record stores the number of cycles since the previous record, the number of changed signals, and for each changed
+ * signal the distance of its index from the previous changed signal's index, and its new value XORed with the old
+ * value. All values before the first record are zero.
+ * <p>
+ * All numbers are unsigned LEB128 varints, so small deltas (few toggling bits, consecutive cycles) take a single
+ * byte.
+ */
+final class TraceFormat {
+
+	static final byte[] MAGIC = {'M', 'H', 'T', 'R'};
+	static final int VERSION = 1;
+
+	/**
+	 * The maximum size of an encoded varint.
+	 */
+	static final int MAX_VARINT_SIZE = 10;
+
+	// prevent instantiation
+	private TraceFormat() {
+	}
+
+	static void putVarint(@NotNull ByteBuffer buffer, long value) {
+		while ((value & ~0x7fL) != 0) {
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation.trace;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Reads a binary trace written by {@link TraceWriter} record by record.
+ */
+public final class TraceReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	@NotNull
+	private final ReadableByteChannel channel;
+
+	@NotNull
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	@NotNull
+	private final ImmutableList<String> signalNames;
+
+	@NotNull
+	private final int[] widths;
+
+	@NotNull
+	private final long[] values;
+
+	@NotNull
+	private final BitSet changedSignals = new BitSet();
+
+	private long cycle = 0;
+	private boolean endOfChannel = false;
+
+	public TraceReader(@NotNull ReadableByteChannel channel) throws IOException {
+		this.channel = channel;
+		buffer.flip();
+		byte[] magic = new byte[TraceFormat.MAGIC.length];
+		for (int i = 0; i < magic.length; i++) {
+			magic[i] = readByte();
+		}
+		if (!Arrays.equals(magic, TraceFormat.MAGIC)) {
+			throw new IOException("not a trace file");
+		}
+		int version = readByte();
+		if (version != TraceFormat.VERSION) {
+			throw new IOException("unsupported trace format version: " + version);
+		}
+		int signalCount = readSize();
+		ImmutableList.Builder<String> namesBuilder = ImmutableList.builder();
+		this.widths = new int[signalCount];
+		for (int i = 0; i < signalCount; i++) {
+			byte[] name = new byte[readSize()];
+			for (int j = 0; j < name.length; j++) {
+				name[j] = readByte();
+			}
+			namesBuilder.add(new String(name, StandardCharsets.UTF_8));
+			widths[i] = readSize();
+		}
+		this.signalNames = namesBuilder.build();
+		this.values = new long[signalCount];
+	}
+
+	@NotNull
+	public ImmutableList<String> getSignalNames() {
+		return signalNames;
+	}
+
+	/**
+	 * Returns the widths of the signals (must not be modified).
+	 */
+	@NotNull
+	public int[] getWidths() {
+		return widths;
+	}
+
+	/**
+	 * Reads the next record. Returns false at the end of the trace.
+	 */
+	public boolean next() throws IOException {
+		if (!fill(1)) {
+			return false;
+		}
+		cycle += readVarint();
+		changedSignals.clear();
+		int changeCount = readSize();
+		int index = -1;
+		for (int i = 0; i < changeCount; i++) {
+			index += readSize() + 1;
+			if (index >= values.length) {
+				throw new IOException("invalid signal index in trace: " + index);
+			}
+			values[index] ^= readVarint();
+			changedSignals.set(index);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the cycle of the current record.
+	 */
+	public long getCycle() {
+		return cycle;
+	}
+
+	/**
+	 * Returns the values of all signals as of the current record (must not be modified).
+	 */
+	@NotNull
+	public long[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Returns the indices of the signals that changed in the current record (must not be modified).
+	 */
+	@NotNull
+	public BitSet getChangedSignals() {
+		return changedSignals;
+	}
+
+	/**
+	 * Makes sure that at least the specified number of bytes are buffered. Returns false if the channel ends before.
+	 */
+	private boolean fill(int size) throws IOException {
+		if (buffer.remaining() >= size) {
+			return true;
+		}
+		buffer.compact();
+		while (buffer.position() < size && !endOfChannel) {
+			if (channel.read(buffer) < 0) {
+				endOfChannel = true;
+			}
+		}
+		buffer.flip();
+		return buffer.remaining() >= size;
+	}
+
+	private byte readByte() throws IOException {
+		if (!fill(1)) {
+			throw new EOFException("unexpected end of trace");
+		}
+		return buffer.get();
+	}
+
+	private long readVarint() throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = readByte();
+			result |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return result;
+			}
+		}
+		throw new IOException("invalid varint in trace");
+	}
+
+	private int readSize() throws IOException {
+		long value = readVarint();
+		if (value < 0 || value > Integer.MAX_VALUE) {
+			throw new IOException("invalid size in trace: " + value);
+		}
+		return (int) value;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation.trace;
+
+import com.google.common.collect.ImmutableList;
+import name.martingeisse.mahdl.plugin.simulation.SimulationModel;
+import name.martingeisse.mahdl.plugin.simulation.Simulator;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes value changes of selected signals to a binary trace (see {@link TraceFormat}), using a direct buffer that is
+ * written to an NIO channel when full. Only changes are recorded, and cycles without changes take no space at all.
+ * <p>
+ * Use {@link #attach(Simulator, List, Path)} to record a simulation, and {@link VcdConverter} to view the result in a
+ * waveform viewer.
+ */
+public final class TraceWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	@NotNull
+	private final WritableByteChannel channel;
+
+	@NotNull
+	private final ByteBuffer buffer;
+
+	@NotNull
+	private final long[] previousValues;
+
+	private final int maxRecordSize;
+	private long previousCycle = 0;
+	private long recordCount = 0;
+	private Simulator attachedSimulator;
+	private Simulator.CycleListener cycleListener;
+
+	public TraceWriter(@NotNull WritableByteChannel channel, @NotNull List<String> signalNames, @NotNull int[] widths) throws IOException {
+		if (signalNames.size() != widths.length) {
+			throw new IllegalArgumentException("got " + signalNames.size() + " signal names but " + widths.length + " widths");
+		}
+		this.channel = channel;
+		this.previousValues = new long[widths.length];
+		this.maxRecordSize = (2 + 2 * widths.length) * TraceFormat.MAX_VARINT_SIZE;
+		this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, maxRecordSize));
+		buffer.put(TraceFormat.MAGIC);
+		buffer.put((byte) TraceFormat.VERSION);
+		TraceFormat.putVarint(buffer, widths.length);
+		for (int i = 0; i < widths.length; i++) {
+			byte[] name = signalNames.get(i).getBytes(StandardCharsets.UTF_8);
+			ensureSpace(name.length + 2 * TraceFormat.MAX_VARINT_SIZE);
+			TraceFormat.putVarint(buffer, name.length);
+			buffer.put(name);
+			TraceFormat.putVarint(buffer, widths[i]);
+		}
+	}
+
+	/**
+	 * Creates a trace file for the specified signals of a simulator and records the current values as well as the
+	 * values after each cycle. The trace must be closed after the simulation, which also detaches it from the
+	 * simulator; write errors during the simulation are thrown as {@link UncheckedIOException}.
+	 */
+	@NotNull
+	public static TraceWriter attach(@NotNull Simulator simulator, @NotNull List<String> signalNames, @NotNull Path path) throws IOException {
+		ImmutableList.Builder<SimulationModel.Slot> slotsBuilder = ImmutableList.builder();
+		int[] widths = new int[signalNames.size()];
+		for (int i = 0; i < widths.length; i++) {
+			SimulationModel.Slot slot = simulator.getModel().getSlot(signalNames.get(i));
+			if (slot.isMatrix()) {
+				throw new IllegalArgumentException("cannot trace matrix " + slot.getName());
+			}
+			slotsBuilder.add(slot);
+			widths[i] = slot.getWidth();
+		}
+		ImmutableList<SimulationModel.Slot> slots = slotsBuilder.build();
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		TraceWriter writer;
+		try {
+			writer = new TraceWriter(channel, signalNames, widths);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		long[] values = new long[slots.size()];
+		Simulator.CycleListener listener = s -> {
+			for (int i = 0; i < values.length; i++) {
+				values[i] = s.get(slots.get(i));
+			}
+			try {
+				writer.record(s.getCycleCount(), values);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+		listener.onCycle(simulator);
+		simulator.addCycleListener(listener);
+		writer.attachedSimulator = simulator;
+		writer.cycleListener = listener;
+		return writer;
+	}
+
+	/**
+	 * Returns the number of records written so far, i.e. the number of cycles in which any traced value changed.
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Records the values of all traced signals in the specified cycle. Cycles must not decrease.
+	 */
+	public void record(long cycle, @NotNull long[] values) throws IOException {
+		if (cycle < previousCycle) {
+			throw new IllegalArgumentException("cycle " + cycle + " is before the previous cycle " + previousCycle);
+		}
+		int changeCount = 0;
+		for (int i = 0; i < previousValues.length; i++) {
+			if (values[i] != previousValues[i]) {
+				changeCount++;
+			}
+		}
+		if (changeCount == 0) {
+			return;
+		}
+		ensureSpace(maxRecordSize);
+		TraceFormat.putVarint(buffer, cycle - previousCycle);
+		TraceFormat.putVarint(buffer, changeCount);
+		int previousIndex = -1;
+		for (int i = 0; i < previousValues.length; i++) {
+			if (values[i] != previousValues[i]) {
+				TraceFormat.putVarint(buffer, i - previousIndex - 1);
+				TraceFormat.putVarint(buffer, values[i] ^ previousValues[i]);
+				previousValues[i] = values[i];
+				previousIndex = i;
+			}
+		}
+		previousCycle = cycle;
+		recordCount++;
+	}
+
+	private void ensureSpace(int size) throws IOException {
+		if (buffer.remaining() < size) {
+			flush();
+		}
+		if (buffer.remaining() < size) {
+			throw new IOException("trace record too large: " + size + " bytes");
+		}
+	}
+
+	/**
+	 * Writes all buffered data to the channel.
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (attachedSimulator != null) {
+			attachedSimulator.removeCycleListener(cycleListener);
+			attachedSimulator = null;
+		}
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
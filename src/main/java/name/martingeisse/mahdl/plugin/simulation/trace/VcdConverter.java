@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation.trace;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Converts a binary trace to a value change dump (VCD) for viewing in a waveform viewer such as GTKWave. Each cycle
+ * becomes one time unit. Hierarchical signal names like "cpu.alu.result" are turned into nested scopes.
+ */
+public final class VcdConverter {
+
+	// prevent instantiation
+	private VcdConverter() {
+	}
+
+	public static void convert(@NotNull Path tracePath, @NotNull Path vcdPath) throws IOException {
+		try (TraceReader reader = new TraceReader(FileChannel.open(tracePath));
+			 Writer writer = Files.newBufferedWriter(vcdPath, StandardCharsets.US_ASCII)) {
+			convert(reader, writer);
+		}
+	}
+
+	public static void convert(@NotNull TraceReader reader, @NotNull Writer writer) throws IOException {
+		List<String> names = reader.getSignalNames();
+		int[] widths = reader.getWidths();
+		String[] identifiers = new String[names.size()];
+		for (int i = 0; i < identifiers.length; i++) {
+			identifiers[i] = getIdentifier(i);
+		}
+
+		// header, with signals sorted by name so each scope is opened only once
+		writer.write("$timescale 1ns $end\n");
+		writer.write("$scope module top $end\n");
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < names.size(); i++) {
+			order.add(i);
+		}
+		order.sort(Comparator.comparing(names::get));
+		List<String> openScopes = new ArrayList<>();
+		for (int index : order) {
+			String[] segments = names.get(index).split("\\.");
+			List<String> scopes = Arrays.asList(segments).subList(0, segments.length - 1);
+			int common = 0;
+			while (common < openScopes.size() && common < scopes.size() && openScopes.get(common).equals(scopes.get(common))) {
+				common++;
+			}
+			while (openScopes.size() > common) {
+				writer.write("$upscope $end\n");
+				openScopes.remove(openScopes.size() - 1);
+			}
+			for (int i = common; i < scopes.size(); i++) {
+				writer.write("$scope module " + scopes.get(i) + " $end\n");
+				openScopes.add(scopes.get(i));
+			}
+			writer.write("$var wire " + widths[index] + " " + identifiers[index] + " " + segments[segments.length - 1] +
+				(widths[index] > 1 ? " [" + (widths[index] - 1) + ":0]" : "") + " $end\n");
+		}
+		for (int i = 0; i <= openScopes.size(); i++) {
+			writer.write("$upscope $end\n");
+		}
+		writer.write("$enddefinitions $end\n");
+
+		// initial values are zero, as in the trace
+		writer.write("#0\n$dumpvars\n");
+		for (int i = 0; i < names.size(); i++) {
+			writeValue(writer, widths[i], 0, identifiers[i]);
+		}
+		writer.write("$end\n");
+
+		// value changes
+		while (reader.next()) {
+			writer.write("#" + reader.getCycle() + "\n");
+			long[] values = reader.getValues();
+			for (int i = reader.getChangedSignals().nextSetBit(0); i >= 0; i = reader.getChangedSignals().nextSetBit(i + 1)) {
+				writeValue(writer, widths[i], values[i], identifiers[i]);
+			}
+		}
+	}
+
+	private static void writeValue(@NotNull Writer writer, int width, long value, @NotNull String identifier) throws IOException {
+		if (width == 1) {
+			writer.write((value & 1) != 0 ? '1' : '0');
+		} else {
+			writer.write('b');
+			writer.write(Long.toBinaryString(value));
+			writer.write(' ');
+		}
+		writer.write(identifier);
+		writer.write('\n');
+	}
+
+	/**
+	 * Returns a short identifier made of the printable ASCII characters, as used by VCD.
+	 */
+	@NotNull
+	static String getIdentifier(int index) {
+		StringBuilder builder = new StringBuilder();
+		do {
+			builder.append((char) ('!' + index % 94));
+			index /= 94;
+		} while (index > 0);
+		return builder.toString();
+	}
+
+}
@@ -7,6 +7,7 @@ package name.martingeisse.mahdl.plugin.util;
 import org.jetbrains.annotations.NotNull;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.BitSet;
 
 /**
@@ -23,39 +24,61 @@ public final class IntegerBitUtil {
 	 */
 	@NotNull
 	public static BitSet convertToBitSet(@NotNull BigInteger value, int size) {
-		final BitSet bits = new BitSet(size);
-		int bitIndex = 0;
-		while (bitIndex < size) {
-			if (value.testBit(bitIndex)) {
-				bits.set(bitIndex);
-			}
-			bitIndex++;
+		if (size <= 0) {
+			return new BitSet();
+		}
+
+		// toByteArray() is big-endian and only as long as needed, so reverse it and sign-extend it to the full size
+		byte[] bigEndianBytes = value.toByteArray();
+		byte[] littleEndianBytes = new byte[(size + 7) / 8];
+		int copiedLength = Math.min(bigEndianBytes.length, littleEndianBytes.length);
+		for (int i = 0; i < copiedLength; i++) {
+			littleEndianBytes[i] = bigEndianBytes[bigEndianBytes.length - 1 - i];
+		}
+		if (value.signum() < 0) {
+			Arrays.fill(littleEndianBytes, copiedLength, littleEndianBytes.length, (byte) -1);
 		}
-		return bits;
+
+		// remove the bits beyond the requested size
+		int usedBitsInLastByte = size % 8;
+		if (usedBitsInLastByte != 0) {
+			littleEndianBytes[littleEndianBytes.length - 1] &= (1 << usedBitsInLastByte) - 1;
+		}
+
+		return BitSet.valueOf(littleEndianBytes);
 	}
 
+	/**
+	 * Interprets the (size) lowest bits from the specified BitSet as a two's complement number. Higher bits are ignored.
+	 */
 	@NotNull
 	public static BigInteger convertToSignedInteger(@NotNull BitSet bits, int size) {
-		int index = 0;
-		BigInteger significance = BigInteger.ONE;
-		BigInteger result = BigInteger.ZERO;
-		while (index < size - 1) {
-			if (bits.get(index)) {
-				result = result.add(significance);
-				index++;
-				significance = significance.shiftLeft(1);
-			}
+		if (size <= 0) {
+			return BigInteger.ZERO;
 		}
+		byte[] bigEndianBytes = toBigEndianBytes(bits.get(0, size), (size + 7) / 8);
 		if (bits.get(size - 1)) {
-			// two's complement: the sign bit has negated significance
-			result = result.subtract(significance);
+			// sign-extend the highest byte, so the BigInteger constructor sees a negative number
+			int usedBitsInFirstByte = size % 8;
+			if (usedBitsInFirstByte != 0) {
+				bigEndianBytes[0] |= -(1 << usedBitsInFirstByte);
+			}
 		}
-		return result;
+		return new BigInteger(bigEndianBytes);
 	}
 
 	@NotNull
 	public static BigInteger convertToUnsignedInteger(@NotNull BitSet bits) {
-		return convertToSignedInteger(bits, bits.length() + 1);
+		return new BigInteger(1, toBigEndianBytes(bits, (bits.length() + 7) / 8));
+	}
+
+	private static byte[] toBigEndianBytes(@NotNull BitSet bits, int length) {
+		byte[] littleEndianBytes = bits.toByteArray();
+		byte[] bigEndianBytes = new byte[length];
+		for (int i = 0; i < littleEndianBytes.length; i++) {
+			bigEndianBytes[length - 1 - i] = littleEndianBytes[i];
+		}
+		return bigEndianBytes;
 	}
 
 }
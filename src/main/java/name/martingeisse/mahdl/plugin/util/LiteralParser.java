@@ -4,21 +4,31 @@
  */
 package name.martingeisse.mahdl.plugin.util;
 
+import com.intellij.openapi.util.Key;
 import com.intellij.psi.impl.source.tree.LeafPsiElement;
 import name.martingeisse.mahdl.plugin.input.psi.*;
 import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.math.BigInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- *
+ * Parses literals into constant values. Vector literals whose value fits into 64 bits and integer literals with up to
+ * 18 digits are decoded directly into a long, without going through a string-based {@link BigInteger} conversion.
+ * <p>
+ * The result of parsing a literal (including parse errors) is cached with the leaf PSI element that contains the
+ * literal's text, so repeated annotator runs do not parse unchanged literals again.
  */
 public class LiteralParser {
 
-	private static final Pattern VECTOR_PATTERN = Pattern.compile("([0-9]+)([bodh])([0-9]+)");
+	private static final Key<CachedLiteral> CACHE_KEY = Key.create("MahdlParsedLiteral");
+
+	// the largest value that can be multiplied by 10 and have a decimal digit added without overflowing 64 unsigned bits
+	private static final long MAX_DECIMAL_ACCUMULATOR = Long.divideUnsigned(-10L, 10);
+
+	// any integer literal with this many digits or less fits into a long
+	private static final int MAX_SMALL_INTEGER_DIGITS = 18;
 
 	// prevent instantiation
 	private LiteralParser() {
@@ -29,40 +39,110 @@ public class LiteralParser {
 	}
 
 	public static ConstantValue parseLiteral(@NotNull Literal literal) throws ParseException {
-		try {
-			if (literal instanceof Literal_Vector) {
-				return parseVector(((Literal_Vector) literal).getValue().getText());
-			} else if (literal instanceof Literal_Integer) {
-				String text = ((Literal_Integer) literal).getValue().getText();
-				return new ConstantValue.Integer(new BigInteger(text));
-			} else if (literal instanceof Literal_Text) {
-				return parseText(((Literal_Text) literal).getValue());
-			} else {
-				throw new ParseException("unknown literal type");
+		LeafPsiElement valueElement;
+		if (literal instanceof Literal_Vector) {
+			valueElement = ((Literal_Vector) literal).getValue();
+		} else if (literal instanceof Literal_Integer) {
+			valueElement = ((Literal_Integer) literal).getValue();
+		} else if (literal instanceof Literal_Text) {
+			valueElement = ((Literal_Text) literal).getValue();
+		} else {
+			throw new ParseException("unknown literal type");
+		}
+		CachedLiteral cachedLiteral = valueElement.getUserData(CACHE_KEY);
+		if (cachedLiteral == null || !valueElement.textMatches(cachedLiteral.text)) {
+			String text = valueElement.getText();
+			try {
+				cachedLiteral = new CachedLiteral(text, parseLiteralText(literal, text), null);
+			} catch (Exception e) {
+				cachedLiteral = new CachedLiteral(text, null, e.getMessage());
 			}
-		} catch (ParseException e) {
-			throw e;
-		} catch (Exception e) {
-			throw new ParseException(e.getMessage());
+			valueElement.putUserData(CACHE_KEY, cachedLiteral);
+		}
+		if (cachedLiteral.value == null) {
+			throw new ParseException(cachedLiteral.errorMessage);
 		}
+		return cachedLiteral.value;
 	}
 
 	@NotNull
-	public static ConstantValue.Vector parseVector(@NotNull String literalText) throws ParseException {
-		Matcher matcher = VECTOR_PATTERN.matcher(literalText);
-		if (!matcher.matches()) {
+	private static ConstantValue parseLiteralText(@NotNull Literal literal, @NotNull String text) throws ParseException {
+		if (literal instanceof Literal_Vector) {
+			return parseVector(text);
+		} else if (literal instanceof Literal_Integer) {
+			return parseInteger(text);
+		} else {
+			return parseText(text);
+		}
+	}
+
+	@NotNull
+	public static ConstantValue.Vector parseVector(@NotNull CharSequence literalText) throws ParseException {
+		int length = literalText.length();
+
+		// parse the size
+		int position = 0;
+		int size = 0;
+		while (position < length && isDecimalDigit(literalText.charAt(position))) {
+			if (size > (Integer.MAX_VALUE - 9) / 10) {
+				throw new ParseException("vector size too large");
+			}
+			size = size * 10 + (literalText.charAt(position) - '0');
+			position++;
+		}
+		if (position == 0 || position == length) {
 			throw new ParseException("malformed vector");
 		}
-		int size = Integer.parseInt(matcher.group(1));
-		char radixCode = matcher.group(2).charAt(0);
-		String digits = matcher.group(3);
+
+		// parse the radix
+		char radixCode = literalText.charAt(position);
 		int radix = radixCode == 'b' ? 2 : radixCode == 'o' ? 8 : radixCode == 'd' ? 10 : radixCode == 'h' ? 16 : 0;
 		if (radix == 0) {
-			throw new ParseException("unknown radix '" + radixCode);
+			throw new ParseException("unknown radix '" + radixCode + "'");
+		}
+		position++;
+		if (position == length) {
+			throw new ParseException("malformed vector");
+		}
+
+		// parse the digits into a long as long as they fit, but keep validating them after that
+		int digitsStart = position;
+		int bitsPerDigit = radix == 2 ? 1 : radix == 8 ? 3 : 4;
+		long value = 0;
+		boolean fitsIntoLong = true;
+		while (position < length) {
+			int digit = getDigitValue(literalText.charAt(position), radix);
+			if (digit < 0) {
+				throw new ParseException("malformed vector");
+			}
+			if (fitsIntoLong) {
+				if (radix == 10) {
+					if (Long.compareUnsigned(value, MAX_DECIMAL_ACCUMULATOR) > 0) {
+						fitsIntoLong = false;
+					} else {
+						value = value * 10 + digit;
+					}
+				} else {
+					if ((value >>> (64 - bitsPerDigit)) != 0) {
+						fitsIntoLong = false;
+					} else {
+						value = (value << bitsPerDigit) | digit;
+					}
+				}
+			}
+			position++;
+		}
+		if (fitsIntoLong) {
+			if (64 - Long.numberOfLeadingZeros(value) > size) {
+				throw new ParseException("vector literal contains a value larger than its specified size");
+			}
+			return new ConstantValue.Vector(size, value);
 		}
-		final BigInteger integerValue = new BigInteger(digits, radix);
+
+		// slow path for values that don't fit into a long
+		BigInteger integerValue = new BigInteger(literalText.subSequence(digitsStart, length).toString(), radix);
 		if (integerValue.bitLength() > size) {
-			throw new ParseException("vector literal contains a value larger than its sepcified size");
+			throw new ParseException("vector literal contains a value larger than its specified size");
 		}
 		try {
 			return new ConstantValue.Vector(size, integerValue, false);
@@ -72,9 +152,48 @@ public class LiteralParser {
 	}
 
 	@NotNull
-	private static ConstantValue parseText(@NotNull LeafPsiElement textElement) throws ParseException {
-		String rawText = textElement.getText();
-		if (rawText.charAt(0) != '"' || rawText.charAt(rawText.length() - 1) != '"') {
+	public static ConstantValue.Integer parseInteger(@NotNull CharSequence literalText) throws ParseException {
+		int length = literalText.length();
+		if (length == 0) {
+			throw new ParseException("malformed integer");
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			char c = literalText.charAt(i);
+			if (!isDecimalDigit(c)) {
+				throw new ParseException("malformed integer");
+			}
+			value = value * 10 + (c - '0');
+		}
+		if (length <= MAX_SMALL_INTEGER_DIGITS) {
+			return new ConstantValue.Integer(BigInteger.valueOf(value));
+		} else {
+			return new ConstantValue.Integer(new BigInteger(literalText.toString()));
+		}
+	}
+
+	private static boolean isDecimalDigit(char c) {
+		return (c >= '0' && c <= '9');
+	}
+
+	// returns -1 for characters that are not a valid digit in the specified radix
+	private static int getDigitValue(char c, int radix) {
+		int value;
+		if (c >= '0' && c <= '9') {
+			value = c - '0';
+		} else if (c >= 'a' && c <= 'f') {
+			value = c - 'a' + 10;
+		} else if (c >= 'A' && c <= 'F') {
+			value = c - 'A' + 10;
+		} else {
+			return -1;
+		}
+		return (value < radix ? value : -1);
+	}
+
+	@NotNull
+	private static ConstantValue parseText(@NotNull String rawText) throws ParseException {
+		if (rawText.length() < 2 || rawText.charAt(0) != '"' || rawText.charAt(rawText.length() - 1) != '"') {
 			throw new ParseException("missing quotation marks");
 		}
 		StringBuilder builder = new StringBuilder();
@@ -102,4 +221,23 @@ public class LiteralParser {
 		}
 	}
 
+	private static final class CachedLiteral {
+
+		@NotNull
+		private final String text;
+
+		@Nullable
+		private final ConstantValue value;
+
+		@Nullable
+		private final String errorMessage;
+
+		CachedLiteral(@NotNull String text, @Nullable ConstantValue value, @Nullable String errorMessage) {
+			this.text = text;
+			this.value = value;
+			this.errorMessage = errorMessage;
+		}
+
+	}
+
 }
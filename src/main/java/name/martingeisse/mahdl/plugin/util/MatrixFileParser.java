@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses the contents of a MaHDL matrix file. Such a file consists of a head with "key: value" lines (currently
+ * "rows" and "columns"), an empty line, and a body with one hexadecimal number per row.
+ * <p>
+ * The body is parsed directly from the bytes of the file into the words of the resulting bit array, without creating
+ * any objects per row. The bit array uses the same layout as a {@link java.util.BitSet} created from it by
+ * {@link java.util.BitSet#valueOf(long[])}, i.e. the layout of a matrix constant: rows in ascending order, and the
+ * bits of each row with the least significant bit first.
+ */
+public final class MatrixFileParser {
+
+	// prevent instantiation
+	private MatrixFileParser() {
+	}
+
+	/**
+	 * Parses the specified buffer from its current position to its limit, expecting a matrix of the specified size.
+	 * Missing rows at the end of the body are filled with zeroes.
+	 */
+	@NotNull
+	public static long[] parse(@NotNull ByteBuffer buffer, int rows, int columns) throws FormatException {
+		long totalBits = (long) rows * columns;
+		if (totalBits > Integer.MAX_VALUE) {
+			throw new FormatException("matrix too large");
+		}
+		int position = buffer.position();
+		int limit = buffer.limit();
+		int lineNumber = 1;
+
+		// parse the head
+		boolean rowsOk = false, columnsOk = false;
+		while (true) {
+			if (position == limit) {
+				throw new FormatException("missing file body");
+			}
+			int lineEnd = findLineEnd(buffer, position, limit);
+			int contentEnd = stripCarriageReturn(buffer, position, lineEnd);
+			if (contentEnd == position) {
+				position = skipLineTerminator(lineEnd, limit);
+				lineNumber++;
+				break;
+			}
+			String line = decode(buffer, position, contentEnd);
+			int colonIndex = line.indexOf(':');
+			if (colonIndex == -1) {
+				throw new FormatException("invalid head property line: " + line);
+			}
+			String key = line.substring(0, colonIndex).trim();
+			String value = line.substring(colonIndex + 1).trim();
+			switch (key) {
+
+				case "rows":
+					if (expectNonNegativeInteger(key, value) != rows) {
+						throw new FormatException("mismatching number of rows");
+					}
+					rowsOk = true;
+					break;
+
+				case "columns":
+					if (expectNonNegativeInteger(key, value) != columns) {
+						throw new FormatException("mismatching number of columns");
+					}
+					columnsOk = true;
+					break;
+
+				default:
+					throw new FormatException("unknown property: " + key);
+
+			}
+			position = skipLineTerminator(lineEnd, limit);
+			lineNumber++;
+		}
+		if (!rowsOk) {
+			throw new FormatException("missing 'rows' property");
+		}
+		if (!columnsOk) {
+			throw new FormatException("missing 'columns' property");
+		}
+
+		// parse the body
+		long[] words = new long[(int) ((totalBits + 63) >> 6)];
+		int row = 0;
+		int firstEmptyBodyLine = -1;
+		while (position < limit) {
+			int lineEnd = findLineEnd(buffer, position, limit);
+
+			// trim the line
+			int contentStart = position;
+			while (contentStart < lineEnd && isWhitespace(buffer.get(contentStart))) {
+				contentStart++;
+			}
+			int contentEnd = lineEnd;
+			while (contentEnd > contentStart && isWhitespace(buffer.get(contentEnd - 1))) {
+				contentEnd--;
+			}
+
+			// trailing empty lines are allowed, but not empty lines in between rows
+			if (contentStart == contentEnd) {
+				if (firstEmptyBodyLine == -1) {
+					firstEmptyBodyLine = lineNumber;
+				}
+			} else {
+				if (firstEmptyBodyLine != -1) {
+					throw new FormatException("body contains empty line(s) starting at line " + firstEmptyBodyLine);
+				}
+				if (row == rows) {
+					throw new FormatException("too many rows at line " + lineNumber);
+				}
+
+				// Parse digits from least significant to most significant. Each digit is written to the words
+				// at its final bit position, spilling into the next word if it crosses a word boundary.
+				long rowBaseBitIndex = (long) row * columns;
+				int digitBitIndex = 0;
+				for (int i = contentEnd - 1; i >= contentStart; i--, digitBitIndex += 4) {
+					int digit = Character.digit(buffer.get(i), 16);
+					if (digit < 0) {
+						throw new FormatException("invalid value at line " + lineNumber);
+					}
+					if (digit == 0) {
+						continue;
+					}
+					if (digitBitIndex + 32 - Integer.numberOfLeadingZeros(digit) > columns) {
+						throw new FormatException("value too large at line " + lineNumber);
+					}
+					long bitIndex = rowBaseBitIndex + digitBitIndex;
+					int wordIndex = (int) (bitIndex >> 6);
+					int bitOffset = (int) (bitIndex & 63);
+					words[wordIndex] |= ((long) digit) << bitOffset;
+					if (bitOffset > 60 && (digit >>> (64 - bitOffset)) != 0) {
+						words[wordIndex + 1] |= digit >>> (64 - bitOffset);
+					}
+				}
+				row++;
+
+			}
+			position = skipLineTerminator(lineEnd, limit);
+			lineNumber++;
+		}
+		return words;
+
+	}
+
+	private static int findLineEnd(ByteBuffer buffer, int position, int limit) {
+		while (position < limit && buffer.get(position) != '\n') {
+			position++;
+		}
+		return position;
+	}
+
+	private static int stripCarriageReturn(ByteBuffer buffer, int lineStart, int lineEnd) {
+		return (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') ? lineEnd - 1 : lineEnd;
+	}
+
+	private static int skipLineTerminator(int lineEnd, int limit) {
+		return lineEnd < limit ? lineEnd + 1 : lineEnd;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	private static String decode(ByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int expectNonNegativeInteger(String key, String text) throws FormatException {
+		int value;
+		try {
+			value = Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			throw new FormatException("invalid value for property '" + key + "'");
+		}
+		if (value < 0) {
+			throw new FormatException("property '" + key + "' cannot be negative");
+		}
+		return value;
+	}
+
+	public static class FormatException extends Exception {
+
+		public FormatException(String message) {
+			super(message);
+		}
+
+	}
+
+}
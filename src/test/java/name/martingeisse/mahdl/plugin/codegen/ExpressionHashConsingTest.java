@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.codegen;
+
+import name.martingeisse.mahdl.plugin.processor.expression.*;
+import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class ExpressionHashConsingTest {
+
+	private static final ProcessedDataType.Vector VECTOR_8 = new ProcessedDataType.Vector(8);
+
+	private static ProcessedExpression signal(String name) {
+		return new SyntheticSignalLikeExpression(null, VECTOR_8, name);
+	}
+
+	private static ProcessedExpression constant(int value) {
+		return new ProcessedConstantValue(null, new ConstantValue.Vector(8, value));
+	}
+
+	private static ProcessedExpression binary(ProcessedExpression left, ProcessedExpression right, ProcessedBinaryOperator operator) throws Exception {
+		return new ProcessedBinaryOperation(null, left, right, operator);
+	}
+
+	@Test
+	public void testStructurallyEqualExpressions() throws Exception {
+		ExpressionHashConsing hashConsing = new ExpressionHashConsing();
+		ProcessedExpression first = binary(binary(signal("a"), constant(1), ProcessedBinaryOperator.PLUS), signal("b"), ProcessedBinaryOperator.AND);
+		ProcessedExpression second = binary(binary(signal("a"), constant(1), ProcessedBinaryOperator.PLUS), signal("b"), ProcessedBinaryOperator.AND);
+		Assert.assertEquals(hashConsing.getNumber(first), hashConsing.getNumber(second));
+		Assert.assertEquals(hashConsing.getNumber(first), hashConsing.getNumber(first));
+	}
+
+	@Test
+	public void testDifferentExpressions() throws Exception {
+		ExpressionHashConsing hashConsing = new ExpressionHashConsing();
+		ProcessedExpression sum = binary(signal("a"), constant(1), ProcessedBinaryOperator.PLUS);
+		int number = hashConsing.getNumber(sum);
+		Assert.assertNotEquals(number, hashConsing.getNumber(binary(signal("a"), constant(2), ProcessedBinaryOperator.PLUS)));
+		Assert.assertNotEquals(number, hashConsing.getNumber(binary(signal("b"), constant(1), ProcessedBinaryOperator.PLUS)));
+		Assert.assertNotEquals(number, hashConsing.getNumber(binary(signal("a"), constant(1), ProcessedBinaryOperator.MINUS)));
+		Assert.assertNotEquals(number, hashConsing.getNumber(binary(constant(1), signal("a"), ProcessedBinaryOperator.PLUS)));
+	}
+
+}
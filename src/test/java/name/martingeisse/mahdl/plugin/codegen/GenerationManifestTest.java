@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.codegen;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ *
+ */
+public class GenerationManifestTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Path folder = temporaryFolder.getRoot().toPath();
+		Files.write(folder.resolve("foo.v"), new byte[0]);
+		Files.write(folder.resolve("foo_rom.mem"), new byte[0]);
+
+		GenerationManifest manifest = GenerationManifest.load(folder);
+		Assert.assertNull(manifest.getPreviousEntry("foo"));
+		manifest.put(new GenerationManifest.Entry("foo", "abc", ImmutableList.of("foo.v", "foo_rom.mem"), ImmutableList.of("bar", "x.baz")));
+		manifest.put(new GenerationManifest.Entry("bar", "def", ImmutableList.of("bar.v"), ImmutableList.of()));
+		manifest.save();
+
+		GenerationManifest loaded = GenerationManifest.load(folder);
+		GenerationManifest.Entry entry = loaded.getPreviousEntry("foo");
+		Assert.assertNotNull(entry);
+		Assert.assertEquals(ImmutableList.of("foo.v", "foo_rom.mem"), entry.getOutputFiles());
+		Assert.assertEquals(ImmutableList.of("bar", "x.baz"), entry.getInstantiatedModuleNames());
+		Assert.assertTrue(loaded.isUpToDate("foo", "abc"));
+		Assert.assertFalse(loaded.isUpToDate("foo", "abd"));
+		Assert.assertFalse("output file missing", loaded.isUpToDate("bar", "def"));
+		Assert.assertFalse(loaded.isUpToDate("baz", "abc"));
+
+		// entries that are put again replace the loaded ones, all others are kept
+		loaded.put(new GenerationManifest.Entry("foo", "xyz", ImmutableList.of("foo.v"), ImmutableList.of()));
+		loaded.put(new GenerationManifest.Entry("baz", "ghi", ImmutableList.of("baz.v"), ImmutableList.of()));
+		loaded.save();
+		GenerationManifest merged = GenerationManifest.load(folder);
+		Assert.assertEquals("xyz", merged.getPreviousEntry("foo").getFingerprint());
+		Assert.assertEquals(ImmutableList.of("foo.v"), merged.getPreviousEntry("foo").getOutputFiles());
+		Assert.assertEquals("def", merged.getPreviousEntry("bar").getFingerprint());
+		Assert.assertEquals("ghi", merged.getPreviousEntry("baz").getFingerprint());
+	}
+
+	@Test
+	public void testUnreferencedMemoryFilesAreDeleted() throws Exception {
+		Path folder = temporaryFolder.getRoot().toPath();
+		for (String fileName : new String[] {"foo.v", "rom_1.mif", "rom_2.mif", "rom_3.bin", "rom_4.txt", "bar.mif"}) {
+			Files.write(folder.resolve(fileName), new byte[0]);
+		}
+		GenerationManifest manifest = GenerationManifest.load(folder);
+		manifest.put(new GenerationManifest.Entry("foo", "abc", ImmutableList.of("foo.v", "rom_1.mif"), ImmutableList.of()));
+		manifest.put(new GenerationManifest.Entry("bar", GenerationManifest.NO_FINGERPRINT, ImmutableList.of("rom_3.bin"), ImmutableList.of()));
+		manifest.save();
+		Assert.assertTrue(Files.exists(folder.resolve("foo.v")));
+		Assert.assertTrue(Files.exists(folder.resolve("rom_1.mif")));
+		Assert.assertFalse(Files.exists(folder.resolve("rom_2.mif")));
+		Assert.assertTrue(Files.exists(folder.resolve("rom_3.bin")));
+		Assert.assertTrue("not a memory file name", Files.exists(folder.resolve("rom_4.txt")));
+		Assert.assertTrue("not a memory file name", Files.exists(folder.resolve("bar.mif")));
+
+		// entries without a fingerprint keep their files, but are never up to date
+		Assert.assertFalse(GenerationManifest.load(folder).isUpToDate("bar", GenerationManifest.NO_FINGERPRINT));
+	}
+
+	@Test
+	public void testCorruptManifestIsEmpty() throws Exception {
+		Path folder = temporaryFolder.getRoot().toPath();
+		Files.write(folder.resolve(GenerationManifest.FILE_NAME), "something else\n".getBytes(StandardCharsets.UTF_8));
+		Assert.assertNull(GenerationManifest.load(folder).getPreviousEntry("foo"));
+	}
+
+}
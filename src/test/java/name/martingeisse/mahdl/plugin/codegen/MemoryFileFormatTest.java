@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.codegen;
+
+import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
+import name.martingeisse.mahdl.plugin.util.UserMessageException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+/**
+ *
+ */
+public class MemoryFileFormatTest {
+
+	// three rows of 10 bits each: 0x2a5, 0x001, 0x3ff
+	private static final ConstantValue.Matrix MATRIX = new ConstantValue.Matrix(3, 10,
+		BitSet.valueOf(new long[] {0x2a5L | (0x001L << 10) | (0x3ffL << 20)}));
+
+	private static byte[] write(MemoryFileFormat format) throws Exception {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		format.write(MATRIX, stream);
+		return stream.toByteArray();
+	}
+
+	@Test
+	public void testHex() throws Exception {
+		Assert.assertEquals("2a5\n001\n3ff\n", new String(write(MemoryFileFormat.HEX), StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testBinary() throws Exception {
+		Assert.assertEquals("1010100101\n0000000001\n1111111111\n", new String(write(MemoryFileFormat.BINARY), StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testRaw() throws Exception {
+		Assert.assertArrayEquals(new byte[] {0x02, (byte) 0xa5, 0x00, 0x01, 0x03, (byte) 0xff}, write(MemoryFileFormat.RAW));
+	}
+
+	@Test
+	public void testParse() {
+		Assert.assertEquals(MemoryFileFormat.HEX, MemoryFileFormat.parse("hex"));
+		Assert.assertEquals(MemoryFileFormat.BINARY, MemoryFileFormat.parse(" Binary "));
+		Assert.assertEquals(MemoryFileFormat.RAW, MemoryFileFormat.parse("RAW"));
+	}
+
+	@Test(expected = UserMessageException.class)
+	public void testParseUnknown() {
+		MemoryFileFormat.parse("octal");
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.intellij.lang.Language;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.impl.source.tree.LeafPsiElement;
+import com.intellij.psi.tree.IElementType;
+import name.martingeisse.mahdl.plugin.processor.definition.Named;
+import name.martingeisse.mahdl.plugin.processor.definition.Register;
+import name.martingeisse.mahdl.plugin.processor.definition.Signal;
+import name.martingeisse.mahdl.plugin.processor.definition.SignalLike;
+import name.martingeisse.mahdl.plugin.processor.expression.*;
+import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ */
+public class AssignmentValidatorTest {
+
+	private static final IElementType NAME = new IElementType("NAME", Language.ANY);
+
+	private final List<String> errors = new ArrayList<>();
+
+	private static PsiElement psi(String text) {
+		return new LeafPsiElement(NAME, text);
+	}
+
+	private static ProcessedExpression reference(SignalLike signalLike) {
+		return new SignalLikeReference(psi(signalLike.getName()), signalLike);
+	}
+
+	private static ProcessedExpression range(SignalLike signalLike, int from, int to) throws Exception {
+		ProcessedDataType.Vector type = new ProcessedDataType.Vector(from - to + 1);
+		return new ProcessedRangeSelection(psi(signalLike.getName()), type, reference(signalLike), from, to);
+	}
+
+	private static ProcessedExpression row(SignalLike signalLike, int index) throws Exception {
+		ProcessedExpression indexExpression = new ProcessedConstantValue(psi(Integer.toString(index)), new ConstantValue.Integer(BigInteger.valueOf(index)));
+		return new ProcessedIndexSelection.VectorFromMatrix(psi(signalLike.getName()), reference(signalLike), indexExpression);
+	}
+
+	private AssignmentValidator createValidator(Named... definitions) {
+		return new AssignmentValidator((errorSource, message) -> errors.add(message), ImmutableList.copyOf(definitions));
+	}
+
+	/**
+	 * Validates each destination as the only assignment of its own do-block, then checks for missing assignments.
+	 */
+	private void validateDoBlocks(AssignmentValidator validator, AssignmentValidator.TriggerKind triggerKind, ProcessedExpression... destinations) {
+		for (ProcessedExpression destination : destinations) {
+			validator.validateAssignmentTo(destination, triggerKind);
+			validator.finishSection();
+		}
+		validator.checkMissingAssignments();
+	}
+
+	@Test
+	public void testDisjointSlicesInDifferentDoBlocks() throws Exception {
+		Signal signal = new Signal(psi("s"), null, new ProcessedDataType.Vector(8), null);
+		validateDoBlocks(createValidator(signal), AssignmentValidator.TriggerKind.CONTINUOUS,
+			range(signal, 3, 0), range(signal, 7, 4));
+		Assert.assertEquals(ImmutableList.of(), errors);
+	}
+
+	@Test
+	public void testOverlappingSlices() throws Exception {
+		Signal signal = new Signal(psi("s"), null, new ProcessedDataType.Vector(8), null);
+		validateDoBlocks(createValidator(signal), AssignmentValidator.TriggerKind.CONTINUOUS,
+			range(signal, 5, 0), range(signal, 7, 4));
+		Assert.assertEquals(ImmutableList.of("'s[5:4]' has already been assigned to"), errors);
+	}
+
+	@Test
+	public void testPartlyUnassignedSignalIsReportedOnce() throws Exception {
+		Signal signal = new Signal(psi("s"), null, new ProcessedDataType.Vector(8), null);
+		validateDoBlocks(createValidator(signal), AssignmentValidator.TriggerKind.CONTINUOUS,
+			range(signal, 1, 0), range(signal, 5, 4));
+		Assert.assertEquals(ImmutableList.of("missing assignment for signal 's[3:2]'"), errors);
+	}
+
+	@Test
+	public void testNonConstantIndexAssignsWholeSignal() throws Exception {
+		Signal signal = new Signal(psi("s"), null, new ProcessedDataType.Vector(8), null);
+		Signal index = new Signal(psi("i"), null, new ProcessedDataType.Vector(3), null);
+		AssignmentValidator validator = createValidator(signal, index);
+		validator.considerAssignedTo(index, psi("i"));
+		validator.finishSection();
+		ProcessedExpression variableBit = new ProcessedIndexSelection.BitFromVector(psi("s"), reference(signal), reference(index));
+		ProcessedExpression constantBit = new ProcessedIndexSelection.BitFromVector(psi("s"), reference(signal),
+			new ProcessedConstantValue(psi("7"), new ConstantValue.Integer(BigInteger.valueOf(7))));
+		validateDoBlocks(validator, AssignmentValidator.TriggerKind.CONTINUOUS, variableBit, constantBit);
+		Assert.assertEquals(ImmutableList.of("'s[7]' has already been assigned to"), errors);
+	}
+
+	@Test
+	public void testMatrixRowWrites() throws Exception {
+		Register memory = new Register(psi("m"), null, new ProcessedDataType.Matrix(4, 8), null);
+		validateDoBlocks(createValidator(memory), AssignmentValidator.TriggerKind.CLOCKED,
+			row(memory, 0), row(memory, 1), row(memory, 3), row(memory, 1));
+		Assert.assertEquals(ImmutableList.of("'m[1]' has already been assigned to"), errors);
+	}
+
+	@Test
+	public void testMissingMatrixRows() throws Exception {
+		Signal matrix = new Signal(psi("m"), null, new ProcessedDataType.Matrix(4, 8), null);
+		validateDoBlocks(createValidator(matrix), AssignmentValidator.TriggerKind.CONTINUOUS,
+			row(matrix, 0), row(matrix, 3));
+		Assert.assertEquals(ImmutableList.of("missing assignment for signal 'm[2:1]'"), errors);
+	}
+
+}
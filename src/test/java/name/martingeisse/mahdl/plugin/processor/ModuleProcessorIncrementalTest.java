@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.processor;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import name.martingeisse.mahdl.plugin.MahdlSourceFile;
+import name.martingeisse.mahdl.plugin.input.psi.ImplementationItem;
+import name.martingeisse.mahdl.plugin.input.psi.Module;
+import name.martingeisse.mahdl.plugin.processor.definition.ModuleDefinition;
+import name.martingeisse.mahdl.plugin.processor.definition.ModuleInstance;
+
+import java.util.Set;
+
+/**
+ *
+ */
+public class ModuleProcessorIncrementalTest extends LightPlatformCodeInsightFixtureTestCase {
+
+	private static final String FOO = "module Foo;\n" +
+		"interface { in bit a; out bit b; }\n" +
+		"signal bit x;\n" +
+		"signal bit y;\n" +
+		"do (*) { x = a; }\n" +
+		"do (*) { y = x; }\n" +
+		"do (*) { b = y; }\n";
+
+	private static final String BAR = "module Bar;\n" +
+		"interface { in bit i; out bit o; }\n" +
+		"do (*) { o = i; }\n";
+
+	private static final String INSTANTIATING_FOO = "module Foo;\n" +
+		"interface { in bit a; out bit b; }\n" +
+		"Bar bar;\n" +
+		"do (*) { bar.i = a; b = bar.o; }\n";
+
+	private ModuleProcessor processor;
+
+	private PsiFile addFile(String fileName, String text) {
+		return myFixture.addFileToProject(fileName, text);
+	}
+
+	private static Module getModule(PsiFile file) {
+		return ((MahdlSourceFile) file).getModule();
+	}
+
+	private ModuleDefinition process(PsiFile file) {
+		ModuleProcessingSnapshot previousSnapshot = (processor == null ? null : processor.getSnapshot());
+		processor = new ModuleProcessor(getModule(file), (errorSource, message) -> {}, previousSnapshot);
+		return processor.process();
+	}
+
+	private void replace(PsiFile file, String oldText, String newText) {
+		WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+			PsiDocumentManager documentManager = PsiDocumentManager.getInstance(getProject());
+			Document document = documentManager.getDocument(file);
+			int offset = document.getText().indexOf(oldText);
+			assertTrue("text not found: " + oldText, offset >= 0);
+			document.replaceString(offset, offset + oldText.length(), newText);
+			documentManager.commitDocument(document);
+		});
+	}
+
+	private static PsiElement findItem(PsiFile file, String text) {
+		for (ImplementationItem item : getModule(file).getImplementationItems().getAll()) {
+			if (item.getText().equals(text)) {
+				return item;
+			}
+		}
+		throw new AssertionError("item not found: " + text);
+	}
+
+	public void testEditingOneItemReusesTheOthers() {
+		PsiFile file = addFile("Foo.mahdl", FOO);
+		process(file);
+		replace(file, "do (*) { b = y; }", "do (*) { b = ~y; }");
+		process(file);
+		Set<PsiElement> reusedItems = processor.getReusedItems();
+		assertFalse(reusedItems.contains(findItem(file, "do (*) { b = ~y; }")));
+		assertTrue(reusedItems.contains(findItem(file, "signal bit x;")));
+		assertTrue(reusedItems.contains(findItem(file, "signal bit y;")));
+		assertTrue(reusedItems.contains(findItem(file, "do (*) { x = a; }")));
+		assertTrue(reusedItems.contains(findItem(file, "do (*) { y = x; }")));
+		assertTrue(reusedItems.containsAll(getModule(file).getPortDefinitionGroups().getAll()));
+	}
+
+	public void testEditingNameInvalidatesDependents() {
+		PsiFile file = addFile("Foo.mahdl", FOO);
+		process(file);
+		replace(file, "signal bit x;", "signal bit z;");
+		process(file);
+		Set<PsiElement> reusedItems = processor.getReusedItems();
+		assertFalse(reusedItems.contains(findItem(file, "signal bit z;")));
+		assertFalse(reusedItems.contains(findItem(file, "do (*) { x = a; }")));
+		assertFalse(reusedItems.contains(findItem(file, "do (*) { y = x; }")));
+		assertTrue(reusedItems.contains(findItem(file, "signal bit y;")));
+		assertTrue(reusedItems.contains(findItem(file, "do (*) { b = y; }")));
+	}
+
+	public void testEditingTargetPortsInvalidatesInstance() {
+		PsiFile barFile = addFile("Bar.mahdl", BAR);
+		PsiFile fooFile = addFile("Foo.mahdl", INSTANTIATING_FOO);
+		process(fooFile);
+		replace(barFile, "out bit o;", "out vector[2] o;");
+		process(fooFile);
+		assertFalse(processor.getReusedItems().contains(findItem(fooFile, "Bar bar;")));
+	}
+
+	public void testReusedInstanceRefersToCurrentTargetModule() {
+		PsiFile barFile = addFile("Bar.mahdl", BAR);
+		PsiFile fooFile = addFile("Foo.mahdl", INSTANTIATING_FOO);
+		process(fooFile);
+		replace(barFile, "do (*) { o = i; }", "do (*) { o = ~i; }");
+		ModuleDefinition definition = process(fooFile);
+		ModuleInstance instance = (ModuleInstance) definition.getDefinitions().get("bar");
+		assertTrue(instance.getModuleElement().isValid());
+		assertSame(getModule(barFile), instance.getModuleElement());
+	}
+
+}
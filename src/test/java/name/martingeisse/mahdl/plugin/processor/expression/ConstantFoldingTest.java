@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.processor.expression;
+
+import name.martingeisse.mahdl.plugin.processor.ErrorHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+/**
+ *
+ */
+public class ConstantFoldingTest {
+
+	private static final ErrorHandler FAILING_ERROR_HANDLER = (errorSource, message) -> Assert.fail(message);
+
+	private static final ProcessedBinaryOperator[] SMALL_VECTOR_OPERATORS = {
+		ProcessedBinaryOperator.AND,
+		ProcessedBinaryOperator.OR,
+		ProcessedBinaryOperator.XOR,
+		ProcessedBinaryOperator.PLUS,
+		ProcessedBinaryOperator.MINUS,
+		ProcessedBinaryOperator.TIMES,
+		ProcessedBinaryOperator.DIVIDED_BY,
+		ProcessedBinaryOperator.REMAINDER,
+		ProcessedBinaryOperator.EQUAL,
+		ProcessedBinaryOperator.NOT_EQUAL,
+		ProcessedBinaryOperator.LESS_THAN,
+		ProcessedBinaryOperator.LESS_THAN_OR_EQUAL,
+		ProcessedBinaryOperator.GREATER_THAN,
+		ProcessedBinaryOperator.GREATER_THAN_OR_EQUAL,
+	};
+
+	private static long[] getInterestingValues(int size) {
+		long mask = ConstantValue.Vector.getMask(size);
+		long[] values = {
+			0, 1, 2, 3, 0x1234_5678_9abc_def0L, 0x5555_5555_5555_5555L,
+			mask >>> 1, 1L << (size - 1), (1L << (size - 1)) + 1, mask - 1, mask,
+		};
+		for (int i = 0; i < values.length; i++) {
+			values[i] &= mask;
+		}
+		return values;
+	}
+
+	private static ProcessedExpression constant(ConstantValue value) {
+		return new ProcessedConstantValue(null, value);
+	}
+
+	private static ConstantValue fold(ProcessedExpression expression) {
+		ProcessedExpression folded = expression.fold(FAILING_ERROR_HANDLER);
+		Assert.assertTrue(folded instanceof ProcessedConstantValue);
+		return ((ProcessedConstantValue) folded).getValue();
+	}
+
+	private static ConstantValue foldBinary(ConstantValue left, ConstantValue right, ProcessedBinaryOperator operator) throws Exception {
+		return fold(new ProcessedBinaryOperation(null, constant(left), constant(right), operator));
+	}
+
+	private static ConstantValue foldUnary(ConstantValue operand, ProcessedUnaryOperator operator) throws Exception {
+		return fold(new ProcessedUnaryOperation(null, constant(operand), operator));
+	}
+
+	/**
+	 * Evaluates the operator through the BigInteger operator and converts the result like the general folding code does.
+	 */
+	private static ConstantValue evaluateThroughBigInteger(int size, long left, long right, ProcessedBinaryOperator operator) throws Exception {
+		ConstantValue.Vector leftVector = new ConstantValue.Vector(size, left);
+		ConstantValue.Vector rightVector = new ConstantValue.Vector(size, right);
+		ConstantValue result = operator.evaluateIntegerVectorOperator(leftVector.convertToInteger(), rightVector.convertToInteger());
+		if (result instanceof ConstantValue.Bit) {
+			return result;
+		}
+		return new ConstantValue.Vector(size, result.convertToInteger(), true);
+	}
+
+	private static void checkFastPathAgainstBigInteger(int size) throws Exception {
+		long[] values = getInterestingValues(size);
+		for (ProcessedBinaryOperator operator : SMALL_VECTOR_OPERATORS) {
+			for (long left : values) {
+				for (long right : values) {
+					if ((operator == ProcessedBinaryOperator.DIVIDED_BY || operator == ProcessedBinaryOperator.REMAINDER) && right == 0) {
+						continue;
+					}
+					String message = size + " bits: " + Long.toHexString(left) + " " + operator + " " + Long.toHexString(right);
+					ConstantValue expected = evaluateThroughBigInteger(size, left, right, operator);
+					Assert.assertEquals(message, expected, operator.evaluateSmallVectorOperator(size, left, right));
+					Assert.assertEquals(message, expected, foldBinary(new ConstantValue.Vector(size, left), new ConstantValue.Vector(size, right), operator));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFastPathAgainstBigIntegerAt63Bits() throws Exception {
+		checkFastPathAgainstBigInteger(63);
+	}
+
+	@Test
+	public void testFastPathAgainstBigIntegerAt64Bits() throws Exception {
+		checkFastPathAgainstBigInteger(64);
+	}
+
+	@Test
+	public void testWideVectorsUseGeneralPath() throws Exception {
+		ConstantValue.Vector allOnes = new ConstantValue.Vector(65, BigInteger.ONE.shiftLeft(65).subtract(BigInteger.ONE), false);
+		ConstantValue.Vector one = new ConstantValue.Vector(65, BigInteger.ONE, false);
+		Assert.assertFalse(allOnes.isSmall());
+		Assert.assertEquals(new ConstantValue.Vector(65, BigInteger.ZERO, false), foldBinary(allOnes, one, ProcessedBinaryOperator.PLUS));
+		Assert.assertEquals(new ConstantValue.Vector(65, BigInteger.ONE.shiftLeft(64), false),
+			foldBinary(one, new ConstantValue.Integer(BigInteger.valueOf(64)), ProcessedBinaryOperator.SHIFT_LEFT));
+	}
+
+	@Test
+	public void testNotMasksToVectorSize() throws Exception {
+		for (int size : new int[] {1, 8, 63, 64}) {
+			long mask = ConstantValue.Vector.getMask(size);
+			for (long value : getInterestingValues(size)) {
+				ConstantValue result = foldUnary(new ConstantValue.Vector(size, value), ProcessedUnaryOperator.NOT);
+				Assert.assertEquals(new ConstantValue.Vector(size, ~value & mask), result);
+				Assert.assertEquals(new ConstantValue.Vector(size, BigInteger.valueOf(value).not(), true), result);
+			}
+		}
+	}
+
+	@Test
+	public void testMinusMasksToVectorSize() throws Exception {
+		for (int size : new int[] {1, 8, 63, 64}) {
+			for (long value : getInterestingValues(size)) {
+				ConstantValue result = foldUnary(new ConstantValue.Vector(size, value), ProcessedUnaryOperator.MINUS);
+				Assert.assertEquals(new ConstantValue.Vector(size, new ConstantValue.Vector(size, value).convertToInteger().negate(), true), result);
+			}
+		}
+		Assert.assertEquals(new ConstantValue.Vector(8, 0xffL), foldUnary(new ConstantValue.Vector(8, 1L), ProcessedUnaryOperator.MINUS));
+		Assert.assertEquals(new ConstantValue.Vector(64, 1L << 63), foldUnary(new ConstantValue.Vector(64, 1L << 63), ProcessedUnaryOperator.MINUS));
+	}
+
+	@Test
+	public void testShifts() throws Exception {
+		ConstantValue.Vector value = new ConstantValue.Vector(8, 0xa5L);
+		Assert.assertEquals(new ConstantValue.Vector(8, 0x4aL), foldBinary(value, new ConstantValue.Vector(3, 1L), ProcessedBinaryOperator.SHIFT_LEFT));
+		Assert.assertEquals(new ConstantValue.Vector(8, 0x52L), foldBinary(value, new ConstantValue.Vector(3, 1L), ProcessedBinaryOperator.SHIFT_RIGHT));
+		Assert.assertEquals(new ConstantValue.Vector(8, 0x80L), foldBinary(value, new ConstantValue.Integer(BigInteger.valueOf(7)), ProcessedBinaryOperator.SHIFT_LEFT));
+		Assert.assertEquals(new ConstantValue.Vector(8, 0x01L), foldBinary(value, new ConstantValue.Integer(BigInteger.valueOf(7)), ProcessedBinaryOperator.SHIFT_RIGHT));
+		for (int amount : new int[] {8, 9, 63, 64, 65, 1000}) {
+			ConstantValue.Integer amountValue = new ConstantValue.Integer(BigInteger.valueOf(amount));
+			Assert.assertEquals(new ConstantValue.Vector(8, 0L), foldBinary(value, amountValue, ProcessedBinaryOperator.SHIFT_LEFT));
+			Assert.assertEquals(new ConstantValue.Vector(8, 0L), foldBinary(value, amountValue, ProcessedBinaryOperator.SHIFT_RIGHT));
+		}
+	}
+
+	@Test
+	public void testShiftsAgainstBigIntegerAt64Bits() throws Exception {
+		for (long left : getInterestingValues(64)) {
+			for (int amount : new int[] {0, 1, 31, 62, 63, 64, 65, 127, 128}) {
+				ConstantValue.Vector leftVector = new ConstantValue.Vector(64, left);
+				ConstantValue.Integer amountValue = new ConstantValue.Integer(BigInteger.valueOf(amount));
+				BigInteger leftInteger = leftVector.convertToInteger();
+				String message = Long.toHexString(left) + " shifted by " + amount;
+				Assert.assertEquals(message, new ConstantValue.Vector(64, leftInteger.shiftLeft(amount), true),
+					foldBinary(leftVector, amountValue, ProcessedBinaryOperator.SHIFT_LEFT));
+				Assert.assertEquals(message, new ConstantValue.Vector(64, leftInteger.shiftRight(amount), true),
+					foldBinary(leftVector, amountValue, ProcessedBinaryOperator.SHIFT_RIGHT));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.processor.expression;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+
+/**
+ *
+ */
+public class ConstantValueTest {
+
+	@Test
+	public void testSmallVectorConstructorsAgree() {
+		ConstantValue.Vector fromLong = new ConstantValue.Vector(12, 0xabcL);
+		ConstantValue.Vector fromInteger = new ConstantValue.Vector(12, BigInteger.valueOf(0xabc), false);
+		ConstantValue.Vector fromBits = new ConstantValue.Vector(12, BitSet.valueOf(new long[] {0xabc}));
+		Assert.assertEquals(fromLong, fromInteger);
+		Assert.assertEquals(fromLong, fromBits);
+		Assert.assertEquals(fromLong.hashCode(), fromBits.hashCode());
+		Assert.assertEquals("abc", fromLong.getHexLiteral());
+		Assert.assertEquals(BigInteger.valueOf(0xabc), fromLong.convertToInteger());
+	}
+
+	@Test
+	public void testSmallVectorTruncation() {
+		ConstantValue.Vector vector = new ConstantValue.Vector(8, BigInteger.valueOf(-1), true);
+		Assert.assertEquals(0xffL, vector.getBitsAsLong());
+		Assert.assertEquals(new ConstantValue.Vector(8, 0xffL), vector);
+	}
+
+	@Test
+	public void testFullWidthVector() {
+		ConstantValue.Vector vector = new ConstantValue.Vector(64, -1L);
+		Assert.assertTrue(vector.isSmall());
+		Assert.assertEquals("ffffffffffffffff", vector.getHexLiteral());
+		Assert.assertEquals(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE), vector.convertToInteger());
+	}
+
+	@Test
+	public void testSelectRange() {
+		ConstantValue.Vector small = new ConstantValue.Vector(16, 0xbeefL);
+		Assert.assertEquals(new ConstantValue.Vector(8, 0xbeL), small.selectRange(15, 8));
+		Assert.assertEquals(new ConstantValue.Vector(4, 0xeL), small.selectRange(7, 4));
+		Assert.assertEquals(new ConstantValue.Bit(true), small.selectIndex(15));
+		Assert.assertEquals(new ConstantValue.Bit(false), small.selectIndex(4));
+
+		ConstantValue.Vector large = new ConstantValue.Vector(80, BigInteger.valueOf(0xbeef).shiftLeft(64), false);
+		Assert.assertFalse(large.isSmall());
+		Assert.assertEquals(new ConstantValue.Vector(8, 0xbeL), large.selectRange(79, 72));
+		Assert.assertEquals(new ConstantValue.Vector(16, 0xbeefL), large.selectRange(79, 64));
+	}
+
+	@Test
+	public void testConcat() {
+		ConstantValue.Vector upper = new ConstantValue.Vector(8, 0x12L);
+		ConstantValue.Vector lower = new ConstantValue.Vector(8, 0x34L);
+		Assert.assertEquals(new ConstantValue.Vector(16, 0x1234L), upper.concat(lower));
+
+		ConstantValue.Vector wideLower = new ConstantValue.Vector(64, -1L);
+		ConstantValue.Vector wide = upper.concat(wideLower);
+		Assert.assertEquals(72, wide.getSize());
+		Assert.assertEquals("12ffffffffffffffff", wide.getHexLiteral());
+	}
+
+	@Test
+	public void testMatrixContentHash() {
+		ConstantValue.Matrix matrix = new ConstantValue.Matrix(4, 8, BitSet.valueOf(new long[] {0x12345678L}));
+		ConstantValue.Matrix equalMatrix = new ConstantValue.Matrix(4, 8, BitSet.valueOf(new long[] {0x12345678L}));
+		Assert.assertEquals(matrix, equalMatrix);
+		Assert.assertEquals(matrix.getContentHash(), equalMatrix.getContentHash());
+		Assert.assertEquals(matrix.hashCode(), equalMatrix.hashCode());
+		Assert.assertNotEquals(matrix.getContentHash(), new ConstantValue.Matrix(4, 8, BitSet.valueOf(new long[] {0x12345679L})).getContentHash());
+		Assert.assertNotEquals(matrix.getContentHash(), new ConstantValue.Matrix(8, 4, BitSet.valueOf(new long[] {0x12345678L})).getContentHash());
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.signature;
+
+import com.google.common.collect.ImmutableList;
+import name.martingeisse.mahdl.plugin.processor.definition.PortDirection;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class ModuleSignatureScannerTest {
+
+	@Test
+	public void testScan() {
+		ModuleSignature signature = ModuleSignatureScanner.scan("module foo.Bar; // comment\n" +
+			"interface {\n" +
+			"	in clock clk;\n" +
+			"	in vector[ 8 ] a, /* comment */ b;\n" +
+			"	out matrix[16][WIDTH + 1] c;\n" +
+			"}\n" +
+			"signal bit x;\n");
+		Assert.assertEquals(new ModuleSignature("foo.Bar", false, ImmutableList.of(
+			new ModuleSignature.Port("clk", PortDirection.IN, "clock"),
+			new ModuleSignature.Port("a", PortDirection.IN, "vector[8]"),
+			new ModuleSignature.Port("b", PortDirection.IN, "vector[8]"),
+			new ModuleSignature.Port("c", PortDirection.OUT, "matrix[16][WIDTH+1]")
+		)), signature);
+	}
+
+	@Test
+	public void testNativeModuleWithInvalidPortGroup() {
+		ModuleSignature signature = ModuleSignatureScanner.scan("native module Foo; interface { in bit ; out bit x; }");
+		Assert.assertEquals(new ModuleSignature("Foo", true, ImmutableList.of(
+			new ModuleSignature.Port("x", PortDirection.OUT, "bit")
+		)), signature);
+	}
+
+	@Test
+	public void testMalformedHeader() {
+		Assert.assertNull(ModuleSignatureScanner.scan("module ; interface { in bit x; }"));
+		Assert.assertNull(ModuleSignatureScanner.scan("module Foo; interface { in bit x;"));
+	}
+
+	@Test
+	public void testScanModuleName() {
+		Assert.assertEquals("foo.Bar", ModuleSignatureScanner.scanModuleName("// comment\nmodule foo . Bar; interface {"));
+		Assert.assertEquals("Foo", ModuleSignatureScanner.scanModuleName("native module Foo;"));
+		Assert.assertNull(ModuleSignatureScanner.scanModuleName("interface { }"));
+	}
+
+}
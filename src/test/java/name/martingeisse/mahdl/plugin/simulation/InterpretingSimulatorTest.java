@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import name.martingeisse.mahdl.plugin.processor.definition.ModuleDefinition;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class InterpretingSimulatorTest {
+
+	@Test
+	public void testSameBehaviorAsCompiledSimulator() throws Exception {
+		for (ModuleDefinition design : TestDesigns.simulatableDesigns()) {
+			SimulationModel model = TestDesigns.buildModel(design);
+			TestDesigns.assertSameBehavior(new CompiledSimulator(model), new InterpretingSimulator(model), 200);
+		}
+	}
+
+	@Test
+	public void testUnchangedInputsDoNotReevaluateProcesses() throws Exception {
+		SimulationModel model = TestDesigns.buildModel(TestDesigns.partialDrivers());
+		InterpretingSimulator simulator = new InterpretingSimulator(model);
+		simulator.set("lowInput", 3);
+		simulator.settle();
+		long evaluationCount = simulator.getProcessEvaluationCount();
+		simulator.cycle(10);
+		Assert.assertEquals(evaluationCount, simulator.getProcessEvaluationCount());
+		simulator.set("highInput", 1);
+		simulator.settle();
+		Assert.assertEquals(evaluationCount + 2, simulator.getProcessEvaluationCount());
+		Assert.assertEquals(0x14, simulator.get("result"));
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import name.martingeisse.mahdl.plugin.processor.definition.ModuleDefinition;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ *
+ */
+public class ParallelSimulatorTest {
+
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void testIndependentRegionsArePartitioned() throws Exception {
+		SimulationModel model = TestDesigns.buildModel(TestDesigns.independentCounters());
+		Assert.assertArrayEquals(new int[] {2, 2}, new ParallelSimulator(model, pool).getPartitionCounts());
+	}
+
+	@Test
+	public void testPartitionCountIsLimitedByParallelism() throws Exception {
+		SimulationModel model = TestDesigns.buildModel(TestDesigns.independentCounters());
+		ForkJoinPool singleThreadPool = new ForkJoinPool(1);
+		try {
+			Assert.assertArrayEquals(new int[] {1, 1}, new ParallelSimulator(model, singleThreadPool).getPartitionCounts());
+		} finally {
+			singleThreadPool.shutdown();
+		}
+	}
+
+	@Test
+	public void testConnectedProcessesShareAPartition() throws Exception {
+		// both drivers write the signal the third process reads
+		SimulationModel model = TestDesigns.buildModel(TestDesigns.partialDrivers());
+		Assert.assertArrayEquals(new int[] {1, 0}, new ParallelSimulator(model, pool).getPartitionCounts());
+	}
+
+	@Test
+	public void testSameBehaviorAsCompiledSimulator() throws Exception {
+		for (ModuleDefinition design : TestDesigns.simulatableDesigns()) {
+			SimulationModel model = TestDesigns.buildModel(design);
+			TestDesigns.assertSameBehavior(new CompiledSimulator(model), new ParallelSimulator(model, pool), 200);
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class SimulationEngineTest {
+
+	private static Simulator simulate(SimulationModel model) {
+		return new CompiledSimulator(model);
+	}
+
+	private static void expectSimulationException(SimulationModelBuilderAction action, String expectedMessagePart) throws Exception {
+		try {
+			action.run();
+		} catch (SimulationException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains(expectedMessagePart));
+			return;
+		}
+		Assert.fail("expected a SimulationException containing '" + expectedMessagePart + "'");
+	}
+
+	@Test
+	public void testCounter() throws Exception {
+		Simulator simulator = simulate(TestDesigns.buildModel(TestDesigns.counter()));
+		Assert.assertEquals(0, simulator.get("value"));
+		simulator.cycle();
+		Assert.assertEquals(1, simulator.get("value"));
+		simulator.cycle(299);
+		Assert.assertEquals(300 & 0xff, simulator.get("value"));
+		Assert.assertEquals(300 & 0xff, simulator.get("count"));
+		Assert.assertEquals(300, simulator.getCycleCount());
+	}
+
+	@Test
+	public void testMemoryRowWrites() throws Exception {
+		Simulator simulator = simulate(TestDesigns.buildModel(TestDesigns.memory()));
+		simulator.set("writeEnable", 1);
+		simulator.set("writeAddress", 2);
+		simulator.set("writeData", 0xab);
+		simulator.cycle();
+		simulator.set("writeAddress", 1);
+		simulator.set("writeData", 0xcd);
+		simulator.cycle();
+		simulator.set("writeEnable", 0);
+		simulator.set("writeAddress", 3);
+		simulator.set("writeData", 0xef);
+		simulator.cycle(5);
+		Assert.assertEquals(0, simulator.getRow("ram", 0));
+		Assert.assertEquals(0xcd, simulator.getRow("ram", 1));
+		Assert.assertEquals(0xab, simulator.getRow("ram", 2));
+		Assert.assertEquals(0, simulator.getRow("ram", 3));
+		long[] expectedRam = {0, 0xcd, 0xab, 0};
+		long[] expectedRom = {0x11, 0x22, 0x33, 0x44};
+		for (int address = 0; address < 4; address++) {
+			simulator.set("readAddress", address);
+			Assert.assertEquals(expectedRam[address], simulator.get("readData"));
+			Assert.assertEquals(expectedRom[address], simulator.get("romData"));
+		}
+	}
+
+	@Test
+	public void testConcatenationAndRangeDestinations() throws Exception {
+		Simulator simulator = simulate(TestDesigns.buildModel(TestDesigns.destinations()));
+		simulator.set("input", 0x5a);
+		Assert.assertEquals(0x5, simulator.get("high"));
+		Assert.assertEquals(0xa, simulator.get("low"));
+		Assert.assertEquals(0xa5, simulator.get("swapped"));
+		Assert.assertEquals(0, simulator.get("stored"));
+		simulator.cycle();
+		Assert.assertEquals(0xa4, simulator.get("stored"));
+		simulator.set("input", 0x3c);
+		simulator.cycle();
+		Assert.assertEquals(0xc2, simulator.get("stored"));
+	}
+
+	@Test
+	public void testPartialRangeDrivers() throws Exception {
+		SimulationModel model = TestDesigns.buildModel(TestDesigns.partialDrivers());
+		Assert.assertEquals("PartialDrivers: do-block #1", model.getCombinationalProcesses().get(2).getName());
+		Simulator simulator = simulate(model);
+		simulator.set("lowInput", 0xf);
+		simulator.set("highInput", 0x1);
+		Assert.assertEquals(0x1f, simulator.get("combined"));
+		Assert.assertEquals(0x20, simulator.get("result"));
+		simulator.set("highInput", 0xf);
+		Assert.assertEquals(0x00, simulator.get("result"));
+	}
+
+	@Test
+	public void testClockAliasing() throws Exception {
+		SimulationModel model = TestDesigns.buildModel(TestDesigns.clockAlias());
+		Assert.assertEquals(1, model.getClockDomains().size());
+		Assert.assertEquals("clk", model.getClockDomains().get(0).getClock().getName());
+		Simulator simulator = simulate(model);
+		for (int i = 0; i < 5; i++) {
+			simulator.cycle("clk");
+		}
+		Assert.assertEquals(5, simulator.get("value"));
+	}
+
+	@Test
+	public void testConditionalClockAliasIsRejected() throws Exception {
+		expectSimulationException(() -> TestDesigns.buildModel(TestDesigns.conditionalClockAlias()), "unconditionally");
+	}
+
+	@Test
+	public void testCombinationalLoopIsRejected() throws Exception {
+		expectSimulationException(() -> TestDesigns.buildModel(TestDesigns.combinationalLoop()), "combinational loop");
+	}
+
+	private interface SimulationModelBuilderAction {
+		void run() throws Exception;
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+/**
+ *
+ */
+public class SimulationRuntimeTest {
+
+	@Test
+	public void testRows() {
+		long[] rows = {0x1234, 0xabcd, 0, 0xffff, 0x8001};
+		ConstantValue.Matrix matrix = SimulationRuntime.toMatrix(rows, 16);
+		Assert.assertEquals(5, matrix.getFirstSize());
+		Assert.assertEquals(16, matrix.getSecondSize());
+		Assert.assertArrayEquals(rows, SimulationRuntime.toRows(matrix));
+
+		// rows that cross word boundaries
+		long[] oddRows = new long[10];
+		for (int i = 0; i < oddRows.length; i++) {
+			oddRows[i] = (0x5a5a5a5L * (i + 1)) & ConstantValue.Vector.getMask(27);
+		}
+		Assert.assertArrayEquals(oddRows, SimulationRuntime.toRows(SimulationRuntime.toMatrix(oddRows, 27)));
+		Assert.assertArrayEquals(new long[3], SimulationRuntime.toRows(new ConstantValue.Matrix(3, 8, new BitSet())));
+	}
+
+	@Test
+	public void testInsertBits() {
+		Assert.assertEquals(0xa5f5, SimulationRuntime.insertBits(0xa505, 0xf, 4, 4, 16));
+		Assert.assertEquals(0xa504, SimulationRuntime.insertBits(0xa505, 0, 0, 1, 16));
+		Assert.assertEquals(0x005, SimulationRuntime.insertBits(0x505, 0xf0, 8, 8, 12));
+		Assert.assertEquals(0xa505, SimulationRuntime.insertBits(0xa505, 1, 16, 1, 16));
+		Assert.assertEquals(0xa505, SimulationRuntime.insertBits(0xa505, 1, -1, 1, 16));
+	}
+
+	@Test
+	public void testOutOfRange() {
+		Assert.assertEquals(0, SimulationRuntime.shiftLeft(1, 64, -1));
+		Assert.assertEquals(0x80, SimulationRuntime.shiftLeft(1, 7, 0xff));
+		Assert.assertEquals(0, SimulationRuntime.shiftLeft(1, 8, 0xff));
+		Assert.assertEquals(0, SimulationRuntime.shiftRight(-1, -1));
+		Assert.assertEquals(0, SimulationRuntime.selectBit(-1, 64));
+		Assert.assertEquals(0, SimulationRuntime.selectRow(new long[]{1, 2}, 2));
+		Assert.assertEquals(0, SimulationRuntime.divide(5, 0));
+		Assert.assertEquals(1, SimulationRuntime.lessThan(1, -1));
+		long[] matrix = {1, 2};
+		SimulationRuntime.writeRow(matrix, -1, 5);
+		Assert.assertArrayEquals(new long[]{1, 2}, matrix);
+	}
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.intellij.lang.Language;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.impl.source.tree.LeafPsiElement;
+import com.intellij.psi.tree.IElementType;
+import name.martingeisse.mahdl.plugin.input.psi.PortDirection_In;
+import name.martingeisse.mahdl.plugin.input.psi.PortDirection_Out;
+import name.martingeisse.mahdl.plugin.processor.definition.*;
+import name.martingeisse.mahdl.plugin.processor.expression.*;
+import name.martingeisse.mahdl.plugin.processor.statement.*;
+import name.martingeisse.mahdl.plugin.processor.type.ProcessedDataType;
+import org.junit.Assert;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Small designs built directly from processed definitions, without parsing source code. Only leaf PSI elements are
+ * used for names, so module instances are not supported.
+ */
+final class TestDesigns {
+
+	private static final IElementType NAME = new IElementType("NAME", Language.ANY);
+
+	private static final ProcessedDataType BIT = ProcessedDataType.Bit.INSTANCE;
+
+	private static final ProcessedDataType CLOCK = ProcessedDataType.Clock.INSTANCE;
+
+	// four rows of 8 bits each: 0x11, 0x22, 0x33, 0x44
+	static final ConstantValue.Matrix ROM = new ConstantValue.Matrix(4, 8, BitSet.valueOf(new long[] {0x44332211L}));
+
+	private TestDesigns() {
+	}
+
+	//
+	// designs
+	//
+
+	/**
+	 * An 8-bit counter register with a continuous output.
+	 */
+	static ModuleDefinition counter() throws Exception {
+		ModulePort clk = inputPort("clk", CLOCK);
+		Register count = new Register(psi("count"), null, vector(8), null);
+		ModulePort value = outputPort("value", vector(8));
+		return module("Counter", ImmutableList.of(clk, count, value),
+			new ProcessedDoBlock(reference(clk), assign(reference(count), binary(reference(count), ProcessedBinaryOperator.PLUS, constant(8, 1)))),
+			new ProcessedDoBlock(null, assign(reference(value), reference(count))));
+	}
+
+	/**
+	 * Two counters with different increments that do not share any signals, so they form separate regions for
+	 * parallel simulation.
+	 */
+	static ModuleDefinition independentCounters() throws Exception {
+		ModulePort clk = inputPort("clk", CLOCK);
+		Register countA = new Register(psi("countA"), null, vector(8), null);
+		Register countB = new Register(psi("countB"), null, vector(8), null);
+		ModulePort valueA = outputPort("valueA", vector(8));
+		ModulePort valueB = outputPort("valueB", vector(8));
+		return module("IndependentCounters", ImmutableList.of(clk, countA, countB, valueA, valueB),
+			new ProcessedDoBlock(reference(clk), assign(reference(countA), binary(reference(countA), ProcessedBinaryOperator.PLUS, constant(8, 1)))),
+			new ProcessedDoBlock(reference(clk), assign(reference(countB), binary(reference(countB), ProcessedBinaryOperator.PLUS, constant(8, 3)))),
+			new ProcessedDoBlock(null, assign(reference(valueA), reference(countA))),
+			new ProcessedDoBlock(null, assign(reference(valueB), new ProcessedUnaryOperation(psi("~"), reference(countB), ProcessedUnaryOperator.NOT))));
+	}
+
+	/**
+	 * A RAM with a synchronous, enabled write port and an asynchronous read port, plus a ROM read with the same address.
+	 */
+	static ModuleDefinition memory() throws Exception {
+		ModulePort clk = inputPort("clk", CLOCK);
+		ModulePort writeEnable = inputPort("writeEnable", BIT);
+		ModulePort writeAddress = inputPort("writeAddress", vector(2));
+		ModulePort writeData = inputPort("writeData", vector(8));
+		ModulePort readAddress = inputPort("readAddress", vector(2));
+		ModulePort readData = outputPort("readData", vector(8));
+		ModulePort romData = outputPort("romData", vector(8));
+		Register ram = new Register(psi("ram"), null, new ProcessedDataType.Matrix(4, 8), null);
+		ProcessedStatement write = new ProcessedIf(psi("if"), reference(writeEnable),
+			assign(new ProcessedIndexSelection.VectorFromMatrix(psi("ram"), reference(ram), reference(writeAddress)), reference(writeData)),
+			new Nop(psi("else")));
+		ProcessedStatement read = block(
+			assign(reference(readData), new ProcessedIndexSelection.VectorFromMatrix(psi("ram"), reference(ram), reference(readAddress))),
+			assign(reference(romData), new ProcessedIndexSelection.VectorFromMatrix(psi("ROM"), new ProcessedConstantValue(psi("ROM"), ROM), reference(readAddress))));
+		return module("Memory", ImmutableList.of(clk, writeEnable, writeAddress, writeData, readAddress, readData, romData, ram),
+			new ProcessedDoBlock(reference(clk), write),
+			new ProcessedDoBlock(null, read));
+	}
+
+	/**
+	 * Splits the input with a concatenation destination, swaps its halves and stores them in a register through range
+	 * destinations. The lowest bit of the register is additionally inverted through a bit destination.
+	 */
+	static ModuleDefinition destinations() throws Exception {
+		ModulePort clk = inputPort("clk", CLOCK);
+		ModulePort input = inputPort("input", vector(8));
+		Signal high = new Signal(psi("high"), null, vector(4), null);
+		Signal low = new Signal(psi("low"), null, vector(4), null);
+		ModulePort swapped = outputPort("swapped", vector(8));
+		Register stored = new Register(psi("stored"), null, vector(8), null);
+		ProcessedStatement split = block(
+			assign(binary(reference(high), ProcessedBinaryOperator.VECTOR_CONCAT, reference(low)), reference(input)),
+			assign(reference(swapped), binary(reference(low), ProcessedBinaryOperator.VECTOR_CONCAT, reference(high))));
+		ProcessedStatement store = block(
+			assign(range(reference(stored), 7, 4), reference(low)),
+			assign(range(reference(stored), 3, 1), range(reference(high), 3, 1)),
+			assign(new ProcessedIndexSelection.BitFromVector(psi("stored"), reference(stored), integer(0)),
+				new ProcessedUnaryOperation(psi("~"), new ProcessedIndexSelection.BitFromVector(psi("high"), reference(high), integer(0)), ProcessedUnaryOperator.NOT)));
+		return module("Destinations", ImmutableList.of(clk, input, high, low, swapped, stored),
+			new ProcessedDoBlock(null, split),
+			new ProcessedDoBlock(reference(clk), store));
+	}
+
+	/**
+	 * Two continuous processes that drive disjoint ranges of the same signal, and a reader of the whole signal that
+	 * comes first in source order.
+	 */
+	static ModuleDefinition partialDrivers() throws Exception {
+		ModulePort lowInput = inputPort("lowInput", vector(4));
+		ModulePort highInput = inputPort("highInput", vector(4));
+		Signal combined = new Signal(psi("combined"), null, vector(8), null);
+		ModulePort result = outputPort("result", vector(8));
+		return module("PartialDrivers", ImmutableList.of(lowInput, highInput, combined, result),
+			new ProcessedDoBlock(null, assign(reference(result), binary(reference(combined), ProcessedBinaryOperator.PLUS, constant(8, 1)))),
+			new ProcessedDoBlock(null, assign(range(reference(combined), 3, 0), reference(lowInput))),
+			new ProcessedDoBlock(null, assign(range(reference(combined), 7, 4), reference(highInput))));
+	}
+
+	/**
+	 * A counter that is clocked by a clock signal which is continuously assigned the clock input.
+	 */
+	static ModuleDefinition clockAlias() throws Exception {
+		ModulePort clk = inputPort("clk", CLOCK);
+		Signal innerClock = new Signal(psi("innerClock"), null, CLOCK, null);
+		Register count = new Register(psi("count"), null, vector(8), null);
+		ModulePort value = outputPort("value", vector(8));
+		return module("ClockAlias", ImmutableList.of(clk, innerClock, count, value),
+			new ProcessedDoBlock(null, assign(reference(innerClock), reference(clk))),
+			new ProcessedDoBlock(reference(innerClock), assign(reference(count), binary(reference(count), ProcessedBinaryOperator.PLUS, constant(8, 1)))),
+			new ProcessedDoBlock(null, assign(reference(value), reference(count))));
+	}
+
+	/**
+	 * Like {@link #clockAlias()}, but the clock is assigned conditionally.
+	 */
+	static ModuleDefinition conditionalClockAlias() throws Exception {
+		ModulePort clk = inputPort("clk", CLOCK);
+		ModulePort enable = inputPort("enable", BIT);
+		Signal innerClock = new Signal(psi("innerClock"), null, CLOCK, null);
+		Register count = new Register(psi("count"), null, vector(8), null);
+		return module("ConditionalClockAlias", ImmutableList.of(clk, enable, innerClock, count),
+			new ProcessedDoBlock(null, new ProcessedIf(psi("if"), reference(enable), assign(reference(innerClock), reference(clk)), new Nop(psi("else")))),
+			new ProcessedDoBlock(reference(innerClock), assign(reference(count), binary(reference(count), ProcessedBinaryOperator.PLUS, constant(8, 1)))));
+	}
+
+	/**
+	 * Two continuous processes that each assign the other's output.
+	 */
+	static ModuleDefinition combinationalLoop() throws Exception {
+		Signal a = new Signal(psi("a"), null, BIT, null);
+		Signal b = new Signal(psi("b"), null, BIT, null);
+		return module("Loop", ImmutableList.of(a, b),
+			new ProcessedDoBlock(null, assign(reference(a), reference(b))),
+			new ProcessedDoBlock(null, assign(reference(b), reference(a))));
+	}
+
+	static SimulationModel buildModel(ModuleDefinition definition) {
+		return new SimulationModelBuilder(moduleInstance -> {
+			throw new AssertionError("test designs do not contain module instances");
+		}).build(definition);
+	}
+
+	/**
+	 * Returns the designs that can be simulated, for comparing simulators.
+	 */
+	static List<ModuleDefinition> simulatableDesigns() throws Exception {
+		return ImmutableList.of(counter(), independentCounters(), memory(), destinations(), partialDrivers(), clockAlias());
+	}
+
+	/**
+	 * Drives both simulators with the same random inputs and checks that all slots have the same values after each
+	 * cycle.
+	 */
+	static void assertSameBehavior(Simulator expected, Simulator actual, int cycles) {
+		SimulationModel model = expected.getModel();
+		Random random = new Random(42);
+		for (int cycle = 0; cycle <= cycles; cycle++) {
+			if (cycle > 0) {
+				for (SimulationModel.Slot slot : model.getScalarSlots()) {
+					if (slot.getToplevelPortDirection() == PortDirection.IN && slot.getKind() != SimulationModel.SlotKind.CLOCK) {
+						long value = random.nextLong();
+						expected.set(slot.getName(), value);
+						actual.set(slot.getName(), value);
+					}
+				}
+				expected.cycle();
+				actual.cycle();
+			}
+			for (SimulationModel.Slot slot : model.getScalarSlots()) {
+				Assert.assertEquals(slot.getName() + " after cycle " + cycle, expected.get(slot), actual.get(slot));
+			}
+			for (SimulationModel.Slot slot : model.getMatrixSlots()) {
+				if (!model.getSlotsByName().containsKey(slot.getName())) {
+					// constant matrix
+					continue;
+				}
+				for (int row = 0; row < slot.getRowCount(); row++) {
+					Assert.assertEquals(slot.getName() + "[" + row + "] after cycle " + cycle,
+						expected.getRow(slot.getName(), row), actual.getRow(slot.getName(), row));
+				}
+			}
+		}
+	}
+
+	//
+	// helpers
+	//
+
+	private static PsiElement psi(String text) {
+		return new LeafPsiElement(NAME, text);
+	}
+
+	private static ModulePort inputPort(String name, ProcessedDataType type) {
+		return new ModulePort(psi(name), new PortDirection_In(new LeafPsiElement(NAME, "in")), null, type);
+	}
+
+	private static ModulePort outputPort(String name, ProcessedDataType type) {
+		return new ModulePort(psi(name), new PortDirection_Out(new LeafPsiElement(NAME, "out")), null, type);
+	}
+
+	private static ProcessedDataType vector(int size) {
+		return new ProcessedDataType.Vector(size);
+	}
+
+	private static ProcessedExpression reference(SignalLike signalLike) {
+		return new SignalLikeReference(psi(signalLike.getName()), signalLike);
+	}
+
+	private static ProcessedExpression constant(int size, long value) {
+		return new ProcessedConstantValue(psi(Long.toString(value)), new ConstantValue.Vector(size, value));
+	}
+
+	private static ProcessedExpression integer(int value) {
+		return new ProcessedConstantValue(psi(Integer.toString(value)), new ConstantValue.Integer(BigInteger.valueOf(value)));
+	}
+
+	private static ProcessedExpression binary(ProcessedExpression left, ProcessedBinaryOperator operator, ProcessedExpression right) throws Exception {
+		return new ProcessedBinaryOperation(psi(operator.toString()), left, right, operator);
+	}
+
+	private static ProcessedExpression range(ProcessedExpression container, int from, int to) throws Exception {
+		return new ProcessedRangeSelection(psi("range"), vector(from - to + 1), container, from, to);
+	}
+
+	private static ProcessedStatement assign(ProcessedExpression leftHandSide, ProcessedExpression rightHandSide) throws Exception {
+		return new ProcessedAssignment(psi("="), leftHandSide, rightHandSide);
+	}
+
+	private static ProcessedStatement block(ProcessedStatement... statements) {
+		return new ProcessedBlock(psi("block"), ImmutableList.copyOf(statements));
+	}
+
+	private static ModuleDefinition module(String name, ImmutableList<SignalLike> signalLikes, ProcessedDoBlock... doBlocks) {
+		ImmutableMap.Builder<String, Named> definitions = ImmutableMap.builder();
+		for (SignalLike signalLike : signalLikes) {
+			definitions.put(signalLike.getName(), signalLike);
+		}
+		return new ModuleDefinition(false, name, definitions.build(), ImmutableList.copyOf(doBlocks));
+	}
+
+}
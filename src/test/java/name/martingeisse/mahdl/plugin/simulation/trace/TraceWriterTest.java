@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.simulation.trace;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+
+/**
+ *
+ */
+public class TraceWriterTest {
+
+	private static byte[] writeTrace() throws Exception {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		try (TraceWriter writer = new TraceWriter(Channels.newChannel(stream), ImmutableList.of("clk", "cpu.pc", "cpu.alu.result"), new int[]{1, 16, 64})) {
+			writer.record(0, new long[]{1, 0x1000, 0});
+			writer.record(1, new long[]{1, 0x1000, 0});
+			writer.record(2, new long[]{0, 0x1004, 0});
+			writer.record(1000000, new long[]{0, 0x1004, -1});
+			Assert.assertEquals(3, writer.getRecordCount());
+		}
+		return stream.toByteArray();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		TraceReader reader = new TraceReader(Channels.newChannel(new ByteArrayInputStream(writeTrace())));
+		Assert.assertEquals(ImmutableList.of("clk", "cpu.pc", "cpu.alu.result"), reader.getSignalNames());
+		Assert.assertArrayEquals(new int[]{1, 16, 64}, reader.getWidths());
+
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals(0, reader.getCycle());
+		Assert.assertArrayEquals(new long[]{1, 0x1000, 0}, reader.getValues());
+
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals(2, reader.getCycle());
+		Assert.assertArrayEquals(new long[]{0, 0x1004, 0}, reader.getValues());
+		Assert.assertEquals(2, reader.getChangedSignals().cardinality());
+
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals(1000000, reader.getCycle());
+		Assert.assertArrayEquals(new long[]{0, 0x1004, -1}, reader.getValues());
+		Assert.assertEquals(1, reader.getChangedSignals().cardinality());
+
+		Assert.assertFalse(reader.next());
+	}
+
+	@Test
+	public void testVcd() throws Exception {
+		TraceReader reader = new TraceReader(Channels.newChannel(new ByteArrayInputStream(writeTrace())));
+		StringWriter writer = new StringWriter();
+		VcdConverter.convert(reader, writer);
+		String vcd = writer.toString();
+		Assert.assertTrue(vcd.contains("$scope module cpu $end\n$scope module alu $end\n$var wire 64 # result [63:0] $end\n$upscope $end\n$var wire 16 \" pc [15:0] $end\n"));
+		Assert.assertTrue(vcd.contains("#2\n0!\nb1000000000100 \"\n#1000000\n"));
+	}
+
+}
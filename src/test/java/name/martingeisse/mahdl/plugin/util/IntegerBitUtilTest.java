@@ -9,6 +9,7 @@ import org.junit.Test;
 
 import java.math.BigInteger;
 import java.util.BitSet;
+import java.util.Random;
 
 /**
  *
@@ -27,6 +28,43 @@ public class IntegerBitUtilTest {
 		Assert.assertEquals(buildBitSet(true, true, true, false, false, true, true), IntegerBitUtil.convertToBitSet(BigInteger.valueOf(-13), 7));
 	}
 
+	@Test
+	public void testConvertToSignedInteger() {
+		Assert.assertEquals(BigInteger.valueOf(-13), IntegerBitUtil.convertToSignedInteger(buildBitSet(true, true, false, false, true, true), 6));
+		Assert.assertEquals(BigInteger.valueOf(19), IntegerBitUtil.convertToSignedInteger(buildBitSet(false, true, false, false, true, true), 6));
+		Assert.assertEquals(BigInteger.valueOf(-1), IntegerBitUtil.convertToSignedInteger(buildBitSet(true), 1));
+		Assert.assertEquals(BigInteger.valueOf(3), IntegerBitUtil.convertToSignedInteger(buildBitSet(true, false, true, true), 3));
+	}
+
+	@Test
+	public void testConvertToUnsignedInteger() {
+		Assert.assertEquals(BigInteger.ZERO, IntegerBitUtil.convertToUnsignedInteger(buildBitSet()));
+		Assert.assertEquals(BigInteger.valueOf(51), IntegerBitUtil.convertToUnsignedInteger(buildBitSet(true, true, false, false, true, true)));
+		Assert.assertEquals(BigInteger.valueOf(255), IntegerBitUtil.convertToUnsignedInteger(buildBitSet(true, true, true, true, true, true, true, true)));
+	}
+
+	@Test
+	public void testWideRoundTrip() {
+		Random random = new Random(0);
+		for (int size = 8; size <= 4096; size *= 2) {
+			for (int sizeOffset = -1; sizeOffset <= 1; sizeOffset++) {
+				int actualSize = size + sizeOffset;
+				BigInteger value = new BigInteger(actualSize - 1, random);
+				BigInteger negativeValue = value.negate().subtract(BigInteger.ONE);
+				BitSet bits = IntegerBitUtil.convertToBitSet(value, actualSize);
+				BitSet negativeBits = IntegerBitUtil.convertToBitSet(negativeValue, actualSize);
+				for (int i = 0; i < actualSize + 10; i++) {
+					Assert.assertEquals(i < actualSize && value.testBit(i), bits.get(i));
+					Assert.assertEquals(i < actualSize && negativeValue.testBit(i), negativeBits.get(i));
+				}
+				Assert.assertEquals(value, IntegerBitUtil.convertToSignedInteger(bits, actualSize));
+				Assert.assertEquals(value, IntegerBitUtil.convertToUnsignedInteger(bits));
+				Assert.assertEquals(negativeValue, IntegerBitUtil.convertToSignedInteger(negativeBits, actualSize));
+				Assert.assertEquals(negativeValue.add(BigInteger.ONE.shiftLeft(actualSize)), IntegerBitUtil.convertToUnsignedInteger(negativeBits));
+			}
+		}
+	}
+
 	private BitSet buildBitSet(boolean... bits) {
 		BitSet bitSet = new BitSet();
 		for (int i = 0; i < bits.length; i++) {
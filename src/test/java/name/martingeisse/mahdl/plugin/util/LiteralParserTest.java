@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.util;
+
+import name.martingeisse.mahdl.plugin.processor.expression.ConstantValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+/**
+ *
+ */
+public class LiteralParserTest {
+
+	@Test
+	public void testSmallVectors() throws Exception {
+		Assert.assertEquals(new ConstantValue.Vector(8, 0xa5), LiteralParser.parseVector("8b10100101"));
+		Assert.assertEquals(new ConstantValue.Vector(9, 0777), LiteralParser.parseVector("9o777"));
+		Assert.assertEquals(new ConstantValue.Vector(10, 1000), LiteralParser.parseVector("10d1000"));
+		Assert.assertEquals(new ConstantValue.Vector(16, 0xbeef), LiteralParser.parseVector("16hBeEf"));
+		Assert.assertEquals(new ConstantValue.Vector(64, -1L), LiteralParser.parseVector("64hffffffffffffffff"));
+		Assert.assertEquals(new ConstantValue.Vector(64, -1L), LiteralParser.parseVector("64d18446744073709551615"));
+		Assert.assertEquals(new ConstantValue.Vector(4, 0), LiteralParser.parseVector("4h0000000000000000000000"));
+	}
+
+	@Test
+	public void testLargeVectors() throws Exception {
+		BigInteger value = BigInteger.ONE.shiftLeft(99).add(BigInteger.valueOf(12345));
+		ConstantValue.Vector expected = new ConstantValue.Vector(100, value, false);
+		Assert.assertEquals(expected, LiteralParser.parseVector("100h" + value.toString(16)));
+		Assert.assertEquals(expected, LiteralParser.parseVector("100d" + value.toString()));
+		Assert.assertEquals(expected, LiteralParser.parseVector("100b" + value.toString(2)));
+		Assert.assertEquals(new ConstantValue.Vector(100, 5), LiteralParser.parseVector("100d5"));
+	}
+
+	@Test
+	public void testVectorErrors() {
+		assertVectorError("8h100");
+		assertVectorError("64d18446744073709551616");
+		assertVectorError("8b102");
+		assertVectorError("8x10");
+		assertVectorError("8h");
+		assertVectorError("h10");
+		assertVectorError("99999999999h1");
+	}
+
+	@Test
+	public void testIntegers() throws Exception {
+		Assert.assertEquals(BigInteger.ZERO, LiteralParser.parseInteger("0").getValue());
+		Assert.assertEquals(BigInteger.valueOf(999999999999999999L), LiteralParser.parseInteger("999999999999999999").getValue());
+		Assert.assertEquals(new BigInteger("123456789012345678901234567890"), LiteralParser.parseInteger("123456789012345678901234567890").getValue());
+	}
+
+	private static void assertVectorError(String literalText) {
+		try {
+			LiteralParser.parseVector(literalText);
+			Assert.fail("expected a parse error for " + literalText);
+		} catch (LiteralParser.ParseException e) {
+			// expected
+		}
+	}
+
+}
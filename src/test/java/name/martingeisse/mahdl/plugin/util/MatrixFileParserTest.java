@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018 Martin Geisse
+ * This file is distributed under the terms of the MIT license.
+ */
+package name.martingeisse.mahdl.plugin.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+/**
+ *
+ */
+public class MatrixFileParserTest {
+
+	@Test
+	public void testParse() throws Exception {
+		BitSet bits = parse("rows: 3\ncolumns: 12\n\nabc\n  F0\r\n1\n\n", 3, 12);
+		Assert.assertEquals(buildRows(12, 0xabc, 0xf0, 0x1), bits);
+	}
+
+	@Test
+	public void testMissingRowsAreZero() throws Exception {
+		BitSet bits = parse("columns: 8\nrows: 4\n\n01\n", 4, 8);
+		Assert.assertEquals(buildRows(8, 1, 0, 0, 0), bits);
+	}
+
+	@Test
+	public void testRowsCrossingWordBoundaries() throws Exception {
+		StringBuilder builder = new StringBuilder("rows: 7\ncolumns: 23\n\n");
+		long[] values = {0x7fffff, 0x123456, 0x654321, 0x000001, 0x400000, 0x2aaaaa, 0x555555};
+		for (long value : values) {
+			builder.append(Long.toHexString(value)).append('\n');
+		}
+		Assert.assertEquals(buildRows(23, values), parse(builder.toString(), 7, 23));
+	}
+
+	@Test(expected = MatrixFileParser.FormatException.class)
+	public void testValueTooLarge() throws Exception {
+		parse("rows: 1\ncolumns: 6\n\n7f\n", 1, 6);
+	}
+
+	@Test(expected = MatrixFileParser.FormatException.class)
+	public void testTooManyRows() throws Exception {
+		parse("rows: 1\ncolumns: 8\n\n1\n2\n", 1, 8);
+	}
+
+	@Test(expected = MatrixFileParser.FormatException.class)
+	public void testEmptyLineInBody() throws Exception {
+		parse("rows: 2\ncolumns: 8\n\n1\n\n2\n", 2, 8);
+	}
+
+	@Test(expected = MatrixFileParser.FormatException.class)
+	public void testInvalidDigit() throws Exception {
+		parse("rows: 1\ncolumns: 8\n\n1g\n", 1, 8);
+	}
+
+	@Test(expected = MatrixFileParser.FormatException.class)
+	public void testMismatchingColumns() throws Exception {
+		parse("rows: 1\ncolumns: 8\n\n1\n", 1, 16);
+	}
+
+	private BitSet parse(String text, int rows, int columns) throws MatrixFileParser.FormatException {
+		return BitSet.valueOf(MatrixFileParser.parse(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), rows, columns));
+	}
+
+	private BitSet buildRows(int columns, long... rowValues) {
+		BitSet bitSet = new BitSet();
+		for (int row = 0; row < rowValues.length; row++) {
+			for (int column = 0; column < columns; column++) {
+				bitSet.set(row * columns + column, ((rowValues[row] >>> column) & 1) != 0);
+			}
+		}
+		return bitSet;
+	}
+
+}